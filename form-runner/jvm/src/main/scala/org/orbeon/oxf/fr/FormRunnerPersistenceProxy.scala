@@ -21,6 +21,7 @@ import javax.xml.transform.stream.StreamResult
 import org.orbeon.dom.QName
 import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.externalcontext.ExternalContext.{Request, Response}
+import org.orbeon.oxf.externalcontext.LocalResponse
 import org.orbeon.oxf.externalcontext.URLRewriter._
 import org.orbeon.oxf.fr.FormRunnerPersistence._
 import org.orbeon.oxf.fr.persistence.relational.index.Index
@@ -39,7 +40,7 @@ import org.orbeon.oxf.xforms.NodeInfoFactory.elementInfo
 import org.orbeon.oxf.xforms.action.XFormsAPI
 import org.orbeon.oxf.xforms.submission.RelevanceHandling
 import org.orbeon.oxf.xforms.submission.RelevanceHandling._
-import org.orbeon.oxf.xml.{ElementFilterXMLReceiver, TransformerUtils, XMLParsing}
+import org.orbeon.oxf.xml.{ElementFilterXMLReceiver, TransformerUtils, XMLContentInputStream, XMLParsing}
 import org.orbeon.scaxon.Implicits._
 import org.orbeon.scaxon.SimplePath._
 
@@ -188,10 +189,16 @@ private object FormRunnerPersistenceProxy {
       cxr.content.contentType foreach (response.setHeader(Headers.ContentType, _))
       proxyCapitalizeAndCombineHeaders(cxr.headers, request = false) foreach (response.setHeader _).tupled
 
-      (transform getOrElse (copyStream(_: InputStream, _: OutputStream)))(
-        cxr.content.inputStream,
-        response.getOutputStream
-      )
+      (transform, cxr.content.inputStream) match {
+        case (None, xmlContent: XMLContentInputStream) if ! xmlContent.isRead ⇒
+          // In-process XML content from `InternalHttpClient`: pass it on without serializing it
+          LocalResponse.writeXML(response, xmlContent)
+        case (_, inputStream) ⇒
+          (transform getOrElse (copyStream(_: InputStream, _: OutputStream)))(
+            inputStream,
+            response.getOutputStream
+          )
+      }
     }
 
   def proxyEstablishConnection(
@@ -306,7 +313,7 @@ private object FormRunnerPersistenceProxy {
     XFormsAPI.insert(into = documentElement, origin = filteredFormElements)
 
     response.setContentType("application/xml")
-    TransformerUtils.getXMLIdentityTransformer.transform(documentElement, new StreamResult(response.getOutputStream))
+    LocalResponse.writeXML(response, XMLContentInputStream(documentElement))
   }
 
   def proxyReindex(
@@ -322,7 +329,8 @@ private object FormRunnerPersistenceProxy {
     Backend.reindexingProviders(
       dataProvidersWithIndexSupport, p ⇒ {
         val (baseURI, headers) = getPersistenceURLHeadersFromProvider(p)
-        val serviceURI = baseURI + "/reindex"
+        // Pass parameters such as `fresh` along to each provider
+        val serviceURI = NetUtils.appendQueryString(baseURI + "/reindex", NetUtils.encodeQueryString(request.getParameterMap))
         proxyRequest(request, serviceURI, headers, response, None)
       }
     )
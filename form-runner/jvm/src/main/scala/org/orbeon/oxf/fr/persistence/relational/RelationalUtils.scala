@@ -37,7 +37,10 @@ object RelationalUtils extends Logging {
     withConnection(getDataSourceNameFromHeaders)(thunk)
 
   def withConnection[T](datasourceName: String)(thunk: Connection ⇒ T): T =
-    useAndClose(getConnection(getDataSource(datasourceName))) { connection ⇒
+    withConnection(getDataSource(datasourceName))(thunk)
+
+  def withConnection[T](dataSource: DataSource)(thunk: Connection ⇒ T): T =
+    useAndClose(getConnection(dataSource)) { connection ⇒
       try {
         val result = withDebug("executing block with connection")(thunk(connection))
         debug("about to commit")
@@ -69,11 +72,11 @@ object RelationalUtils extends Logging {
     valid.option(readInt)
   }
 
-  private def getDataSourceNameFromHeaders =
+  def getDataSourceNameFromHeaders =
     NetUtils.getExternalContext.getRequest.getFirstHeader("orbeon-datasource") getOrElse
       (throw new OXFException("Missing `orbeon-datasource` header"))
 
-  private def getDataSource(name: String) =
+  def getDataSource(name: String) =
     withDebug(s"getting datasource `$name`") {
       val jdbcContext: Context = InitialContext.doLookup("java:comp/env/jdbc")
       jdbcContext.lookup(name).asInstanceOf[DataSource]
@@ -16,7 +16,6 @@ package org.orbeon.oxf.fr.persistence.relational.crud
 import java.io.{ByteArrayOutputStream, InputStream, Writer}
 import java.sql.{Array ⇒ _, _}
 import javax.xml.transform.OutputKeys
-import javax.xml.transform.sax.{SAXResult, SAXSource}
 import javax.xml.transform.stream.StreamResult
 
 import org.orbeon.oxf.fr.Names
@@ -36,7 +35,6 @@ import org.orbeon.oxf.xml.{JXQName, _}
 import org.orbeon.saxon.event.SaxonOutputKeys
 import org.orbeon.saxon.om.DocumentInfo
 import org.orbeon.scaxon.SAXEvents.{Atts, StartElement}
-import org.xml.sax.InputSource
 
 object RequestReader {
 
@@ -84,11 +82,6 @@ object RequestReader {
 
   def dataAndMetadataAsString(inputStream: InputStream, metadata: Boolean): (String, Option[String]) = {
 
-    def newTransformer = (
-      TransformerUtils.getXMLIdentityTransformer
-      |!> (_.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"))
-    )
-
     def newIdentityReceiver(writer: Writer) = (
       TransformerUtils.getIdentityTransformerHandler
       |!> (_.getTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"))
@@ -118,7 +111,6 @@ object RequestReader {
       (metadataWriter, metadataFilter)
     }
 
-    val source     = new SAXSource(XMLParsing.newXMLReader(XMLParsing.ParserConfiguration.PLAIN), new InputSource(inputStream))
     val dataWriter = new StringBuilderWriter()
 
     val resultReceiver = metadataWriterAndReceiver match {
@@ -128,7 +120,8 @@ object RequestReader {
         newIdentityReceiver(dataWriter)
     }
 
-    newTransformer.transform(source, new SAXResult(resultReceiver))
+    // Replays the content without parsing it if it is in-process XML
+    XMLParsing.inputStreamToSAX(inputStream, null, resultReceiver, XMLParsing.ParserConfiguration.PLAIN, true)
 
     (dataWriter.toString, metadataWriterAndReceiver map (_._1.toString))
   }
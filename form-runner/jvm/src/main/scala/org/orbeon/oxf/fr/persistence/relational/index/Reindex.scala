@@ -14,11 +14,13 @@
 package org.orbeon.oxf.fr.persistence.relational.index
 
 import java.sql.{Connection, PreparedStatement}
+import java.util.concurrent.{Callable, Executors}
 
 import org.orbeon.oxf.fr.FormRunner
 import org.orbeon.oxf.fr.persistence.relational.Provider.MySQL
-import org.orbeon.oxf.fr.persistence.relational.index.status.{Backend, StatusStore, Stopping}
+import org.orbeon.oxf.fr.persistence.relational.index.status._
 import org.orbeon.oxf.fr.persistence.relational.{Provider, RelationalUtils}
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.IOUtils._
 import org.orbeon.oxf.xforms.XFormsConstants
@@ -28,6 +30,7 @@ import org.orbeon.scaxon
 import org.orbeon.scaxon.SimplePath._
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable
 
 trait Reindex extends FormDefinition {
 
@@ -36,6 +39,10 @@ trait Reindex extends FormDefinition {
   case class   DataForDocumentId(documentId: String)                extends WhatToReindex
   case class   DataForForm(app: String, form: String, version: Int) extends WhatToReindex
 
+  private val ThreadsProperty              = "oxf.fr.persistence.reindex.threads"
+  private val BatchSizeProperty            = "oxf.fr.persistence.reindex.batch-size"
+  private val CheckpointTimeToLiveProperty = "oxf.fr.persistence.reindex.checkpoint.time-to-live"
+
   // Reindexing is a 3 step process:
   //   1. Clean the index
   //   2. Get the documents to index
@@ -50,235 +57,369 @@ trait Reindex extends FormDefinition {
 
     if (Index.ProvidersWithIndexSupport.contains(provider)) {
 
-      // If a document id was provided, produce WHERE clause, and set parameter
-      val (whereConditions, paramSetter) =
-        whatToReindex match {
-          case AllData ⇒ (
-            Nil,
-            (ps: PreparedStatement) ⇒ Unit
-          )
-          case DataForDocumentId(id) ⇒ (
-            List("document_id = ?"),
-            (ps: PreparedStatement) ⇒ ps.setString(1, id)
-          )
-          case DataForForm(app, form, version) ⇒ (
-            List(
-              "app = ?",
-              "form = ?",
-              "form_version = ?"
-            ),
-            (ps: PreparedStatement) ⇒ {
-              ps.setString(1, app)
-              ps.setString(2, form)
-              ps.setInt   (3, version)
-            }
-          )
+      deleteFromIndex(connection, whatToReindex)
+
+      // Indexed controls are computed once per app/form
+      // Progress isn't reported, as it would be mixed with the progress of a concurrent `reindexAll()`
+      val indexedControls = mutable.HashMap[(String, String), Seq[IndexedControl]]()
+      indexDocuments(provider, connection, whatToReindex, reportProgress = false, (app, form) ⇒
+        indexedControls.getOrElseUpdate((app, form), readIndexedControls(app, form))
+      )
+    }
+  }
+
+  // Reindex all the data of a provider
+  //
+  // - Data is partitioned by app/form/version, and partitions are indexed in parallel by at most
+  //   `oxf.fr.persistence.reindex.threads` threads, each with its own connection and transaction.
+  // - Completed partitions are recorded in `StatusStore`, so that if reindexing is stopped or fails, the next
+  //   reindexing of the same provider and datasource resumes with the partitions not indexed yet, instead of
+  //   cleaning the whole index and starting over. This is only done within
+  //   `oxf.fr.persistence.reindex.checkpoint.time-to-live` ms of the start of the interrupted reindexing, and not when
+  //   `fresh` is set, as is the case when reindexing is requested from the UI.
+  def reindexAll(
+    provider       : Provider,
+    datasourceName : String,
+    fresh          : Boolean
+  ): Unit = {
+
+    if (Index.ProvidersWithIndexSupport.contains(provider)) {
+
+      val checkpointKey = provider.name + ":" + datasourceName
+      val dataSource    = RelationalUtils.getDataSource(datasourceName)
+
+      if (fresh)
+        StatusStore.removeCheckpoint(checkpointKey)
+
+      val now        = System.currentTimeMillis
+      val timeToLive = Properties.instance.getPropertySet.getInteger(CheckpointTimeToLiveProperty, 3600 * 1000).longValue
+
+      val completedForms =
+        StatusStore.findValidCheckpoint(checkpointKey, now, timeToLive) match {
+          case Some(checkpoint) ⇒
+            RelationalUtils.Logger.logInfo("", s"Resuming reindexing of $checkpointKey after ${checkpoint.completedForms.size} forms")
+            checkpoint.completedForms
+          case None ⇒
+            RelationalUtils.withConnection(dataSource)(deleteFromIndex(_, AllData))
+            StatusStore.setCheckpoint(checkpointKey, Checkpoint(Map.empty, now))
+            Map.empty[FormVersion, Int]
         }
 
-      // Clean index
-      locally {
-        val deleteWhereClause = whereConditions match {
-          case Nil ⇒ ""
-          case _   ⇒ "WHERE " + whereConditions.mkString(" AND ")
+      val (formVersions, total) =
+        RelationalUtils.withConnection(dataSource) { connection ⇒
+          (findFormVersions(connection), countDocuments(connection, AllData))
         }
-        val deleteFromValueIndexSql = "DELETE FROM orbeon_i_control_text " + (
-          whatToReindex match {
-            case AllData ⇒ ""
-            case _ ⇒
-              s"""|WHERE data_id IN (
-                  |   SELECT data_id
-                  |     FROM orbeon_i_current
-                  |   $deleteWhereClause
-                  | )
-                  |""".stripMargin
-          }
-        )
-        val deleteFromCurrentIndex =
-          s"""|DELETE FROM orbeon_i_current
-              |$deleteWhereClause
-              |""".stripMargin
 
-        Iterator(
-          deleteFromValueIndexSql,
-          deleteFromCurrentIndex
-        ).foreach { deleteSql ⇒
-          useAndClose(connection.prepareStatement(deleteSql)) { ps ⇒
-            paramSetter(ps)
-            ps.executeUpdate()
-          }
+      Backend.setProviderDocumentCount(current = completedForms.values.sum, total = total)
+
+      val remainingFormVersions = formVersions filterNot completedForms.contains
+
+      // Form definitions are read through the persistence API, which requires the current request, so they are
+      // read before indexing starts in other threads
+      val indexedControls =
+        remainingFormVersions.map(v ⇒ (v.app, v.form)).distinct.map {
+          case appForm @ (app, form) ⇒ appForm → readIndexedControls(app, form)
+        }.toMap
+
+      def indexFormVersion(formVersion: FormVersion): Unit =
+        if (StatusStore.getStatus != Stopping) {
+          val indexedCount =
+            RelationalUtils.withConnection(dataSource) { connection ⇒
+              val whatToReindex = DataForForm(formVersion.app, formVersion.form, formVersion.version)
+              // Remove what a previous interrupted reindexing might have left for this form version
+              deleteFromIndex(connection, whatToReindex)
+              indexDocuments(provider, connection, whatToReindex, reportProgress = true, (app, form) ⇒ indexedControls((app, form)))
+            }
+          indexedCount foreach (StatusStore.addCompletedForm(checkpointKey, formVersion, _))
         }
+
+      val threads = Properties.instance.getPropertySet.getInteger(ThreadsProperty, 4).intValue max 1
+      val pool    = Executors.newFixedThreadPool(threads min (remainingFormVersions.size max 1))
+
+      try {
+        val tasks =
+          remainingFormVersions map { formVersion ⇒
+            new Callable[Unit] {
+              def call() = indexFormVersion(formVersion)
+            }
+          }
+        // Wait for all the tasks, and propagate the first failure
+        pool.invokeAll(tasks.asJava).asScala foreach (_.get)
+      } finally {
+        pool.shutdownNow()
       }
 
-      val currentFromWhere =
-        s"""|    FROM
-            |      orbeon_form_data d,
-            |      (
-            |        SELECT
-            |          document_id,
-            |          draft,
-            |          max(last_modified_time) last_modified_time
-            |        FROM
-            |          orbeon_form_data
-            |        ${whereConditions.nonEmpty.string("WHERE")}
-            |          ${whereConditions.mkString(" AND ")}
-            |        GROUP BY
-            |          document_id,
-            |          draft
-            |      ) l
-            |   WHERE
-            |     d.document_id          = l.document_id        AND
-            |     d.last_modified_time   = l.last_modified_time AND
-            |     d.deleted              = 'N'
-            |""".stripMargin
-
-      // Count how many documents we'll reindex, and tell progress code
-      val countSql =
-        s"""|SELECT count(*)
-            |$currentFromWhere
-            |""".stripMargin
-      useAndClose(connection.prepareStatement(countSql)) { ps ⇒
-        paramSetter(ps)
-        useAndClose(ps.executeQuery()) { rs ⇒
-          rs.next()
-          val count = rs.getInt(1)
-          Backend.setProviderDocumentTotal(count)
+      if (StatusStore.getStatus != Stopping)
+        StatusStore.removeCheckpoint(checkpointKey)
+    }
+  }
+
+  private def selection(whatToReindex: WhatToReindex): (List[String], PreparedStatement ⇒ Unit) =
+    whatToReindex match {
+      case AllData ⇒ (
+        Nil,
+        (ps: PreparedStatement) ⇒ Unit
+      )
+      case DataForDocumentId(id) ⇒ (
+        List("document_id = ?"),
+        (ps: PreparedStatement) ⇒ ps.setString(1, id)
+      )
+      case DataForForm(app, form, version) ⇒ (
+        List(
+          "app = ?",
+          "form = ?",
+          "form_version = ?"
+        ),
+        (ps: PreparedStatement) ⇒ {
+          ps.setString(1, app)
+          ps.setString(2, form)
+          ps.setInt   (3, version)
         }
+      )
+    }
+
+  private def deleteFromIndex(connection: Connection, whatToReindex: WhatToReindex): Unit = {
+
+    val (whereConditions, paramSetter) = selection(whatToReindex)
+
+    val deleteWhereClause = whereConditions match {
+      case Nil ⇒ ""
+      case _   ⇒ "WHERE " + whereConditions.mkString(" AND ")
+    }
+    val deleteFromValueIndexSql = "DELETE FROM orbeon_i_control_text " + (
+      whatToReindex match {
+        case AllData ⇒ ""
+        case _ ⇒
+          s"""|WHERE data_id IN (
+              |   SELECT data_id
+              |     FROM orbeon_i_current
+              |   $deleteWhereClause
+              | )
+              |""".stripMargin
       }
+    )
+    val deleteFromCurrentIndex =
+      s"""|DELETE FROM orbeon_i_current
+          |$deleteWhereClause
+          |""".stripMargin
 
-      // Get all the row from orbeon_form_data that are "latest" and not deleted
-      val xmlCol = Provider.xmlCol(provider, "d")
-      val currentDataSql =
-        s"""  SELECT d.id,
-           |         d.created,
-           |         d.last_modified_time,
-           |         d.last_modified_by,
-           |         d.username,
-           |         d.groupname,
-           |         d.organization_id,
-           |         d.app,
-           |         d.form,
-           |         d.form_version,
-           |         d.document_id,
-           |         d.draft,
-           |         $xmlCol
-           |$currentFromWhere
-           |ORDER BY app, form
-           |""".stripMargin
-
-      useAndClose(connection.prepareStatement(currentDataSql)) { ps ⇒
+    Iterator(
+      deleteFromValueIndexSql,
+      deleteFromCurrentIndex
+    ).foreach { deleteSql ⇒
+      useAndClose(connection.prepareStatement(deleteSql)) { ps ⇒
         paramSetter(ps)
-        useAndClose(ps.executeQuery()) { currentData ⇒
-
-          // Info on indexed controls for a given app/form
-          case class FormIndexedControls(
-            app             : String,
-            form            : String,
-            indexedControls : Seq[IndexedControl]
-          )
-
-          // Go through each data document
-          // - we keep track of the indexed controls along in the iteration, and thus avoid recomputing them
-          var prevIndexedControls: Option[FormIndexedControls] = None
-          while (currentData.next() && StatusStore.getStatus != Stopping) {
-
-            Backend.setProviderDocumentNext()
-            val app = currentData.getString("app")
-            val form = currentData.getString("form")
-
-            // Get indexed controls for current app/form
-            val indexedControls: Seq[IndexedControl] = prevIndexedControls match {
-              case Some(FormIndexedControls(`app`, `form`, indexedControls)) ⇒
-                // Use indexed controls from previous iteration
-                indexedControls
-              case _ ⇒
-                // Compute indexed controls reading the form definition
-                FormRunner.readPublishedForm(app, form)(RelationalUtils.Logger) match {
-                  case None ⇒
-                    RelationalUtils.Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
-                    Seq.empty
-                  case Some(formDefinition) ⇒
-                    findIndexedControls(formDefinition, app, form)
-                }
-            }
+        ps.executeUpdate()
+      }
+    }
+  }
+
+  private def currentFromWhere(whereConditions: List[String]) =
+    s"""|    FROM
+        |      orbeon_form_data d,
+        |      (
+        |        SELECT
+        |          document_id,
+        |          draft,
+        |          max(last_modified_time) last_modified_time
+        |        FROM
+        |          orbeon_form_data
+        |        ${whereConditions.nonEmpty.string("WHERE")}
+        |          ${whereConditions.mkString(" AND ")}
+        |        GROUP BY
+        |          document_id,
+        |          draft
+        |      ) l
+        |   WHERE
+        |     d.document_id          = l.document_id        AND
+        |     d.last_modified_time   = l.last_modified_time AND
+        |     d.deleted              = 'N'
+        |""".stripMargin
+
+  // Count how many documents we'll reindex
+  private def countDocuments(connection: Connection, whatToReindex: WhatToReindex): Int = {
+
+    val (whereConditions, paramSetter) = selection(whatToReindex)
+
+    val countSql =
+      s"""|SELECT count(*)
+          |${currentFromWhere(whereConditions)}
+          |""".stripMargin
+    useAndClose(connection.prepareStatement(countSql)) { ps ⇒
+      paramSetter(ps)
+      useAndClose(ps.executeQuery()) { rs ⇒
+        rs.next()
+        rs.getInt(1)
+      }
+    }
+  }
+
+  private def findFormVersions(connection: Connection): List[FormVersion] = {
+
+    val formVersionsSql =
+      """|SELECT DISTINCT app, form, form_version
+         |  FROM orbeon_form_data
+         |""".stripMargin
+    useAndClose(connection.prepareStatement(formVersionsSql)) { ps ⇒
+      useAndClose(ps.executeQuery()) { rs ⇒
+        Iterator.continually(rs.next()).takeWhile(identity).map { _ ⇒
+          FormVersion(rs.getString("app"), rs.getString("form"), rs.getInt("form_version"))
+        }.toList
+      }
+    }
+  }
+
+  private def readIndexedControls(app: String, form: String): Seq[IndexedControl] =
+    FormRunner.readPublishedForm(app, form)(RelationalUtils.Logger) match {
+      case None ⇒
+        RelationalUtils.Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
+        Seq.empty
+      case Some(formDefinition) ⇒
+        findIndexedControls(formDefinition, app, form)
+    }
+
+  // Index the documents, inserting rows in batches of `oxf.fr.persistence.reindex.batch-size` documents
+  // Return the number of documents indexed, or `None` if reindexing was stopped before all documents were indexed.
+  private def indexDocuments(
+    provider        : Provider,
+    connection      : Connection,
+    whatToReindex   : WhatToReindex,
+    reportProgress  : Boolean,
+    indexedControls : (String, String) ⇒ Seq[IndexedControl]
+  ): Option[Int] = {
 
-            // Insert into the "current data" table
-            val position = Iterator.from(1)
-
-            val insertIntoCurrentSql =
-              """INSERT INTO orbeon_i_current
-                |           (data_id,
-                |            created,
-                |            last_modified_time,
-                |            last_modified_by,
-                |            username,
-                |            groupname,
-                |            organization_id,
-                |            app,
-                |            form,
-                |            form_version,
-                |            document_id,
-                |            draft)
-                |    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-              """.stripMargin
-
-            useAndClose(connection.prepareStatement(insertIntoCurrentSql)) { ps ⇒
-              ps.setInt      (position.next(), currentData.getInt("id"))
-              ps.setTimestamp(position.next(), currentData.getTimestamp("created"))
-              ps.setTimestamp(position.next(), currentData.getTimestamp("last_modified_time"))
-              ps.setString   (position.next(), currentData.getString("last_modified_by"))
-              ps.setString   (position.next(), currentData.getString("username"))
-              ps.setString   (position.next(), currentData.getString("groupname"))
-              RelationalUtils.getIntOpt(currentData, "organization_id") match {
-                case Some(id) ⇒ ps.setInt(position.next(), id)
-                case None     ⇒ ps.setNull(position.next(), java.sql.Types.INTEGER)
+    val (whereConditions, paramSetter) = selection(whatToReindex)
+    val batchSize = Properties.instance.getPropertySet.getInteger(BatchSizeProperty, 100).intValue max 1
+
+    // Get all the row from orbeon_form_data that are "latest" and not deleted
+    val xmlCol = Provider.xmlCol(provider, "d")
+    val currentDataSql =
+      s"""  SELECT d.id,
+         |         d.created,
+         |         d.last_modified_time,
+         |         d.last_modified_by,
+         |         d.username,
+         |         d.groupname,
+         |         d.organization_id,
+         |         d.app,
+         |         d.form,
+         |         d.form_version,
+         |         d.document_id,
+         |         d.draft,
+         |         $xmlCol
+         |${currentFromWhere(whereConditions)}
+         |ORDER BY app, form
+         |""".stripMargin
+
+    val insertIntoCurrentSql =
+      """INSERT INTO orbeon_i_current
+        |           (data_id,
+        |            created,
+        |            last_modified_time,
+        |            last_modified_by,
+        |            username,
+        |            groupname,
+        |            organization_id,
+        |            app,
+        |            form,
+        |            form_version,
+        |            document_id,
+        |            draft)
+        |    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+      """.stripMargin
+
+    val insertIntoControlTextSql =
+      """INSERT INTO orbeon_i_control_text
+        |           (data_id,
+        |            pos,
+        |            control,
+        |            val)
+        |    VALUES (? , ? , ? , ? )
+      """.stripMargin
+
+    useAndClose(connection.prepareStatement(insertIntoCurrentSql)) { insertIntoCurrent ⇒
+      useAndClose(connection.prepareStatement(insertIntoControlTextSql)) { insertIntoControlText ⇒
+        useAndClose(connection.prepareStatement(currentDataSql)) { ps ⇒
+          paramSetter(ps)
+          useAndClose(ps.executeQuery()) { currentData ⇒
+
+            var indexedCount = 0
+            var batchCount   = 0
+
+            def executeBatch(): Unit =
+              if (batchCount > 0) {
+                insertIntoCurrent.executeBatch()
+                insertIntoControlText.executeBatch()
+                if (reportProgress)
+                  Backend.addProviderDocumentsIndexed(batchCount)
+                indexedCount += batchCount
+                batchCount = 0
               }
-              ps.setString   (position.next(), app)
-              ps.setString   (position.next(), form)
-              ps.setInt      (position.next(), currentData.getInt("form_version"))
-              ps.setString   (position.next(), currentData.getString("document_id"))
-              ps.setString   (position.next(), currentData.getString("draft"))
-              ps.executeUpdate()
-              ps.close()
-            }
 
-            // Read data (XML)
-            // - using lazy, as we might not need the data, if there are no controls to index
-            // - return root element, as XPath this is the node XPath expressions are relative to
-            lazy val dataRootElement: NodeInfo = {
-              val document = Provider.readXmlColumn(provider, currentData)
-              document.descendant(*).head
-            }
+            // Go through each data document
+            var stopped = false
+            while (! stopped && currentData.next()) {
+
+              stopped = StatusStore.getStatus == Stopping
 
-            // Extract and insert value for each indexed control
-            for (control ← indexedControls) {
-
-              val nodes = scaxon.XPath.eval(dataRootElement, control.xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
-              for ((node, pos) ← nodes.zipWithIndex) {
-                val nodeValue = truncateValue(provider, node.getStringValue)
-                // For indexing, we are not interested in empty values
-                if (!nodeValue.isEmpty) {
-                  val position = Iterator.from(1)
-                  val insertIntoControlTextSql =
-                    """INSERT INTO orbeon_i_control_text
-                      |           (data_id,
-                      |            pos,
-                      |            control,
-                      |            val)
-                      |    VALUES (? , ? , ? , ? )
-                    """.stripMargin
-                  useAndClose(connection.prepareStatement(insertIntoControlTextSql)) { ps ⇒
-                    ps.setInt   (position.next(), currentData.getInt("id"))
-                    ps.setInt   (position.next(), pos + 1)
-                    ps.setString(position.next(), control.xpath)
-                    ps.setString(position.next(), nodeValue)
-                    ps.executeUpdate()
-                    ps.close()
+              if (! stopped) {
+                val dataId = currentData.getInt("id")
+                val app    = currentData.getString("app")
+                val form   = currentData.getString("form")
+
+                // Add to the "current data" table batch
+                val position = Iterator.from(1)
+                insertIntoCurrent.setInt      (position.next(), dataId)
+                insertIntoCurrent.setTimestamp(position.next(), currentData.getTimestamp("created"))
+                insertIntoCurrent.setTimestamp(position.next(), currentData.getTimestamp("last_modified_time"))
+                insertIntoCurrent.setString   (position.next(), currentData.getString("last_modified_by"))
+                insertIntoCurrent.setString   (position.next(), currentData.getString("username"))
+                insertIntoCurrent.setString   (position.next(), currentData.getString("groupname"))
+                RelationalUtils.getIntOpt(currentData, "organization_id") match {
+                  case Some(id) ⇒ insertIntoCurrent.setInt(position.next(), id)
+                  case None     ⇒ insertIntoCurrent.setNull(position.next(), java.sql.Types.INTEGER)
+                }
+                insertIntoCurrent.setString   (position.next(), app)
+                insertIntoCurrent.setString   (position.next(), form)
+                insertIntoCurrent.setInt      (position.next(), currentData.getInt("form_version"))
+                insertIntoCurrent.setString   (position.next(), currentData.getString("document_id"))
+                insertIntoCurrent.setString   (position.next(), currentData.getString("draft"))
+                insertIntoCurrent.addBatch()
+
+                // Read data (XML)
+                // - using lazy, as we might not need the data, if there are no controls to index
+                // - return root element, as XPath this is the node XPath expressions are relative to
+                lazy val dataRootElement: NodeInfo = {
+                  val document = Provider.readXmlColumn(provider, currentData)
+                  document.descendant(*).head
+                }
+
+                // Extract and add value for each indexed control to the batch
+                for (control ← indexedControls(app, form)) {
+
+                  val nodes = scaxon.XPath.eval(dataRootElement, control.xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
+                  for ((node, pos) ← nodes.zipWithIndex) {
+                    val nodeValue = truncateValue(provider, node.getStringValue)
+                    // For indexing, we are not interested in empty values
+                    if (!nodeValue.isEmpty) {
+                      val position = Iterator.from(1)
+                      insertIntoControlText.setInt   (position.next(), dataId)
+                      insertIntoControlText.setInt   (position.next(), pos + 1)
+                      insertIntoControlText.setString(position.next(), control.xpath)
+                      insertIntoControlText.setString(position.next(), nodeValue)
+                      insertIntoControlText.addBatch()
+                    }
                   }
                 }
+
+                batchCount += 1
+                if (batchCount == batchSize)
+                  executeBatch()
               }
             }
-            // Pass current indexed controls to the next iteration
-            prevIndexedControls = Some(FormIndexedControls(app, form, indexedControls))
+            executeBatch()
+
+            (! stopped) option indexedCount
           }
         }
       }
@@ -21,7 +21,7 @@ import org.orbeon.oxf.fr.persistence.relational.Provider
 
 /**
  * Processor repopulating the relational indices. This doesn't create the tables, but deletes their content
- * and repopulates them from scratch.
+ * and repopulates them from scratch, or resumes an interrupted reindexing unless the `fresh` parameter is `true`.
  *
  * - mapped to `fr:persistence-reindex` in `processors.xml`
  * - mapped to `/fr/service/[provider]/reindex` in `fr/page-flow.xml`
@@ -29,12 +29,15 @@ import org.orbeon.oxf.fr.persistence.relational.Provider
 class ReindexProcessor extends ProcessorImpl {
 
   private val ReindexPathRegex    = """/fr/service/([^/]+)/reindex""".r
+  private val FreshParam          = "fresh"
 
   override def start(pipelineContext: PipelineContext): Unit = {
 
-    val ReindexPathRegex(providerToken) = NetUtils.getExternalContext.getRequest.getRequestPath
+    val request = NetUtils.getExternalContext.getRequest
+    val ReindexPathRegex(providerToken) = request.getRequestPath
     val provider = Provider.providerFromToken(providerToken)
-    RelationalUtils.withConnection(Index.reindex(provider, _, Index.AllData))
+    val fresh    = request.getFirstParamAsString(FreshParam) contains "true"
+    Index.reindexAll(provider, RelationalUtils.getDataSourceNameFromHeaders, fresh)
   }
 
 }
@@ -40,12 +40,16 @@ object Backend {
   def setProviderDocumentTotal(total: Int): Unit =
     setIndexing(i ⇒ Some(i.copy(documentCount = Some(Count(total = total, current = 0)))))
 
-  def setProviderDocumentNext(): Unit =
-    setDocumentCount(c ⇒ c.copy(current = c.current + 1))
+  def setProviderDocumentCount(current: Int, total: Int): Unit =
+    setIndexing(i ⇒ Some(i.copy(documentCount = Some(Count(total = total, current = current)))))
+
+  def addProviderDocumentsIndexed(count: Int): Unit =
+    setDocumentCount(c ⇒ c.copy(current = c.current + count))
 
   private def setIndexing(setter: Indexing ⇒ Option[Indexing]): Unit =
-    Some(StatusStore.getStatus).collect { case status: Indexing ⇒
-      setter(status).foreach(StatusStore.setStatus)
+    StatusStore.updateStatus {
+      case status: Indexing ⇒ setter(status)
+      case _                ⇒ None
     }
 
   private def setDocumentCount(setter: Count ⇒ Count): Unit =
@@ -25,3 +25,9 @@ case class   Indexing (provider      : String,
 
 case class   Count    (current       : Int,
                        total         : Int)
+
+// Progress of the reindexing of all the data of a provider, with the number of documents indexed for each form version,
+// and when that reindexing started
+case class   Checkpoint(completedForms : Map[FormVersion, Int],
+                        created        : Long)
+case class   FormVersion(app : String, form : String, version : Int)
@@ -22,11 +22,50 @@ import scala.collection.JavaConverters._
 
 object StatusStore {
 
-  private var currentStatus: Status = Stopped
+  @volatile private var currentStatus: Status = Stopped
+
+  // Checkpoints of interrupted reindexing, by provider and datasource
+  private var checkpoints = Map.empty[String, Checkpoint]
 
   def getStatus: Status = currentStatus
 
-  def setStatus(status: Status): Unit = {
+  // Status updates are atomic, as documents can be indexed by multiple threads
+  def updateStatus(update: Status ⇒ Option[Status]): Unit = synchronized {
+    update(currentStatus) foreach setStatus
+  }
+
+  def getCheckpoint(key: String): Option[Checkpoint] = synchronized {
+    checkpoints.get(key)
+  }
+
+  // Return the checkpoint if it was created less than `timeToLive` ms before `now`, and otherwise remove it
+  def findValidCheckpoint(key: String, now: Long, timeToLive: Long): Option[Checkpoint] = synchronized {
+    checkpoints.get(key) match {
+      case valid @ Some(checkpoint) if now - checkpoint.created < timeToLive ⇒
+        valid
+      case Some(_) ⇒
+        checkpoints -= key
+        None
+      case None ⇒
+        None
+    }
+  }
+
+  def setCheckpoint(key: String, checkpoint: Checkpoint): Unit = synchronized {
+    checkpoints += key → checkpoint
+  }
+
+  def addCompletedForm(key: String, formVersion: FormVersion, documentCount: Int): Unit = synchronized {
+    checkpoints.get(key) foreach { checkpoint ⇒
+      checkpoints += key → checkpoint.copy(completedForms = checkpoint.completedForms + (formVersion → documentCount))
+    }
+  }
+
+  def removeCheckpoint(key: String): Unit = synchronized {
+    checkpoints -= key
+  }
+
+  def setStatus(status: Status): Unit = synchronized {
 
     // Log status
     if (RelationalUtils.Logger.isDebugEnabled) {
@@ -13,8 +13,7 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.search
 
-import java.sql.Timestamp
-
+import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache}
 import org.orbeon.oxf.externalcontext.{Credentials, Organization}
 import org.orbeon.oxf.fr.permission.PermissionsAuthorization.{CheckWithDataUser, PermissionsCheck}
 import org.orbeon.oxf.fr.permission._
@@ -24,7 +23,7 @@ import org.orbeon.oxf.fr.persistence.relational.Statement._
 import org.orbeon.oxf.fr.persistence.relational.crud.{OrganizationId, OrganizationSupport}
 import org.orbeon.oxf.fr.persistence.relational.search.adt.{Document, SearchPermissions, _}
 import org.orbeon.oxf.fr.persistence.relational.search.part._
-import org.orbeon.oxf.util.CollectionUtils._
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.SQLUtils._
 import org.orbeon.scaxon.SimplePath._
@@ -33,6 +32,8 @@ import scala.collection.mutable
 
 trait SearchLogic extends SearchRequest {
 
+  import SearchLogic._
+
   private val SearchOperationsLegacy = List("read", "update", "delete")
   private val SearchOperations       = List(Read, Update, Delete)
 
@@ -87,49 +88,73 @@ trait SearchLogic extends SearchRequest {
 
         val searchCount = {
 
-          val innerSQL = buildQuery(commonParts)
-          val sql =
-            s"""SELECT count(*)
-               |  FROM (
-               |       $innerSQL
-               |       ) a
-             """.stripMargin
-
-          Logger.logDebug("search total query", sql)
-          executeQuery(connection, sql, commonParts) { rs ⇒
-            rs.next()
-            rs.getInt(1)
+          def computeSearchCount = {
+            val innerSQL = buildQuery(commonParts)
+            val sql =
+              s"""SELECT count(*)
+                 |  FROM (
+                 |       $innerSQL
+                 |       ) a
+               """.stripMargin
+
+            Logger.logDebug("search total query", sql)
+            executeQuery(connection, sql, commonParts) { rs ⇒
+              rs.next()
+              rs.getInt(1)
+            }
           }
+
+          SearchCountCache.findOrCompute(request, permissions)(computeSearchCount)
         }
 
         // Build SQL and create statement
         val parts =
-          commonParts :+
+          commonParts           :+
+          pageAfterPart(request) :+
           mySqlOrderForRowNumPart(request)
         val sql = {
           val innerSQL = buildQuery(parts)
-          val startOffsetZeroBased = (request.pageNumber - 1) * request.pageSize
+          val rowNumberRange =
+            if (request.pageAfter.isDefined) {
+              // Rows following the `page-after` document are numbered from 1
+              s"<= ${request.pageSize}"
+            } else {
+              val startOffsetZeroBased = (request.pageNumber - 1) * request.pageSize
+              s"BETWEEN ${startOffsetZeroBased + 1} AND ${startOffsetZeroBased + request.pageSize}"
+            }
           // Use LEFT JOIN instead of regular join, in case the form doesn't have any control marked
           // to be indexed, in which case there won't be anything for it in orbeon_i_control_text.
+          // Order by row number, so the rows for a given document are contiguous and documents come pre-sorted.
           s"""    SELECT c.*, t.control, t.pos, t.val
              |      FROM (
              |           $innerSQL
              |           ) c
              | LEFT JOIN orbeon_i_control_text t
              |           ON c.data_id = t.data_id
-             |     WHERE row_number
-             |           BETWEEN ${startOffsetZeroBased + 1}
-             |           AND     ${startOffsetZeroBased + request.pageSize}
+             |     WHERE row_number $rowNumberRange
+             |  ORDER BY row_number
              |""".stripMargin
         }
         Logger.logDebug("search items query", sql)
 
         val documentsMetadataValues = executeQuery(connection, sql, parts) { documentsResultSet ⇒
 
-          Iterator.iterateWhile(
-            cond = documentsResultSet.next(),
-            elem = (
+          // Assemble documents as rows come, as the rows for a given document are contiguous
+          val result  = mutable.ListBuffer[(DocumentMetaData, List[DocumentValue])]()
+          var current = Option.empty[(DocumentMetaData, mutable.ListBuffer[DocumentValue])]
+
+          def flushCurrent(): Unit =
+            current foreach { case (metadata, values) ⇒ result += metadata → values.toList }
+
+          while (documentsResultSet.next()) {
+
+            val dataId = documentsResultSet.getInt("data_id")
+
+            if (! current.exists(_._1.dataId == dataId)) {
+              flushCurrent()
+              current = Some(
                 DocumentMetaData(
+                  dataId           = dataId,
                   documentId       = documentsResultSet.getString                 ("document_id"),
                   draft            = documentsResultSet.getString                 ("draft") == "Y",
                   created          = documentsResultSet.getTimestamp              ("created"),
@@ -138,21 +163,23 @@ trait SearchLogic extends SearchRequest {
                   username         = Option(documentsResultSet.getString          ("username")),
                   groupname        = Option(documentsResultSet.getString          ("groupname")),
                   organizationId   = RelationalUtils.getIntOpt(documentsResultSet, "organization_id")
-                ),
+                ) → mutable.ListBuffer[DocumentValue]()
+              )
+            }
+
+            // With the LEFT JOIN, a document without indexed controls has a single row without control
+            Option(documentsResultSet.getString("control")) foreach { control ⇒
+              current.get._2 +=
                 DocumentValue(
-                  control          = documentsResultSet.getString                 ("control"),
+                  control          = control,
                   pos              = documentsResultSet.getInt                    ("pos"),
                   value            = documentsResultSet.getString                 ("val")
                 )
-            )
-          )
-            .toList
-
-            // Group row by common metadata, since the metadata is repeated in the result set
-            .groupBy(_._1).mapValues(_.map(_._2)).toList
+            }
+          }
+          flushCurrent()
 
-            // Sort by last modified in descending order, as the call expects the result to be pre-sorted
-            .sortBy(_._1.lastModifiedTime)(Ordering[Timestamp].reverse)
+          result.toList
         }
 
         // Compute possible operations for each document
@@ -169,3 +196,50 @@ trait SearchLogic extends SearchRequest {
     }
 
 }
+
+private object SearchLogic {
+
+  // Cache of search counts, as counting can be expensive on large tables and the count doesn't usually need to be
+  // exact while paging through results
+  //
+  // Disabled unless `oxf.fr.persistence.search.count-cache.time-to-live` is positive. The count is cached per search
+  // criteria and permissions, but not per page.
+  object SearchCountCache {
+
+    private val TimeToLiveProperty = "oxf.fr.persistence.search.count-cache.time-to-live"
+    private val CacheName          = "fr.search-count"
+    private val CacheKeyType       = "fr-search-count"
+
+    def findOrCompute(request: Request, permissions: SearchPermissions)(compute: ⇒ Int): Int = {
+
+      val timeToLive = Properties.instance.getPropertySet.getInteger(TimeToLiveProperty, 0).longValue
+
+      if (timeToLive <= 0) {
+        compute
+      } else {
+        val cache = ObjectCache.instance(CacheName, 100)
+        val key   = new InternalCacheKey(CacheKeyType, countKey(request, permissions))
+        val now   = System.currentTimeMillis
+
+        // The validity is the expiration time, and `findValid` only returns entries which expire at or after `now`
+        Option(cache.findValid(key, now)) match {
+          case Some(count: Integer) ⇒
+            count
+          case _ ⇒
+            val count = compute
+            cache.add(key, now + timeToLive, count: Integer)
+            count
+        }
+      }
+    }
+
+    private def countKey(request: Request, permissions: SearchPermissions) =
+      List(
+        request.copy(pageSize = 0, pageNumber = 0, pageAfter = None).toString,
+        permissions.authorizedBasedOnRole.toString,
+        permissions.authorizedIfOrganizationMatch.mkString(","),
+        permissions.authorizedIfUsername.toString,
+        permissions.authorizedIfGroup.toString
+      ) mkString "|"
+  }
+}
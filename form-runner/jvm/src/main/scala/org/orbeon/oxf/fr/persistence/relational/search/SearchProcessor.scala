@@ -13,12 +13,13 @@
   */
 package org.orbeon.oxf.fr.persistence.relational.search
 
+import org.orbeon.oxf.externalcontext.LocalResponse
 import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.ProcessorImpl._
 import org.orbeon.oxf.processor.impl.CacheableTransformerOutputImpl
 import org.orbeon.oxf.processor.{ProcessorImpl, ProcessorInputOutputInfo}
-import org.orbeon.oxf.util.XPath
-import org.orbeon.oxf.xml.XMLReceiver
+import org.orbeon.oxf.util.{NetUtils, XPath}
+import org.orbeon.oxf.xml.{SAXStore, XMLContentInputStream, XMLReceiver}
 
 class SearchProcessor
   extends ProcessorImpl
@@ -34,21 +35,35 @@ class SearchProcessor
   override def createOutput(name: String) =
     addOutput(
       name, new CacheableTransformerOutputImpl(self, name) {
-        def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
-
-          // Read and parse input
-          val searchDocument = readInputAsTinyTree(
-            pipelineContext,
-            getInputByName(ProcessorImpl.INPUT_DATA),
-            XPath.GlobalConfiguration
-          )
-          val request = parseRequest(searchDocument)
-
-          // Generate and send output
-          val (result, count) = doSearch(request)
-          outputResult(request, result, count, xmlReceiver)
-        }
+        def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit =
+          search(pipelineContext, xmlReceiver)
       }
     )
 
-}
\ No newline at end of file
+  // Without a connected output, write the result to the response. An in-process caller, like the persistence proxy,
+  // then gets the result as a `SAXStore`, instead of bytes it has to parse.
+  override def start(pipelineContext: PipelineContext): Unit = {
+
+    val saxStore = new SAXStore
+    search(pipelineContext, saxStore)
+
+    val response = NetUtils.getExternalContext.getResponse
+    response.setContentType("application/xml")
+    LocalResponse.writeXML(response, XMLContentInputStream(saxStore))
+  }
+
+  private def search(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
+
+    // Read and parse input
+    val searchDocument = readInputAsTinyTree(
+      pipelineContext,
+      getInputByName(ProcessorImpl.INPUT_DATA),
+      XPath.GlobalConfiguration
+    )
+    val request = parseRequest(searchDocument)
+
+    // Generate and send output
+    val (result, count) = doSearch(request)
+    outputResult(request, result, count, xmlReceiver)
+  }
+}
@@ -51,6 +51,8 @@ trait SearchRequest {
           group          = group,
           pageSize       = searchElement.firstChild("page-size")  .get.stringValue.toInt,
           pageNumber     = searchElement.firstChild("page-number").get.stringValue.toInt,
+          // If present, the page is the one following the given document, and `page-number` is ignored
+          pageAfter      = searchElement.firstChild("page-after") flatMap (e ⇒ trimAllToOpt(e.stringValue)) flatMap PageKey.decode,
           freeTextSearch =
             queryEls
               // Free text is in the first <query>
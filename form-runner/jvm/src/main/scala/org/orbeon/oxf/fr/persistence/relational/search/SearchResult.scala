@@ -14,7 +14,7 @@
 package org.orbeon.oxf.fr.persistence.relational.search
 
 import org.orbeon.oxf.fr.persistence.relational.RelationalUtils.Logger
-import org.orbeon.oxf.fr.persistence.relational.search.adt.{Document, Request}
+import org.orbeon.oxf.fr.persistence.relational.search.adt.{Document, PageKey, Request}
 import org.orbeon.oxf.util.DateUtils._
 import org.orbeon.oxf.xml.XMLReceiver
 import org.orbeon.scaxon.NodeConversions
@@ -22,6 +22,13 @@ import org.orbeon.scaxon.NodeConversions
 
 trait SearchResult extends SearchRequest {
 
+  // Key to pass as `page-after` to get the next page, if the page is full
+  private def nextPageAfter(request: Request, documents: List[Document]): Option[String] =
+    if (documents.size == request.pageSize)
+      documents.lastOption map (d ⇒ PageKey(d.metadata.lastModifiedTime, d.metadata.dataId).encode)
+    else
+      None
+
   def outputResult(
     request   : Request,
     documents : List[Document],
@@ -31,7 +38,9 @@ trait SearchResult extends SearchRequest {
 
     // Produce XML result
     val documentsElem =
-      <documents search-total={count.toString}>{
+      <documents
+        search-total   ={count.toString}
+        next-page-after={nextPageAfter(request, documents).orNull}>{
         documents.map(doc ⇒
           <document
             created       ={DateTime.print(doc.metadata.created.getTime)}
@@ -13,8 +13,12 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.search.adt
 
+import java.sql.Timestamp
+
 import org.orbeon.oxf.fr.persistence.relational.Provider
 
+import scala.util.Try
+
 case class Request(
     provider       : Provider,
     app            : String,
@@ -23,11 +27,34 @@ case class Request(
     group          : Option[String],
     pageSize       : Int,
     pageNumber     : Int,
+    pageAfter      : Option[PageKey],
     columns        : List[Column],
     drafts         : Drafts,
     freeTextSearch : Option[String]
   )
 
+  // Position of a document in the search order, used to return the page which follows it
+  case class PageKey(
+    lastModifiedTime : Timestamp,
+    dataId           : Int
+  ) {
+    def encode = s"${lastModifiedTime.getTime}.${lastModifiedTime.getNanos}.$dataId"
+  }
+
+  object PageKey {
+    def decode(encoded: String): Option[PageKey] =
+      encoded.split('.') match {
+        case Array(time, nanos, dataId) ⇒
+          Try {
+            val timestamp = new Timestamp(time.toLong)
+            timestamp.setNanos(nanos.toInt)
+            PageKey(timestamp, dataId.toInt)
+          }.toOption
+        case _ ⇒
+          None
+      }
+  }
+
   case class Column(
     path           : String,
     filterWith     : Option[String]
@@ -16,6 +16,7 @@ package org.orbeon.oxf.fr.persistence.relational.search.adt
 import java.sql.Timestamp
 
 case class DocumentMetaData(
+  dataId           : Int,
   documentId       : String,
   draft            : Boolean,
   created          : Timestamp,
@@ -30,7 +30,7 @@ object commonPart  {
             // MySQL lacks row_number, see http://stackoverflow.com/a/1895127/5295
             "@rownum := @rownum + 1 row_number"
           else
-            "row_number() over (order by c.last_modified_time desc) row_number"
+            "row_number() over (order by c.last_modified_time desc, c.data_id desc) row_number"
 
         val mySqlRowNumTable =
           (request.provider == MySQL).string(", (select @rownum := 0) r")
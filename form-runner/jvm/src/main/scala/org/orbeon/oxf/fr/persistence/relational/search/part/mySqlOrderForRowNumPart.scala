@@ -23,7 +23,7 @@ object mySqlOrderForRowNumPart {
     request.provider match {
       case MySQL ⇒
         StatementPart(
-          sql     = "ORDER BY c.last_modified_time desc",
+          sql     = "ORDER BY c.last_modified_time desc, c.data_id desc",
           setters = Nil
         )
       case _ ⇒ NilPart
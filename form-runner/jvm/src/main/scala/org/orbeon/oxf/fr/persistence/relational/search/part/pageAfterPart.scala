@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.relational.search.part
+
+import org.orbeon.oxf.fr.persistence.relational.Statement._
+import org.orbeon.oxf.fr.persistence.relational.search.adt.{PageKey, Request}
+
+// Keyset pagination: only keep documents which follow the `page-after` document in the search order, so that the
+// database can seek to the page instead of numbering all the rows of the previous pages
+object pageAfterPart {
+
+  def apply(request: Request) =
+    request.pageAfter match {
+      case Some(PageKey(lastModifiedTime, dataId)) ⇒
+        StatementPart(
+          sql =
+            """| AND (
+               |       c.last_modified_time < ? OR
+               |       (c.last_modified_time = ? AND c.data_id < ?)
+               |     )
+               |""".stripMargin,
+          setters = List(
+            _.setTimestamp(_, lastModifiedTime),
+            _.setTimestamp(_, lastModifiedTime),
+            _.setInt(_, dataId)
+          )
+        )
+      case None ⇒
+        NilPart
+    }
+}
@@ -13,6 +13,9 @@
  */
 package org.orbeon.oxf.fr
 
+import java.io.File
+
+import org.orbeon.oxf.cache.ObjectCache
 import org.orbeon.oxf.test.TestHttpClient.{CacheEvent, StaticState}
 import org.orbeon.oxf.test.{DocumentTestBase, ResourceManagerSupport}
 import org.orbeon.oxf.xforms.state.XFormsStaticStateCache
@@ -85,5 +88,54 @@ class CacheTest
 
       runAndAssert(Form, "edit", noscript = true)(expectedInitialHit = true, staticStateHoldsTemplate)
     }
+
+  describe("Persistent static state cache") {
+
+    val Form = "noscript-true-pdf-auto-wizard-false"
+
+    def staticStateOpt(events: List[CacheEvent]) =
+      events collectFirst { case s: StaticState ⇒ s }
+
+    val directory = File.createTempFile("static-state", "")
+    directory.delete()
+    directory.mkdir()
+
+    XFormsStaticStateCache.persistentDirectoryForTests = Some(directory)
+    try {
+
+      // Make sure the static state is created, and wait for it to be written in the background
+      XFormsStaticStateCache.removeAllFromMemoryForTests()
+      ObjectCache.instance.removeAll()
+
+      val (_, _, events1) = runFormRunner("tests", Form, "new")
+      val digestOpt       = staticStateOpt(events1) map (_.digest)
+
+      val deadline = System.currentTimeMillis + 10 * 1000
+      def isWritten = digestOpt exists (digest ⇒ new File(directory, digest + ".static-state").isFile)
+      while (! isWritten && System.currentTimeMillis < deadline)
+        Thread.sleep(10)
+
+      val written = isWritten
+
+      // Simulate a restart: nothing is left in memory, including the mapping from the input to the digest
+      XFormsStaticStateCache.removeAllFromMemoryForTests()
+      ObjectCache.instance.removeAll()
+
+      val (_, _, events2) = runFormRunner("tests", Form, "new")
+
+      it("must write the static state when it is created") {
+        assert(staticStateOpt(events1) map (_.found) === Some(false))
+        assert(written)
+      }
+
+      it("must restore the static state after the memory caches are emptied") {
+        assert(staticStateOpt(events2) === Some(StaticState(found = true, digestOpt.get)))
+      }
+
+    } finally {
+      XFormsStaticStateCache.persistentDirectoryForTests = None
+      Option(directory.listFiles) foreach (_ foreach (_.delete()))
+      directory.delete()
+    }
   }
 }
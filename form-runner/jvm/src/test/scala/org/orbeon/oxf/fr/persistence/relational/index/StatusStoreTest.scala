@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.relational.index
+
+import org.junit.Test
+import org.orbeon.oxf.fr.persistence.relational.index.status._
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+class StatusStoreTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  val Key        = "mysql:test"
+  val TimeToLive = 1000L
+
+  @Test def checkpointProgress(): Unit = {
+
+    StatusStore.setCheckpoint(Key, Checkpoint(Map.empty, created = 0L))
+    StatusStore.addCompletedForm(Key, FormVersion("acme", "order", 1), 10)
+    StatusStore.addCompletedForm(Key, FormVersion("acme", "order", 2), 20)
+
+    assert(
+      StatusStore.findValidCheckpoint(Key, now = TimeToLive - 1, TimeToLive) ===
+        Some(Checkpoint(Map(FormVersion("acme", "order", 1) → 10, FormVersion("acme", "order", 2) → 20), created = 0L))
+    )
+
+    StatusStore.removeCheckpoint(Key)
+    assert(StatusStore.getCheckpoint(Key).isEmpty)
+  }
+
+  @Test def expiredCheckpointIsRemoved(): Unit = {
+
+    StatusStore.setCheckpoint(Key, Checkpoint(Map(FormVersion("acme", "order", 1) → 10), created = 0L))
+
+    assert(StatusStore.findValidCheckpoint(Key, now = TimeToLive, TimeToLive).isEmpty)
+    assert(StatusStore.getCheckpoint(Key).isEmpty)
+  }
+
+  @Test def noProgressWithoutCheckpoint(): Unit = {
+
+    StatusStore.removeCheckpoint(Key)
+    StatusStore.addCompletedForm(Key, FormVersion("acme", "order", 1), 10)
+
+    assert(StatusStore.getCheckpoint(Key).isEmpty)
+  }
+
+  @Test def documentCountOnlyWhileIndexing(): Unit = {
+
+    StatusStore.setStatus(Stopped)
+    Backend.setProviderDocumentCount(current = 5, total = 10)
+    assert(StatusStore.getStatus === Stopped)
+
+    StatusStore.setStatus(Indexing("mysql", Count(1, 1), None))
+    Backend.setProviderDocumentCount(current = 5, total = 10)
+    Backend.addProviderDocumentsIndexed(3)
+    assert(StatusStore.getStatus === Indexing("mysql", Count(1, 1), Some(Count(current = 8, total = 10))))
+
+    StatusStore.setStatus(Stopped)
+  }
+}
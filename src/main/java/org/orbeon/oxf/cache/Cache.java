@@ -27,4 +27,5 @@ public interface Cache {
     int getCurrentSize();
     int getMaxSize();
     void setMaxSize(int maxSize);
+    InFlightBuilds getInFlightBuilds();
 }
@@ -36,4 +36,20 @@ public interface CacheStatistics {
     public int getMissCount();
     public int getAddCount();
     public int getExpirationCount();
+
+    /**
+     * Number of failed cache reads which waited for another thread to build the same object
+     */
+    public int getDedupCount();
+
+    /**
+     * Number of objects built after a failed cache read, and total time in milliseconds spent building them
+     */
+    public int getBuildCount();
+    public long getBuildTime();
+
+    /**
+     * Number of failed cache reads which stopped waiting for another thread and built the object themselves
+     */
+    public int getWaitTimeoutCount();
 }
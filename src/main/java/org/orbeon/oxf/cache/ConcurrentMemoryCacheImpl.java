@@ -0,0 +1,405 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent memory cache implementation.
+ *
+ * Unlike MemoryCacheImpl, reads and writes don't go through a global monitor: entries live in a ConcurrentHashMap and
+ * each entry records its last access time. Eviction is approximate LRU: when the cache goes over its bounds, a single
+ * thread selects a batch of the least recently used entries from a snapshot of last access times, and evicts them. The
+ * batch is 1/EVICTION_BATCH_RATIO of the entries, so that the cost of going through all the entries is amortized over
+ * subsequent additions.
+ *
+ * The cache is bounded by number of entries and, optionally, by weight in bytes. Objects implementing Sized report
+ * their own weight, other objects are assumed to weigh DEFAULT_WEIGHT bytes.
+ */
+public class ConcurrentMemoryCacheImpl implements Cache, CacheStatistics {
+
+    public static final long DEFAULT_WEIGHT = 1024;
+
+    // Evict 1/EVICTION_BATCH_RATIO of the entries below the bound at once
+    private static final int EVICTION_BATCH_RATIO = 16;
+
+    private static class Entry extends CacheEntry {
+        public final long weight;
+        public volatile long lastAccess;
+
+        public Entry(CacheKey key, Object validity, Object cacheable, long weight) {
+            this.key = key;
+            this.validity = validity;
+            this.cacheable = cacheable;
+            this.weight = weight;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    // Last access time of an entry at the time of a snapshot, as the entry's own keeps changing while sorting
+    private static class AccessSnapshot {
+        public final Entry entry;
+        public final long lastAccess;
+
+        public AccessSnapshot(Entry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    private static final Comparator<AccessSnapshot> LEAST_RECENTLY_USED_FIRST = new Comparator<AccessSnapshot>() {
+        public int compare(AccessSnapshot s1, AccessSnapshot s2) {
+            return s1.lastAccess < s2.lastAccess ? -1 : s1.lastAccess == s2.lastAccess ? 0 : 1;
+        }
+    };
+
+    private static final Comparator<AccessSnapshot> MOST_RECENTLY_USED_FIRST = Collections.reverseOrder(LEAST_RECENTLY_USED_FIRST);
+
+    private final ConcurrentHashMap<CacheKey, Entry> keyToEntryMap = new ConcurrentHashMap<CacheKey, Entry>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong currentWeight = new AtomicLong();
+
+    private volatile int maxSize;
+    private volatile long maxWeight;
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger addCount = new AtomicInteger();
+    private final AtomicInteger expirationCount = new AtomicInteger();
+
+    private final InFlightBuilds inFlightBuilds = new InFlightBuilds();
+
+    public ConcurrentMemoryCacheImpl(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * @param maxSize   maximum number of entries
+     * @param maxWeight maximum weight in bytes, or 0 if the weight is not bounded
+     */
+    public ConcurrentMemoryCacheImpl(int maxSize, long maxWeight) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        if (key == null || validity == null || maxSize == 0) return;
+
+        final Entry newEntry = new Entry(key, validity, cacheable, weigh(cacheable));
+        final Entry oldEntry = keyToEntryMap.put(key, newEntry);
+
+        currentWeight.addAndGet(oldEntry == null ? newEntry.weight : newEntry.weight - oldEntry.weight);
+
+        if (oldEntry == null) {
+            addCount.incrementAndGet();
+            // Notify object
+            notifyAdded(cacheable);
+        }
+
+        if (isOverBounds())
+            tryEvict(newEntry, maxSize, maxWeight);
+    }
+
+    public void remove(CacheKey key) {
+        final Entry entry = keyToEntryMap.remove(key);
+        if (entry != null) {
+            currentWeight.addAndGet(-entry.weight);
+            notifyRemoved(entry.cacheable);
+        }
+    }
+
+    public int removeAll() {
+        int count = 0;
+        for (final Entry entry : keyToEntryMap.values()) {
+            if (keyToEntryMap.remove(entry.key, entry)) {
+                currentWeight.addAndGet(-entry.weight);
+                notifyRemoved(entry.cacheable);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Find valid entry and mark it as recently used
+    public Object findValid(CacheKey key, Object validity) {
+        final Entry entry = keyToEntryMap.get(key);
+        if (entry != null && lowerOrEqual(validity, entry.validity)) {
+            entry.lastAccess = System.nanoTime();
+            hitCount.incrementAndGet();
+            return entry.cacheable;
+        } else {
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Like findValid but remove from the cache (with removed() notification)
+    public Object takeValid(CacheKey key, Object validity) {
+        final Entry entry = keyToEntryMap.get(key);
+        if (entry != null && lowerOrEqual(validity, entry.validity) && keyToEntryMap.remove(key, entry)) {
+            currentWeight.addAndGet(-entry.weight);
+            hitCount.incrementAndGet();
+            notifyRemoved(entry.cacheable);
+            return entry.cacheable;
+        } else {
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        // Don't update statistics here
+        return keyToEntryMap.get(key);
+    }
+
+    // Iterate from the most recently used entry to the least recently used entry
+    public Iterator<CacheKey> iterateCacheKeys() {
+        final List<AccessSnapshot> snapshots = snapshotEntries();
+        Collections.reverse(snapshots);
+        final List<CacheKey> result = new ArrayList<CacheKey>(snapshots.size());
+        for (final AccessSnapshot snapshot : snapshots)
+            result.add(snapshot.entry.key);
+        return result.iterator();
+    }
+
+    // Iterate from the most recently used entry to the least recently used entry
+    public Iterator<Object> iterateCacheObjects() {
+        final List<AccessSnapshot> snapshots = snapshotEntries();
+        Collections.reverse(snapshots);
+        final List<Object> result = new ArrayList<Object>(snapshots.size());
+        for (final AccessSnapshot snapshot : snapshots)
+            result.add(snapshot.entry.cacheable);
+        return result.iterator();
+    }
+
+    public int getCurrentSize() {
+        return keyToEntryMap.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize != this.maxSize) {
+            this.maxSize = maxSize;
+            if (isOverBounds())
+                tryEvict(null, maxSize, maxWeight);
+        }
+    }
+
+    public long getCurrentWeight() {
+        return currentWeight.get();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        if (maxWeight != this.maxWeight) {
+            this.maxWeight = maxWeight;
+            if (isOverBounds())
+                tryEvict(null, maxSize, maxWeight);
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    public int getAddCount() {
+        return addCount.get();
+    }
+
+    public int getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    public InFlightBuilds getInFlightBuilds() {
+        return inFlightBuilds;
+    }
+
+    public int getDedupCount() {
+        return inFlightBuilds.getDedupCount();
+    }
+
+    public int getBuildCount() {
+        return inFlightBuilds.getBuildCount();
+    }
+
+    public long getBuildTime() {
+        return inFlightBuilds.getBuildTime();
+    }
+
+    public int getWaitTimeoutCount() {
+        return inFlightBuilds.getWaitTimeoutCount();
+    }
+
+    private boolean isOverBounds() {
+        return keyToEntryMap.size() > maxSize || (maxWeight > 0 && currentWeight.get() > maxWeight);
+    }
+
+    private void tryEvict(Entry justAdded, int maxSize, long maxWeight) {
+
+        // Only one thread evicts at a time, and other threads don't wait for it
+        if (! evictionLock.tryLock())
+            return;
+
+        try {
+            final int  targetSize   = maxSize   - maxSize   / EVICTION_BATCH_RATIO;
+            final long targetWeight = maxWeight - maxWeight / EVICTION_BATCH_RATIO;
+
+            // Evict at least a batch, so that the next additions don't have to go through all the entries again
+            final int currentSize = keyToEntryMap.size();
+            final int batchSize = Math.max(currentSize - targetSize, Math.max(1, currentSize / EVICTION_BATCH_RATIO));
+
+            final List<Entry> candidates = leastRecentlyUsedEntries(batchSize, justAdded);
+
+            // Don't evict the entry just added unless there is no other choice
+            if (justAdded != null && candidates.size() < batchSize)
+                candidates.add(justAdded);
+
+            for (final Entry entry : candidates) {
+                final boolean overSize   = keyToEntryMap.size() > targetSize;
+                final boolean overWeight = maxWeight > 0 && currentWeight.get() > targetWeight;
+                if (! overSize && ! overWeight)
+                    break;
+
+                // If the entry can't be evicted (e.g. it is locked), try the next one. If no entry can be evicted, the
+                // cache will grow over its bounds.
+                tryEvict(entry);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean tryEvict(Entry entry) {
+
+        // Obtain lock if possible
+        final Lock lock;
+        final boolean canEvict;
+        if (entry.cacheable instanceof Cacheable) {
+            lock = ((Cacheable) entry.cacheable).getEvictionLock();
+            canEvict = lock == null || lock.tryLock();
+        } else {
+            lock = null;
+            canEvict = true;
+        }
+
+        // Only remove object if we are allowed to
+        if (canEvict) {
+            try {
+                // Entry might have been removed or replaced concurrently
+                if (keyToEntryMap.remove(entry.key, entry)) {
+                    currentWeight.addAndGet(-entry.weight);
+                    expirationCount.incrementAndGet();
+                    notifyEvicted(entry.cacheable);
+                }
+            } finally {
+                // Release lock if we got one
+                if (lock != null)
+                    lock.unlock();
+            }
+        }
+
+        return canEvict;
+    }
+
+    // Snapshot of the entries, least recently used first
+    private List<AccessSnapshot> snapshotEntries() {
+        final List<AccessSnapshot> snapshots = new ArrayList<AccessSnapshot>(keyToEntryMap.size());
+        for (final Entry entry : keyToEntryMap.values())
+            snapshots.add(new AccessSnapshot(entry));
+        Collections.sort(snapshots, LEAST_RECENTLY_USED_FIRST);
+        return snapshots;
+    }
+
+    // Up to `count` least recently used entries, least recently used first, in O(n log count)
+    private List<Entry> leastRecentlyUsedEntries(int count, Entry excluded) {
+        // Keep the `count` least recently used entries seen so far, with the most recently used of them at the head
+        final PriorityQueue<AccessSnapshot> queue = new PriorityQueue<AccessSnapshot>(count + 1, MOST_RECENTLY_USED_FIRST);
+        for (final Entry entry : keyToEntryMap.values()) {
+            if (entry == excluded)
+                continue;
+            final AccessSnapshot snapshot = new AccessSnapshot(entry);
+            if (queue.size() < count) {
+                queue.add(snapshot);
+            } else if (snapshot.lastAccess < queue.peek().lastAccess) {
+                queue.poll();
+                queue.add(snapshot);
+            }
+        }
+
+        final List<AccessSnapshot> snapshots = new ArrayList<AccessSnapshot>(queue);
+        Collections.sort(snapshots, LEAST_RECENTLY_USED_FIRST);
+
+        final List<Entry> entries = new ArrayList<Entry>(snapshots.size() + 1);
+        for (final AccessSnapshot snapshot : snapshots)
+            entries.add(snapshot.entry);
+        return entries;
+    }
+
+    private static long weigh(Object object) {
+        return object instanceof Sized ? ((Sized) object).getApproximateSize() : DEFAULT_WEIGHT;
+    }
+
+    private void notifyAdded(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).added();
+        }
+    }
+
+    private void notifyRemoved(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).removed();
+        }
+    }
+
+    private void notifyEvicted(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).evicted();
+        }
+    }
+
+    private boolean lowerOrEqual(Object left, Object right) {
+        if (left instanceof List && right instanceof List) {
+            List leftList = (List) left;
+            List rightList = (List) right;
+            if (leftList.size() != rightList.size())
+                return false;
+            for (Iterator leftIterator = leftList.iterator(), rightIterator = rightList.iterator();leftIterator.hasNext();) {
+                Object leftObject = leftIterator.next();
+                Object rightObject = rightIterator.next();
+                if (!lowerOrEqual(leftObject, rightObject))
+                    return false;
+            }
+            return true;
+        } else if (left instanceof Long && right instanceof Long) {
+            return (Long) left <= (Long) right;
+        } else {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep track of objects being built after a failed cache read, so that only one thread builds a given object.
+ *
+ * A thread which misses the cache calls begin(). If no other thread is building the object for the same key and
+ * validity, it gets a Build, builds the object, stores it in the cache if possible, and calls end(). Otherwise, begin()
+ * waits until the other thread is done. If the other thread stored the object, begin() returns null and the caller
+ * looks in the cache again, calling begin() again if the object is already gone. If the other thread didn't store the
+ * object, because it can't be cached or because building it failed, begin() returns a Build which other threads don't
+ * wait for, so that threads waiting for the same build then build the object concurrently rather than one after the
+ * other.
+ *
+ * A thread waits at most 30 s for another thread. After that, it builds the object itself, so that a hung build, or two
+ * builds which each need the object the other is building, don't block threads forever.
+ */
+public class InFlightBuilds {
+
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 30 * 1000L;
+
+    public static class Build {
+        private final Key key;
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long startNanos = System.nanoTime();
+        private final boolean registered;
+        private volatile boolean stored;
+
+        private Build(Key key, boolean registered) {
+            this.key = key;
+            this.registered = registered;
+        }
+    }
+
+    private static class Key {
+        private final CacheKey key;
+        private final Object validity;
+
+        private Key(CacheKey key, Object validity) {
+            this.key = key;
+            this.validity = validity;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && key.equals(((Key) other).key) && validity.equals(((Key) other).validity);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + validity.hashCode();
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Build> builds = new ConcurrentHashMap<Key, Build>();
+    private final long maxWaitMillis;
+
+    private final AtomicInteger dedupCount = new AtomicInteger();
+    private final AtomicInteger buildCount = new AtomicInteger();
+    private final AtomicLong buildTimeNanos = new AtomicLong();
+    private final AtomicInteger waitTimeoutCount = new AtomicInteger();
+
+    public InFlightBuilds() {
+        this(DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    InFlightBuilds(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return the build to pass to end() if the caller must build the object, or null if the caller waited for
+     *         another thread to build it
+     */
+    public Build begin(CacheKey cacheKey, Object validity) {
+        final Key key = new Key(cacheKey, validity);
+        final Build newBuild = new Build(key, true);
+        final Build existingBuild = builds.putIfAbsent(key, newBuild);
+
+        if (existingBuild == null) {
+            return newBuild;
+        } else if (existingBuild.owner == Thread.currentThread()) {
+            // Building the object requires the same object: build it again rather than wait for ourselves
+            return new Build(key, false);
+        } else {
+            if (awaitUninterruptibly(existingBuild.done, maxWaitMillis)) {
+                if (existingBuild.stored) {
+                    dedupCount.incrementAndGet();
+                    return null;
+                } else {
+                    // Nothing to find in the cache: build the object too, without making other threads wait for this
+                    // build
+                    return new Build(key, false);
+                }
+            } else {
+                // Waited long enough: build the object too, without making other threads wait for this build
+                waitTimeoutCount.incrementAndGet();
+                return new Build(key, false);
+            }
+        }
+    }
+
+    /**
+     * Must be called once the object is built, or if building it failed.
+     *
+     * @param stored whether the object was stored in the cache
+     */
+    public void end(Build build, boolean stored) {
+        build.stored = stored;
+        if (build.registered)
+            builds.remove(build.key, build);
+        build.done.countDown();
+
+        buildCount.incrementAndGet();
+        buildTimeNanos.addAndGet(System.nanoTime() - build.startNanos);
+    }
+
+    public int getDedupCount() {
+        return dedupCount.get();
+    }
+
+    public int getBuildCount() {
+        return buildCount.get();
+    }
+
+    public long getBuildTime() {
+        return TimeUnit.NANOSECONDS.toMillis(buildTimeNanos.get());
+    }
+
+    public int getWaitTimeoutCount() {
+        return waitTimeoutCount.get();
+    }
+
+    // Return false if the latch was still not counted down after the given time
+    private static boolean awaitUninterruptibly(CountDownLatch latch, long timeoutMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
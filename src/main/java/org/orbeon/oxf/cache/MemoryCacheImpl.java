@@ -27,7 +27,7 @@ import java.util.concurrent.locks.Lock;
  *
  * @noinspection SimplifiableIfStatement
  */
-public class MemoryCacheImpl implements Cache {
+public class MemoryCacheImpl implements Cache, CacheStatistics {
 
     private int maxSize;
 
@@ -35,6 +35,13 @@ public class MemoryCacheImpl implements Cache {
     private CacheLinkedList linkedList = new CacheLinkedList();
     private int currentSize;
 
+    private int hitCount;
+    private int missCount;
+    private int addCount;
+    private int expirationCount;
+
+    private final InFlightBuilds inFlightBuilds = new InFlightBuilds();
+
     public MemoryCacheImpl(int maxSize) {
         this.maxSize = maxSize;
     }
@@ -51,6 +58,7 @@ public class MemoryCacheImpl implements Cache {
                 // maxsize.
             }
             currentSize++;
+            addCount++;
 
             entry = new CacheEntry();
             entry.key = key;
@@ -123,6 +131,7 @@ public class MemoryCacheImpl implements Cache {
 
             // Notify object
             if (isEvict) {
+                expirationCount++;
                 notifyEvicted(entry.cacheable);
             } else if (isRemove) {
                 notifyRemoved(entry.cacheable);
@@ -176,6 +185,8 @@ public class MemoryCacheImpl implements Cache {
         final CacheEntry entry = keyToEntryMap.get(key);
         if (entry != null && lowerOrEqual(validity, entry.validity)) {
 
+            hitCount++;
+
             if (remove) {
                 // Remove and notify
                 remove(key, false, true);
@@ -188,6 +199,7 @@ public class MemoryCacheImpl implements Cache {
             return entry.cacheable;
         } else {
             // Not latest validity
+            missCount++;
             return null;
         }
     }
@@ -221,6 +233,42 @@ public class MemoryCacheImpl implements Cache {
         }
     }
 
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getAddCount() {
+        return addCount;
+    }
+
+    public synchronized int getExpirationCount() {
+        return expirationCount;
+    }
+
+    public InFlightBuilds getInFlightBuilds() {
+        return inFlightBuilds;
+    }
+
+    public int getDedupCount() {
+        return inFlightBuilds.getDedupCount();
+    }
+
+    public int getBuildCount() {
+        return inFlightBuilds.getBuildCount();
+    }
+
+    public long getBuildTime() {
+        return inFlightBuilds.getBuildTime();
+    }
+
+    public int getWaitTimeoutCount() {
+        return inFlightBuilds.getWaitTimeoutCount();
+    }
+
     public Iterator<CacheKey> iterateCacheKeys() {
         return new TransformIterator(linkedList.iterator(), new Transformer() {
             public Object transform(Object o) {
@@ -13,27 +13,38 @@
  */
 package org.orbeon.oxf.cache;
 
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
 
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Factory for ObjectCache instances.
+ *
+ * The cache implementation is selected with the `oxf.[cache-name].implementation` property:
+ *
+ * - `memory`: MemoryCacheImpl, an LRU cache guarded by a single monitor (the default)
+ * - `concurrent`: ConcurrentMemoryCacheImpl, an approximate LRU cache without global lock, which can also be bounded
+ *   by weight in bytes with the `oxf.[cache-name].max-weight` property
  */
 public class ObjectCache {
 
-    private static final String DEFAULT_CACHE_NAME = "cache.main";
+    public static final String MEMORY_IMPLEMENTATION = "memory";
+    public static final String CONCURRENT_IMPLEMENTATION = "concurrent";
+
     private static final int DEFAULT_SIZE = 200;
 
     private static final String CACHE_PROPERTY_NAME_PREFIX = "oxf.";
     private static final String CACHE_PROPERTY_NAME_SIZE_SUFFIX = ".size";
+    private static final String CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX = ".implementation";
+    private static final String CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX = ".max-weight";
 
     private static final Map<String, Cache> namedObjectCaches = new HashMap<String, Cache>();
 
-    static {
-        namedObjectCaches.put(DEFAULT_CACHE_NAME, new MemoryCacheImpl(DEFAULT_SIZE));
-    }
+    // The main cache is created before properties are available, see configureMainCache()
+    private static volatile Cache mainCache = new MemoryCacheImpl(DEFAULT_SIZE);
 
     private ObjectCache() {}
 
@@ -43,7 +54,7 @@ public class ObjectCache {
      * @return instance of cache
      */
     public static Cache instance() {
-        return namedObjectCaches.get(DEFAULT_CACHE_NAME);
+        return mainCache;
     }
 
     /**
@@ -56,11 +67,53 @@ public class ObjectCache {
     public synchronized static Cache instance(String cacheName, int defaultSize) {
         Cache cache = namedObjectCaches.get(cacheName);
         if (cache == null) {
-            final String propertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX;
-            final Integer size = Properties.instance().getPropertySet().getInteger(propertyName, defaultSize);
-            cache = new MemoryCacheImpl(size);
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+            final String propertyPrefix = CACHE_PROPERTY_NAME_PREFIX + cacheName;
+            final Integer size = propertySet.getInteger(propertyPrefix + CACHE_PROPERTY_NAME_SIZE_SUFFIX, defaultSize);
+            final String implementation = propertySet.getString(propertyPrefix + CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX, MEMORY_IMPLEMENTATION);
+            final Integer maxWeight = propertySet.getInteger(propertyPrefix + CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX, 0);
+            cache = createCache(implementation, size, maxWeight);
             namedObjectCaches.put(cacheName, cache);
         }
         return cache;
     }
+
+    /**
+     * Configure the main cache once properties are available. If the requested implementation differs from the
+     * current one, the main cache is replaced by an empty cache of the requested implementation.
+     *
+     * @param implementation    `memory` or `concurrent`
+     * @param maxSize           maximum number of entries, or null to keep the current size
+     * @param maxWeight         maximum weight in bytes for the `concurrent` implementation, 0 if unbounded
+     */
+    public static void configureMainCache(String implementation, Integer maxSize, long maxWeight) {
+        // Called for each request so avoid taking the lock in the common case
+        if (! isImplementation(mainCache, implementation, maxWeight)) {
+            synchronized (ObjectCache.class) {
+                final Cache currentCache = mainCache;
+                if (! isImplementation(currentCache, implementation, maxWeight)) {
+                    mainCache = createCache(implementation, maxSize != null ? maxSize : currentCache.getMaxSize(), maxWeight);
+                    currentCache.removeAll();
+                }
+            }
+        }
+        if (maxSize != null)
+            mainCache.setMaxSize(maxSize);
+    }
+
+    private static boolean isImplementation(Cache cache, String implementation, long maxWeight) {
+        if (CONCURRENT_IMPLEMENTATION.equals(implementation))
+            return cache instanceof ConcurrentMemoryCacheImpl && ((ConcurrentMemoryCacheImpl) cache).getMaxWeight() == maxWeight;
+        else
+            return cache instanceof MemoryCacheImpl;
+    }
+
+    private static Cache createCache(String implementation, int maxSize, long maxWeight) {
+        if (CONCURRENT_IMPLEMENTATION.equals(implementation))
+            return new ConcurrentMemoryCacheImpl(maxSize, maxWeight);
+        else if (MEMORY_IMPLEMENTATION.equals(implementation))
+            return new MemoryCacheImpl(maxSize);
+        else
+            throw new OXFException("Invalid cache implementation: " + implementation);
+    }
 }
@@ -58,6 +58,9 @@ public class PipelineContext implements PropertyContext {
     private static ThreadLocal<PipelineContext> threadLocal = new ThreadLocal<PipelineContext>();
     private PipelineContext originalPipelineContext;
 
+    // Context this context is branched from, if any
+    private PipelineContext parent;
+
     /**
      * Create a new pipeline context.
      */
@@ -67,6 +70,29 @@ public class PipelineContext implements PropertyContext {
         threadLocal.set(this);
     }
 
+    /**
+     * Create a branch of a pipeline context, to run part of a pipeline on another thread.
+     *
+     * The branch starts with the given attributes, usually obtained with copyAttributes() on the parent's thread, and
+     * attributes set later on either context are not visible to the other. Listeners are added to the parent, so that
+     * resources used by the branch are released when the whole pipeline terminates.
+     *
+     * @param parent     context to branch from
+     * @param attributes initial attributes of the branch
+     */
+    public PipelineContext(PipelineContext parent, Map<Object, Object> attributes) {
+        this();
+        this.parent = parent;
+        this.attributes.putAll(attributes);
+    }
+
+    /**
+     * Return a shallow copy of the attributes of this context.
+     */
+    public synchronized Map<Object, Object> copyAttributes() {
+        return new HashMap<Object, Object>(attributes);
+    }
+
     public static PipelineContext get() {
         return threadLocal.get();
     }
@@ -97,6 +123,10 @@ public class PipelineContext implements PropertyContext {
      * @param listener listener to add
      */
     public synchronized void addContextListener(ContextListener listener) {
+        if (parent != null) {
+            parent.addContextListener(listener);
+            return;
+        }
         if (listeners == null)
             listeners = new ArrayList<ContextListener>();
         listeners.add(listener);
@@ -19,10 +19,11 @@ import org.orbeon.dom.DocumentFactory;
 import org.orbeon.dom.Element;
 import org.orbeon.dom.Node;
 import org.orbeon.exception.OrbeonFormatter;
+import org.orbeon.oxf.cache.Cache;
 import org.orbeon.oxf.cache.CacheKey;
 import org.orbeon.oxf.cache.InternalCacheKey;
 import org.orbeon.oxf.cache.ObjectCache;
-import org.orbeon.oxf.cache.SoftCacheImpl;
+import org.orbeon.oxf.cache.Sized;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.http.StatusCode;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
@@ -33,6 +34,7 @@ import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.NetUtils;
 import org.orbeon.oxf.util.NumberUtils;
 import org.orbeon.oxf.externalcontext.ExternalContext;
+import org.orbeon.oxf.externalcontext.WebAppListener;
 import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.xml.XPathUtils;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
@@ -49,6 +51,8 @@ import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ImageServer directly serves or converts to its "data" output images from URLs while performing
@@ -57,6 +61,12 @@ import java.util.List;
  *
  * NOTE: The JPEG quality parameter only applies when a transformation is done. There is no
  * provision to do a quality conversion only.
+ *
+ * Decoded images are kept in a memory-bounded cache shared by all instances (`oxf.cache.image-server.*` properties).
+ * Concurrent requests for the same image wait for a single decoding. Decoding and transforms run on a pool of
+ * `transform-threads` threads, which bounds the memory used by images being processed. Whether files of the disk
+ * cache are up to date is remembered in memory, so that serving a cached file doesn't require checking the file
+ * system. If such a file was removed since, it is generated again.
  */
 public class ImageServer extends ProcessorImpl {
 
@@ -72,7 +82,19 @@ public class ImageServer extends ProcessorImpl {
     private static final boolean DEFAULT_USE_CACHE = true;
     private static final boolean DEFAULT_SCALE_UP = true;
 
-    private SoftCacheImpl cache;
+    private static final String DECODED_IMAGES_CACHE_NAME = "cache.image-server";
+    private static final int DEFAULT_DECODED_IMAGES_CACHE_SIZE = 50;
+
+    private static final String TRANSFORM_THREADS_PROPERTY = "transform-threads";
+    private static final int DEFAULT_TRANSFORM_THREADS = 4;
+
+    // Decodings in progress, by decoded image cache key
+    private static final ConcurrentMap<String, FutureTask<BufferedImage>> decodings = new ConcurrentHashMap<String, FutureTask<BufferedImage>>();
+
+    // Last modification time of up to date disk cache files, by absolute path
+    private static final ConcurrentMap<String, Long> diskCacheIndex = new ConcurrentHashMap<String, Long>();
+
+    private static ExecutorService transformExecutor;
 
     public ImageServer() {
         addInputInfo(new ProcessorInputOutputInfo(INPUT_CONFIG, IMAGE_SERVER_CONFIG_NAMESPACE_URI));
@@ -94,7 +116,6 @@ public class ImageServer extends ProcessorImpl {
         public Boolean useCache;
         public Object transforms;
         public int transformCount;
-        public Iterator transformIterator;
     }
 
     public void processImage(PipelineContext pipelineContext, ImageResponse imageResponse) {
@@ -158,7 +179,6 @@ public class ImageServer extends ProcessorImpl {
                     if (transforms != null && transforms instanceof Node)
                         transforms = Collections.singletonList(transforms);
                     result.transforms = transforms;
-                    result.transformIterator = XPathUtils.selectNodeIterator(imageConfigDocument, "/image/transform");
 
                     return result;
                 }
@@ -203,7 +223,7 @@ public class ImageServer extends ProcessorImpl {
                 // Cache handling
                 String cacheFileName = useCache ? computeCacheFileName(config.cachePathEncoding, imageConfig.urlString, (List<Element>) imageConfig.transforms) : null;
                 File cacheFile = useCache ? new File(config.cacheDir, cacheFileName) : null;
-                boolean cacheInvalid = !useCache || !cacheFile.exists() || lastModified == 0 || lastModified > cacheFile.lastModified() || cacheFile.length() == 0;
+                boolean cacheInvalid = !useCache || lastModified == 0 || !isDiskCacheFileValid(cacheFile, lastModified);
                 boolean mustProcess = cacheInvalid;
                 boolean updateCache = useCache && cacheInvalid;
 
@@ -226,77 +246,25 @@ public class ImageServer extends ProcessorImpl {
                 }
 
                 // Process image if needed
-                if (mustProcess) {
-                    boolean closeOutputStream = false;
-                    OutputStream os = null;
-                    try {
-                        // Try to obtain decoded image from cache first
-                        Long cacheValidity = lastModified;
-                        String cacheKey = "[" + newURL.toExternalForm() + "][" + cacheValidity + "]";
-                        BufferedImage img1;
-                        // Decode one image at a time to try to minimize the memory impact
-                        // NOTE: This should probably be configurable
-                        synchronized (ImageServer.this) {
-                            img1 = (cache == null) ? null : (BufferedImage) cache.get(cacheKey);
-                            // If this failed (most common case) decode the image
-                            if (img1 == null) {
-                                // Decode image into BufferedImage
-                                img1 = ImageIO.read(urlConnectionInputStream);
-
-                                // Store the image into the soft cache
-                                if (cache == null)
-                                    cache = new SoftCacheImpl(0);
-                                cache.put(cacheKey, img1);
-                            } else {
-                                cache.refresh(cacheKey);
-                                //logger.info("Found image in cache with key: " + cacheKey);
-                                logger.info("Found decoded image in cache");
-                            }
-                        }
-
-                        // Filter image
-                        BufferedImage img2 = filter(img1, imageConfig.transformIterator);
-
-                        // Create OutputStream
-                        if (updateCache) {
-                            File outputDir = cacheFile.getParentFile();
-                            if (!outputDir.exists() && !outputDir.mkdirs()) {
-                                logger.info("Cannot create cache directory: " + outputDir.getCanonicalPath());
-                                imageResponse.setStatus(StatusCode.InternalServerError());
-                                return;
-                            }
-                            os = new FileOutputStream(cacheFile);
-                            closeOutputStream = true;
-                        } else {
-                            os = imageResponse.getOutputStream();
-                        }
-
-                        // Encode image to OutputStream
-
-                        final Iterator writers = ImageIO.getImageWritersByFormatName("jpeg");
-                        final ImageWriter writer = (ImageWriter) writers.next();
-
-                        writer.setOutput(ImageIO.createImageOutputStream(os));
-
-                        final ImageWriteParam params = writer.getDefaultWriteParam();
-
-                        // Set quality
-                        params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                        params.setCompressionQuality(quality);
-
-                        writer.write(img2);
-                    } catch (OXFException e) {
-                        logger.error(OrbeonFormatter.format(e));
-                        imageResponse.setStatus(StatusCode.InternalServerError());
-                        return;
-                    } finally {
-                        if (os != null && closeOutputStream) os.close();
-                    }
-                }
+                final List<Node> transforms = (List<Node>) imageConfig.transforms;
+                if (mustProcess && !writeImage(imageResponse, newURL, lastModified, urlConnectionInputStream, transforms, quality, updateCache ? cacheFile : null))
+                    return;
 
                 // Send cached image if relevant
                 if (useCache) {
-                    InputStream is = new FileInputStream(cacheFile);
+                    InputStream is;
+                    try {
+                        is = new FileInputStream(cacheFile);
+                    } catch (FileNotFoundException e) {
+                        // The file was removed from the disk cache since it was found up to date
+                        diskCacheIndex.remove(cacheFile.getAbsolutePath());
+                        if (mustProcess)
+                            throw e;
+                        // The image wasn't processed yet, so process it again into the disk cache
+                        if (!writeImage(imageResponse, newURL, lastModified, urlConnectionInputStream, transforms, quality, cacheFile))
+                            return;
+                        is = new FileInputStream(cacheFile);
+                    }
                     OutputStream os = imageResponse.getOutputStream();
                     try {
                         NetUtils.copyStream(is, os);
@@ -460,6 +428,193 @@ public class ImageServer extends ProcessorImpl {
         public OutputStream getOutputStream() throws IOException;
     }
 
+    // Decode, transform and encode the image to the disk cache file if specified, or else to the response
+    // Return false if the response status was set because processing failed.
+    private boolean writeImage(ImageResponse imageResponse, URL url, long lastModified, InputStream inputStream,
+                               final List<Node> transforms, float quality, File cacheFile) throws IOException {
+        boolean closeOutputStream = false;
+        OutputStream os = null;
+        try {
+            // Decode image, or obtain it from the cache, then filter it
+            final BufferedImage img1 = decodeImage(url, lastModified, inputStream);
+            BufferedImage img2 = runTransform(new Callable<BufferedImage>() {
+                public BufferedImage call() {
+                    return filter(img1, transforms.iterator());
+                }
+            });
+
+            // Create OutputStream
+            if (cacheFile != null) {
+                File outputDir = cacheFile.getParentFile();
+                if (!outputDir.exists() && !outputDir.mkdirs()) {
+                    logger.info("Cannot create cache directory: " + outputDir.getCanonicalPath());
+                    imageResponse.setStatus(StatusCode.InternalServerError());
+                    return false;
+                }
+                os = new FileOutputStream(cacheFile);
+                closeOutputStream = true;
+            } else {
+                os = imageResponse.getOutputStream();
+            }
+
+            // Encode image to OutputStream
+
+            final Iterator writers = ImageIO.getImageWritersByFormatName("jpeg");
+            final ImageWriter writer = (ImageWriter) writers.next();
+
+            writer.setOutput(ImageIO.createImageOutputStream(os));
+
+            final ImageWriteParam params = writer.getDefaultWriteParam();
+
+            // Set quality
+            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setCompressionQuality(quality);
+
+            writer.write(img2);
+
+            // Close the file before recording that it is up to date
+            if (cacheFile != null) {
+                os.close();
+                closeOutputStream = false;
+                diskCacheIndex.put(cacheFile.getAbsolutePath(), cacheFile.lastModified());
+            }
+            return true;
+        } catch (OXFException e) {
+            logger.error(OrbeonFormatter.format(e));
+            imageResponse.setStatus(StatusCode.InternalServerError());
+            return false;
+        } finally {
+            if (os != null && closeOutputStream) os.close();
+        }
+    }
+
+    // Whether the disk cache file is up to date with respect to an image last modified at the given time
+    private static boolean isDiskCacheFileValid(File cacheFile, long lastModified) {
+        final String path = cacheFile.getAbsolutePath();
+        final Long indexedLastModified = diskCacheIndex.get(path);
+        if (indexedLastModified != null && lastModified <= indexedLastModified) {
+            return true;
+        } else {
+            final long fileLastModified = cacheFile.lastModified(); // 0 if the file doesn't exist
+            final boolean valid = fileLastModified != 0 && lastModified <= fileLastModified && cacheFile.length() > 0;
+            if (valid)
+                diskCacheIndex.put(path, fileLastModified);
+            else
+                diskCacheIndex.remove(path);
+            return valid;
+        }
+    }
+
+    // Decode the image from the stream, unless it is in the decoded images cache or another thread is decoding it
+    private BufferedImage decodeImage(URL url, long lastModified, final InputStream inputStream) {
+
+        final Cache cache = ObjectCache.instance(DECODED_IMAGES_CACHE_NAME, DEFAULT_DECODED_IMAGES_CACHE_SIZE);
+        final String urlString = url.toExternalForm();
+        final InternalCacheKey cacheKey = new InternalCacheKey("decoded-image", urlString);
+
+        final DecodedImage cachedImage = (DecodedImage) cache.findValid(cacheKey, lastModified);
+        if (cachedImage != null) {
+            logger.info("Found decoded image in cache");
+            return cachedImage.image;
+        }
+
+        final String decodingKey = "[" + urlString + "][" + lastModified + "]";
+        final FutureTask<BufferedImage> newDecoding = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+            public BufferedImage call() throws IOException {
+                final BufferedImage image = ImageIO.read(inputStream);
+                if (image == null)
+                    throw new OXFException("Unable to decode image");
+                return image;
+            }
+        });
+
+        final FutureTask<BufferedImage> existingDecoding = decodings.putIfAbsent(decodingKey, newDecoding);
+        if (existingDecoding != null)
+            return waitFor(existingDecoding);
+
+        try {
+            getTransformExecutor().execute(newDecoding);
+            final BufferedImage image = waitFor(newDecoding);
+            cache.add(cacheKey, lastModified, new DecodedImage(image));
+            return image;
+        } finally {
+            decodings.remove(decodingKey, newDecoding);
+        }
+    }
+
+    private BufferedImage runTransform(Callable<BufferedImage> transform) {
+        final FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(transform);
+        getTransformExecutor().execute(task);
+        return waitFor(task);
+    }
+
+    private static BufferedImage waitFor(Future<BufferedImage> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof OXFException)
+                throw (OXFException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new OXFException(cause);
+        }
+    }
+
+    private ExecutorService getTransformExecutor() {
+        synchronized (ImageServer.class) {
+            if (transformExecutor == null) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                final ExecutorService newExecutor = Executors.newFixedThreadPool(
+                    Math.max(getPropertySet().getInteger(TRANSFORM_THREADS_PROPERTY, DEFAULT_TRANSFORM_THREADS), 1),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "orbeon-image-server-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+                );
+
+                // Stop the threads with the application
+                final ExternalContext externalContext = NetUtils.getExternalContext();
+                if (externalContext != null) {
+                    externalContext.getWebAppContext().addListener(new WebAppListener() {
+                        public void webAppDestroyed() {
+                            synchronized (ImageServer.class) {
+                                newExecutor.shutdownNow();
+                                if (transformExecutor == newExecutor)
+                                    transformExecutor = null;
+                            }
+                        }
+                    });
+                }
+
+                transformExecutor = newExecutor;
+            }
+            return transformExecutor;
+        }
+    }
+
+    // Decoded image as stored in the cache, weighted by the size of its pixel data
+    private static class DecodedImage implements Sized {
+
+        public final BufferedImage image;
+
+        DecodedImage(BufferedImage image) {
+            this.image = image;
+        }
+
+        public long getApproximateSize() {
+            final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+            return (long) dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+        }
+    }
+
     private String computeCacheFileName(String type, String path, List<Element> nodes) {
         // Create digest document and digest
         Document document = DocumentFactory.createDocument();
@@ -499,7 +654,7 @@ public class ImageServer extends ProcessorImpl {
         }
     }
 
-    private synchronized BufferedImage filter(BufferedImage img, Iterator transformIterator) {
+    private BufferedImage filter(BufferedImage img, Iterator transformIterator) {
         // Copy the image to RGB if necessary (is there another way? Otherwise some images fail)
         BufferedImage srcImage = img;
         if (img.getType() != BufferedImage.TYPE_INT_RGB) {
@@ -349,40 +349,54 @@ public abstract class ProcessorImpl implements Processor {
         // Check in cache first
         KeyValidity keyValidity = getInputKeyValidity(pipelineContext, input);
 
+        InFlightBuilds.Build build = null;
+        boolean stored = false;
         if (keyValidity != null && keyValidity.key != null && keyValidity.validity != null) {
             // We got a key and a validity
-            final Object inputObject = cache.findValid(keyValidity.key, keyValidity.validity);
-            if (inputObject != null) {
-                // Return cached object
-                if (logger.isDebugEnabled())
-                    logger.debug("Cache " + debugInfo + ": source cacheable and found for key '" + keyValidity.key + "'. FOUND object: " + inputObject);
-
-                reader.foundInCache();
-                return (T) inputObject;
-            }
+            // If another thread is building the same object, wait for it and look in the cache again if it stored
+            // the object
+            do {
+                final Object inputObject = cache.findValid(keyValidity.key, keyValidity.validity);
+                if (inputObject != null) {
+                    // Return cached object
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cache " + debugInfo + ": source cacheable and found for key '" + keyValidity.key + "'. FOUND object: " + inputObject);
+
+                    reader.foundInCache();
+                    return (T) inputObject;
+                }
+                build = cache.getInFlightBuilds().begin(keyValidity.key, keyValidity.validity);
+            } while (build == null);
         }
 
-        if (logger.isDebugEnabled())
-            logger.debug("Cache " + debugInfo + ": READING.");
+        try {
+            if (logger.isDebugEnabled())
+                logger.debug("Cache " + debugInfo + ": READING.");
 
-        final T result = reader.read(pipelineContext, input);
+            final T result = reader.read(pipelineContext, input);
 
-        if (reader.allowCaching()) {
-            // Cache new result if possible, asking again for KeyValidity if needed
-            if (keyValidity == null || keyValidity.key == null || keyValidity.validity == null)
-                keyValidity = getInputKeyValidity(pipelineContext, input);
+            if (reader.allowCaching()) {
+                // Cache new result if possible, asking again for KeyValidity if needed
+                if (keyValidity == null || keyValidity.key == null || keyValidity.validity == null)
+                    keyValidity = getInputKeyValidity(pipelineContext, input);
 
-            if (keyValidity != null && keyValidity.key != null && keyValidity.validity != null) {
-                if (logger.isDebugEnabled())
-                    logger.debug("Cache " + debugInfo + ": source cacheable for key '" + keyValidity.key + "'. STORING object:" + result);
+                if (keyValidity != null && keyValidity.key != null && keyValidity.validity != null) {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Cache " + debugInfo + ": source cacheable for key '" + keyValidity.key + "'. STORING object:" + result);
 
-                cache.add(keyValidity.key, keyValidity.validity, result);
+                    cache.add(keyValidity.key, keyValidity.validity, result);
+                    stored = true;
 
-                reader.storedInCache();
+                    reader.storedInCache();
+                }
             }
-        }
 
-        return result;
+            return result;
+        } finally {
+            // Let threads waiting for the object look in the cache
+            if (build != null)
+                cache.getInFlightBuilds().end(build, stored);
+        }
     }
 
     /**
@@ -430,6 +444,20 @@ public abstract class ProcessorImpl implements Processor {
         return new ProcessorKey(parents, this);
     }
 
+    /**
+     * Return the attributes to branch a context with, see PipelineContext(PipelineContext, Map).
+     *
+     * This must be called on the thread using the context. The branch gets its own copy of the stack of parent
+     * processors, which that thread keeps pushing and popping while the branch computes processor keys from it.
+     */
+    public static Map<Object, Object> getBranchAttributes(PipelineContext context) {
+        final Map<Object, Object> attributes = context.copyAttributes();
+        final Stack<ProcessorImpl> parents = (Stack<ProcessorImpl>) attributes.get(PARENT_PROCESSORS);
+        if (parents != null)
+            attributes.put(PARENT_PROCESSORS, parents.clone());
+        return attributes;
+    }
+
     public void start(PipelineContext pipelineContext) {
         throw new ValidationException("Start not supported; processor implemented by '"
                 + getClass().getName() + "'", locationData);
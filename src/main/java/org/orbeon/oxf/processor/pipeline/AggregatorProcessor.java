@@ -23,21 +23,33 @@ import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.processor.*;
 import org.orbeon.oxf.processor.impl.CacheableTransformerOutputImpl;
 import org.orbeon.oxf.xml.EmbeddedDocumentXMLReceiver;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.xml.sax.SAXException;
 
 import java.util.*;
+import java.util.concurrent.Future;
 
 public class AggregatorProcessor extends ProcessorImpl {
 
     public static final String AGGREGATOR_NAMESPACE_URI = "http://www.orbeon.com/oxf/pipeline/aggregator";
 
+    // Data inputs which can be read concurrently with the others, see ParallelReads
+    private final Set<ProcessorInput> independentInputs = new HashSet<ProcessorInput>();
+
     public AggregatorProcessor() {
         addInputInfo(new ProcessorInputOutputInfo(INPUT_CONFIG, AGGREGATOR_NAMESPACE_URI));
         addInputInfo(new ProcessorInputOutputInfo(INPUT_DATA));
         addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
     }
 
+    /**
+     * Mark a data input as not sharing any processor with the other inputs or the rest of the pipeline.
+     */
+    public void addIndependentInput(ProcessorInput input) {
+        independentInputs.add(input);
+    }
+
     @Override
     public ProcessorOutput createOutput(String name) {
         final ProcessorOutput output = new CacheableTransformerOutputImpl(AggregatorProcessor.this, name) {
@@ -82,9 +94,21 @@ public class AggregatorProcessor extends ProcessorImpl {
                     xmlReceiver.startElement(rootNamespaceURI, rootLocalName, rootQName, SAXUtils.EMPTY_ATTRIBUTES);
 
                     // Processor input processors
-                    for (Iterator i = getInputsByName(INPUT_DATA).iterator(); i.hasNext();) {
-                        ProcessorInput input = (ProcessorInput) i.next();
-                        readInputAsSAX(context, input, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                    final List<ProcessorInput> inputs = getInputsByName(INPUT_DATA);
+                    final Map<ProcessorInput, Future<SAXStore>> parallelReads = startParallelReads(context, inputs);
+                    boolean success = false;
+                    try {
+                        for (final ProcessorInput input : inputs) {
+                            final Future<SAXStore> parallelRead = parallelReads.get(input);
+                            if (parallelRead != null)
+                                ParallelReads.waitFor(parallelRead).replay(new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                            else
+                                readInputAsSAX(context, input, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                        }
+                        success = true;
+                    } finally {
+                        if (!success)
+                            ParallelReads.waitForAll(parallelReads.values());
                     }
 
                     // End document
@@ -133,4 +157,25 @@ public class AggregatorProcessor extends ProcessorImpl {
         addOutput(name, output);
         return output;
     }
+
+    /**
+     * Start reading independent inputs on other threads, if enabled, while the calling thread reads the other inputs.
+     */
+    private Map<ProcessorInput, Future<SAXStore>> startParallelReads(PipelineContext context, List<ProcessorInput> inputs) {
+        final Map<ProcessorInput, Future<SAXStore>> result = new HashMap<ProcessorInput, Future<SAXStore>>();
+        if (inputs.size() > 1 && ParallelReads.isEnabled()) {
+            final List<ProcessorInput> parallelInputs = new ArrayList<ProcessorInput>();
+            for (final ProcessorInput input : inputs)
+                if (independentInputs.contains(input))
+                    parallelInputs.add(input);
+
+            // When all the inputs are independent, the first one is read directly while the others are being read
+            if (parallelInputs.size() == inputs.size())
+                parallelInputs.remove(0);
+
+            for (final ProcessorInput input : parallelInputs)
+                result.put(input, ParallelReads.submit(context, input));
+        }
+        return result;
+    }
 }
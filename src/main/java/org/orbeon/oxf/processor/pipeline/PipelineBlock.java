@@ -50,6 +50,12 @@ public class PipelineBlock {
     private Set inputIdAlreadyConnected = new HashSet();
     // Set of processors we create in the class for connection purposes
     private Set createdProcessors = new HashSet();
+    // Set of (String outputId) which can be read independently, see ASTPipeline.getIndependentOutputIds()
+    private Set<String> independentOutputIds = Collections.emptySet();
+
+    public void setIndependentOutputIds(Set<String> independentOutputIds) {
+        this.independentOutputIds = independentOutputIds;
+    }
 
     public void declareOutput(Node node, String id, ProcessorOutput output) {
         if (idToOutputMap.containsKey(id)) {
@@ -121,7 +127,7 @@ public class PipelineBlock {
             ASTHrefAggregate hrefAggregate = (ASTHrefAggregate) href;
 
             // Connect aggregator to config
-            final Processor aggregator = new AggregatorProcessor();
+            final AggregatorProcessor aggregator = new AggregatorProcessor();
             final Document aggregatorConfig = DocumentFactory.createDocument();
             final Element configElement = aggregatorConfig.addElement("config");
             configElement.addElement("root").addText(hrefAggregate.getRoot());
@@ -137,7 +143,11 @@ public class PipelineBlock {
             // Connect data input to aggregator
             for (Iterator i = hrefAggregate.getHrefs().iterator(); i.hasNext();) {
                 final ASTHref id = (ASTHref) i.next();
-                connectProcessorToHref(node, aggregator, ProcessorImpl.INPUT_DATA, id);
+                final ProcessorInput aggregatorInput = connectProcessorToHref(node, aggregator, ProcessorImpl.INPUT_DATA, id);
+
+                // A URL generator created for this input, or a processor only this input reads
+                if (id instanceof ASTHrefURL || id instanceof ASTHrefId && independentOutputIds.contains(((ASTHrefId) id).getId()))
+                    aggregator.addIndependentInput(aggregatorInput);
             }
 
             // Connect aggregator output to current processor
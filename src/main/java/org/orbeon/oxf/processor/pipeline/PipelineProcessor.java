@@ -161,6 +161,7 @@ public class PipelineProcessor extends ProcessorImpl {
         // Create new configuration object
         final PipelineConfig config = new PipelineConfig();
         final PipelineBlock block = new PipelineBlock();
+        block.setIndependentOutputIds(astPipeline.getIndependentOutputIds());
 
         // Create socket info for each param
         for (Iterator i = astPipeline.getParams().iterator(); i.hasNext();) {
@@ -13,11 +13,25 @@
  */
 package org.orbeon.oxf.processor.pipeline.ast;
 
+import org.orbeon.dom.QName;
+import org.orbeon.oxf.xml.XMLConstants;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ASTPipeline extends ASTNodeContainer {
 
+    // Processors which only read their inputs and have no other side effect, and so can run on another thread
+    private static final Set<QName> INDEPENDENT_PROCESSOR_NAMES = new HashSet<QName>(Arrays.asList(
+        XMLConstants.URL_GENERATOR_PROCESSOR_QNAME,
+        XMLConstants.IDENTITY_PROCESSOR_QNAME
+    ));
+
     private List<ASTParam> params = new ArrayList<ASTParam>();
     private List<ASTStatement> statements = new ArrayList<ASTStatement>();
     private Object validity;
@@ -47,6 +61,52 @@ public class ASTPipeline extends ASTNodeContainer {
         this.validity = validity;
     }
 
+    /**
+     * Return the ids of the outputs which can be read independently from the rest of the pipeline.
+     *
+     * Such an output is the only output of a call to a processor of INDEPENDENT_PROCESSOR_NAMES in this pipeline, it
+     * is referenced only once, and the inputs of the processor call are inline or refer to URLs only. Reading it
+     * doesn't involve any processor which is also read by other parts of the pipeline, or which depends on the request,
+     * the session or other state of the calling thread.
+     */
+    public Set<String> getIndependentOutputIds() {
+
+        // Count references to each id in the whole pipeline, including nested blocks
+        final Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+        walk(new ASTSimpleHandler() {
+            public void hrefId(ASTHrefId hrefId) {
+                final Integer count = referenceCounts.get(hrefId.getId());
+                referenceCounts.put(hrefId.getId(), count == null ? 1 : count + 1);
+            }
+        });
+
+        final Set<String> result = new HashSet<String>();
+        for (final ASTStatement statement : statements) {
+            if (statement instanceof ASTProcessorCall) {
+                final ASTProcessorCall processorCall = (ASTProcessorCall) statement;
+                if (processorCall.getProcessor() != null || processorCall.getOutputs().size() != 1
+                        || !INDEPENDENT_PROCESSOR_NAMES.contains(processorCall.getName()))
+                    continue;
+
+                final String id = ((ASTOutput) processorCall.getOutputs().get(0)).getId();
+                if (id == null || !Integer.valueOf(1).equals(referenceCounts.get(id)))
+                    continue;
+
+                final boolean[] readsIds = { false };
+                for (final Object input : processorCall.getInputs()) {
+                    ((ASTInput) input).walk(new ASTSimpleHandler() {
+                        public void hrefId(ASTHrefId hrefId) {
+                            readsIds[0] = true;
+                        }
+                    });
+                }
+                if (!readsIds[0])
+                    result.add(id);
+            }
+        }
+        return result;
+    }
+
     public void walk(ASTHandler handler) {
         if (handler.startPipeline(this))
             walkChildren(handler);
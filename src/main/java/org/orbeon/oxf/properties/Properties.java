@@ -25,6 +25,8 @@ import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.PipelineUtils;
 
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * This class provides access to global, configurable properties, as well as to processor-specific properties. This is
@@ -50,22 +52,26 @@ public class Properties {
     /**
      * The global Properties instance.
      */
-    private static Properties instance;
+    private static volatile Properties instance;
+    private static Properties loadingInstance;
     private static String propertiesURI = DEFAULT_PROPERTIES_URI;
-    private static boolean initializing = false;
 
     /**
-     * The property store.
+     * The property store. It is not modified once created, and a changed properties file results in a new store, so
+     * readers only need to read this field.
      */
-    private PropertyStore propertyStore = null;
+    private volatile PropertyStore propertyStore = null;
 
-    // Used for refresh
+    // Used for refresh, only by the thread loading the properties
+    private final String uri;
     private Processor urlGenerator;
     private DOMSerializer domSerializer;
     private long lastUpdate = Long.MIN_VALUE;
+    private Timer watcher;
 
-    private Properties() {
-        // Don't allow creation from outside
+    Properties(String uri) {
+        // Don't allow creation from outside, except for testing
+        this.uri = uri;
     }
 
     /**
@@ -79,105 +85,131 @@ public class Properties {
     /**
      * Invalidate all properties (for testing).
      */
-    public static void invalidate() {
+    public static synchronized void invalidate() {
+        stopWatcher();
         instance = null;
     }
 
+    /**
+     * Stop checking for changes to the properties, when the application is destroyed.
+     */
+    public static synchronized void stopWatcher() {
+        if (instance != null && instance.watcher != null)
+            instance.watcher.cancel();
+    }
+
     /**
      * Return the global Properties.
      *
      * @return Properties
      */
     public static Properties instance() {
-        if (instance == null) {
-            instance = new Properties();
-            instance.update();
+        final Properties existingInstance = instance;
+        if (existingInstance != null)
+            return existingInstance;
+
+        synchronized (Properties.class) {
+            if (instance == null) {
+                // Loading the properties can ask for properties, in which case the instance without store is returned
+                if (loadingInstance != null)
+                    return loadingInstance;
+
+                final Properties newInstance = new Properties(propertiesURI);
+                loadingInstance = newInstance;
+                try {
+                    newInstance.update();
+                } finally {
+                    loadingInstance = null;
+                }
+                newInstance.startWatcher();
+                instance = newInstance;
+            }
+            return instance;
         }
-        return instance;
+    }
+
+    /**
+     * Check for changes to the properties in the background, so that getting a property set doesn't have to.
+     */
+    private void startWatcher() {
+        watcher = new Timer("orbeon-properties-watcher", true);
+        watcher.schedule(new TimerTask() {
+            public void run() {
+                update();
+            }
+        }, RELOAD_DELAY, RELOAD_DELAY);
     }
 
     /**
      * Make sure we have the latest properties, and if we don't (resource changed), reload them.
      */
-    private void update() {
-        if (! initializing) {
-            done:
-            try {
-                initializing = true;
-                final long current = System.currentTimeMillis();
-
-                if (lastUpdate + RELOAD_DELAY >= current) break done;
-
-                // Create mini-pipeline to read properties if needed
-                if (urlGenerator == null) {
-                    urlGenerator = PipelineUtils.createURLGenerator(propertiesURI, true);// enable XInclude too
-                    domSerializer = new DOMSerializer();
-                    PipelineUtils.connect(urlGenerator, ProcessorImpl.OUTPUT_DATA, domSerializer, ProcessorImpl.INPUT_DATA);
-                }
+    synchronized void update() {
+        final long current = System.currentTimeMillis();
+
+        // Initialize pipeline
+        // Candidate for Scala withPipelineContext
+        final PipelineContext pipelineContext = new PipelineContext();
+        boolean success = false;
+        try {
+            // Create mini-pipeline to read properties if needed
+            // This is done here so that a failure doesn't stop the watcher, which tries again next time
+            if (urlGenerator == null) {
+                final Processor newURLGenerator = PipelineUtils.createURLGenerator(uri, true);// enable XInclude too
+                final DOMSerializer newDOMSerializer = new DOMSerializer();
+                PipelineUtils.connect(newURLGenerator, ProcessorImpl.OUTPUT_DATA, newDOMSerializer, ProcessorImpl.INPUT_DATA);
+                urlGenerator = newURLGenerator;
+                domSerializer = newDOMSerializer;
+            }
 
-                // Initialize pipeline
-                // Candidate for Scala withPipelineContext
-                final PipelineContext pipelineContext = new PipelineContext();
-                boolean success = false;
-                try {
-                    urlGenerator.reset(pipelineContext);
-                    domSerializer.reset(pipelineContext);
+            urlGenerator.reset(pipelineContext);
+            domSerializer.reset(pipelineContext);
 
-                    // Find whether we can skip reloading
-                    if (propertyStore != null && domSerializer.findInputLastModified(pipelineContext) <= lastUpdate) {
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("Not reloading properties because they have not changed.");
-                        }
-                        lastUpdate = current;
-                        success = true;
-                        break done;
-                    }
+            // Find whether we can skip reloading
+            if (propertyStore != null && domSerializer.findInputLastModified(pipelineContext) <= lastUpdate) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Not reloading properties because they have not changed.");
+                }
+                lastUpdate = current;
+                success = true;
+                return;
+            }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Reloading properties because timestamp indicates they may have changed.");
-                    }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reloading properties because timestamp indicates they may have changed.");
+            }
 
-                    // Read updated properties document
-                    final Document document = domSerializer.runGetDocument(pipelineContext);
+            // Read updated properties document
+            final Document document = domSerializer.runGetDocument(pipelineContext);
 
-                    if (document == null || document.content() == null || document.content().size() == 0) {
-                        throw new OXFException("Failure to initialize Orbeon Forms properties");
-                    }
+            if (document == null || document.content() == null || document.content().size() == 0) {
+                throw new OXFException("Failure to initialize Orbeon Forms properties");
+            }
 
-                    propertyStore = new PropertyStore(document);
+            // Readers switch to the new store at once
+            propertyStore = new PropertyStore(document);
 
-                    lastUpdate = current;
+            lastUpdate = current;
 
-                    success = true;
-                } catch (Throwable t) {
-                    LoggerFactory.logger.error(t);
-                } finally {
-                    pipelineContext.destroy(success);
-                }
-            } finally {
-                initializing = false;
-            }
+            success = true;
+        } catch (Throwable t) {
+            LoggerFactory.logger.error(t);
+        } finally {
+            pipelineContext.destroy(success);
         }
     }
 
     public PropertySet getPropertySet() {
-        if (propertyStore == null)
-            return null;
-        update();
-        return propertyStore.getGlobalPropertySet();
+        final PropertyStore store = propertyStore;
+        return store == null ? null : store.getGlobalPropertySet();
     }
 
     public PropertySet getPropertySet(final QName processorName) {
-        if (propertyStore == null)
-            return null;
-        update();
-        return propertyStore.getProcessorPropertySet(processorName);
+        final PropertyStore store = propertyStore;
+        return store == null ? null : store.getProcessorPropertySet(processorName);
     }
 
     public Set keySet() {
-        if (propertyStore == null)
-            return null;
-
-        return propertyStore.getGlobalPropertySet().keySet();
+        final PropertyStore store = propertyStore;
+        return store == null ? null : store.getGlobalPropertySet().keySet();
     }
 }
@@ -0,0 +1,539 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import org.orbeon.oxf.cache.Sized;
+import org.orbeon.oxf.common.OXFException;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Compact and immutable representation of the events of a SAXStore.
+ *
+ * - Names, namespace URIs, prefixes, attribute values, system ids and mark ids are stored once in a symbol table,
+ *   and events refer to them by index.
+ * - Indexes, lengths and characters are written as variable-length integers, so ASCII text takes one byte per
+ *   character.
+ * - Location data is optional.
+ * - Events are replayed directly from a ByteBuffer. toByteBuffer() produces the serialized form, and fromByteBuffer()
+ *   restores it without copying the events, so the buffer can also be a memory-mapped file.
+ */
+public class CompactSAXStore implements Sized {
+
+    private static final byte VERSION = 1;
+    private static final byte FLAG_LOCATIONS = 0x01;
+
+    private final String[] symbols;
+    private final boolean hasLocations;
+    private final String publicId;
+    private final String[] markIds;
+    private final int[] markOffsets;
+    private final ByteBuffer events;
+
+    private CompactSAXStore(String[] symbols, boolean hasLocations, String publicId, String[] markIds, int[] markOffsets, ByteBuffer events) {
+        this.symbols = symbols;
+        this.hasLocations = hasLocations;
+        this.publicId = publicId;
+        this.markIds = markIds;
+        this.markOffsets = markOffsets;
+        this.events = events;
+    }
+
+    /**
+     * Create a compact store with the events and marks of the given SAXStore.
+     *
+     * @param saxStore      store to convert
+     * @param keepLocations whether to keep location data, if the store has any
+     */
+    public static CompactSAXStore fromSAXStore(SAXStore saxStore, boolean keepLocations) {
+        final Encoder encoder = new Encoder(saxStore.getMarks(), keepLocations);
+        try {
+            saxStore.replay(encoder);
+        } catch (SAXException e) {
+            throw new OXFException(e);
+        }
+        return encoder.result();
+    }
+
+    /**
+     * Restore a compact store from its serialized form, starting at the buffer's position. The events are not copied
+     * and the buffer must not be modified afterwards.
+     */
+    public static CompactSAXStore fromByteBuffer(ByteBuffer buffer) {
+        final ByteBuffer in = buffer.duplicate();
+
+        final byte version = in.get();
+        if (version != VERSION)
+            throw new OXFException("unsupported compact SAXStore version: " + version);
+
+        final boolean hasLocations = (in.get() & FLAG_LOCATIONS) != 0;
+
+        final String[] symbols = new String[readInt(in)];
+        for (int i = 0; i < symbols.length; i++) {
+            final char[] chars = new char[readInt(in)];
+            for (int j = 0; j < chars.length; j++)
+                chars[j] = (char) readInt(in);
+            symbols[i] = new String(chars);
+        }
+
+        final String publicId = readSymbol(in, symbols);
+
+        final int markCount = readInt(in);
+        final String[] markIds = new String[markCount];
+        final int[] markOffsets = new int[markCount];
+        for (int i = 0; i < markCount; i++) {
+            markIds[i] = readSymbol(in, symbols);
+            markOffsets[i] = readInt(in);
+        }
+
+        final int eventsLength = in.getInt();
+        in.limit(in.position() + eventsLength);
+
+        return new CompactSAXStore(symbols, hasLocations, publicId, markIds, markOffsets, in.slice().asReadOnlyBuffer());
+    }
+
+    public static CompactSAXStore fromByteArray(byte[] bytes) {
+        return fromByteBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Return the serialized form of this store, which can be restored with fromByteBuffer().
+     */
+    public ByteBuffer toByteBuffer() {
+        final Output header = new Output(64);
+
+        final Map<String, Integer> symbolIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < symbols.length; i++)
+            symbolIndexes.put(symbols[i], i);
+
+        header.write(VERSION);
+        header.write(hasLocations ? FLAG_LOCATIONS : 0);
+
+        header.writeInt(symbols.length);
+        for (final String symbol : symbols) {
+            header.writeInt(symbol.length());
+            header.writeChars(symbol, 0, symbol.length());
+        }
+
+        header.writeInt(symbolRef(symbolIndexes, publicId));
+
+        header.writeInt(markIds.length);
+        for (int i = 0; i < markIds.length; i++) {
+            header.writeInt(symbolRef(symbolIndexes, markIds[i]));
+            header.writeInt(markOffsets[i]);
+        }
+
+        final ByteBuffer result = ByteBuffer.allocate(header.size + 4 + events.limit());
+        result.put(header.bytes, 0, header.size);
+        result.putInt(events.limit());
+        result.put(events.duplicate());
+        result.flip();
+        return result;
+    }
+
+    public byte[] toByteArray() {
+        return toByteBuffer().array();
+    }
+
+    public long getApproximateSize() {
+        long size = events.limit();
+        for (final String symbol : symbols)
+            size += symbol.length() * 2;
+        size += markOffsets.length * 8;
+        return size;
+    }
+
+    public boolean hasLocations() {
+        return hasLocations;
+    }
+
+    public void replay(XMLReceiver xmlReceiver) throws SAXException {
+        replay(xmlReceiver, null);
+    }
+
+    /**
+     * Return a SAXStore with the same events and marks.
+     */
+    public SAXStore toSAXStore() {
+        final SAXStore saxStore = new SAXStore();
+        try {
+            replay(saxStore, saxStore);
+        } catch (SAXException e) {
+            throw new OXFException(e);
+        }
+        return saxStore;
+    }
+
+    // If marksStore is not null, create the marks on it at their positions in the stream of events
+    private void replay(XMLReceiver xmlReceiver, SAXStore marksStore) throws SAXException {
+
+        final ByteBuffer in = events.duplicate();
+        final AttributesImpl attributes = new AttributesImpl();
+
+        final ReplayLocator locator = hasLocations ? new ReplayLocator() : null;
+        if (locator != null)
+            xmlReceiver.setDocumentLocator(locator);
+
+        char[] chars = new char[64];
+        int nextMark = 0;
+
+        while (true) {
+
+            if (marksStore != null)
+                while (nextMark < markOffsets.length && markOffsets[nextMark] == in.position())
+                    marksStore.getMark(markIds[nextMark++]);
+
+            if (! in.hasRemaining())
+                break;
+
+            final byte eventType = in.get();
+
+            if (locator != null && eventType != SAXStore.START_PREFIX_MAPPING && eventType != SAXStore.END_PREFIX_MAPPING) {
+                locator.systemId = readSymbol(in, symbols);
+                locator.line = readInt(in) - 1;
+                locator.column = readInt(in) - 1;
+            }
+
+            switch (eventType) {
+                case SAXStore.START_DOCUMENT: {
+                    xmlReceiver.startDocument();
+                    break;
+                }
+                case SAXStore.END_DOCUMENT: {
+                    xmlReceiver.endDocument();
+                    break;
+                }
+                case SAXStore.START_ELEMENT: {
+                    final String uri = readSymbol(in, symbols);
+                    final String localName = readSymbol(in, symbols);
+                    final String qName = readSymbol(in, symbols);
+                    attributes.clear();
+                    final int attributeCount = readInt(in);
+                    for (int i = 0; i < attributeCount; i++) {
+                        attributes.addAttribute(readSymbol(in, symbols), readSymbol(in, symbols),
+                                readSymbol(in, symbols), readSymbol(in, symbols), readSymbol(in, symbols));
+                    }
+                    xmlReceiver.startElement(uri, localName, qName, attributes);
+                    break;
+                }
+                case SAXStore.END_ELEMENT: {
+                    xmlReceiver.endElement(readSymbol(in, symbols), readSymbol(in, symbols), readSymbol(in, symbols));
+                    break;
+                }
+                case SAXStore.CHARACTERS:
+                case SAXStore.IGN_WHITESPACE:
+                case SAXStore.COMMENT: {
+                    final int length = readInt(in);
+                    if (chars.length < length)
+                        chars = new char[Math.max(length, chars.length * 2)];
+                    for (int i = 0; i < length; i++)
+                        chars[i] = (char) readInt(in);
+
+                    if (eventType == SAXStore.CHARACTERS)
+                        xmlReceiver.characters(chars, 0, length);
+                    else if (eventType == SAXStore.IGN_WHITESPACE)
+                        xmlReceiver.ignorableWhitespace(chars, 0, length);
+                    else
+                        xmlReceiver.comment(chars, 0, length);
+                    break;
+                }
+                case SAXStore.PI: {
+                    xmlReceiver.processingInstruction(readSymbol(in, symbols), readSymbol(in, symbols));
+                    break;
+                }
+                case SAXStore.SKIPPED_ENTITY: {
+                    xmlReceiver.skippedEntity(readSymbol(in, symbols));
+                    break;
+                }
+                case SAXStore.START_PREFIX_MAPPING: {
+                    xmlReceiver.startPrefixMapping(readSymbol(in, symbols), readSymbol(in, symbols));
+                    break;
+                }
+                case SAXStore.END_PREFIX_MAPPING: {
+                    xmlReceiver.endPrefixMapping(readSymbol(in, symbols));
+                    break;
+                }
+                default:
+                    throw new OXFException("unexpected event type in compact SAXStore: " + eventType);
+            }
+        }
+    }
+
+    private class ReplayLocator implements Locator {
+
+        String systemId;
+        int line = -1;
+        int column = -1;
+
+        public String getPublicId() {
+            return publicId;
+        }
+
+        public String getSystemId() {
+            return systemId;
+        }
+
+        public int getLineNumber() {
+            return line;
+        }
+
+        public int getColumnNumber() {
+            return column;
+        }
+    }
+
+    // Symbol references are 1-based so that 0 represents null
+    private static int symbolRef(Map<String, Integer> symbolIndexes, String symbol) {
+        return symbol == null ? 0 : symbolIndexes.get(symbol) + 1;
+    }
+
+    private static String readSymbol(ByteBuffer in, String[] symbols) {
+        final int ref = readInt(in);
+        return ref == 0 ? null : symbols[ref - 1];
+    }
+
+    // Read a non-negative variable-length integer, 7 bits per byte, least significant bits first
+    private static int readInt(ByteBuffer in) {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            final byte b = in.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+            shift += 7;
+        }
+    }
+
+    private static class Output {
+
+        byte[] bytes;
+        int size;
+
+        Output(int initialSize) {
+            bytes = new byte[initialSize];
+        }
+
+        void write(int b) {
+            if (size == bytes.length) {
+                final byte[] old = bytes;
+                bytes = new byte[old.length * 3 / 2 + 1];
+                System.arraycopy(old, 0, bytes, 0, size);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeInt(int i) {
+            while ((i & ~0x7F) != 0) {
+                write((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            write(i);
+        }
+
+        void writeChars(char[] chars, int start, int length) {
+            writeInt(length);
+            for (int i = start; i < start + length; i++)
+                writeInt(chars[i]);
+        }
+
+        void writeChars(String s, int start, int length) {
+            for (int i = start; i < start + length; i++)
+                writeInt(s.charAt(i));
+        }
+    }
+
+    // Receiver writing events in the compact format, and recording the positions of the marks of the source store
+    private static class Encoder extends XMLReceiverAdapter {
+
+        private final boolean keepLocations;
+        private final List<SAXStore.Mark> marks;
+
+        private final Map<String, Integer> symbolIndexes = new HashMap<String, Integer>();
+        private final List<String> symbols = new ArrayList<String>();
+        private final Output out = new Output(1024);
+
+        private final List<String> markIds = new ArrayList<String>();
+        private final List<Integer> markOffsets = new ArrayList<Integer>();
+        private int nextMark = 0;
+        private int eventCount = 0;
+
+        private Locator locator;
+        private String publicId;
+
+        Encoder(List<SAXStore.Mark> marks, boolean keepLocations) {
+            this.keepLocations = keepLocations;
+
+            // Marks in the order of the events they point to
+            this.marks = new ArrayList<SAXStore.Mark>(marks);
+            Collections.sort(this.marks, new Comparator<SAXStore.Mark>() {
+                public int compare(SAXStore.Mark m1, SAXStore.Mark m2) {
+                    return m1.eventBufferPosition < m2.eventBufferPosition ? -1 : m1.eventBufferPosition == m2.eventBufferPosition ? 0 : 1;
+                }
+            });
+        }
+
+        CompactSAXStore result() {
+            recordMarks();
+
+            final int[] offsets = new int[markOffsets.size()];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = markOffsets.get(i);
+
+            return new CompactSAXStore(
+                symbols.toArray(new String[symbols.size()]),
+                writeLocations(),
+                publicId,
+                markIds.toArray(new String[markIds.size()]),
+                offsets,
+                ByteBuffer.wrap(Arrays.copyOf(out.bytes, out.size)).asReadOnlyBuffer()
+            );
+        }
+
+        private boolean writeLocations() {
+            return keepLocations && locator != null;
+        }
+
+        // SAXStore replays one callback per stored event, so the number of events seen so far is the event position
+        private void recordMarks() {
+            while (nextMark < marks.size() && marks.get(nextMark).eventBufferPosition == eventCount) {
+                markIds.add(marks.get(nextMark).id);
+                markOffsets.add(out.size);
+                intern(marks.get(nextMark).id);
+                nextMark++;
+            }
+        }
+
+        private void startEvent(byte eventType, boolean hasLocation) {
+            recordMarks();
+            eventCount++;
+
+            out.write(eventType);
+
+            if (hasLocation && writeLocations()) {
+                writeSymbol(locator.getSystemId());
+                out.writeInt(Math.max(locator.getLineNumber() + 1, 0));
+                out.writeInt(Math.max(locator.getColumnNumber() + 1, 0));
+                if (publicId == null && locator.getPublicId() != null)
+                    publicId = intern(locator.getPublicId());
+            }
+        }
+
+        private String intern(String symbol) {
+            if (symbol != null && ! symbolIndexes.containsKey(symbol)) {
+                symbolIndexes.put(symbol, symbols.size());
+                symbols.add(symbol);
+            }
+            return symbol;
+        }
+
+        private void writeSymbol(String symbol) {
+            if (symbol == null) {
+                out.writeInt(0);
+            } else {
+                intern(symbol);
+                out.writeInt(symbolRef(symbolIndexes, symbol));
+            }
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startDocument() {
+            startEvent(SAXStore.START_DOCUMENT, true);
+        }
+
+        @Override
+        public void endDocument() {
+            startEvent(SAXStore.END_DOCUMENT, true);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            startEvent(SAXStore.START_ELEMENT, true);
+            writeSymbol(uri);
+            writeSymbol(localName);
+            writeSymbol(qName);
+            final int attributeCount = attributes.getLength();
+            out.writeInt(attributeCount);
+            for (int i = 0; i < attributeCount; i++) {
+                writeSymbol(attributes.getURI(i));
+                writeSymbol(attributes.getLocalName(i));
+                writeSymbol(attributes.getQName(i));
+                writeSymbol(attributes.getType(i));
+                writeSymbol(attributes.getValue(i));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            startEvent(SAXStore.END_ELEMENT, true);
+            writeSymbol(uri);
+            writeSymbol(localName);
+            writeSymbol(qName);
+        }
+
+        @Override
+        public void characters(char[] chars, int start, int length) {
+            startEvent(SAXStore.CHARACTERS, true);
+            out.writeChars(chars, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] chars, int start, int length) {
+            startEvent(SAXStore.IGN_WHITESPACE, true);
+            out.writeChars(chars, start, length);
+        }
+
+        @Override
+        public void comment(char[] chars, int start, int length) {
+            startEvent(SAXStore.COMMENT, true);
+            out.writeChars(chars, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            startEvent(SAXStore.PI, true);
+            writeSymbol(target);
+            writeSymbol(data);
+        }
+
+        @Override
+        public void skippedEntity(String name) {
+            startEvent(SAXStore.SKIPPED_ENTITY, true);
+            writeSymbol(name);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            startEvent(SAXStore.START_PREFIX_MAPPING, false);
+            writeSymbol(prefix);
+            writeSymbol(uri);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            startEvent(SAXStore.END_PREFIX_MAPPING, false);
+            writeSymbol(prefix);
+        }
+    }
+}
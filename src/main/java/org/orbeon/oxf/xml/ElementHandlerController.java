@@ -23,6 +23,7 @@ import org.xml.sax.SAXException;
 
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is the controller for the handlers system.
@@ -41,8 +42,9 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
     private Object elementHandlerContext;
     private DeferredXMLReceiver output;
 
-    private final Map<String, List<HandlerMatcher>> handlerMatchers = new HashMap<String, List<HandlerMatcher>>();
-    private final Map<String, String> uriHandlers = new HashMap<String, String>();
+    // Dispatch table: URI → local name → matchers, so that no key needs to be built for each element
+    private final Map<String, Map<String, List<HandlerMatcher>>> handlerMatchers = new HashMap<String, Map<String, List<HandlerMatcher>>>();
+    private final Map<String, ElementHandlerFactory> uriHandlers = new HashMap<String, ElementHandlerFactory>();
     private final List<HandlerMatcher> customMatchers = new ArrayList<HandlerMatcher>();
 
     private final Stack<HandlerInfo> handlerInfos = new Stack<HandlerInfo>();
@@ -55,36 +57,53 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
 
     private int level = 0;
 
-    // Class.forName is expensive, so we cache mappings
-    private static Map<String, Constructor<ElementHandler>> classNameToHandlerClass = new HashMap<String, Constructor<ElementHandler>>();
+    // Class.forName and getConstructor are expensive, so we cache factories for handlers registered by class name. This
+    // is shared by all controllers, which can run concurrently.
+    private static final ConcurrentHashMap<String, ElementHandlerFactory> classNameToHandlerFactory = new ConcurrentHashMap<String, ElementHandlerFactory>();
 
     /**
      * Register a handler. The handler can match on a URI + localname + custom matcher, URI + localname, or on URI only
      * in that order.
      *
-     * @param handlerClassName      class name for the handler
+     * @param factory               factory creating the handler
      * @param uri                   URI of the element that triggers the handler
      * @param localname             local name of the element that triggers the handler, or null if match on URI only
      * @param matcher               matcher on attributes, or null
      */
-    public void registerHandler(String handlerClassName, String uri, String localname, Matcher matcher) {
+    public void registerHandler(ElementHandlerFactory factory, String uri, String localname, Matcher matcher) {
         if (localname != null) {
             // Match on URI + localname and optionally custom matcher
-            final String key = XMLUtils.buildExplodedQName(uri, localname);
-            List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(key);
+            Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+            if (localnameMatchers == null) {
+                localnameMatchers = new HashMap<String, List<HandlerMatcher>>();
+                this.handlerMatchers.put(uri, localnameMatchers);
+            }
+            List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
             if (handlerMatchers == null) {
                 handlerMatchers = new ArrayList<HandlerMatcher>();
-                this.handlerMatchers.put(key, handlerMatchers);
+                localnameMatchers.put(localname, handlerMatchers);
             }
-            handlerMatchers.add(new HandlerMatcher(handlerClassName, matcher != null ? matcher : ALL_MATCHER));
+            handlerMatchers.add(new HandlerMatcher(factory, matcher != null ? matcher : ALL_MATCHER));
         } else {
             // Match on URI only
-            uriHandlers.put(uri, handlerClassName);
+            uriHandlers.put(uri, factory);
         }
     }
 
+    public void registerHandler(ElementHandlerFactory factory, Matcher matcher) {
+        customMatchers.add(new HandlerMatcher(factory, matcher));
+    }
+
+    /**
+     * Register a handler by class name. The class must have a public constructor with the same parameters as
+     * ElementHandlerFactory.create().
+     */
+    public void registerHandler(String handlerClassName, String uri, String localname, Matcher matcher) {
+        registerHandler(getHandlerFactory(handlerClassName), uri, localname, matcher);
+    }
+
     public void registerHandler(String handlerClassName, Matcher matcher) {
-        customMatchers.add(new HandlerMatcher(handlerClassName, matcher));
+        registerHandler(getHandlerFactory(handlerClassName), matcher);
     }
 
     public void setElementHandlerContext(Object elementHandlerContext) {
@@ -514,17 +533,20 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         }
 
         // 2: Try full matchers
-        final List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(XMLUtils.buildExplodedQName(uri, localname));
-        if (handlerMatchers != null) {
-            final HandlerInfo handlerInfo = runMatchers(handlerMatchers, uri, localname, qName, attributes, handlerContext);
-            if (handlerInfo != null)
-                return handlerInfo;
+        final Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+        if (localnameMatchers != null) {
+            final List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
+            if (handlerMatchers != null) {
+                final HandlerInfo handlerInfo = runMatchers(handlerMatchers, uri, localname, qName, attributes, handlerContext);
+                if (handlerInfo != null)
+                    return handlerInfo;
+            }
         }
 
         // 3: Try URI-based handler
-        final String uriHandlerClassName = uriHandlers.get(uri);
-        if (uriHandlerClassName != null) {
-            final ElementHandler elementHandler = getHandlerByClassName(uriHandlerClassName, uri, localname, qName, attributes, null, handlerContext);
+        final ElementHandlerFactory uriHandlerFactory = uriHandlers.get(uri);
+        if (uriHandlerFactory != null) {
+            final ElementHandler elementHandler = createHandler(uriHandlerFactory, uri, localname, qName, attributes, null, handlerContext);
             return new HandlerInfo(level, elementHandler, this.locator);
         }
 
@@ -535,37 +557,49 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         for (HandlerMatcher handlerMatcher: matchers) {
             final Object matched = handlerMatcher.matcher.match(attributes, elementHandlerContext);
             if (matched != null) {
-                final ElementHandler elementHandler = getHandlerByClassName(handlerMatcher.handlerClassName, uri, localname, qName, attributes, matched, handlerContext);
+                final ElementHandler elementHandler = createHandler(handlerMatcher.factory, uri, localname, qName, attributes, matched, handlerContext);
                 return new HandlerInfo(level, elementHandler, this.locator);
             }
         }
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private ElementHandler getHandlerByClassName(String handlerClassName, String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
-        Constructor<ElementHandler> constructor = classNameToHandlerClass.get(handlerClassName);
-        if (constructor == null) {
-            try {
-                final Class<ElementHandler> handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
-
-                // uri: String, localname: String, qName: String, attributes: Attributes, matched: AnyRef
-                constructor =
-                    handlerClass.getConstructor(String.class, String.class, String.class, Attributes.class, Object.class, Object.class);
-
-                classNameToHandlerClass.put(handlerClassName, constructor);
-            } catch (ClassNotFoundException e) {
-                throw OrbeonLocationException.wrapException(e, LocationData.createIfPresent(locator));
-            } catch (NoSuchMethodException e) {
-                throw OrbeonLocationException.wrapException(e, LocationData.createIfPresent(locator));
-            }
+    private ElementHandler createHandler(ElementHandlerFactory factory, String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+        try {
+            return factory.create(uri, localname, qName, attributes, matched, handlerContext);
+        } catch (Exception e) {
+            throw OrbeonLocationException.wrapException(e, LocationData.createIfPresent(locator));
         }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ElementHandlerFactory getHandlerFactory(final String handlerClassName) {
+        final ElementHandlerFactory existingFactory = classNameToHandlerFactory.get(handlerClassName);
+        if (existingFactory != null)
+            return existingFactory;
 
+        final Constructor<ElementHandler> constructor;
         try {
-            return constructor.newInstance(uri, localname, qName, attributes, matched, handlerContext);
-        } catch (Exception e) {
+            final Class<ElementHandler> handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
+
+            // uri: String, localname: String, qName: String, attributes: Attributes, matched: AnyRef, handlerContext: AnyRef
+            constructor =
+                handlerClass.getConstructor(String.class, String.class, String.class, Attributes.class, Object.class, Object.class);
+        } catch (ClassNotFoundException e) {
+            throw OrbeonLocationException.wrapException(e, LocationData.createIfPresent(locator));
+        } catch (NoSuchMethodException e) {
             throw OrbeonLocationException.wrapException(e, LocationData.createIfPresent(locator));
         }
+
+        final ElementHandlerFactory newFactory = new ElementHandlerFactory() {
+            public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) throws Exception {
+                return constructor.newInstance(uri, localname, qName, attributes, matched, handlerContext);
+            }
+        };
+
+        // Another thread may have created a factory in the meantime, which is equivalent
+        classNameToHandlerFactory.putIfAbsent(handlerClassName, newFactory);
+        return newFactory;
     }
 
     private static class HandlerInfo {
@@ -589,6 +623,14 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         T match(Attributes attributes, Object handlerContext);
     }
 
+    /**
+     * Create a handler for a matching element. Factories are stateless, so the same factory can be registered on any
+     * number of controllers, including controllers running concurrently.
+     */
+    public interface ElementHandlerFactory {
+        ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) throws Exception;
+    }
+
     private final Matcher ALL_MATCHER = new Matcher<Boolean>() {
         public Boolean match(Attributes attributes, Object handlerContext) {
             return Boolean.TRUE;
@@ -596,11 +638,11 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
     };
 
     private static class HandlerMatcher {
-        public String handlerClassName;
-        public Matcher matcher;
+        public final ElementHandlerFactory factory;
+        public final Matcher matcher;
 
-        private HandlerMatcher(String handlerClassName, Matcher matcher) {
-            this.handlerClassName = handlerClassName;
+        private HandlerMatcher(ElementHandlerFactory factory, Matcher matcher) {
+            this.factory = factory;
             this.matcher = matcher;
         }
     }
@@ -17,6 +17,7 @@ import org.orbeon.dom.Document;
 import org.orbeon.dom.io.DocumentSource;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.TransformerXMLReceiver;
+import org.orbeon.oxf.util.CompressionCodec;
 import org.orbeon.oxf.util.Compressor;
 import org.orbeon.oxf.util.SecureUtils;
 import org.orbeon.oxf.util.WhitelistObjectInputStream;
@@ -34,6 +35,11 @@ public class EncodeDecode {
 
     // 2016-09-14: `encrypt = false` only when encoding XForms static state when using server-side state handling.
     public static String encodeXML(Document document, boolean compress, boolean encrypt, boolean location) {
+        return encodeXML(document, compress ? CompressionCodec.Gzip() : null, encrypt, location);
+    }
+
+    // `codec == null` if the data must not be compressed
+    public static String encodeXML(Document document, CompressionCodec codec, boolean encrypt, boolean location) {
 
         // Get SAXStore
         // TODO: This is not optimal since we create a second in-memory representation. Should stream instead.
@@ -54,14 +60,20 @@ public class EncodeDecode {
         }
 
         // Encode bytes
-        return encodeBytes(bytes, compress, encrypt);
+        return encodeBytes(bytes, codec, encrypt);
     }
 
     // 2016-09-14: `encrypt = false` only when encoding static state when using server-side state handling, and
     // for some unit tests.
     public static String encodeBytes(byte[] bytesToEncode, boolean compress, boolean encrypt) {
+        return encodeBytes(bytesToEncode, compress ? CompressionCodec.Gzip() : null, encrypt);
+    }
+
+    // `codec == null` if the data must not be compressed
+    public static String encodeBytes(byte[] bytesToEncode, CompressionCodec codec, boolean encrypt) {
         // Compress if needed
-        final byte[] gzipByteArray = compress ? Compressor.compressBytes(bytesToEncode) : null;
+        // NOTE: The compressed data identifies its codec, so the "compressed" prefixes don't depend on the codec.
+        final byte[] gzipByteArray = codec != null ? Compressor.compressBytes(bytesToEncode, codec) : null;
 
         // Encrypt if needed
         if (encrypt) {
@@ -14,6 +14,7 @@
 package org.orbeon.oxf.xml;
 
 import org.orbeon.dom.Document;
+import org.orbeon.oxf.cache.Sized;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.TransformerXMLReceiver;
 import org.orbeon.oxf.processor.SAXLoggerProcessor;
@@ -38,7 +39,7 @@ import java.util.List;
  *
  * TODO: Handling of system IDs is not optimal in memory as system IDs are unlikely to change much within a document.
  */
-public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
+public class SAXStore extends ForwardingXMLReceiver implements Externalizable, Sized {
 
     public static final byte START_DOCUMENT = 0x00;
     public static final byte END_DOCUMENT = 0x01;
@@ -287,6 +287,18 @@ public class XMLParsing {
     }
 
     public static void inputStreamToSAX(InputStream inputStream, String urlString, XMLReceiver xmlReceiver, ParserConfiguration parserConfiguration, boolean handleLexical) {
+
+        // In-process XML content doesn't need to be parsed, unless it must be validated or XIncluded
+        if (inputStream instanceof XMLContentInputStream && ! parserConfiguration.validating && ! parserConfiguration.handleXInclude) {
+            try {
+                // ContentHandler constructor so that lexical events are not forwarded
+                if (((XMLContentInputStream) inputStream).replayIfUnread(handleLexical ? xmlReceiver : new ForwardingXMLReceiver((ContentHandler) xmlReceiver)))
+                    return;
+            } catch (Exception e) {
+                throw new OXFException(e);
+            }
+        }
+
         final InputSource inputSource = new InputSource(inputStream);
         inputSource.setSystemId(urlString);
         inputSourceToSAX(inputSource, xmlReceiver, parserConfiguration, handleLexical);
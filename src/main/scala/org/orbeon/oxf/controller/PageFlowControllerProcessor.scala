@@ -13,6 +13,8 @@
  */
 package org.orbeon.oxf.controller
 
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import java.util.regex.Pattern
 import java.util.{List ⇒ JList, Map ⇒ JMap}
 
@@ -159,21 +161,17 @@ class PageFlowControllerProcessor extends ProcessorImpl with Logging {
     }
 
     // Run the first matching entry if any
-    val routOpt = (
-      pageFlow.routes.iterator
-      map  (route ⇒ route → MatchResult(route.routeElement.pattern, path))
-      find (_._2.matches)
-    )
+    val routOpt = pageFlow.findRoute(path)
 
     routOpt match {
-      case Some((route: FileRoute, matchResult)) ⇒
+      case Some((route: FileRoute, matchResult, statistics)) ⇒
         // Run the given route and let the caller handle errors
-        debug("processing file", logParams)
-        route.process(pc, ec, matchResult)
-      case Some((route: PageOrServiceRoute, matchResult)) if route.routeElement.supportedMethods(request.getMethod) ⇒
-        debug("processing page/service", logParams)
+        debug("processing file", logParams ++ statistics.debugPairs)
+        statistics.time(route.process(pc, ec, matchResult))
+      case Some((route: PageOrServiceRoute, matchResult, statistics)) if route.routeElement.supportedMethods(request.getMethod) ⇒
+        debug("processing page/service", logParams ++ statistics.debugPairs)
         // Run the given route and handle "not found" and error conditions
-        try route.process(pc, ec, matchResult)
+        try statistics.time(route.process(pc, ec, matchResult))
         catch { case NonFatal(t) ⇒
           getRootThrowable(t) match {
             case e: HttpRedirectException ⇒
@@ -607,7 +605,39 @@ object PageFlowControllerProcessor {
     errorRoute        : Option[PageOrServiceRoute],
     pathMatchers      : Seq[PathMatcher],
     file              : Option[String]
-  )
+  ) {
+    private val indexedRoutes = routes.toIndexedSeq
+    private val routeIndex    = new RouteIndex(indexedRoutes map (_.routeElement.pattern))
+
+    val routeStatistics = indexedRoutes map (route ⇒ new RouteStatistics(route.routeElement.path))
+
+    // Find the first route matching the path
+    def findRoute(path: String): Option[(Route, MatchResult, RouteStatistics)] =
+      routeIndex.find(path) map { case (index, matchResult) ⇒
+        (indexedRoutes(index), matchResult, routeStatistics(index))
+      }
+  }
+
+  // Number of times a route was run and total time spent running it
+  class RouteStatistics(val path: String) {
+
+    private val hitCounter   = new AtomicLong
+    private val timeNanosSum = new AtomicLong
+
+    def hits      = hitCounter.get
+    def totalTime = TimeUnit.NANOSECONDS.toMillis(timeNanosSum.get)
+
+    def debugPairs = Seq("route hits" → hits.toString, "route total time" → totalTime.toString)
+
+    def time[T](body: ⇒ T): T = {
+      val start = System.nanoTime
+      try body
+      finally {
+        hitCounter.incrementAndGet()
+        timeNanosSum.addAndGet(System.nanoTime - start)
+      }
+    }
+  }
 
   def att(e: Element, name: String) = e.attributeValueOpt(name)
   def idAtt(e: Element) = att(e, "id")
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.controller
+
+import java.util.regex.Pattern
+import java.{util ⇒ ju}
+
+import org.orbeon.oxf.processor.RegexpMatcher.MatchResult
+
+import scala.collection.mutable
+
+// Index of route patterns, which finds the first pattern matching a path without trying all the patterns
+//
+// - Each pattern is analyzed to find the literal prefix that all the paths it matches start with. Glob patterns are
+//   analyzed in their compiled form, so `/fr/*` has the prefix `/fr/`.
+// - Patterns which are entirely literal are indexed by path.
+// - Other patterns are stored in a trie by prefix. Patterns without a literal prefix are stored at the root and
+//   are candidates for all paths.
+// - For a given path, only candidate patterns are tried, in their original order, so the first matching pattern is
+//   the same as with a linear search.
+class RouteIndex(patterns: IndexedSeq[Pattern]) {
+
+  import RouteIndex._
+
+  private val exact = new ju.HashMap[String, List[Int]]
+  private val root  = new Node
+
+  locally {
+    for ((pattern, index) ← patterns.zipWithIndex.reverse)
+      literalPrefix(pattern) match {
+        case (literal, true) ⇒
+          exact.put(literal, index :: Option(exact.get(literal)).getOrElse(Nil))
+        case (prefix, false) ⇒
+          val node = prefix.foldLeft(root)((node, c) ⇒ node.children.getOrElseUpdate(c, new Node))
+          node.indexes = index :: node.indexes
+      }
+  }
+
+  // Return the index of the first pattern matching the path, along with the match result
+  def find(path: String): Option[(Int, MatchResult)] = {
+
+    val candidates = mutable.ArrayBuffer[Int]()
+
+    Option(exact.get(path)) foreach (candidates ++= _)
+
+    var node = root
+    var i    = 0
+    while (node ne null) {
+      candidates ++= node.indexes
+      node =
+        if (i < path.length) {
+          val next = node.children.getOrElse(path.charAt(i), null)
+          i += 1
+          next
+        } else
+          null
+    }
+
+    candidates.sorted.iterator map (index ⇒ index → MatchResult(patterns(index), path)) find (_._2.matches)
+  }
+}
+
+object RouteIndex {
+
+  private class Node {
+    val children = mutable.HashMap[Char, Node]()
+    var indexes  = List.empty[Int]
+  }
+
+  private val MetaCharacters = "\\^$.|?*+()[]{}"
+  private val Quantifiers    = "?*+{"
+
+  // Return the literal prefix of all the strings matching the pattern, and whether the pattern only matches that
+  // literal. The prefix is conservative: it can be shorter than the actual common prefix.
+  def literalPrefix(pattern: Pattern): (String, Boolean) =
+    if (pattern.flags != 0 || hasTopLevelAlternation(pattern.pattern))
+      ("", false)
+    else {
+      val regexp = pattern.pattern
+      val prefix = new StringBuilder
+
+      var i       = 0
+      var stopped = false
+      while (! stopped && i < regexp.length) {
+        val c = regexp.charAt(i)
+
+        // Literal character and position of what follows it, if any
+        val literal =
+          if (c == '\\') {
+            if (i + 1 < regexp.length && ! Character.isLetterOrDigit(regexp.charAt(i + 1)))
+              Some(regexp.charAt(i + 1) → (i + 2))
+            else
+              None
+          } else if (MetaCharacters.indexOf(c) >= 0)
+            None
+          else
+            Some(c → (i + 1))
+
+        literal match {
+          // A quantified character is not part of the prefix
+          case Some((char, next)) if next >= regexp.length || Quantifiers.indexOf(regexp.charAt(next)) < 0 ⇒
+            prefix += char
+            i = next
+          case _ ⇒
+            stopped = true
+        }
+      }
+
+      (prefix.toString, ! stopped)
+    }
+
+  private def hasTopLevelAlternation(regexp: String): Boolean = {
+    var depth   = 0
+    var inClass = false
+    var i       = 0
+    while (i < regexp.length) {
+      regexp.charAt(i) match {
+        case '\\'                  ⇒ i += 1
+        case '[' if ! inClass      ⇒ inClass = true
+        case ']' if inClass        ⇒ inClass = false
+        case '(' if ! inClass      ⇒ depth += 1
+        case ')' if ! inClass      ⇒ depth -= 1
+        case '|' if ! inClass && depth == 0 ⇒ return true
+        case _                     ⇒
+      }
+      i += 1
+    }
+    false
+  }
+}
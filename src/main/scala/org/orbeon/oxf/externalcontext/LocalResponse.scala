@@ -18,6 +18,7 @@ import java.io._
 import org.orbeon.oxf.externalcontext.ExternalContext.Response
 import org.orbeon.oxf.http.{EmptyInputStream, Headers, StreamedContent}
 import org.orbeon.oxf.util.{NetUtils, StringBuilderWriter}
+import org.orbeon.oxf.xml.XMLContentInputStream
 
 import scala.collection.mutable
 
@@ -32,6 +33,7 @@ class LocalResponse(rewriter: URLRewriter) extends Response with CachingResponse
   private var _printWriter : PrintWriter                = null
   private var _byteStream  : LocalByteArrayOutputStream = null
   private var _inputStream : InputStream                = null
+  private var _xmlContent  : XMLContentInputStream      = null
 
   def streamedContent = {
     val responseHeaders = capitalizedHeaders
@@ -53,7 +55,9 @@ class LocalResponse(rewriter: URLRewriter) extends Response with CachingResponse
   def getInputStream: InputStream = {
     if (_inputStream eq null) {
       _inputStream =
-        if (_stringWriter ne null) {
+        if (_xmlContent ne null) {
+          _xmlContent
+        } else if (_stringWriter ne null) {
           val bytes = _stringWriter.getBuilder.toString.getBytes(ExternalContext.StandardCharacterEncoding)
           new ByteArrayInputStream(bytes, 0, bytes.length)
         } else if (_byteStream ne null) {
@@ -137,6 +141,19 @@ class LocalResponse(rewriter: URLRewriter) extends Response with CachingResponse
     throw new UnsupportedOperationException
 }
 
+object LocalResponse {
+
+  // Write XML content to the response
+  //
+  // A `LocalResponse` keeps the content in memory so that the in-process caller can use it without parsing it. Other
+  // responses receive the content serialized as it is written.
+  def writeXML(response: Response, content: XMLContentInputStream): Unit =
+    response match {
+      case localResponse: LocalResponse ⇒ localResponse._xmlContent = content
+      case _                            ⇒ content.writeTo(response.getOutputStream)
+    }
+}
+
 private class LocalByteArrayOutputStream extends ByteArrayOutputStream {
   def getByteArray = buf
 }
@@ -40,6 +40,8 @@ import scala.util.control.NonFatal
 object InitUtils {
 
   private val CacheSizeProperty            = "oxf.cache.size"
+  private val CacheImplementationProperty  = "oxf.cache.implementation"
+  private val CacheMaxWeightProperty       = "oxf.cache.max-weight"
   private val ProcessorsProperty           = "oxf.pipeline.processors"
   private val DeprecatedProcessorsProperty = "oxf.prologue"
   private val DefaultProcessors            = "oxf:/processors.xml"
@@ -75,9 +77,13 @@ object InitUtils {
 
     var success = false
     try {
-      // Set cache size
-      val cacheMaxSize = Properties.instance.getPropertySet.getInteger(CacheSizeProperty)
-      if (cacheMaxSize ne null) ObjectCache.instance.setMaxSize(cacheMaxSize)
+      // Set cache implementation and size
+      val propertySet = Properties.instance.getPropertySet
+      ObjectCache.configureMainCache(
+        propertySet.getString(CacheImplementationProperty, ObjectCache.MEMORY_IMPLEMENTATION),
+        propertySet.getInteger(CacheSizeProperty),
+        propertySet.getInteger(CacheMaxWeightProperty, 0).longValue
+      )
 
       // Start execution
       processor.reset(pipelineContext)
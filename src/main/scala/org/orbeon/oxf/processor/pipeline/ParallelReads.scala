@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.externalcontext.WebAppListener
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.processor.{ProcessorImpl, ProcessorInput}
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.webapp.ProcessorService
+import org.orbeon.oxf.xml.SAXStore
+
+// Read processor inputs concurrently on a bounded pool
+//
+// Each input is read into a `SAXStore` with its own `PipelineContext`, branched from the caller's context, and the
+// caller replays the stores in the order it needs them. This is only safe for inputs whose upstream processors are
+// not read by anybody else, which `ASTPipeline.getIndependentOutputIds()` determines.
+//
+// When all the threads are busy and a few reads are already waiting, the caller reads the input itself. The pool is
+// shut down with the application.
+object ParallelReads {
+
+  private val EnabledProperty = "oxf.pipeline.parallel-aggregation"
+  private val ThreadsProperty = "oxf.pipeline.parallel-aggregation.threads"
+  private val DefaultThreads  = 4
+
+  private val QueuedReadsPerThread = 4
+
+  // Set on pool threads: waiting for the bounded pool from one of its own threads could deadlock
+  private val onPoolThread = new ThreadLocal[java.lang.Boolean]
+
+  private var _executor: ExecutorService = null
+
+  private def executor: ExecutorService = synchronized {
+    if (_executor eq null) {
+      val threads     = Properties.instance.getPropertySet.getInteger(ThreadsProperty, DefaultThreads).intValue max 1
+      val threadCount = new AtomicInteger
+
+      val newExecutor =
+        new ThreadPoolExecutor(
+          threads,
+          threads,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue[Runnable](threads * QueuedReadsPerThread),
+          new ThreadFactory {
+            def newThread(runnable: Runnable) = {
+              val thread = new Thread(runnable, "orbeon-pipeline-read-" + threadCount.incrementAndGet())
+              thread.setDaemon(true)
+              thread
+            }
+          },
+          new ThreadPoolExecutor.CallerRunsPolicy
+        )
+
+      Option(NetUtils.getExternalContext) foreach {
+        _.getWebAppContext.addListener(new WebAppListener {
+          def webAppDestroyed() = ParallelReads.synchronized {
+            // Let reads already submitted complete, as callers are waiting for them
+            newExecutor.shutdown()
+            if (_executor eq newExecutor)
+              _executor = null
+          }
+        })
+      }
+
+      _executor = newExecutor
+    }
+    _executor
+  }
+
+  // For tests, which can't change the property
+  @volatile private[pipeline] var enabledForTests = false
+
+  def isEnabled =
+    (onPoolThread.get eq null) &&
+    (enabledForTests || Properties.instance.getPropertySet.getBoolean(EnabledProperty, false))
+
+  def submit(pipelineContext: PipelineContext, input: ProcessorInput): Future[SAXStore] = {
+
+    // Capture what the reading thread sees now, as the caller goes on changing its context
+    val processorService = ProcessorService.currentProcessorService.value
+    val branchAttributes = ProcessorImpl.getBranchAttributes(pipelineContext)
+
+    executor.submit(new Callable[SAXStore] {
+      def call() = {
+        onPoolThread.set(true)
+        val branchContext = new PipelineContext(pipelineContext, branchAttributes)
+        var success = false
+        try {
+          val saxStore = new SAXStore
+          ProcessorService.withProcessorService(processorService) {
+            ProcessorImpl.readInputAsSAX(branchContext, input, saxStore)
+          }
+          success = true
+          saxStore
+        } finally {
+          branchContext.destroy(success)
+          onPoolThread.remove()
+        }
+      }
+    })
+  }
+
+  def waitFor(future: Future[SAXStore]): SAXStore =
+    try future.get
+    catch {
+      case e: InterruptedException ⇒
+        Thread.currentThread.interrupt()
+        throw new OXFException(e)
+      case e: ExecutionException ⇒
+        e.getCause match {
+          case cause: OXFException ⇒ throw cause
+          case cause: Error        ⇒ throw cause
+          case cause               ⇒ throw new OXFException(cause)
+        }
+    }
+
+  // Wait for reads which are no longer needed, so that they don't run past the caller's pipeline
+  def waitForAll(futures: java.lang.Iterable[Future[SAXStore]]): Unit = {
+    val it = futures.iterator
+    try {
+      while (it.hasNext)
+        try it.next().get
+        catch {
+          case e: ExecutionException ⇒ // the caller is already failing
+        }
+    } catch {
+      case e: InterruptedException ⇒ Thread.currentThread.interrupt()
+    }
+  }
+}
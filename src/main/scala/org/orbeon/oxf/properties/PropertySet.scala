@@ -14,6 +14,7 @@
 package org.orbeon.oxf.properties
 
 import java.net.URI
+import java.util.concurrent.ConcurrentHashMap
 import java.{lang ⇒ jl, util ⇒ ju}
 
 import org.orbeon.dom.{Element, QName}
@@ -56,6 +57,12 @@ class PropertySet {
   private var exactProperties    = Map[String, Property]()
   private val wildcardProperties = new PropertyNode
 
+  // Properties found by name, including through wildcards, so that each name is only looked up in the tree once
+  // Names which are not found are not kept, as any name can be asked for, and the number of names kept is bounded.
+  private val resolvedProperties = new ConcurrentHashMap[String, Property]
+
+  private[properties] def resolvedCount = resolvedProperties.size
+
   /**
    * Set a property. Used by PropertyStore.
    *
@@ -83,6 +90,8 @@ class PropertySet {
 
     // Store value
     currentNode.property = property
+
+    resolvedProperties.clear()
   }
 
   def keySet: ju.Set[String] = exactProperties.keySet.asJava
@@ -196,7 +205,18 @@ class PropertySet {
       else
         p
 
-    getExact orElse getWildcard map checkType
+    val resolved =
+      resolvedProperties.get(name) match {
+        case null ⇒
+          val newResolved = getExact orElse getWildcard
+          if (resolvedProperties.size < PropertySet.MaxResolvedProperties)
+            newResolved foreach (resolvedProperties.put(name, _))
+          newResolved
+        case existingResolved ⇒
+          Some(existingResolved)
+      }
+
+    resolved map checkType
   }
 
   /* All getters */
@@ -281,3 +301,7 @@ class PropertySet {
   def getNMTOKEN(nm: String): String =
     getPropertyValueOrNull(nm, XMLConstants.XS_NMTOKEN_QNAME).asInstanceOf[String]
 }
+
+private object PropertySet {
+  val MaxResolvedProperties = 10000
+}
@@ -31,10 +31,13 @@ import scala.collection.JavaConverters._
 import scala.collection.mutable
 
 // Represent property sets grouped as global and per-processor properties.
+//
+// The store is not modified once created, so it can be read by concurrent threads.
 class PropertyStore(propertiesDocument: Document) {
 
   private val globalPropertySet = new PropertySet
   private val processorPropertySets = mutable.HashMap[QName, PropertySet]()
+  private val emptyPropertySet = new PropertySet
 
   locally {
 
@@ -64,7 +67,7 @@ class PropertyStore(propertiesDocument: Document) {
         propertyElement.attributeValueOpt("processor-name") match {
           case Some(_) ⇒
             val processorQName = Dom4jUtils.extractAttributeValueQName(propertyElement, "processor-name")
-            getProcessorPropertySet(processorQName).setProperty(propertyElement, name, typeQName, value)
+            processorPropertySets.getOrElseUpdate(processorQName, new PropertySet).setProperty(propertyElement, name, typeQName, value)
           case None ⇒
             getGlobalPropertySet.setProperty(propertyElement, name, typeQName, value)
         }
@@ -75,7 +78,7 @@ class PropertyStore(propertiesDocument: Document) {
   def getGlobalPropertySet: PropertySet = globalPropertySet
 
   def getProcessorPropertySet(processorQName: QName): PropertySet =
-    processorPropertySets.getOrElseUpdate(processorQName, new PropertySet)
+    processorPropertySets.getOrElse(processorQName, emptyPropertySet)
 }
 
 private object PropertyStore {
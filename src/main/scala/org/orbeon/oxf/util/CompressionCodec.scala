@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.orbeon.oxf.common.OXFException
+
+// Compression codec
+//
+// Compressed bytes start with a header which identifies the codec, so that `CompressionCodec.uncompress` can
+// uncompress bytes produced by any codec. This way, changing the codec doesn't invalidate data already stored.
+abstract class CompressionCodec {
+  def name: String
+  def compress(bytes: Array[Byte]): Array[Byte]
+  def uncompress(bytes: Array[Byte]): Array[Byte]
+  def hasHeader(bytes: Array[Byte]): Boolean
+}
+
+object CompressionCodec {
+
+  // Codec names as used in properties
+  val GzipName = "gzip"
+  val LZ4Name  = "lz4"
+  val NoneName = "none"
+
+  val Gzip: CompressionCodec = GzipCodec
+  val LZ4 : CompressionCodec = LZ4Codec
+
+  val All = List(Gzip, LZ4)
+
+  // Return the codec with the given name, or `None` for the `none` codec name
+  def forName(name: String): Option[CompressionCodec] =
+    name match {
+      case NoneName ⇒ None
+      case _        ⇒ All find (_.name == name) orElse (throw new OXFException(s"unknown compression codec: `$name`"))
+    }
+
+  // For Java callers
+  def forNameOrNull(name: String): CompressionCodec = forName(name).orNull
+
+  def isCompressed(bytes: Array[Byte]): Boolean =
+    All exists (_.hasHeader(bytes))
+
+  // Uncompress bytes produced by any codec
+  def uncompress(bytes: Array[Byte]): Array[Byte] =
+    All find (_.hasHeader(bytes)) getOrElse
+      (throw new OXFException("unknown compression header")) uncompress bytes
+
+  // GZIP, using the compression level and `Deflater` pool of `Compressor`
+  private object GzipCodec extends CompressionCodec {
+
+    val name = GzipName
+
+    def compress(bytes: Array[Byte])   = Compressor.gzipBytes(bytes)
+    def uncompress(bytes: Array[Byte]) = Compressor.gunzipBytes(bytes)
+
+    // GZIP member header: ID1 ID2
+    def hasHeader(bytes: Array[Byte]) =
+      bytes.length >= 2 && bytes(0) == 0x1f.toByte && bytes(1) == 0x8b.toByte
+  }
+
+  // Pure JVM implementation of the LZ4 block format, which trades compression ratio for speed
+  //
+  // Header: 'L' 'Z' '4' followed by the uncompressed length as a big-endian 32-bit integer.
+  private object LZ4Codec extends CompressionCodec {
+
+    val name = LZ4Name
+
+    private val Magic      = Array[Byte]('L', 'Z', '4')
+    private val HeaderSize = Magic.length + 4
+
+    private val MinMatch     = 4
+    private val LastLiterals = 5
+    private val MFLimit      = 12
+    private val MaxDistance  = 65535
+    private val HashLog      = 16
+
+    // The hash table is reused without being cleared: a stale entry is at worst a useless candidate, as candidates are
+    // checked against the input before being used.
+    private val hashTables = new ThreadLocal[Array[Int]] {
+      override def initialValue() = new Array[Int](1 << HashLog)
+    }
+
+    def hasHeader(bytes: Array[Byte]) =
+      bytes.length >= HeaderSize && bytes(0) == Magic(0) && bytes(1) == Magic(1) && bytes(2) == Magic(2)
+
+    def compress(src: Array[Byte]): Array[Byte] = {
+
+      val srcLength = src.length
+      val dest      = new Array[Byte](HeaderSize + srcLength + srcLength / 255 + 16)
+
+      System.arraycopy(Magic, 0, dest, 0, Magic.length)
+      writeIntBE(dest, Magic.length, srcLength)
+
+      var dp     = HeaderSize
+      var anchor = 0
+
+      if (srcLength > MFLimit) {
+
+        val table      = hashTables.get
+        val matchLimit = srcLength - LastLiterals
+        val mfLimit    = srcLength - MFLimit
+
+        table(hash(readIntLE(src, 0))) = 0
+        var sp = 1
+
+        while (sp < mfLimit) {
+          val sequence = readIntLE(src, sp)
+          val h        = hash(sequence)
+          val ref      = table(h)
+          table(h) = sp
+
+          if (ref < sp && sp - ref <= MaxDistance && readIntLE(src, ref) == sequence) {
+
+            // Extend the match backwards, then forwards
+            var start = sp
+            var from  = ref
+            while (start > anchor && from > 0 && src(start - 1) == src(from - 1)) {
+              start -= 1
+              from  -= 1
+            }
+
+            var matchLength = MinMatch
+            while (start + matchLength < matchLimit && src(start + matchLength) == src(from + matchLength))
+              matchLength += 1
+
+            val tokenPos = dp
+            dp = writeSequence(src, anchor, start - anchor, dest, tokenPos)
+            dp = writeMatch(dest, dp, tokenPos, start - from, matchLength)
+
+            sp     = start + matchLength
+            anchor = sp
+
+            if (sp < mfLimit)
+              table(hash(readIntLE(src, sp - 2))) = sp - 2
+          } else {
+            // Skip faster through incompressible data
+            sp += 1 + ((sp - anchor) >>> 6)
+          }
+        }
+      }
+
+      // Last literals
+      dp = writeSequence(src, anchor, srcLength - anchor, dest, dp)
+
+      java.util.Arrays.copyOf(dest, dp)
+    }
+
+    def uncompress(src: Array[Byte]): Array[Byte] = {
+
+      require(hasHeader(src))
+
+      val destLength = readIntBE(src, Magic.length)
+      val dest       = new Array[Byte](destLength)
+
+      var sp = HeaderSize
+      var dp = 0
+
+      while (sp < src.length) {
+
+        val token = src(sp) & 0xff
+        sp += 1
+
+        // Literals
+        var literalLength = token >>> 4
+        if (literalLength == 0x0f) {
+          var b = 0xff
+          while (b == 0xff) {
+            b = src(sp) & 0xff
+            sp += 1
+            literalLength += b
+          }
+        }
+
+        System.arraycopy(src, sp, dest, dp, literalLength)
+        sp += literalLength
+        dp += literalLength
+
+        // Match, except after the last literals
+        if (sp < src.length) {
+          val offset = (src(sp) & 0xff) | ((src(sp + 1) & 0xff) << 8)
+          sp += 2
+
+          var matchLength = token & 0x0f
+          if (matchLength == 0x0f) {
+            var b = 0xff
+            while (b == 0xff) {
+              b = src(sp) & 0xff
+              sp += 1
+              matchLength += b
+            }
+          }
+          matchLength += MinMatch
+
+          val ref = dp - offset
+          if (offset <= 0 || ref < 0)
+            throw new OXFException("invalid LZ4 data")
+
+          if (offset >= matchLength) {
+            System.arraycopy(dest, ref, dest, dp, matchLength)
+          } else {
+            // Overlapping copy
+            var i = 0
+            while (i < matchLength) {
+              dest(dp + i) = dest(ref + i)
+              i += 1
+            }
+          }
+          dp += matchLength
+        }
+      }
+
+      if (dp != destLength)
+        throw new OXFException("invalid LZ4 data")
+
+      dest
+    }
+
+    // Write the token, literal length and literals of a sequence
+    // The match length is added to the token by `writeMatch`.
+    private def writeSequence(src: Array[Byte], literalStart: Int, literalLength: Int, dest: Array[Byte], tokenPos: Int): Int = {
+      var dp = tokenPos + 1
+      if (literalLength >= 0x0f) {
+        dest(tokenPos) = (0x0f << 4).toByte
+        dp = writeLength(dest, dp, literalLength - 0x0f)
+      } else {
+        dest(tokenPos) = (literalLength << 4).toByte
+      }
+      System.arraycopy(src, literalStart, dest, dp, literalLength)
+      dp + literalLength
+    }
+
+    private def writeMatch(dest: Array[Byte], position: Int, tokenPos: Int, offset: Int, matchLength: Int): Int = {
+      var dp = position
+      dest(dp)     = offset.toByte
+      dest(dp + 1) = (offset >>> 8).toByte
+      dp += 2
+
+      val length = matchLength - MinMatch
+      if (length >= 0x0f) {
+        dest(tokenPos) = (dest(tokenPos) | 0x0f).toByte
+        dp = writeLength(dest, dp, length - 0x0f)
+      } else {
+        dest(tokenPos) = (dest(tokenPos) | length).toByte
+      }
+      dp
+    }
+
+    private def writeLength(dest: Array[Byte], position: Int, length: Int): Int = {
+      var dp = position
+      var remaining = length
+      while (remaining >= 0xff) {
+        dest(dp) = 0xff.toByte
+        dp += 1
+        remaining -= 0xff
+      }
+      dest(dp) = remaining.toByte
+      dp + 1
+    }
+
+    private def hash(i: Int) = (i * -1640531535) >>> (32 - HashLog)
+
+    private def readIntLE(bytes: Array[Byte], i: Int) =
+      (bytes(i) & 0xff) | ((bytes(i + 1) & 0xff) << 8) | ((bytes(i + 2) & 0xff) << 16) | ((bytes(i + 3) & 0xff) << 24)
+
+    private def readIntBE(bytes: Array[Byte], i: Int) =
+      ((bytes(i) & 0xff) << 24) | ((bytes(i + 1) & 0xff) << 16) | ((bytes(i + 2) & 0xff) << 8) | (bytes(i + 3) & 0xff)
+
+    private def writeIntBE(bytes: Array[Byte], i: Int, value: Int): Unit = {
+      bytes(i)     = (value >>> 24).toByte
+      bytes(i + 1) = (value >>> 16).toByte
+      bytes(i + 2) = (value >>> 8).toByte
+      bytes(i + 3) = value.toByte
+    }
+  }
+}
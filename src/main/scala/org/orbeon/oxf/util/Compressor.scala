@@ -48,7 +48,13 @@ object Compressor extends Logging {
 
   // Compress using BEST_SPEED as serializing state quickly has been determined to be more important than saving extra
   // memory. Even this way compression typically is more than 10X.
-  def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] = compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+  def gzipBytes(bytesToEncode: Array[Byte]): Array[Byte] = compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+
+  // Compress with GZIP
+  def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] = gzipBytes(bytesToEncode)
+
+  // Compress with the given codec
+  def compressBytes(bytesToEncode: Array[Byte], codec: CompressionCodec): Array[Byte] = codec.compress(bytesToEncode)
 
   // Example of effective compression ratios and speeds for XML inputs:
   //
@@ -87,7 +93,10 @@ object Compressor extends Logging {
     compressBytes(bytesToEncode, Deflater.BEST_SPEED)
   }
 
-  def uncompressBytes(bytesToDecode: Array[Byte]) = {
+  // Uncompress bytes compressed with any codec
+  def uncompressBytes(bytesToDecode: Array[Byte]): Array[Byte] = CompressionCodec.uncompress(bytesToDecode)
+
+  def gunzipBytes(bytesToDecode: Array[Byte]) = {
     val is = new GZIPInputStream(new ByteArrayInputStream(bytesToDecode))
     val os = new ByteArrayOutputStream(BUFFER_SIZE)
     NetUtils.copyStream(is, os)
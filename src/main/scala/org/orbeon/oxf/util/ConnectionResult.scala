@@ -20,7 +20,7 @@ import org.apache.log4j.Level
 import org.orbeon.oxf.common.Defaults
 import org.orbeon.oxf.http.{HttpStatusCodeException, StatusCode, StreamedContent, Headers ⇒ HttpHeaders}
 import org.orbeon.oxf.util.IOUtils._
-import org.orbeon.oxf.xml.XMLParsing
+import org.orbeon.oxf.xml.{XMLContentInputStream, XMLParsing}
 
 import scala.util.Try
 import scala.util.control.NonFatal
@@ -126,22 +126,25 @@ object ConnectionResult {
     dontHandleResponse: Boolean = false // TODO: Should be outside of ConnectionResult.
   ): ConnectionResult = {
 
-    val (hasContent, resetInputStream) = {
-
-      val bis =
-        if (content.inputStream.markSupported)
-          content.inputStream
-        else
-          new BufferedInputStream(content.inputStream)
-
-      def hasContent(bis: InputStream) = {
-        bis.mark(1)
-        val result = bis.read != -1
-        bis.reset()
-        result
-      }
+    val (hasContent, resetInputStream) = content.inputStream match {
+      case xmlContent: XMLContentInputStream if ! xmlContent.isRead ⇒
+        // Reading would serialize in-process XML content, which is never empty
+        (true, xmlContent)
+      case inputStream ⇒
+        val bis =
+          if (inputStream.markSupported)
+            inputStream
+          else
+            new BufferedInputStream(inputStream)
+
+        def hasContent(bis: InputStream) = {
+          bis.mark(1)
+          val result = bis.read != -1
+          bis.reset()
+          result
+        }
 
-      (hasContent(bis), bis)
+        (hasContent(bis), bis)
     }
 
     ConnectionResult(
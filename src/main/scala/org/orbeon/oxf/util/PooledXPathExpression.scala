@@ -57,6 +57,14 @@ class PooledXPathExpression(expression: XPathExpression, pool: ObjectPool[Pooled
     this.variableToValueMap = variableToValueMap
   }
 
+  /**
+   * Return a new unpooled expression sharing the immutable compiled expression with this one, but with its own
+   * context item, position and variables. This allows evaluating the same compiled expression concurrently without
+   * borrowing from a pool.
+   */
+  def newEvaluation: PooledXPathExpression =
+    new PooledXPathExpression(expression, null, variables)
+
   /**
    * This *must* be called in a finally block to return the expression to the pool.
    */
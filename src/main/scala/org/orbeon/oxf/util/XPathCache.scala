@@ -14,10 +14,11 @@
 package org.orbeon.oxf.util
 
 import collection.JavaConverters._
+import java.{util ⇒ ju}
 import java.util.{List ⇒ JList, Map ⇒ JMap}
 import org.apache.commons.pool.{BasePoolableObjectFactory, ObjectPool}
-import org.orbeon.oxf.cache.InternalCacheKey
-import org.orbeon.oxf.cache.ObjectCache
+import org.orbeon.oxf.cache.{CacheKey, ObjectCache}
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.xml.dom4j.LocationData
 import org.orbeon.oxf.xml.NamespaceMapping
 import org.orbeon.saxon.Configuration
@@ -39,6 +40,15 @@ object XPathCache {
   private val XPathCacheName = "cache.xpath"
   private val XPathCacheDefaultSize = 200
 
+  // Whether compiled expressions are shared between threads instead of being pooled
+  private val ShareCompiledExpressionsProperty = "oxf.cache.xpath.share-compiled-expressions"
+
+  // Keep a reference so that lookups don't go through the synchronized `ObjectCache.instance()`
+  private lazy val XPathObjectCache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
+
+  private lazy val ShareCompiledExpressions =
+    Option(Properties.instance.getPropertySet) exists (_.getBoolean(ShareCompiledExpressionsProperty, default = false))
+
   private val Logger = LoggerFactory.createLogger(getClass)
 
   case class XPathContext(
@@ -537,53 +547,45 @@ object XPathCache {
     locationData       : LocationData
   ): PooledXPathExpression = {
     try {
-      // Find pool from cache
+      // Find pool or shared expression from cache
       val validity = 0L
-      val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
-      val cacheKeyString = new StringBuilder(xpathString)
-
-      if (functionLibrary ne null) {// This is ok
-        cacheKeyString.append('|')
-        cacheKeyString.append(functionLibrary.hashCode.toString)
-      }
-      // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
-      // to use it as part of the cache key.
-      if (namespaceMapping ne null) {
-        // NOTE: Hash is mandatory in NamespaceMapping
-        cacheKeyString.append('|')
-        cacheKeyString.append(namespaceMapping.hash)
-      }
-
-      // NOTE: Make sure to copy the values in the key set, as the set returned by the map keeps a pointer to the
-      // Map! This can cause the XPath cache to keep a reference to variable values, which in turn can keep a
-      // reference all the way to e.g. an XFormsContainingDocument.
-      val variableNames = Option(variableToValueMap) map (_.keySet.asScala.toList) getOrElse List()
-
-      if (variableNames.nonEmpty) {
-        // There are some variables in scope. They must be part of the key
-        // TODO: Put this in static state as this can be determined statically once and for all
-        for (variableName ← variableNames) {
-          cacheKeyString.append('|')
-          cacheKeyString.append(variableName)
-        }
-      }
-
-      // Add this to the key as evaluating "name" as XPath or as AVT is very different!
-      cacheKeyString.append('|')
-      cacheKeyString.append(isAVT.toString)
+      val cache = XPathObjectCache
+
+      // NOTE: The probe key refers to the live key set of the variables map. This is fine for the lookup, but the key
+      // stored into the cache must not keep a pointer to the Map, as this can cause the XPath cache to keep a
+      // reference to variable values, which in turn can keep a reference all the way to e.g. an
+      // XFormsContainingDocument.
+      val probeKey =
+        new XPathExpressionKey(
+          xpathString,
+          functionLibrary,
+          // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
+          // to use it as part of the cache key.
+          if (namespaceMapping ne null) namespaceMapping.hash else null,
+          if (variableToValueMap ne null) variableToValueMap.keySet else ju.Collections.emptySet[String],
+          // Add this to the key as evaluating "name" as XPath or as AVT is very different!
+          isAVT
+        )
 
       // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
 
-      val pooledXPathExpression = {
-        val cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString)
-        var pool = cache.findValid(cacheKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
-        if (pool eq null) {
-          pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, locationData)
-          cache.add(cacheKey, validity, pool)
+      def variableNames = probeKey.variableNames.asScala.toList
+
+      val pooledXPathExpression =
+        cache.findValid(probeKey, validity) match {
+          case shared: PooledXPathExpression ⇒
+            shared.newEvaluation
+          case pool: ObjectPool[PooledXPathExpression @unchecked] ⇒
+            pool.borrowObject
+          case _ if ShareCompiledExpressions ⇒
+            val shared = compileXPathExpression(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, null)
+            cache.add(probeKey.detached, validity, shared)
+            shared.newEvaluation
+          case _ ⇒
+            val pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, locationData)
+            cache.add(probeKey.detached, validity, pool)
+            pool.borrowObject
         }
-        // Get object from pool
-        pool.borrowObject
-      }
 
       // Set context items and position
       pooledXPathExpression.setContextItems(contextItems, contextPosition)
@@ -597,6 +599,56 @@ object XPathCache {
     }
   }
 
+  // Structured cache key, which avoids building a string key for each lookup
+  private class XPathExpressionKey(
+    val xpathString     : String,
+    val functionLibrary : FunctionLibrary, // this is ok if it doesn't hold dynamic references (see below)
+    val namespaceHash   : String,
+    val variableNames   : ju.Collection[String],
+    val isAVT           : Boolean
+  ) extends CacheKey {
+
+    override val hashCode: Int = {
+      var result = xpathString.hashCode
+      result = 31 * result + (if (functionLibrary ne null) functionLibrary.hashCode else 0)
+      result = 31 * result + (if (namespaceHash ne null) namespaceHash.hashCode else 0)
+      val it = variableNames.iterator
+      while (it.hasNext)
+        result = 31 * result + it.next().hashCode
+      31 * result + (if (isAVT) 1 else 0)
+    }
+
+    override def equals(other: Any): Boolean = other match {
+      case that: XPathExpressionKey ⇒
+        (this eq that) || (
+          hashCode == that.hashCode                       &&
+          isAVT == that.isAVT                             &&
+          xpathString == that.xpathString                 &&
+          (functionLibrary eq that.functionLibrary)       &&
+          namespaceHash == that.namespaceHash             &&
+          sameVariableNames(variableNames, that.variableNames)
+        )
+      case _ ⇒ false
+    }
+
+    // Copy the variable names so that the key doesn't refer to the variables map
+    def detached =
+      new XPathExpressionKey(xpathString, functionLibrary, namespaceHash, new ju.ArrayList(variableNames), isAVT)
+
+    override def toString =
+      s"XPathExpressionKey[$xpathString, ${variableNames.asScala.mkString(",")}, $isAVT]"
+  }
+
+  private def sameVariableNames(c1: ju.Collection[String], c2: ju.Collection[String]): Boolean =
+    c1.size == c2.size && {
+      val it1 = c1.iterator
+      val it2 = c2.iterator
+      var same = true
+      while (same && it1.hasNext)
+        same = it1.next() == it2.next()
+      same
+    }
+
   private def createXPathPool(
     xpathConfiguration : Configuration,
     xpathString        : String,
@@ -658,44 +710,59 @@ object XPathCache {
     var pool: ObjectPool[PooledXPathExpression] = _
 
     // Create and compile an XPath expression object
-    def makeObject: PooledXPathExpression = {
-      if (Logger.isDebugEnabled)
-        Logger.debug("makeObject(" + xpathString + ")")
-
-      // Create context
-      val independentContext = new IndependentContext(xpathConfiguration)
-      independentContext.getConfiguration.setURIResolver(XPath.URIResolver)
-
-      // Set the base URI if specified
-      if (baseURI ne null)
-        independentContext.setBaseURI(baseURI)
-
-      // Declare namespaces
-      if (namespaceMapping ne null)
-        for ((prefix, uri) ← namespaceMapping.mapping.asScala)
-          independentContext.declareNamespace(prefix, uri)
-
-      // Declare variables (we don't use the values here, just the names)
-      val variables =
-        if (variableNames ne null)
-          for {
-            name ← variableNames
-            variable = independentContext.declareVariable("", name)
-          } yield
-            name → variable
-        else
-          Nil
-
-      // Add function library
-      if (functionLibrary ne null)
-        independentContext.getFunctionLibrary.asInstanceOf[FunctionLibraryList].libraryList.asInstanceOf[JList[FunctionLibrary]].add(0, functionLibrary)
-
-      createPoolableXPathExpression(independentContext, xpathString, isAVT, pool, variables)
-    }
+    def makeObject: PooledXPathExpression =
+      compileXPathExpression(xpathConfiguration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, pool)
 
     override def destroyObject(o: PooledXPathExpression): Unit = ()
   }
 
+  // Compile an XPath expression. If `pool` is null, the resulting expression is not pooled and can be shared between
+  // threads with `newEvaluation`.
+  private def compileXPathExpression(
+    xpathConfiguration : Configuration,
+    xpathString        : String,
+    namespaceMapping   : NamespaceMapping,
+    variableNames      : List[String],
+    functionLibrary    : FunctionLibrary,
+    baseURI            : String,
+    isAVT              : Boolean,
+    pool               : ObjectPool[PooledXPathExpression]
+  ): PooledXPathExpression = {
+
+    if (Logger.isDebugEnabled)
+      Logger.debug("compileXPathExpression(" + xpathString + ")")
+
+    // Create context
+    val independentContext = new IndependentContext(configurationOrDefault(xpathConfiguration))
+    independentContext.getConfiguration.setURIResolver(XPath.URIResolver)
+
+    // Set the base URI if specified
+    if (baseURI ne null)
+      independentContext.setBaseURI(baseURI)
+
+    // Declare namespaces
+    if (namespaceMapping ne null)
+      for ((prefix, uri) ← namespaceMapping.mapping.asScala)
+        independentContext.declareNamespace(prefix, uri)
+
+    // Declare variables (we don't use the values here, just the names)
+    val variables =
+      if (variableNames ne null)
+        for {
+          name ← variableNames
+          variable = independentContext.declareVariable("", name)
+        } yield
+          name → variable
+      else
+        Nil
+
+    // Add function library
+    if (functionLibrary ne null)
+      independentContext.getFunctionLibrary.asInstanceOf[FunctionLibraryList].libraryList.asInstanceOf[JList[FunctionLibrary]].add(0, functionLibrary)
+
+    createPoolableXPathExpression(independentContext, xpathString, isAVT, pool, variables)
+  }
+
   private def withEvaluation[T](xpathString: String, xpathExpression: PooledXPathExpression, locationData: LocationData, reporter: Reporter)(body: ⇒ T): T =
     try {
       if (reporter ne null) {
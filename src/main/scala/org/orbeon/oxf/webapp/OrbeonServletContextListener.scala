@@ -17,6 +17,7 @@ import javax.servlet.{ServletContextEvent, ServletContextListener, ServletExcept
 
 import org.orbeon.oxf.externalcontext.WebAppContext
 import org.orbeon.oxf.pipeline.InitUtils.runWithServletContext
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.webapp.ServletPortlet._
 
 // For backward compatibility
@@ -47,5 +48,6 @@ class OrbeonServletContextListener extends ServletContextListener {
       runWithServletContext(event.getServletContext, None, logPrefix, "Context destroyed.", DestroyProcessorPrefix, DestroyInputPrefix)
       // NOTE: This calls all listeners, because the listeners are stored in the actual web app context's attributes
       WebAppContext(event.getServletContext).webAppDestroyed()
+      Properties.stopWatcher()
     }
 }
\ No newline at end of file
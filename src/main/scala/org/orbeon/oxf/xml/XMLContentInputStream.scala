@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, InputStream, OutputStream}
+import javax.xml.transform.stream.StreamResult
+
+import org.orbeon.dom.Document
+import org.orbeon.oxf.util.NetUtils
+import org.orbeon.saxon.om.NodeInfo
+
+// Stream over XML content held in memory, as a SAXStore or a tree
+//
+// This allows in-process callers, like `InternalHttpClient`, to hand over XML without serializing and parsing it.
+// `XMLParsing.inputStreamToSAX()` replays the content directly if the stream hasn't been read yet. Other consumers
+// just read the stream, which serializes the content the first time it is read. The content is never empty, so callers
+// which only need to know whether there is content, like `ConnectionResult`, must not read the stream to find out.
+class XMLContentInputStream private (write: XMLReceiver ⇒ Unit) extends InputStream {
+
+  private var _bytes: InputStream = null
+
+  def isRead = _bytes ne null
+
+  // Return `false` if bytes were read already, in which case the caller must parse the remaining bytes instead
+  def replayIfUnread(xmlReceiver: XMLReceiver): Boolean =
+    ! isRead && {
+      write(xmlReceiver)
+      true
+    }
+
+  // Write the content to a stream, serializing it straight to the stream if it hasn't been read yet
+  def writeTo(os: OutputStream): Unit =
+    if (isRead)
+      NetUtils.copyStream(_bytes, os)
+    else
+      serialize(os)
+
+  private def serialize(os: OutputStream): Unit = {
+    val identity = TransformerUtils.getIdentityTransformerHandler
+
+    TransformerUtils.applyOutputProperties(
+      identity.getTransformer,
+      "xml",
+      null,
+      null,
+      null,
+      TransformerUtils.DEFAULT_OUTPUT_ENCODING,
+      false,
+      null,
+      false,
+      0
+    )
+
+    identity.setResult(new StreamResult(os))
+    write(identity)
+  }
+
+  private def bytes = {
+    if (_bytes eq null) {
+      val os = new ByteArrayOutputStream
+      serialize(os)
+      _bytes = new ByteArrayInputStream(os.toByteArray)
+    }
+    _bytes
+  }
+
+  override def read()                                     = bytes.read()
+  override def read(b: Array[Byte], off: Int, len: Int)   = bytes.read(b, off, len)
+  override def skip(n: Long)                              = bytes.skip(n)
+  override def available()                                = if (isRead) _bytes.available() else 0
+
+  // Until the stream is read, the position is the start of the content, which is also where the bytes start
+  override def markSupported                              = true
+  override def mark(readlimit: Int)                       = if (isRead) _bytes.mark(readlimit)
+  override def reset()                                    = if (isRead) _bytes.reset()
+
+  // The content is in memory so there is nothing to release, and it remains available after closing
+  override def close()                                    = ()
+}
+
+object XMLContentInputStream {
+  def apply(saxStore: SAXStore): XMLContentInputStream = new XMLContentInputStream(saxStore.replay(_))
+  def apply(nodeInfo: NodeInfo): XMLContentInputStream = new XMLContentInputStream(TransformerUtils.writeTinyTree(nodeInfo, _))
+  def apply(document: Document): XMLContentInputStream = new XMLContentInputStream(TransformerUtils.writeDom4j(document, _))
+}
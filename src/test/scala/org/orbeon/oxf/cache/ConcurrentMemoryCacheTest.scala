@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import java.util.concurrent.locks.{Lock, ReentrantLock}
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConversions._
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+class ConcurrentMemoryCacheTest extends AssertionsForJUnit {
+
+  class MyCacheable(val getEvictionLock: Lock) extends Cacheable {
+
+    var wasEvicted = false
+    var wasRemoved = false
+
+    def evicted(): Unit = { wasEvicted = true }
+    def removed(): Unit = { wasRemoved = true }
+    def added(): Unit = {}
+  }
+
+  class MySized(val getApproximateSize: Long) extends Sized
+
+  case class Key(key: String) extends InternalCacheKey("test", key)
+  val VALIDITY = 0L
+
+  @Test def testFindKeepsInCache(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+
+    val o1 = new MyCacheable(null)
+    val key1 = Key("o1")
+    cache.add(key1, VALIDITY, o1)
+
+    assert(cache.findValid(key1, VALIDITY) eq o1)
+    assert(!o1.wasEvicted)
+    assert(!o1.wasRemoved)
+    assert(cache.getCurrentSize === 1)
+    assert(cache.getHitCount === 1)
+  }
+
+  @Test def testStaleValidityMisses(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+
+    val key1 = Key("o1")
+    cache.add(key1, VALIDITY, new AnyRef)
+
+    assert(cache.findValid(key1, VALIDITY + 1) eq null)
+    assert(cache.getMissCount === 1)
+  }
+
+  @Test def testTakeRemovesFromCache(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+
+    val o1 = new MyCacheable(null)
+    val key1 = Key("o1")
+    cache.add(key1, VALIDITY, o1)
+
+    assert(cache.takeValid(key1, VALIDITY) eq o1)
+    assert(!o1.wasEvicted)
+    assert(o1.wasRemoved)
+    assert(cache.getCurrentSize === 0)
+  }
+
+  @Test def testRemoveAllNotifies(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+
+    val o1 = new MyCacheable(null)
+    cache.add(Key("o1"), VALIDITY, o1)
+
+    assert(cache.removeAll() === 1)
+    assert(!o1.wasEvicted)
+    assert(o1.wasRemoved)
+    assert(cache.getCurrentSize === 0)
+    assert(cache.getCurrentWeight === 0)
+  }
+
+  @Test def testReduceSizeEvicts(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+
+    val o1 = new MyCacheable(null)
+    cache.add(Key("o1"), VALIDITY, o1)
+
+    cache.setMaxSize(0)
+
+    assert(o1.wasEvicted)
+    assert(!o1.wasRemoved)
+    assert(cache.getCurrentSize === 0)
+    assert(cache.getExpirationCount === 1)
+  }
+
+  @Test def testNotEvictedIfLockUnavailable(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+    val lock = new ReentrantLock
+
+    val o1 = new MyCacheable(lock)
+    cache.add(Key("o1"), VALIDITY, o1)
+
+    // Run in separate thread and wait
+    lock.lock()
+    Await.ready(Future(cache.add(Key("o2"), VALIDITY, new AnyRef)), Duration.Inf)
+    lock.unlock()
+
+    assert(!o1.wasEvicted)
+    assert(!o1.wasRemoved)
+    assert(cache.getCurrentSize === 2)
+  }
+
+  @Test def testLeastRecentlyUsedEvicted(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(2)
+
+    val o1 = new MyCacheable(null)
+    val o2 = new MyCacheable(null)
+
+    cache.add(Key("o1"), VALIDITY, o1)
+    cache.add(Key("o2"), VALIDITY, o2)
+
+    // Make o1 the most recently used
+    Thread.sleep(1)
+    cache.findValid(Key("o1"), VALIDITY)
+
+    cache.add(Key("o3"), VALIDITY, new AnyRef)
+
+    assert(!o1.wasEvicted)
+    assert(o2.wasEvicted)
+    assert(cache.getCurrentSize === 2)
+  }
+
+  @Test def testWeightBound(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(100, 1000)
+
+    for (i ← 1 to 10)
+      cache.add(Key("o" + i), VALIDITY, new MySized(300))
+
+    assert(cache.getCurrentWeight <= 1000)
+    assert(cache.getCurrentSize === 3)
+
+    // Replacing an entry adjusts the weight
+    cache.add(Key("o10"), VALIDITY, new MySized(100))
+    assert(cache.getCurrentWeight === 700)
+  }
+
+  @Test def testConcurrentAccess(): Unit = {
+    val size  = 100
+    val cache = new ConcurrentMemoryCacheImpl(size)
+
+    val futures =
+      for (t ← 1 to 8)
+        yield Future {
+          for (i ← 1 to 1000) {
+            val key = Key("o" + (i % (size * 2)))
+            if (cache.findValid(key, VALIDITY) eq null)
+              cache.add(key, VALIDITY, i)
+          }
+        }
+
+    futures foreach (Await.ready(_, Duration.Inf))
+
+    // Eviction is best-effort under contention, but the cache must remain consistent
+    assert(cache.iterateCacheKeys.toList.size === cache.getCurrentSize)
+    assert(cache.getAddCount - cache.getExpirationCount === cache.getCurrentSize)
+  }
+
+  @Test def testEvictionInBatches(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(32)
+
+    for (i ← 1 to 33)
+      cache.add(Key("o" + i), VALIDITY, i)
+
+    // Eviction goes below the bound, so the next additions don't evict
+    assert(cache.getCurrentSize === 30)
+    assert(cache.getExpirationCount === 3)
+    assert(cache.findValid(Key("o33"), VALIDITY) === 33)
+
+    cache.add(Key("o34"), VALIDITY, 34)
+    cache.add(Key("o35"), VALIDITY, 35)
+
+    assert(cache.getCurrentSize === 32)
+    assert(cache.getExpirationCount === 3)
+  }
+
+  @Test def testIterateWhileAccessed(): Unit = {
+    val size  = 1000
+    val cache = new ConcurrentMemoryCacheImpl(size)
+
+    for (i ← 1 to size)
+      cache.add(Key("o" + i), VALIDITY, i)
+
+    @volatile var done = false
+
+    // Last access times change while entries are being sorted
+    val readers =
+      for (t ← 1 to 4)
+        yield Future {
+          while (! done)
+            for (i ← 1 to size)
+              cache.findValid(Key("o" + i), VALIDITY)
+        }
+
+    try {
+      for (_ ← 1 to 100)
+        assert(cache.iterateCacheKeys.toList.size === size)
+    } finally {
+      done = true
+      readers foreach (Await.ready(_, Duration.Inf))
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+class InFlightBuildsTest extends AssertionsForJUnit {
+
+  case class Key(key: String) extends InternalCacheKey("test", key)
+  val VALIDITY = 0L
+
+  @Test def testOtherThreadWaitsForBuild(): Unit = {
+    val cache = new ConcurrentMemoryCacheImpl(1)
+    val inFlightBuilds = cache.getInFlightBuilds
+
+    val build = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    assert(build ne null)
+
+    // The other thread waits until the build ends
+    val other = Future(inFlightBuilds.begin(Key("o1"), VALIDITY))
+    Thread.sleep(100)
+    assert(! other.isCompleted)
+
+    inFlightBuilds.end(build, true)
+
+    assert(Await.result(other, 10.seconds) eq null)
+    assert(cache.getDedupCount === 1)
+    assert(cache.getBuildCount === 1)
+    assert(cache.getWaitTimeoutCount === 0)
+  }
+
+  @Test def testOtherKeysDontWait(): Unit = {
+    val inFlightBuilds = new InFlightBuilds
+
+    val build1 = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    val build2 = Await.result(Future(inFlightBuilds.begin(Key("o2"), VALIDITY)), 10.seconds)
+    val build3 = Await.result(Future(inFlightBuilds.begin(Key("o1"), VALIDITY + 1)), 10.seconds)
+
+    assert((build1 ne null) && (build2 ne null) && (build3 ne null))
+    assert(inFlightBuilds.getDedupCount === 0)
+  }
+
+  @Test def testSameThreadDoesntWait(): Unit = {
+    val inFlightBuilds = new InFlightBuilds
+
+    val outerBuild = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    val innerBuild = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    assert(innerBuild ne null)
+    inFlightBuilds.end(innerBuild, true)
+
+    // The outer build is still in flight
+    val other = Future(inFlightBuilds.begin(Key("o1"), VALIDITY))
+    Thread.sleep(100)
+    assert(! other.isCompleted)
+
+    inFlightBuilds.end(outerBuild, true)
+    assert(Await.result(other, 10.seconds) eq null)
+  }
+
+  @Test def testWaitIsBounded(): Unit = {
+    val inFlightBuilds = new InFlightBuilds(500)
+
+    // The build never ends, as if it was hung or waiting for the other thread
+    val hungBuild = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    assert(hungBuild ne null)
+
+    // The other thread builds the object itself
+    val otherBuild = Await.result(Future(inFlightBuilds.begin(Key("o1"), VALIDITY)), 10.seconds)
+    assert(otherBuild ne null)
+    assert(inFlightBuilds.getWaitTimeoutCount === 1)
+    assert(inFlightBuilds.getDedupCount === 0)
+
+    // Ending it doesn't end the hung build, which other threads still wait for
+    inFlightBuilds.end(otherBuild, true)
+    val third = Future(inFlightBuilds.begin(Key("o1"), VALIDITY))
+    Thread.sleep(100)
+    assert(! third.isCompleted)
+
+    inFlightBuilds.end(hungBuild, true)
+    assert(Await.result(third, 10.seconds) eq null)
+  }
+
+  @Test def testWaitersBuildConcurrentlyWhenNotStored(): Unit = {
+    val inFlightBuilds = new InFlightBuilds
+
+    val build = inFlightBuilds.begin(Key("o1"), VALIDITY)
+    val waiters = List.fill(2)(Future(inFlightBuilds.begin(Key("o1"), VALIDITY)))
+    Thread.sleep(100)
+    assert(waiters forall (! _.isCompleted))
+
+    // The object can't be cached, so there is nothing to look for in the cache
+    inFlightBuilds.end(build, false)
+
+    val waiterBuilds = waiters map (Await.result(_, 10.seconds))
+    assert(waiterBuilds forall (_ ne null))
+    assert(inFlightBuilds.getDedupCount === 0)
+
+    // Other threads don't wait for these builds
+    val other = Await.result(Future(inFlightBuilds.begin(Key("o1"), VALIDITY)), 10.seconds)
+    assert(other ne null)
+
+    waiterBuilds foreach (inFlightBuilds.end(_, false))
+    inFlightBuilds.end(other, false)
+  }
+}
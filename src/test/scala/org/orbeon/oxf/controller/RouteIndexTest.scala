@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.controller
+
+import java.util.regex.Pattern
+
+import org.junit.Test
+import org.orbeon.oxf.processor.RegexpMatcher
+import org.orbeon.oxf.processor.RegexpMatcher.MatchResult
+import org.scalatest.junit.AssertionsForJUnit
+
+class RouteIndexTest extends AssertionsForJUnit {
+
+  import RouteIndex._
+
+  @Test def testLiteralPrefix(): Unit = {
+
+    val expected = List(
+      ("/fr/service/persistence", false) → ("/fr/service/persistence", true),
+      ("/xforms-server",          true ) → ("/xforms-server",          true),
+      ("/fr/*",                   true ) → ("/fr/",                    false),
+      ("/fr/*.xhtml",             true ) → ("/fr/",                    false),
+      ("/config/theme/*.css",     true ) → ("/config/theme/",          false),
+      ("/fr/([^/]+)/new",         false) → ("/fr/",                    false),
+      ("/(welcome/?)?",           false) → ("/",                       false),
+      ("/home/?",                 false) → ("/home",                   false),
+      ("/a\\.b/c",                false) → ("/a.b/c",                  true),
+      ("/a\\d+",                  false) → ("/a",                      false),
+      ("/a|/b",                   false) → ("",                        false),
+      ("/(a|b)/c",                false) → ("/",                       false),
+      ("(?!/x/).+\\.css",         false) → ("",                        false),
+      ("/x[|]y",                  false) → ("/x",                      false)
+    )
+
+    for (((path, glob), result) ← expected)
+      assert(result === literalPrefix(RegexpMatcher.compilePattern(path, glob)), path)
+
+    assert(("", false) === literalPrefix(Pattern.compile("/a", Pattern.CASE_INSENSITIVE)))
+  }
+
+  @Test def testFirstMatch(): Unit = {
+
+    val patterns = Vector(
+      RegexpMatcher.compilePattern("/([^/]+)/service/.+"),
+      RegexpMatcher.compilePattern("(?!/([^/]+)/service/).+\\.(gif|css|js|png)"),
+      RegexpMatcher.compilePattern("/xforms-server",   glob = true),
+      RegexpMatcher.compilePattern("/fr/*",            glob = true),
+      RegexpMatcher.compilePattern("/fr/orbeon/new",   glob = true),
+      RegexpMatcher.compilePattern("/(welcome/?)?"),
+      RegexpMatcher.compilePattern("/home/"),
+      RegexpMatcher.compilePattern("/([^/]+)/.*"),
+      RegexpMatcher.compilePattern("/not-found")
+    )
+
+    val index = new RouteIndex(patterns)
+
+    def linearFind(path: String) =
+      patterns.indices.iterator map (i ⇒ i → MatchResult(patterns(i), path)) find (_._2.matches)
+
+    val paths = List(
+      "/",
+      "/welcome",
+      "/welcome/",
+      "/home/",
+      "/home",
+      "/xforms-server",
+      "/xforms-server/",
+      "/fr/orbeon/new",
+      "/fr/acme/order/edit/123",
+      "/fr/style/form-runner.css",
+      "/fr/service/persistence/crud/acme/order/data/123/data.xml",
+      "/apps/fr/style/logo.png",
+      "/not-found",
+      "/other/page",
+      "",
+      "no-slash"
+    )
+
+    for (path ← paths)
+      assert(linearFind(path) === index.find(path), path)
+
+    assert(Some(3) === (index.find("/fr/orbeon/new") map (_._1)))
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline
+
+import org.junit.{After, Before, Test}
+import org.orbeon.dom.DocumentFactory
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.processor.generator.DOMGenerator
+import org.orbeon.oxf.processor.impl.ProcessorOutputImpl
+import org.orbeon.oxf.processor.{DOMSerializer, ProcessorImpl, ProcessorInputOutputInfo}
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.PipelineUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{SAXUtils, XMLReceiver}
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class AggregatorProcessorTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  @Before def enableParallelReads(): Unit  = ParallelReads.enabledForTests = true
+  @After  def disableParallelReads(): Unit = ParallelReads.enabledForTests = false
+
+  // Produce an empty element with the given name after a delay, or fail with that name as message
+  class ElementProcessor(name: String, delay: Long, fail: Boolean = false) extends ProcessorImpl {
+
+    addOutputInfo(new ProcessorInputOutputInfo(ProcessorImpl.OUTPUT_DATA))
+
+    override def createOutput(outputName: String) = {
+      val output = new ProcessorOutputImpl(this, outputName) {
+        def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
+          Thread.sleep(delay)
+          if (fail)
+            throw new OXFException(name)
+          xmlReceiver.startDocument()
+          xmlReceiver.startElement("", name, name, SAXUtils.EMPTY_ATTRIBUTES)
+          xmlReceiver.endElement("", name, name)
+          xmlReceiver.endDocument()
+        }
+      }
+      addOutput(outputName, output)
+      output
+    }
+  }
+
+  def aggregate(processors: ElementProcessor*) = {
+
+    val aggregator = new AggregatorProcessor
+
+    val config = DocumentFactory.createDocument
+    config.addElement("config").addElement("root").addText("root")
+    PipelineUtils.connect(
+      new DOMGenerator(config, "aggregate config", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext),
+      ProcessorImpl.OUTPUT_DATA,
+      aggregator,
+      ProcessorImpl.INPUT_CONFIG
+    )
+
+    for (processor ← processors) {
+      PipelineUtils.connect(processor, ProcessorImpl.OUTPUT_DATA, aggregator, ProcessorImpl.INPUT_DATA)
+      aggregator.addIndependentInput(aggregator.getInputsByName(ProcessorImpl.INPUT_DATA).asScala.last)
+    }
+
+    val serializer = new DOMSerializer
+    PipelineUtils.connect(aggregator, ProcessorImpl.OUTPUT_DATA, serializer, ProcessorImpl.INPUT_DATA)
+
+    val pipelineContext = new PipelineContext
+    var success = false
+    try {
+      val result = serializer.runGetDocument(pipelineContext)
+      success = true
+      result
+    } finally
+      pipelineContext.destroy(success)
+  }
+
+  @Test def documentOrder(): Unit = {
+
+    // Later inputs are read first
+    val result =
+      aggregate(
+        new ElementProcessor("first",  delay = 300),
+        new ElementProcessor("second", delay = 200),
+        new ElementProcessor("third",  delay = 100),
+        new ElementProcessor("fourth", delay = 0)
+      )
+
+    assert(result.getRootElement.elements.asScala.map(_.getName) === List("first", "second", "third", "fourth"))
+  }
+
+  @Test def errorPropagation(): Unit = {
+
+    val e =
+      intercept[RuntimeException] {
+        aggregate(
+          new ElementProcessor("first",  delay = 100),
+          new ElementProcessor("second", delay = 0, fail = true),
+          new ElementProcessor("third",  delay = 0, fail = true)
+        )
+      }
+
+    // The error of the first failing input in document order, possibly wrapped with location information
+    val causes = (Iterator.iterate(e: Throwable)(_.getCause) takeWhile (_ ne null)).toList
+
+    assert(causes.last.getMessage === "second")
+  }
+
+  @Test def urlNextToParamInput(): Unit = {
+
+    // The URL generator is read on another thread while the calling thread reads `#data`, which takes the pipeline
+    // off the stack of parent processors
+    val pipelineConfig =
+      Dom4jUtils.readDom4j(
+        """<p:config xmlns:p="http://www.orbeon.com/oxf/pipeline" xmlns:oxf="http://www.orbeon.com/oxf/processors">
+          |    <p:param type="input"  name="data"/>
+          |    <p:param type="output" name="data"/>
+          |    <p:processor name="oxf:identity">
+          |        <p:input  name="data" href="aggregate('root', oxf:/ops/unit-tests/note.xml, #data)"/>
+          |        <p:output name="data" ref="data"/>
+          |    </p:processor>
+          |</p:config>""".stripMargin
+      )
+
+    for (_ ← 1 to 20) {
+
+      val pipeline = new PipelineProcessor
+      PipelineUtils.connect(
+        new DOMGenerator(pipelineConfig, "pipeline config", DOMGenerator.ZeroValidity, DOMGenerator.DefaultContext),
+        ProcessorImpl.OUTPUT_DATA,
+        pipeline,
+        ProcessorImpl.INPUT_CONFIG
+      )
+      PipelineUtils.connect(
+        new ElementProcessor("data", delay = 50),
+        ProcessorImpl.OUTPUT_DATA,
+        pipeline,
+        ProcessorImpl.INPUT_DATA
+      )
+
+      val serializer = new DOMSerializer
+      PipelineUtils.connect(pipeline, ProcessorImpl.OUTPUT_DATA, serializer, ProcessorImpl.INPUT_DATA)
+
+      val pipelineContext = new PipelineContext
+      var success = false
+      try {
+        val result = serializer.runGetDocument(pipelineContext)
+        success = true
+        assert(result.getRootElement.elements.asScala.map(_.getName) === List("note", "data"))
+      } finally
+        pipelineContext.destroy(success)
+    }
+  }
+}
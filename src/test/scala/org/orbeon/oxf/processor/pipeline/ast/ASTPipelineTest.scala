@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline.ast
+
+import org.junit.Test
+import org.orbeon.dom.QName
+import org.orbeon.oxf.xml.XMLConstants._
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class ASTPipelineTest extends AssertionsForJUnit {
+
+  def processorCall(pipeline: ASTPipeline, outputIds: List[String], inputs: ASTHref*): Unit =
+    processorCall(pipeline, URL_GENERATOR_PROCESSOR_QNAME, outputIds, inputs: _*)
+
+  def processorCall(pipeline: ASTPipeline, name: QName, outputIds: List[String], inputs: ASTHref*): Unit = {
+    val call = new ASTProcessorCall(name)
+    for ((href, index) ← inputs.zipWithIndex)
+      call.addInput(new ASTInput("input" + index, href))
+    for (id ← outputIds)
+      call.addOutput(new ASTOutput("output-" + id, id))
+    pipeline.addStatement(call)
+  }
+
+  @Test def independentOutputIds(): Unit = {
+
+    val pipeline = new ASTPipeline
+    val data     = pipeline.addParam(new ASTParam(ASTParam.INPUT, "data"))
+
+    processorCall(pipeline, List("url1"),       new ASTHrefURL("oxf:/a.xml"))
+    processorCall(pipeline, List("url2"),       new ASTHrefURL("oxf:/b.xml"))
+    processorCall(pipeline, List("shared"),     new ASTHrefURL("oxf:/c.xml"))
+    processorCall(pipeline, List("from-param"), new ASTHrefId(data))
+    processorCall(pipeline, List("from-id"),    new ASTHrefId("shared"))
+    processorCall(pipeline, List("two1", "two2"), new ASTHrefURL("oxf:/d.xml"))
+    processorCall(pipeline, XSLT_PROCESSOR_QNAME, List("xslt"), new ASTHrefURL("oxf:/e.xsl"))
+    processorCall(pipeline, QName.get("request", OXF_PROCESSORS_NAMESPACE), List("request"), new ASTHrefURL("oxf:/f.xml"))
+
+    processorCall(
+      pipeline,
+      List("result"),
+      new ASTHrefAggregate("root", new ASTHrefId("url1"), new ASTHrefId("url2"), new ASTHrefId("shared")),
+      new ASTHrefAggregate("root", new ASTHrefId("shared"), new ASTHrefId("from-param"), new ASTHrefId("from-id")),
+      new ASTHrefAggregate("root", new ASTHrefId("two1"), new ASTHrefId("two2")),
+      new ASTHrefAggregate("root", new ASTHrefId("xslt"), new ASTHrefId("request"))
+    )
+
+    // `shared` is read twice through a tee, `from-param` and `from-id` read other outputs, `two1`/`two2` come from
+    // the same processor, `xslt` and `request` come from processors which are not known to be independent, and
+    // `result` is not read at all
+    assert(pipeline.getIndependentOutputIds.asScala === Set("url1", "url2"))
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.properties
+
+import java.io.{File, FileOutputStream}
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+class PropertiesUpdateTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  def propertiesXML(value: String) =
+    s"""<properties xmlns:xs="http://www.w3.org/2001/XMLSchema">
+       |  <property as="xs:string" name="test.orbeon.*" value="$value"/>
+       |</properties>""".stripMargin
+
+  def write(file: File, value: String, lastModified: Long): Unit = {
+    useAndClose(new FileOutputStream(file))(_.write(propertiesXML(value).getBytes("UTF-8")))
+    file.setLastModified(lastModified)
+  }
+
+  @Test def newStoreOnChange(): Unit = {
+
+    val file = File.createTempFile("properties", ".xml")
+    try {
+      val lastModified = System.currentTimeMillis - 60 * 1000L
+      write(file, "value1", lastModified)
+
+      val properties = new Properties(file.toURI.toString)
+      properties.update()
+
+      val before = properties.getPropertySet
+      assert(before.getString("test.orbeon.builder") === "value1")
+
+      // Unchanged file: same store
+      properties.update()
+      assert(properties.getPropertySet eq before)
+
+      // Changed file: a reader which got the previous set keeps seeing previous values
+      write(file, "value2", lastModified + 10 * 1000L)
+      properties.update()
+
+      assert(properties.getPropertySet.getString("test.orbeon.builder") === "value2")
+      assert(before.getString("test.orbeon.builder") === "value1")
+    } finally
+      file.delete()
+  }
+
+  @Test def failedUpdateDoesNotThrow(): Unit = {
+
+    val properties = new Properties("file:/does-not-exist/properties.xml")
+    properties.update()
+
+    assert(properties.getPropertySet eq null)
+  }
+
+  @Test def onlyFoundPropertiesAreMemoized(): Unit = {
+
+    val propertySet = new PropertyStore(Dom4jUtils.readDom4j(propertiesXML("value1"))).getGlobalPropertySet
+
+    assert(propertySet.getString("test.orbeon.builder") === "value1")
+    assert(propertySet.getString("test.orbeon.builder") === "value1")
+    assert(propertySet.resolvedCount === 1)
+
+    for (i ← 1 to 100)
+      assert(propertySet.getString("test.missing." + i) eq null)
+
+    assert(propertySet.resolvedCount === 1)
+  }
+}
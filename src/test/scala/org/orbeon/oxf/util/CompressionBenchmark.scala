@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.{ByteArrayOutputStream, File, FileInputStream, ObjectOutputStream}
+
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+
+// Compare compression codecs on form documents serialized the way the static state and the last Ajax response are
+//
+// Run with the paths of XHTML+XForms documents as arguments, by default the Form Runner controls form.
+object CompressionBenchmark {
+
+  val DefaultPaths = List("data/orbeon/fr/orbeon/controls/form/form.xhtml")
+
+  val Warmup     = 50
+  val Iterations = 200
+
+  def main(args: Array[String]): Unit = {
+
+    val paths = if (args.nonEmpty) args.toList else DefaultPaths
+
+    for (path ← paths) {
+
+      val saxStore = TransformerUtils.dom4jToSAXStore(
+        useAndClose(new FileInputStream(new File(path)))(is ⇒ Dom4jUtils.readDom4j(is)),
+        false
+      )
+
+      val bytes = {
+        val os = new ByteArrayOutputStream
+        useAndClose(new ObjectOutputStream(os))(saxStore.writeExternal(_))
+        os.toByteArray
+      }
+
+      println(s"$path: ${bytes.length} bytes serialized")
+
+      for (codec ← CompressionCodec.All) {
+
+        for (_ ← 1 to Warmup)
+          codec.uncompress(codec.compress(bytes))
+
+        val compressed = codec.compress(bytes)
+
+        val compressNanos = time(codec.compress(bytes))
+        val uncompressNanos = time(codec.uncompress(compressed))
+
+        val megabytes = bytes.length.toDouble / (1024 * 1024)
+
+        println(
+          f"  ${codec.name}%-5s size: ${compressed.length}%9d (${compressed.length * 100.0 / bytes.length}%5.1f%%), " +
+          f"compress: ${compressNanos / 1e6 / megabytes}%6.2f ms/MB, " +
+          f"uncompress: ${uncompressNanos / 1e6 / megabytes}%6.2f ms/MB"
+        )
+      }
+    }
+  }
+
+  // Average time of an iteration in nanoseconds
+  private def time(thunk: ⇒ Any): Double = {
+    val start = System.nanoTime
+    for (_ ← 1 to Iterations)
+      thunk
+    (System.nanoTime - start).toDouble / Iterations
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.util.Random
+
+class CompressionCodecTest extends AssertionsForJUnit {
+
+  val random = new Random(42)
+
+  def randomBytes(length: Int, alphabetSize: Int) =
+    Array.fill(length)(random.nextInt(alphabetSize).toByte)
+
+  val xmlBytes =
+    ("<form>" + (1 to 1000 map (i ⇒ s"""<control-$i id="c$i">value $i</control-$i>""") mkString) + "</form>").getBytes("UTF-8")
+
+  val inputs =
+    List(
+      Array.empty[Byte],
+      Array[Byte](1, 2, 3),
+      new Array[Byte](100000),
+      xmlBytes
+    ) ++
+      (1 to 50 map (i ⇒ randomBytes(random.nextInt(20), 256))) ++
+      (1 to 50 map (i ⇒ randomBytes(random.nextInt(100000), 1 + random.nextInt(4)))) ++
+      (1 to 10 map (i ⇒ randomBytes(random.nextInt(100000), 256)))
+
+  @Test def roundTrip(): Unit =
+    for (codec ← CompressionCodec.All; input ← inputs) {
+      val compressed = codec.compress(input)
+      assert(codec.hasHeader(compressed))
+      assert(codec.uncompress(compressed).toList === input.toList)
+    }
+
+  @Test def uncompressDetectsCodec(): Unit =
+    for (codec ← CompressionCodec.All) {
+      val compressed = Compressor.compressBytes(xmlBytes, codec)
+      assert(CompressionCodec.isCompressed(compressed))
+      assert(Compressor.uncompressBytes(compressed).toList === xmlBytes.toList)
+    }
+
+  @Test def compressesRepetitiveData(): Unit =
+    for (codec ← CompressionCodec.All)
+      assert(codec.compress(xmlBytes).length < xmlBytes.length / 4)
+
+  @Test def codecNames(): Unit = {
+    assert(CompressionCodec.forName("gzip") === Some(CompressionCodec.Gzip))
+    assert(CompressionCodec.forName("lz4")  === Some(CompressionCodec.LZ4))
+    assert(CompressionCodec.forName("none") === None)
+    intercept[Exception] {
+      CompressionCodec.forName("foo")
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.junit.Test
+import org.orbeon.dom.DocumentFactory
+import org.orbeon.oxf.xml.ElementHandlerController.{ElementHandlerFactory, Matcher}
+import org.scalatest.junit.AssertionsForJUnit
+import org.xml.sax.Attributes
+
+class ElementHandlerControllerTest extends AssertionsForJUnit {
+
+  class TestHandler(val name: String, uri: String, localname: String, qName: String, attributes: Attributes, matched: AnyRef, handlerContext: AnyRef)
+    extends ElementHandler(uri, localname, qName, attributes, matched, handlerContext) {
+    def isRepeating  = false
+    def isForwarding = true
+  }
+
+  def factory(name: String) = new ElementHandlerFactory {
+    def create(uri: String, localname: String, qName: String, attributes: Attributes, matched: AnyRef, handlerContext: AnyRef) =
+      new TestHandler(name, uri, localname, qName, attributes, matched, handlerContext)
+  }
+
+  def matcher(attName: String) = new Matcher[String] {
+    def `match`(attributes: Attributes, handlerContext: AnyRef) = attributes.getValue(attName)
+  }
+
+  def element(qualifiedName: String, uri: String, atts: (String, String)*) = {
+    val element = DocumentFactory.createElement(qualifiedName, uri)
+    for ((name, value) ← atts)
+      element.addAttribute(name, value)
+    element
+  }
+
+  def handlerName(controller: ElementHandlerController, qualifiedName: String, uri: String, atts: (String, String)*) =
+    Option(controller.getHandler(element(qualifiedName, uri, atts: _*), null)) collect {
+      case handler: TestHandler ⇒ handler.name
+    }
+
+  @Test def dispatchOrder(): Unit = {
+
+    val controller = new ElementHandlerController
+
+    controller.registerHandler(factory("custom"), matcher("custom"))
+    controller.registerHandler(factory("matched"), "u1", "a", matcher("matched"))
+    controller.registerHandler(factory("full"), "u1", "a", null)
+    controller.registerHandler(factory("uri"), "u1", null, null)
+
+    assert(handlerName(controller, "p:a", "u1", "custom" → "1", "matched" → "1") === Some("custom"))
+    assert(handlerName(controller, "p:a", "u1", "matched" → "1")                 === Some("matched"))
+    assert(handlerName(controller, "p:a", "u1")                                  === Some("full"))
+    assert(handlerName(controller, "p:b", "u1")                                  === Some("uri"))
+    assert(handlerName(controller, "p:a", "u2")                                  === None)
+    assert(handlerName(controller, "a",   "")                                    === None)
+  }
+
+  @Test def matchedValueAndSharedFactory(): Unit = {
+
+    val sharedFactory = factory("shared")
+
+    // The same factory can be registered on several controllers
+    for (_ ← 1 to 2) {
+      val controller = new ElementHandlerController
+      controller.registerHandler(sharedFactory, "u1", "a", matcher("matched"))
+
+      val handler = controller.getHandler(element("p:a", "u1", "matched" → "value"), null)
+
+      assert(handler.getMatched === "value")
+      assert(handler.getLocalname === "a")
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+import java.net.URI
+
+import org.junit.Test
+import org.orbeon.dom.QName
+import org.orbeon.oxf.externalcontext.{ExternalContext, LocalResponse}
+import org.orbeon.oxf.http.HttpMethod
+import org.orbeon.oxf.pipeline.api.{PipelineContext, ProcessorDefinition}
+import org.orbeon.oxf.test.{ResourceManagerTestBase, XMLSupport}
+import org.orbeon.oxf.util.{Connection, XPath}
+import org.orbeon.oxf.webapp.ProcessorService
+
+class XMLContentInputStreamTest extends ResourceManagerTestBase with XMLSupport {
+
+  val XML = """<forms><!-- comment --><form app="acme" form="order" version="2"/></forms>"""
+
+  def parse(xml: String) =
+    TransformerUtils.readTinyTree(XPath.GlobalConfiguration, new ByteArrayInputStream(xml.getBytes("utf-8")), null, false, true)
+
+  @Test def replayWithoutSerializing(): Unit = {
+
+    val document = parse(XML)
+
+    for (content ← List(XMLContentInputStream(document), XMLContentInputStream(TransformerUtils.tinyTreeToSAXStore(document)))) {
+      val result = TransformerUtils.readTinyTree(XPath.GlobalConfiguration, content, null, false, true)
+      assert(! content.isRead)
+      assertXMLDocumentsIgnoreNamespacesInScope(document, result)
+    }
+  }
+
+  @Test def serializeWhenRead(): Unit = {
+
+    val document = parse(XML)
+    val content  = XMLContentInputStream(document)
+
+    // Reading the stream serializes the content, which is then parsed
+    assert(content.read() === '<')
+    assert(content.isRead)
+
+    val rest = new String(Iterator.continually(content.read()).takeWhile(_ != -1).map(_.toByte).toArray, "utf-8")
+    assertXMLDocumentsIgnoreNamespacesInScope(document, parse("<" + rest))
+  }
+
+  @Test def handOverThroughInternalConnection(): Unit = {
+
+    val document = parse(XML)
+
+    // Service which responds with in-process XML
+    val processorService =
+      new ProcessorService(new ProcessorDefinition(QName.get("null-serializer", XMLConstants.OXF_PROCESSORS_NAMESPACE)), None) {
+        override def service(pipelineContext: PipelineContext, externalContext: ExternalContext): Unit = {
+          externalContext.getResponse.setContentType("application/xml")
+          LocalResponse.writeXML(externalContext.getResponse, XMLContentInputStream(document))
+        }
+      }
+
+    implicit val logger = ResourceManagerTestBase.newIndentedLogger
+
+    // The URL is an internal path, so `Connection` goes through `InternalHttpClient` and `ConnectionResult`
+    val cxr =
+      ProcessorService.withProcessorService(processorService) {
+        Connection(
+          method      = HttpMethod.GET,
+          url         = new URI("http://localhost:8080/orbeon/fr/service/test"),
+          credentials = None,
+          content     = None,
+          headers     = Map.empty,
+          loadState   = false,
+          logBody     = false
+        ).connect(saveState = false)
+      }
+
+    assert(cxr.hasContent)
+
+    cxr.content.inputStream match {
+      case content: XMLContentInputStream ⇒
+        val result = TransformerUtils.readTinyTree(XPath.GlobalConfiguration, content, null, false, true)
+        assert(! content.isRead)
+        assertXMLDocumentsIgnoreNamespacesInScope(document, result)
+      case other ⇒
+        fail(s"unexpected response stream: ${other.getClass.getName}")
+    }
+  }
+
+  @Test def writeToUnreadOrRead(): Unit = {
+
+    val document = parse(XML)
+
+    def written(content: XMLContentInputStream) = {
+      val os = new ByteArrayOutputStream
+      content.writeTo(os)
+      parse(new String(os.toByteArray, "utf-8"))
+    }
+
+    // Serialized straight to the output
+    val unread = XMLContentInputStream(document)
+    assertXMLDocumentsIgnoreNamespacesInScope(document, written(unread))
+    assert(! unread.isRead)
+
+    // Serialized by a previous read, then reset
+    val read = XMLContentInputStream(document)
+    read.mark(Int.MaxValue)
+    assert(read.read() === '<')
+    read.reset()
+    assertXMLDocumentsIgnoreNamespacesInScope(document, written(read))
+  }
+}
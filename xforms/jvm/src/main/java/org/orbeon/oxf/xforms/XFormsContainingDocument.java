@@ -34,6 +34,7 @@ import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager;
 import org.orbeon.oxf.xforms.submission.SubmissionResult;
 import org.orbeon.oxf.xforms.submission.XFormsModelSubmission;
 import org.orbeon.oxf.xforms.xbl.Scope;
+import org.orbeon.oxf.xml.CompactSAXStore;
 import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.saxon.functions.FunctionLibrary;
@@ -57,7 +58,7 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
     private String uuid;        // UUID of this document
     private long sequence = 1;  // sequence number of changes to this document
 
-    private SAXStore lastAjaxResponse; // last Ajax response for retry feature
+    private CompactSAXStore lastAjaxResponse; // last Ajax response for retry feature
 
     // Global XForms function library
     private FunctionLibrary functionLibrary = null;
@@ -301,7 +302,7 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
         sequence++;
     }
 
-    public SAXStore getLastAjaxResponse() {
+    public CompactSAXStore getLastAjaxResponse() {
         return lastAjaxResponse;
     }
 
@@ -698,7 +699,8 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
     }
 
     public void rememberLastAjaxResponse(SAXStore response) {
-        lastAjaxResponse = response;
+        // The response is only replayed as a whole, so keep it in compact form and without location data
+        lastAjaxResponse = CompactSAXStore.fromSAXStore(response, false);
     }
 
     public long getSequence() {
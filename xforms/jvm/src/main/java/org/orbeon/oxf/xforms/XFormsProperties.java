@@ -15,6 +15,7 @@ package org.orbeon.oxf.xforms;
 
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.util.CompressionCodec;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 
 import java.util.Collections;
@@ -318,6 +319,40 @@ public class XFormsProperties {
     public static final String REPLICATION_PROPERTY = XFORMS_PROPERTY_PREFIX + "replication";
     public static final boolean REPLICATION_PROPERTY_DEFAULT = false;
 
+    public static final String STATE_STORE_PROPERTY = XFORMS_PROPERTY_PREFIX + "state-store";
+    public static final String STATE_STORE_PROPERTY_DEFAULT = "ehcache";
+
+    public static final String STATE_STORE_DELTA_CHECKPOINT_INTERVAL_PROPERTY = XFORMS_PROPERTY_PREFIX + "state-store.delta.checkpoint-interval";
+    public static final int STATE_STORE_DELTA_CHECKPOINT_INTERVAL_DEFAULT = 0;
+
+    public static final String STATE_STORE_OFF_HEAP_MAX_SIZE_PROPERTY = XFORMS_PROPERTY_PREFIX + "state-store.off-heap.max-size";
+    public static final int STATE_STORE_OFF_HEAP_MAX_SIZE_DEFAULT = 512 * 1024 * 1024;
+
+    // Compression codec for each use of compression: `gzip`, `lz4` or `none`
+    public static final String COMPRESSION_PROPERTY_PREFIX = XFORMS_PROPERTY_PREFIX + "compression.";
+    public static final String COMPRESSION_DYNAMIC_STATE = "dynamic-state";           // server-side dynamic state
+    public static final String COMPRESSION_STATIC_STATE = "static-state";             // static state
+    public static final String COMPRESSION_LAST_AJAX_RESPONSE = "last-ajax-response"; // last Ajax response in the dynamic state
+    public static final String COMPRESSION_CLIENT_STATE = "client-state";             // client-side dynamic state
+    public static final String COMPRESSION_DEFAULT = CompressionCodec.GzipName();
+
+    // Threads compiling XPath expressions during static analysis, 0 to compile serially
+    public static final String STATIC_ANALYSIS_THREADS_PROPERTY = XFORMS_PROPERTY_PREFIX + "static-analysis.threads";
+    public static final int STATIC_ANALYSIS_THREADS_DEFAULT = 0;
+
+    // Executor for asynchronous submissions
+    public static final String ASYNC_SUBMISSION_MAX_THREADS_PROPERTY = XFORMS_PROPERTY_PREFIX + "asynchronous-submission.max-threads";
+    public static final int ASYNC_SUBMISSION_MAX_THREADS_DEFAULT = 16;
+
+    public static final String ASYNC_SUBMISSION_MAX_QUEUED_PROPERTY = XFORMS_PROPERTY_PREFIX + "asynchronous-submission.max-queued";
+    public static final int ASYNC_SUBMISSION_MAX_QUEUED_DEFAULT = 256;
+
+    public static final String ASYNC_SUBMISSION_MAX_QUEUED_PER_DOCUMENT_PROPERTY = XFORMS_PROPERTY_PREFIX + "asynchronous-submission.max-queued-per-document";
+    public static final int ASYNC_SUBMISSION_MAX_QUEUED_PER_DOCUMENT_DEFAULT = 16;
+
+    public static final String ASYNC_SUBMISSION_VIRTUAL_THREADS_PROPERTY = XFORMS_PROPERTY_PREFIX + "asynchronous-submission.virtual-threads";
+    public static final boolean ASYNC_SUBMISSION_VIRTUAL_THREADS_DEFAULT = false;
+
     public static final String DEBUG_LOGGING_PROPERTY = XFORMS_PROPERTY_PREFIX + "logging.debug";
     public static final String ERROR_LOGGING_PROPERTY = XFORMS_PROPERTY_PREFIX + "logging.error";
 
@@ -395,6 +430,52 @@ public class XFormsProperties {
                 (REPLICATION_PROPERTY, REPLICATION_PROPERTY_DEFAULT);
     }
 
+    public static String getStateStore() {
+        return Properties.instance().getPropertySet().getString
+                (STATE_STORE_PROPERTY, STATE_STORE_PROPERTY_DEFAULT);
+    }
+
+    public static int getStateDeltaCheckpointInterval() {
+        return Properties.instance().getPropertySet().getInteger
+                (STATE_STORE_DELTA_CHECKPOINT_INTERVAL_PROPERTY, STATE_STORE_DELTA_CHECKPOINT_INTERVAL_DEFAULT);
+    }
+
+    public static int getStateStoreOffHeapMaxSize() {
+        return Properties.instance().getPropertySet().getInteger
+                (STATE_STORE_OFF_HEAP_MAX_SIZE_PROPERTY, STATE_STORE_OFF_HEAP_MAX_SIZE_DEFAULT);
+    }
+
+    // Return the compression codec for the given use, or `null` if data must not be compressed
+    public static CompressionCodec getCompressionCodec(String use) {
+        return CompressionCodec.forNameOrNull(Properties.instance().getPropertySet().getString
+                (COMPRESSION_PROPERTY_PREFIX + use, COMPRESSION_DEFAULT));
+    }
+
+    public static int getStaticAnalysisThreads() {
+        return Properties.instance().getPropertySet().getInteger
+                (STATIC_ANALYSIS_THREADS_PROPERTY, STATIC_ANALYSIS_THREADS_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxThreads() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_MAX_THREADS_PROPERTY, ASYNC_SUBMISSION_MAX_THREADS_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxQueued() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_MAX_QUEUED_PROPERTY, ASYNC_SUBMISSION_MAX_QUEUED_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxQueuedPerDocument() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_MAX_QUEUED_PER_DOCUMENT_PROPERTY, ASYNC_SUBMISSION_MAX_QUEUED_PER_DOCUMENT_DEFAULT);
+    }
+
+    public static boolean isAsynchronousSubmissionVirtualThreads() {
+        return Properties.instance().getPropertySet().getBoolean
+                (ASYNC_SUBMISSION_VIRTUAL_THREADS_PROPERTY, ASYNC_SUBMISSION_VIRTUAL_THREADS_DEFAULT);
+    }
+
     public static boolean getDebugLogXPathAnalysis() {
         return Properties.instance().getPropertySet().getBoolean(DEBUG_LOG_XPATH_ANALYSIS_PROPERTY, false);
     }
@@ -201,7 +201,9 @@ abstract public class XFormsToSomething extends ProcessorImpl {
 
                 final XFormsStaticState staticState;
                 {
-                    final XFormsStaticState cachedState = XFormsStaticStateCache.getDocumentJava(stage2CacheableState.staticStateDigest);
+                    // The digest is known before reading the input, so restoring from the persistent cache saves the
+                    // XForms extraction and XBL processing
+                    final XFormsStaticState cachedState = XFormsStaticStateCache.getDocumentOrRestoreJava(stage2CacheableState.staticStateDigest);
                     if (cachedState != null && cachedState.topLevelPart().metadata().bindingsIncludesAreUpToDate()) {
                         // Found static state in cache
                         cacheTracer.staticStateStatus(true, cachedState.digest());
@@ -276,7 +278,8 @@ abstract public class XFormsToSomething extends ProcessorImpl {
         final StaticStateBits staticStateBits = new StaticStateBits(pipelineContext, logger, null);
 
         {
-            final XFormsStaticState cachedState = XFormsStaticStateCache.getDocumentJava(staticStateBits.staticStateDigest);
+            // After a restart, the stage 2 cache is empty and the static state is only found in the persistent cache
+            final XFormsStaticState cachedState = XFormsStaticStateCache.getDocumentOrRestoreJava(staticStateBits.staticStateDigest);
             if (cachedState != null && cachedState.topLevelPart().metadata().bindingsIncludesAreUpToDate()) {
                 // Found static state in cache
                 cacheTracer.staticStateStatus(true, cachedState.digest());
@@ -28,6 +28,7 @@ import org.orbeon.oxf.xforms.processor.handlers.NullHandler;
 import org.orbeon.oxf.xforms.state.XFormsStateManager;
 import org.orbeon.oxf.xforms.xbl.XBLBindings;
 import org.orbeon.oxf.xml.*;
+import org.orbeon.oxf.xml.ElementHandlerController.ElementHandlerFactory;
 import org.orbeon.oxf.xforms.XFormsUtils;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -261,39 +262,202 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
 
     public static final Matcher ANY_MATCHER = new AnyMatcher();
 
+    // Handlers are created by factories rather than by reflection on their class name
+    private static final ElementHandlerFactory XXFORMS_COMPONENT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XXFormsComponentHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_INPUT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsInputHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_OUTPUT_TEXT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsOutputTextHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_OUTPUT_DOWNLOAD_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsOutputDownloadHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_OUTPUT_IMAGE_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsOutputImageHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_OUTPUT_HTML_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsOutputHTMLHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_OUTPUT_DEFAULT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsOutputDefaultHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_TRIGGER_MINIMAL_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsTriggerMinimalHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_TRIGGER_FULL_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsTriggerFullHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_GROUP_INTERNAL_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsGroupInternalHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_GROUP_SEPARATOR_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsGroupSeparatorHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_GROUP_FIELDSET_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsGroupFieldsetHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_GROUP_DEFAULT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsGroupDefaultHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_CASE_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsCaseHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_REPEAT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsRepeatHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory NULL_ELEMENT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new NullElementHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_SECRET_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsSecretHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_UPLOAD_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsUploadHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_RANGE_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsRangeHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_TEXTAREA_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsTextareaHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XXFORMS_DIALOG_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XXFormsDialogHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory NULL_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new NullHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_SELECT1_INTERNAL_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsSelect1InternalHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_SELECT_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsSelectHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_SELECT1_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsSelect1Handler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XFORMS_LHHA_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XFormsLHHAHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
+    private static final ElementHandlerFactory XXFORMS_DYNAMIC_HANDLER_FACTORY = new ElementHandlerFactory() {
+        public ElementHandler create(String uri, String localname, String qName, Attributes attributes, Object matched, Object handlerContext) {
+            return new XXFormsDynamicHandler(uri, localname, qName, attributes, matched, handlerContext);
+        }
+    };
+
     public static void registerHandlers(final ElementHandlerController controller, final XFormsContainingDocument containingDocument) {
 
         // Add handlers for custom components
         final StaticStateGlobalOps ops = containingDocument.getStaticOps();
-        controller.registerHandler(XXFormsComponentHandler.class.getName(), new Matcher() {
+        controller.registerHandler(XXFORMS_COMPONENT_HANDLER_FACTORY, new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 return ops.getBinding(getPrefixedId(attributes, handlerContext)).isDefined();
             }
         });
 
         // xf:input
-        controller.registerHandler(XFormsInputHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "input", ANY_MATCHER);
+        controller.registerHandler(XFORMS_INPUT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "input", ANY_MATCHER);
 
         // xf:output
-        controller.registerHandler(XFormsOutputTextHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output",
+        controller.registerHandler(XFORMS_OUTPUT_TEXT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "output",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_TEXT_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsOutputDownloadHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output",
+        controller.registerHandler(XFORMS_OUTPUT_DOWNLOAD_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "output",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_DOWNLOAD_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsOutputImageHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
+        controller.registerHandler(XFORMS_OUTPUT_IMAGE_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // TODO: aks ElementAnalysis for its mediatype
                 final String mediatypeValue = attributes.getValue("mediatype");
                 return mediatypeValue != null && mediatypeValue.startsWith("image/");
             }
         });
-        controller.registerHandler(XFormsOutputHTMLHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
+        controller.registerHandler(XFORMS_OUTPUT_HTML_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "output", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // TODO: aks ElementAnalysis for its mediatype
                 final String mediatypeValue = attributes.getValue("mediatype");
                 return mediatypeValue != null && mediatypeValue.equals("text/html");
             }
         });
-        controller.registerHandler(XFormsOutputDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "output", ANY_MATCHER);
+        controller.registerHandler(XFORMS_OUTPUT_DEFAULT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "output", ANY_MATCHER);
 
         // xf:trigger
         final Matcher triggerSubmitMinimalMatcher = new AppearanceMatcher(XFormsConstants.XFORMS_MINIMAL_APPEARANCE_QNAME) {
@@ -302,18 +466,18 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
                 return ! containingDocument.noscript() && super.doesMatch(attributes, handlerContext);
             }
         };
-        controller.registerHandler(XFormsTriggerMinimalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", triggerSubmitMinimalMatcher);
-        controller.registerHandler(XFormsTriggerFullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TRIGGER_MINIMAL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", triggerSubmitMinimalMatcher);
+        controller.registerHandler(XFORMS_TRIGGER_FULL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "trigger", ANY_MATCHER);
 
         // xf:submit
-        controller.registerHandler(XFormsTriggerMinimalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "submit", triggerSubmitMinimalMatcher);
-        controller.registerHandler(XFormsTriggerFullHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "submit", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TRIGGER_MINIMAL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "submit", triggerSubmitMinimalMatcher);
+        controller.registerHandler(XFORMS_TRIGGER_FULL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "submit", ANY_MATCHER);
 
         // xf:group
-        controller.registerHandler(XFormsGroupInternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group",
+        controller.registerHandler(XFORMS_GROUP_INTERNAL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "group",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
 
-        controller.registerHandler(XFormsGroupSeparatorHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group", new Matcher() {
+        controller.registerHandler(XFORMS_GROUP_SEPARATOR_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "group", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // XFormsAnnotator adds this appearance if needed
                 // See: https://github.com/orbeon/orbeon-forms/issues/418
@@ -322,18 +486,18 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
             }
         });
 
-        controller.registerHandler(XFormsGroupFieldsetHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group",
+        controller.registerHandler(XFORMS_GROUP_FIELDSET_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "group",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_FIELDSET_APPEARANCE_QNAME) {
                     public boolean doesMatch(Attributes attributes, Object handlerContext) {
                         return super.doesMatch(attributes, handlerContext) || LHHASupport.hasLabel(containingDocument, getPrefixedId(attributes, handlerContext));
                     }
                 });
 
-        controller.registerHandler(XFormsGroupDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "group", ANY_MATCHER);
+        controller.registerHandler(XFORMS_GROUP_DEFAULT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "group", ANY_MATCHER);
 
         // xf:switch
         // NOTE: We use the same handlers for switch as we do for group
-        controller.registerHandler(XFormsGroupSeparatorHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "switch", new Matcher() {
+        controller.registerHandler(XFORMS_GROUP_SEPARATOR_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "switch", new Matcher() {
             public boolean doesMatch(Attributes attributes, Object handlerContext) {
                 // XFormsAnnotator adds this appearance if needed
                 // See: https://github.com/orbeon/orbeon-forms/issues/418
@@ -341,45 +505,45 @@ public class XHTMLBodyHandler extends XFormsBaseHandlerXHTML {
                 return XFormsConstants.XXFORMS_SEPARATOR_APPEARANCE_QNAME.getQualifiedName().equals(appearanceAttributeValue);
             }
         });
-        controller.registerHandler(XFormsGroupDefaultHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "switch", ANY_MATCHER);
-        controller.registerHandler(XFormsCaseHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "case", ANY_MATCHER);
+        controller.registerHandler(XFORMS_GROUP_DEFAULT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "switch", ANY_MATCHER);
+        controller.registerHandler(XFORMS_CASE_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "case", ANY_MATCHER);
 
         // xf:repeat
-        controller.registerHandler(XFormsRepeatHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "repeat", ANY_MATCHER);
-        controller.registerHandler(NullElementHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "repeat-iteration", ANY_MATCHER);
+        controller.registerHandler(XFORMS_REPEAT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "repeat", ANY_MATCHER);
+        controller.registerHandler(NULL_ELEMENT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "repeat-iteration", ANY_MATCHER);
 
         // xf:secret
-        controller.registerHandler(XFormsSecretHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "secret", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SECRET_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "secret", ANY_MATCHER);
 
         // xf:upload
-        controller.registerHandler(XFormsUploadHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "upload", ANY_MATCHER);
+        controller.registerHandler(XFORMS_UPLOAD_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "upload", ANY_MATCHER);
 
         // xf:range
-        controller.registerHandler(XFormsRangeHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "range", ANY_MATCHER);
+        controller.registerHandler(XFORMS_RANGE_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "range", ANY_MATCHER);
 
         // Other controls
-        controller.registerHandler(XFormsTextareaHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "textarea", ANY_MATCHER);
+        controller.registerHandler(XFORMS_TEXTAREA_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "textarea", ANY_MATCHER);
         if (!containingDocument.noscript())
-            controller.registerHandler(XXFormsDialogHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
+            controller.registerHandler(XXFORMS_DIALOG_HANDLER_FACTORY, XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
         else
-            controller.registerHandler(NullHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
+            controller.registerHandler(NULL_HANDLER_FACTORY, XFormsConstants.XXFORMS_NAMESPACE_URI, "dialog", ANY_MATCHER);
 
         // xf:select and xf:select1
-        controller.registerHandler(XFormsSelect1InternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select",
+        controller.registerHandler(XFORMS_SELECT1_INTERNAL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "select",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsSelect1InternalHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select1",
+        controller.registerHandler(XFORMS_SELECT1_INTERNAL_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "select1",
                 new AppearanceMatcher(XFormsConstants.XXFORMS_INTERNAL_APPEARANCE_QNAME));
-        controller.registerHandler(XFormsSelectHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select", ANY_MATCHER);
-        controller.registerHandler(XFormsSelect1Handler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "select1", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SELECT_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "select", ANY_MATCHER);
+        controller.registerHandler(XFORMS_SELECT1_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "select1", ANY_MATCHER);
 
         // Add handlers for LHHA elements
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "label", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "help", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "hint", ANY_MATCHER);
-        controller.registerHandler(XFormsLHHAHandler.class.getName(), XFormsConstants.XFORMS_NAMESPACE_URI, "alert", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "label", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "help", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "hint", ANY_MATCHER);
+        controller.registerHandler(XFORMS_LHHA_HANDLER_FACTORY, XFormsConstants.XFORMS_NAMESPACE_URI, "alert", ANY_MATCHER);
 
         // xxf:dynamic
-        controller.registerHandler(XXFormsDynamicHandler.class.getName(), XFormsConstants.XXFORMS_NAMESPACE_URI, "dynamic", ANY_MATCHER);
+        controller.registerHandler(XXFORMS_DYNAMIC_HANDLER_FACTORY, XFormsConstants.XXFORMS_NAMESPACE_URI, "dynamic", ANY_MATCHER);
     }
 
     @Override
@@ -13,14 +13,17 @@
  */
 package org.orbeon.oxf.xforms.submission;
 
+import org.apache.log4j.Logger;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.externalcontext.AsyncRequest;
 import org.orbeon.oxf.externalcontext.ExternalContext;
 import org.orbeon.oxf.externalcontext.LocalExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.util.IndentedLogger;
+import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.NetUtils;
 import org.orbeon.oxf.xforms.XFormsContainingDocument;
+import org.orbeon.oxf.xforms.XFormsProperties;
 import org.orbeon.oxf.xforms.event.XFormsEvents;
 
 import javax.enterprise.concurrent.ManagedExecutorService;
@@ -40,8 +43,10 @@ public class AsynchronousSubmissionManager {
 
     private static final String ASYNC_SUBMISSIONS_SESSION_KEY_PREFIX = "oxf.xforms.state.async-submissions.";
 
-    // Global thread pool
-    private static ExecutorService threadPool = null;
+    private static final Logger logger = LoggerFactory.createLogger(AsynchronousSubmissionManager.class);
+
+    // Global executor
+    private static SubmissionExecutor executor = null;
 
     private final XFormsContainingDocument containingDocument;
 
@@ -49,18 +54,40 @@ public class AsynchronousSubmissionManager {
         this.containingDocument = containingDocument;
     }
 
-    private static ExecutorService getExecutorService() {
+    private static synchronized SubmissionExecutor getExecutor() {
+        if (executor == null)
+            executor = new SubmissionExecutor(
+                getThreads(),
+                XFormsProperties.getAsynchronousSubmissionMaxThreads(),
+                XFormsProperties.getAsynchronousSubmissionMaxQueued(),
+                XFormsProperties.getAsynchronousSubmissionMaxQueuedPerDocument()
+            );
+        return executor;
+    }
+
+    private static Executor getThreads() {
         try {
             // If the app server gives us an `ExecutorService` (e.g. with WildFly), use it
             // (See §EE.5.21, page 146 of the Java EE 7 spec)
             return InitialContext.<ManagedExecutorService>doLookup("java:comp/DefaultManagedExecutorService");
         } catch (NamingException e) {
-            // If no `ExecutorService` is provided by the app server (e.g. with Tomcat), use our global thread pool
-            synchronized (AsynchronousSubmissions.class) {
-                if (threadPool == null)
-                    threadPool = Executors.newCachedThreadPool();
+            // If no `ExecutorService` is provided by the app server (e.g. with Tomcat), use our own threads
+            if (XFormsProperties.isAsynchronousSubmissionVirtualThreads()) {
+                final Executor virtualThreads = newVirtualThreadExecutorOrNull();
+                if (virtualThreads != null)
+                    return virtualThreads;
+                logger.warn("virtual threads are not supported by this JVM, using platform threads for asynchronous submissions");
             }
-            return threadPool;
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Virtual threads are available from Java 21 only, hence the use of reflection
+    private static Executor newVirtualThreadExecutorOrNull() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -99,7 +126,7 @@ public class AsynchronousSubmissionManager {
         if (existingAsynchronousSubmissions != null) {
             return existingAsynchronousSubmissions;
         } else if (create) {
-            final AsynchronousSubmissions asynchronousSubmissions = new AsynchronousSubmissions();
+            final AsynchronousSubmissions asynchronousSubmissions = new AsynchronousSubmissions(sessionKey);
             session.javaSetAttribute(sessionKey, asynchronousSubmissions);
             return asynchronousSubmissions;
         } else {
@@ -111,6 +138,18 @@ public class AsynchronousSubmissionManager {
 
         final AsynchronousSubmissions asynchronousSubmissions = getAsynchronousSubmissions(true, getSessionKey(containingDocument));
 
+        final IndentedLogger indentedLogger = containingDocument.getIndentedLogger(XFormsModelSubmission.LOGGING_CATEGORY);
+        if (indentedLogger.isDebugEnabled()) {
+            final SubmissionExecutor submissionExecutor = getExecutor();
+            indentedLogger.logDebug("", "adding asynchronous submission",
+                    "running", Integer.toString(submissionExecutor.getRunningCount()),
+                    "queued", Integer.toString(submissionExecutor.getQueuedCount()),
+                    "completed", Long.toString(submissionExecutor.getCompletedCount()),
+                    "run in caller", Long.toString(submissionExecutor.getCallerRunsCount()),
+                    "average wait ms", Double.toString(submissionExecutor.getAverageWaitTime()),
+                    "average run ms", Double.toString(submissionExecutor.getAverageRunTime()));
+        }
+
         // NOTE: If we want to re-enable foreground async submissions, we must:
         // - do a better detection: !(xf-submit-done/xf-submit-error listener) && replace="none"
         // - OR provide an explicit hint on xf:submission
@@ -226,10 +265,14 @@ public class AsynchronousSubmissionManager {
     }
 
     private static class AsynchronousSubmissions {
-        private final CompletionService<SubmissionResult> completionService =
-                new ExecutorCompletionService<SubmissionResult>(getExecutorService());
+        private final CompletionService<SubmissionResult> completionService;
         private int pendingCount = 0;
 
+        public AsynchronousSubmissions(String documentKey) {
+            // Submissions of the document are queued together, so that they don't delay submissions of other documents
+            completionService = new ExecutorCompletionService<SubmissionResult>(getExecutor().forDocument(documentKey));
+        }
+
         public Future<SubmissionResult> submit(Callable<SubmissionResult> task) {
             final Future<SubmissionResult> future = completionService.submit(task);
             pendingCount++;
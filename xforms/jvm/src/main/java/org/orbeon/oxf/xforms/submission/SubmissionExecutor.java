@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor for asynchronous submissions.
+ *
+ * - At most `maxThreads` tasks run at the same time. Threads are obtained from the `threads` executor, which can be
+ *   a container-managed executor.
+ * - Tasks which can't run immediately are queued by document. Queues are served in turn, so that a document with
+ *   many submissions doesn't delay the submissions of other documents.
+ * - When `maxQueued` tasks are queued, or `maxQueuedPerDocument` tasks for the same document, the task runs in the
+ *   calling thread instead. This slows down the producer of submissions instead of letting the queue grow.
+ */
+public class SubmissionExecutor {
+
+    private final Executor threads;
+    private final int maxThreads;
+    private final int maxQueued;
+    private final int maxQueuedPerDocument;
+
+    // Queued tasks by document, in the order in which documents are served
+    private final LinkedHashMap<String, LinkedList<Task>> queues = new LinkedHashMap<String, LinkedList<Task>>();
+    private int queuedCount = 0;
+    private int runningCount = 0;
+
+    // Metrics
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong totalWaitTimeNanos = new AtomicLong();
+    private final AtomicLong totalRunTimeNanos = new AtomicLong();
+
+    public SubmissionExecutor(Executor threads, int maxThreads, int maxQueued, int maxQueuedPerDocument) {
+        this.threads = threads;
+        this.maxThreads = Math.max(maxThreads, 1);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.maxQueuedPerDocument = Math.max(maxQueuedPerDocument, 0);
+    }
+
+    /**
+     * Return an `Executor` running tasks on behalf of the given document.
+     */
+    public Executor forDocument(final String documentKey) {
+        return new Executor() {
+            public void execute(Runnable runnable) {
+                SubmissionExecutor.this.execute(documentKey, runnable);
+            }
+        };
+    }
+
+    public void execute(String documentKey, Runnable runnable) {
+
+        final Task task = new Task(runnable);
+
+        final boolean startWorker;
+        final boolean runInCaller;
+        synchronized (this) {
+            if (runningCount < maxThreads) {
+                runningCount++;
+                startWorker = true;
+                runInCaller = false;
+            } else {
+                LinkedList<Task> queue = queues.get(documentKey);
+                final int documentQueuedCount = (queue != null) ? queue.size() : 0;
+                if (queuedCount >= maxQueued || documentQueuedCount >= maxQueuedPerDocument) {
+                    startWorker = false;
+                    runInCaller = true;
+                } else {
+                    if (queue == null) {
+                        queue = new LinkedList<Task>();
+                        queues.put(documentKey, queue);
+                    }
+                    queue.add(task);
+                    queuedCount++;
+                    startWorker = false;
+                    runInCaller = false;
+                }
+            }
+        }
+
+        if (startWorker) {
+            try {
+                threads.execute(new Worker(task));
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    runningCount--;
+                }
+                throw e;
+            }
+        } else if (runInCaller) {
+            callerRunsCount.incrementAndGet();
+            task.run();
+        }
+    }
+
+    // Take the next task of the next document in turn, or return `null` and release the thread if there is none
+    private synchronized Task nextTaskOrRelease() {
+        final Iterator<Map.Entry<String, LinkedList<Task>>> it = queues.entrySet().iterator();
+        if (it.hasNext()) {
+            final Map.Entry<String, LinkedList<Task>> entry = it.next();
+            final LinkedList<Task> queue = entry.getValue();
+            final Task task = queue.removeFirst();
+            queuedCount--;
+
+            // Move the document after the other documents, or forget it if it has no more tasks
+            it.remove();
+            if (! queue.isEmpty())
+                queues.put(entry.getKey(), queue);
+
+            return task;
+        } else {
+            runningCount--;
+            return null;
+        }
+    }
+
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    // Average time in ms between the submission of a task and the start of its execution
+    public double getAverageWaitTime() {
+        final long count = completedCount.get();
+        return count == 0 ? 0 : totalWaitTimeNanos.get() / 1e6 / count;
+    }
+
+    // Average execution time of a task in ms
+    public double getAverageRunTime() {
+        final long count = completedCount.get();
+        return count == 0 ? 0 : totalRunTimeNanos.get() / 1e6 / count;
+    }
+
+    private class Worker implements Runnable {
+
+        private Task task;
+
+        Worker(Task task) {
+            this.task = task;
+        }
+
+        public void run() {
+            while (task != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // Tasks are `FutureTask`s which capture their own exceptions, but don't lose the thread otherwise
+                }
+                task = nextTaskOrRelease();
+            }
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final Runnable runnable;
+        private final long createdNanos = System.nanoTime();
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        public void run() {
+            final long startNanos = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                totalWaitTimeNanos.addAndGet(startNanos - createdNanos);
+                totalRunTimeNanos.addAndGet(System.nanoTime() - startNanos);
+                completedCount.incrementAndGet();
+            }
+        }
+    }
+}
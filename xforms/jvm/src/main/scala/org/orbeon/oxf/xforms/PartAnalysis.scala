@@ -17,6 +17,9 @@ import org.orbeon.oxf.xforms.analysis.{ElementAnalysis, Metadata}
 import org.orbeon.oxf.xforms.event.EventHandler
 import java.util.{List ⇒ JList}
 import org.orbeon.oxf.util.IndentedLogger
+import org.orbeon.oxf.util.XPath.CompiledExpression
+import org.orbeon.oxf.xml.NamespaceMapping
+import org.orbeon.oxf.xml.dom4j.LocationData
 import org.orbeon.dom.Element
 import org.orbeon.oxf.xforms.xbl.{Scope, XBLBindings}
 
@@ -48,6 +51,15 @@ trait PartAnalysis extends PartGlobalOps with PartStaticAnalysisOps {
 
   def dumpAnalysis()
 
+  // Compile an XPath expression of this part, possibly using an expression compiled ahead of time
+  def compileExpression(
+    xpathString      : String,
+    namespaceMapping : NamespaceMapping,
+    locationData     : LocationData,
+    avt              : Boolean)(implicit
+    logger           : IndentedLogger
+  ): CompiledExpression
+
   // The element in our parent that created the current part
   def elementInParent =
     parent map (_.getControlAnalysis(startScope.fullPrefix.init)) // .init removes the trailing component separator
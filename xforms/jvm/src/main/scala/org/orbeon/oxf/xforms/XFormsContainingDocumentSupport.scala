@@ -42,7 +42,7 @@ import org.orbeon.oxf.xforms.event.{ClientEvents, XFormsEvent, XFormsEventFactor
 import org.orbeon.oxf.xforms.function.xxforms.{UploadMaxSizeValidation, UploadMediatypesValidation}
 import org.orbeon.oxf.xforms.model.XFormsModel
 import org.orbeon.oxf.xforms.processor.XFormsServer
-import org.orbeon.oxf.xforms.state.{AnnotatedTemplate, DynamicState, RequestParameters, XFormsStateManager}
+import org.orbeon.oxf.xforms.state.{AnnotatedTemplate, DynamicState, RequestParameters, StateCheckpoint, XFormsStateManager}
 import org.orbeon.oxf.xforms.upload.{AllowedMediatypes, UploadCheckerLogic}
 import org.orbeon.oxf.xforms.xbl.XBLContainer
 import org.orbeon.oxf.xml.{XMLReceiver, XMLReceiverSupport}
@@ -126,6 +126,7 @@ abstract class XFormsContainingDocumentSupport(var disableUpdates: Boolean)
     innerScope           = null
   ) with ContainingDocumentLogging
     with ContainingDocumentTransientState
+    with ContainingDocumentStateCheckpoint
     with ContainingDocumentMisc
     with ContainingDocumentUpload
     with ContainingDocumentEvent
@@ -158,6 +159,11 @@ trait ContainingDocumentTransientState {
     transientState = Map.empty
 }
 
+trait ContainingDocumentStateCheckpoint {
+  // Last full dynamic state stored, used to store subsequent states as deltas
+  var stateCheckpointOpt: Option[StateCheckpoint] = None
+}
+
 trait ContainingDocumentUpload {
 
   def getControls    : XFormsControls
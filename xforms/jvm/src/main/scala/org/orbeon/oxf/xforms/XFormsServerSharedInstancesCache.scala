@@ -13,15 +13,31 @@
  */
 package org.orbeon.oxf.xforms
 
-import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache}
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, TimeUnit}
+
+import org.orbeon.oxf.cache.{InternalCacheKey, ObjectCache, Sized}
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.IndentedLogger
 import org.orbeon.oxf.xforms.analysis.model.Instance
 import org.orbeon.oxf.xforms.model.InstanceCaching
 import org.orbeon.oxf.xforms.model.XFormsInstance._
 import org.orbeon.saxon.om.{DocumentInfo, VirtualNode}
+import org.orbeon.saxon.tinytree.TinyDocumentImpl
+
+import scala.util.control.NonFatal
 
 /**
  * Cache for shared and immutable XForms instances.
+ *
+ * - Concurrent requests for the same missing instance are coalesced: one request loads the instance, and the others
+ *   wait for it.
+ * - With `oxf.xforms.cache.shared-instances.refresh-ahead`, an instance is reloaded by a single request shortly before
+ *   it expires, while other requests keep using the cached instance.
+ * - With `oxf.xforms.cache.shared-instances.max-stale`, an expired instance is still used while another request
+ *   reloads it.
+ * - Cache entries report the approximate size of their instance, so the cache can be bounded by weight with the
+ *   `concurrent` implementation and `oxf.xforms.cache.shared-instances.max-weight`.
  */
 object XFormsServerSharedInstancesCache {
 
@@ -32,6 +48,25 @@ object XFormsServerSharedInstancesCache {
     def load(instanceSourceURI: String, handleXInclude: Boolean): DocumentInfo
   }
 
+  case class Statistics(
+    hits           : Long, // found in the cache and not expired
+    misses         : Long, // not found in the cache, or expired
+    loads          : Long, // loaded, including refreshes
+    refreshes      : Long, // loaded ahead of expiry
+    coalesced      : Long, // obtained from a load started by a concurrent request
+    totalLoadTime  : Long  // total time spent loading, in ms
+  )
+
+  def statistics: Statistics =
+    Statistics(
+      hits          = Hits.get,
+      misses        = Misses.get,
+      loads         = Loads.get,
+      refreshes     = Refreshes.get,
+      coalesced     = Coalesced.get,
+      totalLoadTime = TimeUnit.NANOSECONDS.toMillis(LoadTimeNanos.get)
+    )
+
   // Try to find instance content in the cache but do not attempt to load it if not found
   def findContentOrNull(
       instance        : Instance,
@@ -51,38 +86,86 @@ object XFormsServerSharedInstancesCache {
       indentedLogger  : IndentedLogger
   ): DocumentInfo = {
 
-    // Add an entry to the cache
-    def add(instanceContent: InstanceContent, timeToLive: Long) = {
+    val cacheKey = createCacheKey(instanceCaching)
+    val now      = System.currentTimeMillis
 
-      debug("adding instance", instanceCaching.debugPairs)
+    // Load and cache new instance content, letting concurrent requests for the same instance use the result
+    def loadAndCache(load: Load): DocumentInfo = {
+      // Loading is not done while holding a lock. Scenario: the resource URI may reach an XForms page which itself
+      // needs to load a shared resource. Holding a lock could then result in a deadlock. Requests waiting for a load
+      // only wait for a limited time, and a request never waits for a load started by its own thread.
+      debug("loading instance into cache", instanceCaching.debugPairs)
 
-      val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
-      val cacheKey = createCacheKey(instanceCaching)
+      val startNanos = System.nanoTime
+      try {
+        val instanceContent = loader.load(instanceCaching.pathOrAbsoluteURI, instanceCaching.handleXInclude)
+        // NOTE: load() must always returns a TinyTree because we don't want to put in cache a mutable document
+        assert(! instanceContent.isInstanceOf[VirtualNode], "load() must return a TinyTree")
 
-      cache.add(cacheKey, ConstantValidity, CacheEntry(instanceContent, timeToLive))
+        debug("adding instance", instanceCaching.debugPairs)
+        cache.add(cacheKey, ConstantValidity, CacheEntry(InstanceContent(instanceContent), instanceCaching.timeToLive))
+
+        load.result = Some(instanceContent)
+        instanceContent
+      } finally {
+        Loads.incrementAndGet()
+        LoadTimeNanos.addAndGet(System.nanoTime - startNanos)
+        load.done()
+      }
     }
 
-    // Load and cache new instance content
-    def loadAndCache() = {
-      // Note that this method is not synchronized. Scenario: if the method is synchronized, the resource URI may
-      // reach an XForms page which itself needs to load a shared resource. The result would be a deadlock.
-      // Without synchronization, what can happen is that two concurrent requests load the same URI at the same
-      // time. In the worst case scenario, the results will be different, and the two requesting XForms instances
-      // will be different. The instance that is retrieved first will be stored in the cache for a very short
-      // amount of time, and the one retrieved last will win and be stored in the cache for a longer time.
-      debug("loading instance into cache", instanceCaching.debugPairs)
+    def loadOrWait(staleOpt: Option[CacheEntry]): DocumentInfo =
+      startLoad(cacheKey) match {
+        case Right(load) ⇒
+          loadAndCache(load)
+        case Left(_) if staleOpt.isDefined ⇒
+          debug("using stale instance while it is being reloaded", instanceCaching.debugPairs)
+          staleOpt.get.instanceContent.documentInfo
+        case Left(concurrentLoad) ⇒
+          debug("waiting for concurrent load of instance", instanceCaching.debugPairs)
+          concurrentLoad.await(MaxLoadWaitTime) match {
+            case Some(documentInfo) ⇒
+              Coalesced.incrementAndGet()
+              documentInfo
+            case None ⇒
+              // The concurrent load failed or is taking too long, or is in the current thread
+              loadAndCache(new Load(cacheKey))
+          }
+      }
+
+    val documentInfo =
+      findEntry(cacheKey) match {
+        case Some(cacheEntry) if ! cacheEntry.isExpired(now) ⇒
+          Hits.incrementAndGet()
+          debug("found cached instance", instanceCaching.debugPairs)
 
-      val instanceContent = loader.load(instanceCaching.pathOrAbsoluteURI, instanceCaching.handleXInclude)
-      // NOTE: load() must always returns a TinyTree because we don't want to put in cache a mutable document
-      assert(! instanceContent.isInstanceOf[VirtualNode], "load() must return a TinyTree")
+          if (cacheEntry.isRefreshDue(now, refreshAhead))
+            startLoad(cacheKey) match {
+              case Right(load) ⇒
+                debug("refreshing cached instance ahead of expiry", instanceCaching.debugPairs)
+                Refreshes.incrementAndGet()
+                try {
+                  loadAndCache(load)
+                } catch {
+                  case NonFatal(t) ⇒
+                    // The cached instance is still valid, try again with the next request
+                    warn("failed to refresh cached instance", instanceCaching.debugPairs :+ ("throwable" → t.toString))
+                    cacheEntry.instanceContent.documentInfo
+                }
+              case Left(_) ⇒
+                cacheEntry.instanceContent.documentInfo
+            }
+          else
+            cacheEntry.instanceContent.documentInfo
 
-      add(InstanceContent(instanceContent), instanceCaching.timeToLive)
-      Some(instanceContent)
-    }
+        case cacheEntryOpt ⇒
+          Misses.incrementAndGet()
+          debug("cached instance not found or expired", instanceCaching.debugPairs)
+
+          loadOrWait(cacheEntryOpt filter (_.isUsableWhenStale(now, maxStale)))
+      }
 
-    find(instanceCaching) orElse
-      loadAndCache map
-      (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) get
+    wrapDocumentInfo(documentInfo, readonly, instance.exposeXPathTypes)
   }
 
   // Remove the given entry from the cache if present
@@ -94,14 +177,12 @@ object XFormsServerSharedInstancesCache {
   ): Unit = {
     debug("removing instance", List("URI" → instanceSourceURI, "request hash" → requestBodyHash))
 
-    val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
     val cacheKey = createCacheKey(instanceSourceURI, handleXInclude, Option(requestBodyHash))
     cache.remove(cacheKey)
   }
 
   // Empty the cache
   def removeAll(implicit indentedLogger: IndentedLogger): Unit = {
-    val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
     val count = cache.removeAll()
 
     debug("removed all instances", List("count" → count.toString))
@@ -114,34 +195,115 @@ object XFormsServerSharedInstancesCache {
     val ConstantValidity                      = 0L
     val SharedInstanceKeyType                 = XFormsSharedInstancesCacheName
 
-    case class InstanceContent(documentInfo: DocumentInfo) { require(! documentInfo.isInstanceOf[VirtualNode]) }
+    val RefreshAheadProperty                  = "oxf.xforms.cache.shared-instances.refresh-ahead"
+    val MaxStaleProperty                      = "oxf.xforms.cache.shared-instances.max-stale"
+    val MaxLoadWaitTime                       = 30 * 1000L
+
+    val Hits          = new AtomicLong
+    val Misses        = new AtomicLong
+    val Loads         = new AtomicLong
+    val Refreshes     = new AtomicLong
+    val Coalesced     = new AtomicLong
+    val LoadTimeNanos = new AtomicLong
+
+    // Loads in progress
+    val InProgress = new ConcurrentHashMap[InternalCacheKey, Load]
+
+    def cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
+
+    def refreshAhead = Properties.instance.getPropertySet.getInteger(RefreshAheadProperty, 0).longValue
+    def maxStale     = Properties.instance.getPropertySet.getInteger(MaxStaleProperty, 0).longValue
+
+    // A load of an instance by a request, which other requests can wait for
+    class Load(cacheKey: InternalCacheKey) {
+
+      private val thread = Thread.currentThread
+      private val latch = new CountDownLatch(1)
+      @volatile var result: Option[DocumentInfo] = None
+
+      // Return `None` if the load failed or didn't complete in time, or if it was started by the current thread
+      def await(timeout: Long): Option[DocumentInfo] =
+        if (thread eq Thread.currentThread)
+          None
+        else if (latch.await(timeout, TimeUnit.MILLISECONDS))
+          result
+        else
+          None
+
+      def done(): Unit = {
+        InProgress.remove(cacheKey, this)
+        latch.countDown()
+      }
+    }
+
+    // Return `Right` with a new load if the current request must load the instance, or `Left` with the load in
+    // progress started by another request
+    def startLoad(cacheKey: InternalCacheKey): Either[Load, Load] = {
+      val load = new Load(cacheKey)
+      Option(InProgress.putIfAbsent(cacheKey, load)) match {
+        case Some(existing) ⇒ Left(existing)
+        case None           ⇒ Right(load)
+      }
+    }
+
+    case class InstanceContent(documentInfo: DocumentInfo) {
+      require(! documentInfo.isInstanceOf[VirtualNode])
+      val approximateSize = approximateDocumentSize(documentInfo)
+    }
+
     case class CacheEntry(instanceContent: InstanceContent, timeToLive: Long, timestamp: Long = System.currentTimeMillis)
+      extends Sized {
 
-    // Find instance content in cache
-    def find(instanceCaching: InstanceCaching)(implicit logger: IndentedLogger) = {
+      def getApproximateSize = instanceContent.approximateSize
+
+      private def expiration = timestamp + timeToLive
+
+      def isExpired(now: Long) =
+        timeToLive >= 0 && expiration < now
+
+      def isRefreshDue(now: Long, refreshAhead: Long) =
+        timeToLive >= 0 && refreshAhead > 0 && expiration - refreshAhead < now
+
+      def isUsableWhenStale(now: Long, maxStale: Long) =
+        timeToLive >= 0 && expiration + maxStale >= now
+    }
 
-      val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
-      val cacheKey = createCacheKey(instanceCaching)
+    // Approximate size in memory of a TinyTree: node arrays, attribute values, and text stored as UTF-16
+    def approximateDocumentSize(documentInfo: DocumentInfo): Long =
+      documentInfo match {
+        case tinyDocument: TinyDocumentImpl ⇒
+          val tree = tinyDocument.getTree
+          1024L +
+            tree.getNumberOfNodes      * 32L +
+            tree.getNumberOfAttributes * 48L +
+            tree.getNumberOfNamespaces * 16L +
+            tree.getCharacterBuffer.length * 2L
+        case _ ⇒
+          64 * 1024L
+      }
 
-      def isExpired(cacheEntry: CacheEntry) =
-        cacheEntry.timeToLive >= 0 && ((cacheEntry.timestamp + cacheEntry.timeToLive) < System.currentTimeMillis)
+    def findEntry(cacheKey: InternalCacheKey): Option[CacheEntry] =
+      Option(cache.findValid(cacheKey, ConstantValidity).asInstanceOf[CacheEntry])
 
-      Option(cache.findValid(cacheKey, ConstantValidity).asInstanceOf[CacheEntry]) match {
-        case Some(cacheEntry) if isExpired(cacheEntry) ⇒
-          // Remove expired entry
-          debug("expiring cached instance", instanceCaching.debugPairs)
-          cache.remove(cacheKey)
+    // Find instance content in cache
+    def find(instanceCaching: InstanceCaching)(implicit logger: IndentedLogger) =
+      findEntry(createCacheKey(instanceCaching)) match {
+        case Some(cacheEntry) if cacheEntry.isExpired(System.currentTimeMillis) ⇒
+          // Expired entries are replaced when the instance is loaded again
+          Misses.incrementAndGet()
+          debug("cached instance expired", instanceCaching.debugPairs)
           None
         case Some(cacheEntry) ⇒
           // Instance was found
+          Hits.incrementAndGet()
           debug("found cached instance", instanceCaching.debugPairs)
           Some(cacheEntry.instanceContent.documentInfo)
         case _ ⇒
           // Not found
+          Misses.incrementAndGet()
           debug("cached instance not found", instanceCaching.debugPairs)
           None
       }
-    }
 
     // Make key also depend on handleXInclude and on request body hash if present
     def createCacheKey(instanceCaching: InstanceCaching): InternalCacheKey =
@@ -153,4 +315,4 @@ object XFormsServerSharedInstancesCache {
         sourceURI + "|" + handleXInclude.toString + (requestBodyHash map ('|' + _) getOrElse "")
       )
   }
-}
\ No newline at end of file
+}
@@ -455,7 +455,12 @@ object XFormsStaticStateImpl {
     // If an existing state is passed in, use it, otherwise encode from XML, encrypting if necessary.
     // NOTE: We do compress the result as we think we can afford this for the static state (probably not so for the dynamic state).
     def asBase64 =
-      EncodeDecode.encodeXML(xmlDocument, true, isClientStateHandling, true) // compress = true, encrypt = isClientStateHandling, location = true
+      EncodeDecode.encodeXML(
+        xmlDocument,
+        getCompressionCodec(COMPRESSION_STATIC_STATE),
+        isClientStateHandling, // encrypt
+        true                   // location
+      )
 
     def dump() =
       println(Dom4jUtils.domToPrettyString(xmlDocument))
@@ -44,6 +44,8 @@ class DumbXPathDependencies extends XPathDependencies {
   def requireLHHAUpdate(control: ElementAnalysis, lhhaName: String, controlEffectiveId: String) = true
   def requireItemsetUpdate(control: SelectionControlTrait, controlPrefixedId: String) = true
   def requireModelMIPUpdate(model: XFormsModel, bind: StaticBind, mip: MIP, level: ValidationLevel) = true
+  def requireBindNodeMIPUpdate(model: XFormsModel, bind: StaticBind, mip: MIP, level: ValidationLevel, node: NodeInfo) = true
+  def revalidateChangedNodes(model: XFormsModel) = None
   def hasAnyCalculationBind(model: Model, instancePrefixedId: String) = true
   def hasAnyValidationBind(model: Model, instancePrefixedId: String) = true
 }
\ No newline at end of file
@@ -18,7 +18,8 @@ import org.orbeon.oxf.xml.dom4j.Dom4jUtils.DebugXML
 
 import collection.JavaConverters._
 import org.orbeon.oxf.xforms.XFormsStaticStateImpl.StaticStateDocument
-import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.util.{IndentedLogger, XPath, XPathCache}
+import org.orbeon.oxf.util.XPath.CompiledExpression
 import org.orbeon.dom.Element
 import org.orbeon.dom.saxon.DocumentWrapper
 import org.orbeon.oxf.xforms._
@@ -35,6 +36,8 @@ import org.orbeon.saxon.om.{NodeInfo, VirtualNode}
 import org.orbeon.oxf.xforms.analysis.model.Model
 import org.orbeon.oxf.xforms.XFormsProperties.EXPOSE_XPATH_TYPES_PROPERTY
 
+import scala.util.DynamicVariable
+
 /**
  * Static analysis of a whole part, including:
  *
@@ -64,6 +67,32 @@ class PartAnalysisImpl(
 
   def getIndentedLogger = staticState.getIndentedLogger
 
+  // Only set while `analyze()` runs and parallel static analysis is enabled
+  private var xpathPrecompilerOpt: Option[XPathPrecompiler] = None
+
+  // Number of expressions of the last analysis which were compiled ahead of time
+  private[analysis] var precompiledCount = 0
+
+  def compileExpression(
+    xpathString      : String,
+    namespaceMapping : NamespaceMapping,
+    locationData     : LocationData,
+    avt              : Boolean)(implicit
+    logger           : IndentedLogger
+  ): CompiledExpression = {
+
+    val compiledExpression =
+      xpathPrecompilerOpt match {
+        case Some(precompiler) ⇒
+          precompiler.compileExpression(xpathString, namespaceMapping, locationData, avt)
+        case None ⇒
+          XPath.compileExpression(xpathString, namespaceMapping, locationData, staticState.functionLibrary, avt)
+      }
+
+    PartAnalysisImpl.compiledExpressionsForTests.value foreach (_ += compiledExpression)
+    compiledExpression
+  }
+
   private def iterator(start: Option[PartAnalysis]): Iterator[PartAnalysis] = new Iterator[PartAnalysis] {
 
     private[this] var theNext = start
@@ -187,6 +216,10 @@ class PartAnalysisImpl(
 
       initializeScopes()
 
+      // Start compiling the MIPs of top-level binds, which are compiled when binds are built
+      xpathPrecompilerOpt = XPathPrecompiler(staticState.functionLibrary)
+      xpathPrecompilerOpt foreach (_.precompileBinds(staticStateDocument.rootControl, startScope, metadata))
+
       // Global lists LHHA and handlers
       val lhhas         = Buffer[LHHAAnalysis]()
       val eventHandlers = Buffer[EventHandlerImpl]()
@@ -245,6 +278,10 @@ class PartAnalysisImpl(
 
       // NOTE: For now, we don't analyze the XPath of nested (dynamic) parts
       if (isTopLevel && staticState.isXPathAnalysis) {
+        // Start compiling the expressions of all elements, including those of XBL shadow trees
+        xpathPrecompilerOpt foreach { precompiler ⇒
+          controlAnalysisMap.values foreach (precompiler.precompileElement(_))
+        }
         // Analyze root control XPath first as nested models might ask for its context
         rootControlAnalysis.analyzeXPath()
         // Analyze all models XPath
@@ -253,7 +290,16 @@ class PartAnalysisImpl(
         analyzeControlsXPath()
       }
 
-      debugResults(Seq("controls" → controlAnalysisMap.size.toString))
+      precompiledCount = xpathPrecompilerOpt map (_.precompiledCount) getOrElse 0
+
+      xpathPrecompilerOpt foreach (_.cancel())
+      xpathPrecompilerOpt = None
+
+      debugResults(Seq(
+        "controls"                → controlAnalysisMap.size.toString,
+        "precompiled expressions" → precompiledCount.toString,
+        "simple MIP expressions"  → simpleMIPExpressionCount.toString
+      ))
     }
 
     // Log if needed
@@ -273,6 +319,9 @@ class PartAnalysisImpl(
 
 object PartAnalysisImpl {
 
+  // For tests, to collect the expressions compiled by the analyses running on the current thread
+  private[analysis] val compiledExpressionsForTests = new DynamicVariable[Option[Buffer[CompiledExpression]]](None)
+
   def extractNestedModels(compactShadowTreeWrapper: DocumentWrapper, detach: Boolean, locationData: LocationData) = {
 
     // TODO: Don't use XPath here, but extract models as controls tree is visited
@@ -89,6 +89,20 @@ trait PartModelAnalysis extends TransientState {
       model.analyzeXPath()
     }
 
+  // Number of boolean MIPs which can be evaluated without XPath, see `XFormsModelBinds.simpleExpressionStatistics` for
+  // how often they actually are
+  protected def simpleMIPExpressionCount =
+    (
+      for {
+        model     ← modelsByPrefixedId.values.iterator
+        bind      ← model.bindsById.values.iterator
+        (_, mips) ← bind.mipNameToXPathMIP.iterator
+        mip       ← mips.iterator
+        if mip.simpleExpressionOpt.isDefined
+      } yield
+        mip
+    ).size
+
   override def freeTransientState() = {
     super.freeTransientState()
 
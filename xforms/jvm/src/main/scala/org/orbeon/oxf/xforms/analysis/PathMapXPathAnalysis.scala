@@ -138,11 +138,10 @@ object PathMapXPathAnalysis {
   ): XPathAnalysis = {
 
     val compiledExpression =
-      XPath.compileExpression(
+      partAnalysis.compileExpression(
         xpathString      = xpathString,
         namespaceMapping = namespaceMapping,
         locationData     = locationData,
-        functionLibrary  = partAnalysis.staticState.functionLibrary,
         avt              = avt
       )
 
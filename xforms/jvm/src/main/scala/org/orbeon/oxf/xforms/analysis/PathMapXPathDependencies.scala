@@ -15,12 +15,13 @@ package org.orbeon.oxf.xforms.analysis
 
 import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.util.CollectionUtils._
+import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.Logging
 import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.xforms.analysis.controls._
 import org.orbeon.oxf.xforms.analysis.model.Model.MIP
 import org.orbeon.oxf.xforms.analysis.model.ValidationLevel
-import org.orbeon.oxf.xforms.analysis.model.{Model, StaticBind}
+import org.orbeon.oxf.xforms.analysis.model.{BindNodeScope, Model, StaticBind}
 import org.orbeon.oxf.xforms.model.{XFormsInstance, XFormsModel}
 import org.orbeon.saxon.om.{NodeInfo, VirtualNode}
 import org.orbeon.xforms.XFormsId
@@ -52,6 +53,10 @@ class PathMapXPathDependencies(
     var recalculateChangeset = new MapSet[ModelOrInstanceKey, String]   // changeset for recalculate MIPs
     var revalidateChangeset  = recalculateChangeset                     // changeset for revalidate MIPs
 
+    // Changed nodes and their ancestors, to find the bind nodes affected by changes
+    val recalculateChangedNodes = new m.HashSet[NodeInfo]
+    val revalidateChangedNodes  = new m.HashSet[NodeInfo]
+
     def markValueChangedForTests(instance: XFormsInstance, path: String): Unit = {
       if (! hasStructuralChanges) {
 
@@ -89,6 +94,9 @@ class PathMapXPathDependencies(
           RefreshState.instancesByKey   += instanceKey → instance
           RefreshState.refreshChangeset += instancePath
 
+          recalculateChangedNodes += n
+          revalidateChangedNodes  += n
+
           // Add parent elements as well. The idea is that if the string value of /a/b/c changed, then the
           // string value of /a/b did as well, and so did /a's.
           // This adds more entries to the changeset, but handles cases such as detecting changes impacting
@@ -122,18 +130,23 @@ class PathMapXPathDependencies(
       // Changesets won't be used
       recalculateChangeset.clear()
       revalidateChangeset = recalculateChangeset
+
+      recalculateChangedNodes.clear()
+      revalidateChangedNodes.clear()
     }
 
     // Say that for this model, calculate binds are clean and can be checked for modifications based on value changes
     def recalculateDone(): Unit = {
       calculateMIPsEvaluatedOnce = true
       recalculateChangeset = clearChangeset(recalculateChangeset, revalidateChangeset)
+      recalculateChangedNodes.clear()
     }
 
     // Say that for this model, validate binds are clean and can be checked for modifications based on value changes
     def revalidateDone(): Unit = {
       validateMIPsEvaluatedOnce = true
       revalidateChangeset = clearChangeset(revalidateChangeset, recalculateChangeset)
+      revalidateChangedNodes.clear()
     }
 
     // Return an empty changeset, trying to point to the empty right changeset if possible
@@ -151,6 +164,9 @@ class PathMapXPathDependencies(
 
     def isMIPInitiallyDirty(mip: StaticBind#MIP) =
       mip.isValidateMIP && ! validateMIPsEvaluatedOnce || ! mip.isValidateMIP && ! calculateMIPsEvaluatedOnce
+
+    def changedNodes(mip: StaticBind#MIP) =
+      if (mip.isValidateMIP) revalidateChangedNodes else recalculateChangedNodes
   }
 
   // Keep state related to the view
@@ -658,13 +674,7 @@ class PathMapXPathDependencies(
 
     // TODO: cache must store by MIP to optimize xf:bind/@ref over multiple nodes
 
-    // Get constraints by the level specified
-    val mips = mip match {
-      case Model.Constraint ⇒ bind.constraintsByLevel.getOrElse(level, Nil)
-      case Model.Type       ⇒ bind.typeMIPOpt.toList
-      case Model.Whitespace ⇒ bind.nonPreserveWhitespaceMIPOpt.toList
-      case _                ⇒ bind.getXPathMIPs(mip.name)
-    }
+    val mips = staticMIPs(bind, mip, level)
 
     val modelState = getOrCreateModelState(model)
 
@@ -733,6 +743,66 @@ class PathMapXPathDependencies(
         false
     }
   }
+
+  // A bind node doesn't require an update if, for each MIP, the expression only reads nodes within the subtree of an
+  // ancestor of the node, and no node within that subtree has changed. This is what allows updating only the bind
+  // nodes affected by changes, for example a single repeat iteration, instead of all the nodes of the bind. As
+  // values set by calculations are marked as changed as well, bind nodes which depend on them are updated in turn.
+  def requireBindNodeMIPUpdate(model: XFormsModel, bind: StaticBind, mip: MIP, level: ValidationLevel, node: NodeInfo): Boolean = {
+
+    val mips       = staticMIPs(bind, mip, level)
+    val modelState = getOrCreateModelState(model)
+
+    def scopeDepth(staticMIP: StaticBind#MIP) =
+      staticMIP match {
+        case xpathMIP: StaticBind#XPathMIP ⇒ xpathMIP.scopeDepth
+        case _: StaticBind#TypeMIP         ⇒ Some(0) // the type only applies to the value of the node
+        case _                             ⇒ None
+      }
+
+    def changesOutsideScope(staticMIP: StaticBind#MIP) =
+      ! modelState.isMIPInitiallyDirty(staticMIP) && {
+
+        val changedNodes = modelState.changedNodes(staticMIP)
+
+        // No changed nodes means that changes were recorded by path only
+        changedNodes.nonEmpty && (
+          for {
+            boundNode ← Option(node)
+            depth     ← scopeDepth(staticMIP)
+            scopeNode ← BindNodeScope.scopeNode(boundNode, depth)
+          } yield
+            ! changedNodes(scopeNode)
+        ).contains(true)
+      }
+
+    if (mips.nonEmpty && (mips forall changesOutsideScope)) {
+      mipXPathOptimizedCount += mips.size
+      false
+    } else
+      true
+  }
+
+  def revalidateChangedNodes(model: XFormsModel): Option[collection.Set[NodeInfo]] = {
+
+    val modelState = getOrCreateModelState(model)
+
+    val changesKnownByNode =
+      modelState.validateMIPsEvaluatedOnce &&
+      ! modelState.hasStructuralChanges     &&
+      (modelState.revalidateChangeset.isEmpty || modelState.revalidateChangedNodes.nonEmpty)
+
+    changesKnownByNode option modelState.revalidateChangedNodes
+  }
+
+  // Get constraints by the level specified
+  private def staticMIPs(bind: StaticBind, mip: MIP, level: ValidationLevel): List[StaticBind#MIP] =
+    mip match {
+      case Model.Constraint ⇒ bind.constraintsByLevel.getOrElse(level, Nil)
+      case Model.Type       ⇒ bind.typeMIPOpt.toList
+      case Model.Whitespace ⇒ bind.nonPreserveWhitespaceMIPOpt.toList
+      case _                ⇒ bind.getXPathMIPs(mip.name)
+    }
 }
 
 private object PathMapXPathDependencies {
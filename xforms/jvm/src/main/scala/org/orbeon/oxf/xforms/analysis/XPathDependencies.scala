@@ -53,6 +53,11 @@ trait XPathDependencies {
   def requireItemsetUpdate(control: SelectionControlTrait, controlEffectiveId: String): Boolean
 
   def requireModelMIPUpdate(model: XFormsModel, bind: StaticBind, mip: MIP, level: ValidationLevel): Boolean
+  // Once `requireModelMIPUpdate()` returned `true`, whether the MIP must be updated for the given bind node
+  def requireBindNodeMIPUpdate(model: XFormsModel, bind: StaticBind, mip: MIP, level: ValidationLevel, node: NodeInfo): Boolean
+
+  // Nodes changed since the last revalidate of the model, with their ancestors, if all changes are known by node
+  def revalidateChangedNodes(model: XFormsModel): Option[collection.Set[NodeInfo]]
 
   def hasAnyCalculationBind(model: Model, instancePrefixedId: String): Boolean
   def hasAnyValidationBind(model: Model, instancePrefixedId: String): Boolean
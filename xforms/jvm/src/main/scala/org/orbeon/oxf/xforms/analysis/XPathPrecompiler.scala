@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import java.util.concurrent.Callable
+
+import org.orbeon.dom.{Element, QName}
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.util.XPath.CompiledExpression
+import org.orbeon.oxf.util.{IndentedLogger, XPath}
+import org.orbeon.oxf.xforms.XFormsConstants._
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.orbeon.oxf.xforms.analysis.controls.{AttributeControl, ValueTrait}
+import org.orbeon.oxf.xforms.analysis.model.Model
+import org.orbeon.oxf.xforms.xbl.Scope
+import org.orbeon.oxf.xml.dom4j.LocationData
+import org.orbeon.oxf.xml.{Dom4j, NamespaceMapping, ShareableXPathStaticContext}
+import org.orbeon.saxon.functions.FunctionLibrary
+import org.orbeon.saxon.sxpath.XPathExpression
+
+import scala.collection.mutable
+import scala.concurrent.forkjoin.{ForkJoinPool, ForkJoinTask}
+import scala.util.control.NonFatal
+
+// Compile XPath expressions of a part on a fork/join pool ahead of the static analysis
+//
+// The analysis of an element depends on the analyses of its ancestors, of preceding variables and of binds, so it
+// must run in document order. But compiling an expression only depends on the expression, its namespace mapping and
+// the function library, so expressions are compiled in parallel beforehand. The analysis then takes compiled
+// expressions in its usual order, and each one is used once, so the resulting static state is the same as with
+// serial compilation. Expressions which were not compiled ahead of time, or which failed to compile, are compiled
+// when requested, which also reports errors as usual.
+class XPathPrecompiler(functionLibrary: FunctionLibrary, pool: ForkJoinPool) {
+
+  import XPathPrecompiler._
+
+  // Only accessed by the thread performing the analysis
+  private val pending = mutable.HashMap[Key, List[ForkJoinTask[XPathExpression]]]()
+  private var _precompiledCount = 0
+
+  def precompiledCount = _precompiledCount
+
+  def precompile(xpathString: String, namespaceMapping: NamespaceMapping, avt: Boolean)(implicit logger: IndentedLogger): Unit =
+    if (namespaceMapping ne null) {
+
+      // Don't share the caller's logger indentation with pool threads
+      val taskLogger = new IndentedLogger(logger.getLogger)
+
+      val task =
+        pool.submit(new Callable[XPathExpression] {
+          def call() =
+            XPath.compileExpressionWithStaticContext(
+              new ShareableXPathStaticContext(XPath.GlobalConfiguration, namespaceMapping, functionLibrary)(taskLogger),
+              xpathString,
+              avt
+            )
+        })
+
+      val key = Key(xpathString, namespaceMapping.hash, avt)
+      pending += key → (task :: pending.getOrElse(key, Nil))
+    }
+
+  // Precompile the XPath MIPs of the binds found under the given element, as binds compile them when built
+  def precompileBinds(rootElement: Element, startScope: Scope, metadata: Metadata)(implicit logger: IndentedLogger): Unit =
+    for {
+      bindElement      ← Dom4j.elements(rootElement).iterator.flatMap(descendantOrSelf) filter (_.getQName == XFORMS_BIND_QNAME)
+      namespaceMapping ← Option(metadata.getNamespaceMapping(startScope.fullPrefix + bindElement.attributeValue(ID_QNAME)))
+      mip              ← Model.QNameToXPathMIP.values
+      expression       ← bindMIPExpressions(bindElement, mip.aName, mip.eName)
+    } locally {
+      val booleanOrStringExpression =
+        if (Model.BooleanXPathMIPNames(mip.name))
+          XPath.makeBooleanExpression(expression)
+        else
+          XPath.makeStringExpression(expression)
+
+      precompile(booleanOrStringExpression, namespaceMapping, avt = false)
+    }
+
+  // Precompile the binding and value expressions of an element, as its XPath analysis compiles them
+  def precompileElement(elementAnalysis: ElementAnalysis)(implicit logger: IndentedLogger): Unit = {
+
+    val namespaceMapping = elementAnalysis.namespaceMapping
+
+    elementAnalysis.context foreach (precompile(_, namespaceMapping, avt = false))
+    elementAnalysis.ref     foreach (precompile(_, namespaceMapping, avt = false))
+
+    elementAnalysis match {
+      case attributeControl: AttributeControl ⇒
+        Option(attributeControl.attributeValue) foreach (precompile(_, namespaceMapping, avt = true))
+      case valueControl: ValueTrait ⇒
+        val subExpression = valueControl.value map ("string((" + _ + ")[1])") getOrElse "string(.)"
+        precompile(subExpression, namespaceMapping, avt = false)
+      case variable: VariableAnalysisTrait if VariableAnalysis.valueOrSequenceElement(variable.element).isEmpty ⇒
+        VariableAnalysis.valueOrSelectAttribute(variable.element) foreach (precompile(_, namespaceMapping, avt = false))
+      case _ ⇒
+    }
+  }
+
+  def compileExpression(
+    xpathString      : String,
+    namespaceMapping : NamespaceMapping,
+    locationData     : LocationData,
+    avt              : Boolean)(implicit
+    logger           : IndentedLogger
+  ): CompiledExpression = {
+
+    def compileNow =
+      XPath.compileExpression(xpathString, namespaceMapping, locationData, functionLibrary, avt)
+
+    val precompiledOpt =
+      for {
+        mapping    ← Option(namespaceMapping)
+        task       ← takeTask(Key(xpathString, mapping.hash, avt))
+        expression ← try Some(task.join()) catch { case NonFatal(_) ⇒ None }
+      } yield
+        expression
+
+    precompiledOpt match {
+      case Some(expression) ⇒
+        _precompiledCount += 1
+        CompiledExpression(expression, xpathString, locationData)
+      case None ⇒
+        compileNow
+    }
+  }
+
+  // Cancel the compilation of expressions which the analysis didn't use
+  def cancel(): Unit = {
+    for (tasks ← pending.values; task ← tasks)
+      task.cancel(false)
+    pending.clear()
+  }
+
+  private def takeTask(key: Key): Option[ForkJoinTask[XPathExpression]] =
+    pending.get(key) map { tasks ⇒
+      if (tasks.tail.isEmpty)
+        pending -= key
+      else
+        pending += key → tasks.tail
+      tasks.head
+    }
+}
+
+object XPathPrecompiler {
+
+  private case class Key(xpathString: String, namespaceMappingHash: String, avt: Boolean)
+
+  private var _pool: ForkJoinPool = null
+
+  private def pool(threads: Int) = synchronized {
+    if (_pool eq null)
+      _pool = new ForkJoinPool(threads)
+    _pool
+  }
+
+  // For tests, which can't change the property
+  @volatile private[analysis] var threadsForTests: Option[Int] = None
+
+  // Return a precompiler if parallel static analysis is enabled
+  def apply(functionLibrary: FunctionLibrary): Option[XPathPrecompiler] = {
+    val threads = threadsForTests getOrElse XFormsProperties.getStaticAnalysisThreads
+    threads > 0 option new XPathPrecompiler(functionLibrary, pool(threads))
+  }
+
+  private def descendantOrSelf(e: Element): Iterator[Element] =
+    Iterator(e) ++ (Dom4j.elements(e).iterator flatMap descendantOrSelf)
+
+  // Same MIPs as `StaticBind`: nested elements, legacy `xf:validation` elements, and attributes
+  private def bindMIPExpressions(bindElement: Element, attributeName: QName, elementName: QName) =
+    (Dom4j.elements(bindElement, elementName).iterator flatMap (e ⇒ Option(e.attributeValue(VALUE_QNAME)))) ++
+    (Dom4j.elements(bindElement, XFORMS_VALIDATION_QNAME).iterator flatMap (e ⇒ Option(e.attributeValue(attributeName)))) ++
+    Option(bindElement.attributeValue(attributeName)).iterator
+}
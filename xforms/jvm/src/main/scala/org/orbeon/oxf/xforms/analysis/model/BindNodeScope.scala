@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.xml.SaxonUtils
+import org.orbeon.saxon.expr._
+import org.orbeon.saxon.om.{Axis, NamespaceConstant, NodeInfo}
+import org.w3c.dom.Node.{ATTRIBUTE_NODE, ELEMENT_NODE}
+
+// Determine which nodes a bind expression can read relative to the node it is evaluated for
+//
+// An expression which only navigates from the context item, with no absolute paths, no variables other than local
+// ones, and only functions which don't access other documents or nodes, can only read nodes within the subtree of
+// an ancestor of the context node. That ancestor is at most as many levels up as there are `parent` steps in the
+// expression. So, for a given bind node, a change to a node outside of that subtree can't change the result.
+object BindNodeScope {
+
+  // Functions which only use their arguments and the focus
+  private val LocalFunctionNames = Set(
+    "abs", "avg", "boolean", "ceiling", "codepoints-to-string", "compare", "concat", "contains", "count", "data",
+    "distinct-values", "empty", "ends-with", "exactly-one", "exists", "false", "floor", "index-of", "insert-before",
+    "last", "local-name", "lower-case", "matches", "max", "min", "name", "namespace-uri", "normalize-space",
+    "normalize-unicode", "not", "number", "one-or-more", "position", "remove", "replace", "reverse", "round",
+    "round-half-to-even", "starts-with", "string", "string-join", "string-length", "string-to-codepoints",
+    "subsequence", "substring", "substring-after", "substring-before", "sum", "tokenize", "translate", "true",
+    "upper-case", "zero-or-one"
+  )
+
+  private val LocalAxes = Set(Axis.SELF, Axis.CHILD, Axis.ATTRIBUTE, Axis.DESCENDANT, Axis.DESCENDANT_OR_SELF)
+
+  // Return the number of levels above the context node within which the expression reads nodes, or `None` if the
+  // expression might read nodes anywhere
+  def depth(expression: Expression): Option[Int] = {
+
+    var parentSteps = 0
+
+    def isLocal(e: Expression) = e match {
+      case axis: AxisExpression if axis.getAxis == Axis.PARENT ⇒
+        parentSteps += 1
+        true
+      case _: ParentNodeExpression ⇒ // `..`
+        parentSteps += 1
+        true
+      case axis: AxisExpression ⇒
+        LocalAxes(axis.getAxis)
+      case _: RootExpression ⇒
+        false
+      case _: LocalVariableReference ⇒
+        true
+      case _: VariableReference ⇒
+        false
+      case f: FunctionCall ⇒
+        f.getClass.getName.startsWith("org.orbeon.saxon.functions.")       &&
+        f.getFunctionName.getNamespaceURI == NamespaceConstant.FN           &&
+        LocalFunctionNames(f.getFunctionName.getLocalName)
+      case _ ⇒
+        true
+    }
+
+    SaxonUtils.iterateExpressionTree(expression) forall isLocal option parentSteps
+  }
+
+  // Ancestor of the node, `depth` levels up, if it is an element or attribute
+  //
+  // If the ancestor is the document node, the caller can't tell changed nodes apart.
+  def scopeNode(node: NodeInfo, depth: Int): Option[NodeInfo] = {
+
+    var current = node
+    var remaining = depth
+    while (remaining > 0 && (current ne null)) {
+      current = current.getParent
+      remaining -= 1
+    }
+
+    Option(current) filter (n ⇒ n.getNodeKind == ELEMENT_NODE || n.getNodeKind == ATTRIBUTE_NODE)
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import java.{util ⇒ ju}
+
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.xforms.model.InstanceData
+import org.orbeon.saxon.om.{Item, NodeInfo, ValueRepresentation}
+import org.orbeon.saxon.value.{StringValue, Value}
+
+import scala.collection.mutable.ListBuffer
+
+// Evaluate boolean MIP expressions of common shapes without XPath
+//
+// Many bind expressions are trivial, like `true()`, `. != ''`, `string-length(.) le 10` or `$mode = 'view'`. Such
+// expressions are recognized when the bind is analyzed, and evaluated directly against the bind node. Evaluation
+// returns `None` when the item or variable value is not one which the direct evaluation handles in the same way as
+// XPath, for example a node with a type annotation, in which case the caller evaluates the XPath expression.
+sealed trait SimpleMIPExpression {
+  def variableNameOpt: Option[String] = None
+  def evaluate(item: Item, variables: ju.Map[String, ValueRepresentation]): Option[Boolean]
+}
+
+object SimpleMIPExpression {
+
+  import Private._
+
+  // Return a simple expression if the boolean MIP expression has one of the supported shapes
+  def apply(expression: String): Option[SimpleMIPExpression] =
+    tokenize(expression) collect {
+      case List(Name("true"),  LParen, RParen) ⇒
+        Constant(true)
+      case List(Name("false"), LParen, RParen) ⇒
+        Constant(false)
+      case List(Dot, Comparison(comparison), StringLiteral(literal)) if comparison.isEquality ⇒
+        ContextValueComparison(comparison, literal)
+      case List(Name("string-length"), LParen, Dot, RParen, Comparison(comparison), IntegerLiteral(number)) ⇒
+        ContextStringLengthComparison(comparison, number)
+      case List(Name("string-length"), LParen, RParen, Comparison(comparison), IntegerLiteral(number)) ⇒
+        ContextStringLengthComparison(comparison, number)
+      case List(Variable(name), Operator(operator @ ("=" | "!=")), StringLiteral(literal)) ⇒
+        VariableValueComparison(name, operator == "=", literal)
+    }
+
+  private object Private {
+
+    val SomeTrue  = Some(true)
+    val SomeFalse = Some(false)
+
+    def result(value: Boolean) = if (value) SomeTrue else SomeFalse
+
+    // String value of a node without type annotation, or `null`
+    //
+    // Comparisons on a typed node would use the typed value, and can fail, so these are left to XPath.
+    def untypedStringValue(item: Item): String = item match {
+      case node: NodeInfo if InstanceData.getType(node) eq null ⇒ node.getStringValue
+      case _                                                    ⇒ null
+    }
+
+    case class Constant(value: Boolean) extends SimpleMIPExpression {
+      def evaluate(item: Item, variables: ju.Map[String, ValueRepresentation]) = result(value)
+    }
+
+    case class ContextValueComparison(comparison: Comparison, literal: String) extends SimpleMIPExpression {
+      def evaluate(item: Item, variables: ju.Map[String, ValueRepresentation]) =
+        untypedStringValue(item) match {
+          case null  ⇒ None
+          case value ⇒ result(comparison.test(if (value == literal) 0 else 1))
+        }
+    }
+
+    case class ContextStringLengthComparison(comparison: Comparison, number: Long) extends SimpleMIPExpression {
+      def evaluate(item: Item, variables: ju.Map[String, ValueRepresentation]) =
+        untypedStringValue(item) match {
+          case null  ⇒ None
+          case value ⇒ result(comparison.test(java.lang.Long.compare(value.codePointCount(0, value.length), number)))
+        }
+    }
+
+    // General comparison: true if any item of the value compares as requested
+    case class VariableValueComparison(name: String, equal: Boolean, literal: String) extends SimpleMIPExpression {
+
+      override def variableNameOpt = Some(name)
+
+      def evaluate(item: Item, variables: ju.Map[String, ValueRepresentation]): Option[Boolean] = {
+
+        val value = variables.get(name)
+        if (value eq null)
+          return None
+
+        val iterator = Value.asIterator(value)
+        var found    = false
+        var current  = iterator.next()
+
+        while ((current ne null) && ! found) {
+
+          val stringValue = current match {
+            case node: NodeInfo       ⇒ untypedStringValue(node)
+            case string: StringValue  ⇒ string.getStringValue // includes `xs:untypedAtomic`
+            case _                    ⇒ null
+          }
+
+          if (stringValue eq null)
+            return None
+
+          found   = (stringValue == literal) == equal
+          current = iterator.next()
+        }
+
+        result(found)
+      }
+    }
+
+    // Comparison operators, which for single items behave the same as general and value comparisons
+    class Comparison(val isEquality: Boolean, val test: Int ⇒ Boolean)
+
+    object Comparison {
+
+      private val ComparisonsByOperator = Map(
+        "="  → new Comparison(isEquality = true,  _ == 0),
+        "!=" → new Comparison(isEquality = true,  _ != 0),
+        "<"  → new Comparison(isEquality = false, _ <  0),
+        "<=" → new Comparison(isEquality = false, _ <= 0),
+        ">"  → new Comparison(isEquality = false, _ >  0),
+        ">=" → new Comparison(isEquality = false, _ >= 0)
+      )
+
+      private val ValueComparisonOperators = Map(
+        "eq" → "=",
+        "ne" → "!=",
+        "lt" → "<",
+        "le" → "<=",
+        "gt" → ">",
+        "ge" → ">="
+      )
+
+      def unapply(token: Token): Option[Comparison] = token match {
+        case Operator(operator) ⇒ ComparisonsByOperator.get(operator)
+        case Name(name)         ⇒ ValueComparisonOperators.get(name) flatMap ComparisonsByOperator.get
+        case _                  ⇒ None
+      }
+    }
+
+    sealed trait Token
+    case object Dot                            extends Token
+    case object LParen                         extends Token
+    case object RParen                         extends Token
+    case class  Variable(name: String)         extends Token
+    case class  StringLiteral(value: String)   extends Token
+    case class  IntegerLiteral(value: Long)    extends Token
+    case class  Operator(operator: String)     extends Token
+    case class  Name(name: String)             extends Token
+
+    val TokenRegex =
+      """\s*(?:([\p{L}_][\p{L}\p{N}_.\-]*)|\$([\p{L}_][\p{L}\p{N}_.\-]*)|'((?:[^']|'')*)'|"((?:[^"]|"")*)"|(\d{1,9})(?![\d.])|(!=|<=|>=|=|<|>)|(\.)(?![\d.])|(\()|(\)))""".r
+
+    // Return `None` if the expression contains anything else than the tokens above
+    def tokenize(expression: String): Option[List[Token]] = {
+
+      val trimmed = expression.trimAllToEmpty
+      val tokens  = ListBuffer[Token]()
+      var end     = 0
+
+      for (m ← TokenRegex.findAllMatchIn(trimmed))
+        if (m.start == end) {
+          end = m.end
+          tokens += (
+            if      (m.group(1) ne null) Name(m.group(1))
+            else if (m.group(2) ne null) Variable(m.group(2))
+            else if (m.group(3) ne null) StringLiteral(m.group(3).replaceAllLiterally("''", "'"))
+            else if (m.group(4) ne null) StringLiteral(m.group(4).replaceAllLiterally("\"\"", "\""))
+            else if (m.group(5) ne null) IntegerLiteral(m.group(5).toLong)
+            else if (m.group(6) ne null) Operator(m.group(6))
+            else if (m.group(7) ne null) Dot
+            else if (m.group(8) ne null) LParen
+            else                         RParen
+          )
+        }
+
+      (end == trimmed.length && tokens.nonEmpty) option tokens.toList
+    }
+  }
+}
@@ -73,11 +73,10 @@ class StaticBind(
         else
           u.XPath.makeStringExpression(expression)
 
-      u.XPath.compileExpression(
+      staticStateContext.partAnalysis.compileExpression(
         xpathString      = booleanOrStringExpression,
         namespaceMapping = staticBind.namespaceMapping,
         locationData     = staticBind.locationData,
-        functionLibrary  = staticStateContext.partAnalysis.staticState.functionLibrary,
         avt              = false
       )
     }
@@ -85,6 +84,17 @@ class StaticBind(
     // Default to negative, analyzeXPath() can change that
     var analysis: XPathAnalysis = NegativeAnalysis(expression)
 
+    // Levels above the bind node within which the expression reads nodes, if known
+    lazy val scopeDepth: Option[Int] = BindNodeScope.depth(compiledExpression.expression.getInternalExpression)
+
+    // Evaluator for boolean expressions which don't require XPath, if the expression has a supported shape
+    // NOTE: Lazy as variables must not refer to binds, and binds by name are known once all binds are created.
+    lazy val simpleExpressionOpt: Option[SimpleMIPExpression] =
+      if (BooleanXPathMIPNames(name))
+        SimpleMIPExpression(expression) filterNot (_.variableNameOpt exists bindTree.bindsByName.contains)
+      else
+        None
+
     def analyzeXPath(): Unit = {
 
       val allBindVariablesInScope = bindTree.allBindVariables
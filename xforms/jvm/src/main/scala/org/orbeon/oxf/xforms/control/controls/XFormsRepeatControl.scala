@@ -32,6 +32,7 @@ import org.orbeon.oxf.xforms.xbl.XBLContainer
 import org.orbeon.oxf.xforms.{BindingContext, ControlTree, XFormsContainingDocument}
 import org.orbeon.oxf.xml.SaxonUtils
 import org.orbeon.saxon.om.{Item, NodeInfo}
+import org.orbeon.saxon.value.StringValue
 
 import scala.collection.JavaConverters._
 import scala.collection.mutable.{ArrayBuffer, ListBuffer}
@@ -330,11 +331,14 @@ class XFormsRepeatControl(
         // This may be set to this repeat or to a nested repeat if focus was within a removed iteration
         var partialFocusRepeatOption: Option[XFormsRepeatControl] = None
 
+        // Index both nodesets once so that matching iterations is linear in the size of the nodesets
+        val newNodesetIndex = new ItemIndex(newRepeatNodeset)
+
         // For each new node, what its old index was, -1 if it was not there
-        val oldIndexes = findNodeIndexes(newRepeatNodeset, oldRepeatItems)
+        val oldIndexes = new ItemIndex(oldRepeatItems).indexesOf(newRepeatNodeset)
 
         // For each old node, what its new index is, -1 if it is no longer there
-        val newIndexes = findNodeIndexes(oldRepeatItems, newRepeatNodeset)
+        val newIndexes = newNodesetIndex.indexesOf(oldRepeatItems)
 
         // Remove control information for iterations that move or just disappear
         val oldChildren = children
@@ -381,7 +385,7 @@ class XFormsRepeatControl(
             // We want to point to a new node (case of insert)
 
             // First, try to point to the last inserted node if found
-            findNodeIndexes(insertedItems, newRepeatNodeset).reverse find (_ != -1) exists { index ⇒
+            newNodesetIndex.indexesOf(insertedItems).reverse find (_ != -1) exists { index ⇒
               val newRepeatIndex = index + 1
 
               debug("setting index to new node", Seq(
@@ -585,14 +589,6 @@ class XFormsRepeatControl(
       }
     }
 
-  private def findNodeIndexes(nodeset1: Seq[Item], nodeset2: Seq[Item]) = {
-
-    def indexOfItem(otherItem: Item) =
-      nodeset2 indexWhere (SaxonUtils.compareItems(_, otherItem))
-
-    nodeset1 map indexOfItem toArray
-  }
-
   // Serialize index
   override def serializeLocal: ju.Map[String, String] =
     ju.Collections.singletonMap("index", Integer.toString(getIndex))
@@ -642,6 +638,50 @@ object XFormsRepeatControl {
   class XFormsRepeatControlLocal(var index: Int = -1)
     extends ControlLocalSupport.XFormsControlLocal
 
+  // Index of the positions of items, to find the position of an item in constant time
+  //
+  // Positions are the same as with a linear search with `SaxonUtils.compareItems`: the position of the first equal
+  // item, or -1. Nodes, which `compareItems` compares with `isSameNodeInfo`, are indexed with their own `equals` and
+  // `hashCode`. String values are indexed by value. Other atomic values, which are rare in repeats and whose `equals`
+  // may throw, are searched linearly.
+  class ItemIndex(items: Seq[Item]) {
+
+    private val nodePositions   = new ju.HashMap[NodeInfo, Integer]
+    private val stringPositions = new ju.HashMap[String, Integer]
+
+    locally {
+      var position = 0
+      for (item ← items) {
+        item match {
+          case node: NodeInfo ⇒
+            if (! nodePositions.containsKey(node))
+              nodePositions.put(node, position)
+          case value: StringValue ⇒
+            val key = value.getStringValue
+            if (! stringPositions.containsKey(key))
+              stringPositions.put(key, position)
+          case _ ⇒
+        }
+        position += 1
+      }
+    }
+
+    def indexOf(item: Item): Int =
+      item match {
+        case node: NodeInfo ⇒
+          val position = nodePositions.get(node)
+          if (position eq null) -1 else position
+        case value: StringValue ⇒
+          val position = stringPositions.get(value.getStringValue)
+          if (position eq null) -1 else position
+        case _ ⇒
+          items indexWhere (SaxonUtils.compareItems(_, item))
+      }
+
+    def indexesOf(otherItems: Seq[Item]): Array[Int] =
+      otherItems.iterator map indexOf toArray
+  }
+
   case class RefreshInfo(
     isNodesetChanged: Boolean,
     newIterations: Seq[XFormsRepeatIterationControl],
@@ -15,7 +15,7 @@ package org.orbeon.oxf.xforms.event
 
 import java.{util ⇒ ju}
 
-import org.orbeon.dom.{Document, DocumentFactory, Element}
+import org.orbeon.dom.{DocumentFactory, Element}
 import org.orbeon.oxf.externalcontext.ExternalContext
 import org.orbeon.oxf.http.SessionExpiredException
 import org.orbeon.oxf.logging.LifecycleLogger
@@ -30,7 +30,6 @@ import org.orbeon.oxf.xforms.control.controls._
 import org.orbeon.oxf.xforms.event.XFormsEvent._
 import org.orbeon.oxf.xforms.event.XFormsEvents._
 import org.orbeon.oxf.xforms.event.events._
-import org.orbeon.oxf.xforms.state.XFormsStateManager
 import org.orbeon.oxf.xforms.upload.UploaderServer
 import org.orbeon.oxf.xml._
 import org.orbeon.oxf.xml.dom4j.{Dom4jUtils, LocationSAXContentHandler}
@@ -63,15 +62,6 @@ object ClientEvents extends Logging with XMLReceiverSupport {
     lazy val value        = if (properties.nonEmpty) "" else element.getText // for now we don't support both a value and properties
   }
 
-  def extractLocalEvents(actionElement: Element): List[LocalEvent] =
-    if (actionElement ne null)
-      Dom4j.elements(actionElement, XXFORMS_EVENT_QNAME) map (LocalEvent(_, trusted = false)) toList
-    else
-      Nil
-
-  def extractServerEventsElements(rootElement: Element): List[Element] =
-    Dom4j.elements(rootElement, XXFORMS_SERVER_EVENTS_QNAME).to[List]
-
   // Entry point called by the server: process a sequence of incoming client events.
   def processEvents(
     doc                  : XFormsContainingDocument,
@@ -260,7 +250,7 @@ object ClientEvents extends Logging with XMLReceiverSupport {
   def handleQuickReturnEvents(
     xmlReceiver         : XMLReceiver,
     request             : ExternalContext.Request,
-    requestDocument     : Document,
+    requestUUID         : String,
     logRequestResponse  : Boolean,
     clientEvents        : List[LocalEvent])(implicit
     indentedLogger      : IndentedLogger
@@ -312,7 +302,7 @@ object ClientEvents extends Logging with XMLReceiverSupport {
     }
 
     def logEvent(message: String) =
-      LifecycleLogger.eventAssumingRequest("xforms", message, List("uuid" → XFormsStateManager.getRequestUUID(requestDocument)))
+      LifecycleLogger.eventAssumingRequest("xforms", message, List("uuid" → requestUUID))
 
     if (hasOther(clientEvents)) {
       // Return other events
@@ -327,7 +317,6 @@ object ClientEvents extends Logging with XMLReceiverSupport {
         val uploadProgressEvents = clientEvents filter isUploadProgress
         val ids                  = uploadProgressEvents map (_.targetEffectiveId)
 
-        val requestUUID          = XFormsStateManager.getRequestUUID(requestDocument)
         val allProgress          = ids flatMap (id ⇒ UploaderServer.getUploadProgress(request, requestUUID, id).toList)
 
         if (allProgress.nonEmpty) {
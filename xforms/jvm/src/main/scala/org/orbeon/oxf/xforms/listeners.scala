@@ -18,9 +18,12 @@ import javax.servlet.{ServletContextEvent, ServletContextListener}
 
 import org.orbeon.oxf.cache
 import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.pipeline.InitUtils
 import org.orbeon.oxf.servlet.ServletSessionImpl
 import org.orbeon.oxf.util.SLF4JLogging._
-import org.orbeon.oxf.xforms.state.XFormsStateManager
+import org.orbeon.oxf.xforms.state.{XFormsStateManager, XFormsStaticStateCache}
+
+import scala.util.control.NonFatal
 
 class ReplicationServletContextListener extends ServletContextListener {
 
@@ -33,6 +36,26 @@ class ReplicationServletContextListener extends ServletContextListener {
   def contextDestroyed(servletContextEvent: ServletContextEvent) = ()
 }
 
+// Restore static states from the persistent static state cache in the background when the application starts, and
+// stop writing to it when the application stops
+class StaticStateCacheWarmUpServletContextListener extends ServletContextListener {
+
+  def contextInitialized(servletContextEvent: ServletContextEvent): Unit = {
+    val thread =
+      new Thread(new Runnable {
+        def run() =
+          try InitUtils.withPipelineContext(_ ⇒ XFormsStaticStateCache.warmUp())
+          catch { case NonFatal(t) ⇒ cache.Caches.Logger.warn("unable to warm up static state cache", t) }
+      }, "orbeon-static-state-warm-up")
+
+    thread.setDaemon(true)
+    thread.start()
+  }
+
+  def contextDestroyed(servletContextEvent: ServletContextEvent): Unit =
+    XFormsStaticStateCache.shutdown()
+}
+
 class XFormsServletContextListener extends HttpSessionListener {
 
   def sessionCreated(httpSessionEvent: HttpSessionEvent): Unit =
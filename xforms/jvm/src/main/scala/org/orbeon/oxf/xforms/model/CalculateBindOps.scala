@@ -144,11 +144,15 @@ trait CalculateBindOps {
     ): Unit = {
       val staticBind = bindNode.staticBind
 
-      if (staticBind.hasXPathMIP(Relevant) && dependencies.requireModelMIPUpdate(model, staticBind, Relevant, null))
+      def requireUpdate(mip: BooleanMIP) =
+        staticBind.hasXPathMIP(mip)                                      &&
+        dependencies.requireModelMIPUpdate(model, staticBind, mip, null) &&
+        dependencies.requireBindNodeMIPUpdate(model, staticBind, mip, null, bindNode.node)
+
+      if (requireUpdate(Relevant))
         evaluateBooleanMIP(bindNode, Relevant, DEFAULT_RELEVANT, collector) foreach bindNode.setRelevant
 
-      if (staticBind.hasXPathMIP(Readonly) && dependencies.requireModelMIPUpdate(model, staticBind, Readonly, null) ||
-          staticBind.hasXPathMIP(Calculate))
+      if (requireUpdate(Readonly) || staticBind.hasXPathMIP(Calculate))
         evaluateBooleanMIP(bindNode, Readonly, DEFAULT_READONLY, collector) match {
           case Some(value) ⇒
             bindNode.setReadonly(value)
@@ -158,7 +162,7 @@ trait CalculateBindOps {
           case None ⇒
         }
 
-      if (staticBind.hasXPathMIP(Required) && dependencies.requireModelMIPUpdate(model, staticBind, Required, null))
+      if (requireUpdate(Required))
         evaluateBooleanMIP(bindNode, Required, DEFAULT_REQUIRED, collector) foreach bindNode.setRequired
 
       evaluateAndSetCustomMIPs(bindNode, collector)
@@ -189,6 +193,11 @@ trait CalculateBindOps {
     def mustEvaluateNode(node: NodeInfo, defaultsStrategy: SomeDefaultsStrategy) =
       defaultsStrategy == AllDefaultsStrategy || (node ne null) && InstanceData.getRequireDefaultValue(node)
 
+    // Only evaluate bind nodes which changes can affect, see `XPathDependencies.requireBindNodeMIPUpdate`
+    def mustEvaluateBindNode(bindNode: BindNode, mip: StringMIP, defaultsStrategy: SomeDefaultsStrategy) =
+      mustEvaluateNode(bindNode.node, defaultsStrategy) &&
+      dependencies.requireBindNodeMIPUpdate(model, bindNode.staticBind, mip, null, bindNode.node)
+
     def applyCalculatedBindsUseOrderIfNeeded(
       mip              : StringMIP,
       orderOpt         : Option[List[StaticBind]],
@@ -201,9 +210,9 @@ trait CalculateBindOps {
         case None ⇒
           iterateBinds(topLevelBinds, bindNode ⇒
             if (
-              bindNode.staticBind.hasXPathMIP(mip)                                            &&
+              bindNode.staticBind.hasXPathMIP(mip)                                      &&
               dependencies.requireModelMIPUpdate(model, bindNode.staticBind, mip, null) &&
-              mustEvaluateNode(bindNode.node, defaultsStrategy)
+              mustEvaluateBindNode(bindNode, mip, defaultsStrategy)
             ) {
               evaluateAndSetCalculatedBind(bindNode, mip, collector)
             }
@@ -225,8 +234,8 @@ trait CalculateBindOps {
           BindVariableResolver.resolveNotAncestorOrSelf(self, None, staticBind) foreach { runtimeBindIt ⇒
             runtimeBindIt flatMap (_.bindNodes) foreach { bindNode ⇒
 
-              // Skip if we must process only flagged nodes and the node is not flagged
-              if (mustEvaluateNode(bindNode.node, defaultsStrategy)) {
+              // Skip if we must process only flagged nodes and the node is not flagged, or if changes don't affect it
+              if (mustEvaluateBindNode(bindNode, mip, defaultsStrategy)) {
                 evaluationCount += 1
                 evaluateAndSetCalculatedBind(bindNode, mip, collector)
               }
@@ -14,14 +14,14 @@
 package org.orbeon.oxf.xforms.model
 
 import org.orbeon.oxf.common.{OrbeonLocationException, ValidationException}
+import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.{Logging, XPath}
 import org.orbeon.oxf.xforms.XFormsConstants
-import org.orbeon.oxf.xforms.analysis.model.Model
 import org.orbeon.oxf.xforms.analysis.model.Model.{Constraint, Required, Type}
-import org.orbeon.oxf.xforms.analysis.model.ValidationLevel.ErrorLevel
+import org.orbeon.oxf.xforms.analysis.model.{BindNodeScope, Model, StaticBind}
 import org.orbeon.oxf.xforms.event.XFormsEvent
 import org.orbeon.oxf.xforms.model.XFormsModelBinds._
-import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.dom4j.{Dom4jUtils, ExtendedLocationData}
 import org.orbeon.oxf.xml.{NamespaceMapping, XMLConstants, XMLParsing}
 import org.orbeon.saxon.`type`.{BuiltInAtomicType, BuiltInType, ValidationFailure}
 import org.orbeon.saxon.expr.XPathContextMajor
@@ -50,19 +50,48 @@ trait ValidationBindOps extends Logging {
       // Reset context stack just to re-evaluate the variables
       model.resetAndEvaluateVariables()
 
-      // 1. Validate based on type and requiredness
-      if (staticModel.hasTypeBind || staticModel.hasRequiredBind)
-        iterateBinds(topLevelBinds, bindNode ⇒
-          if (bindNode.staticBind.dataType.isDefined || bindNode.staticBind.hasXPathMIP(Required))
-            validateTypeAndRequired(bindNode, invalidInstances)
-        )
+      // Only use the index if it was built for the current binds, as a rebuild replaces them
+      val previousIndexOpt = validationIndexOpt filter (_.topLevelBinds eq topLevelBinds)
+      validationIndexOpt = None
 
-      // 2. Validate constraints
-      if (staticModel.hasConstraintBind)
-        iterateBinds(topLevelBinds, bindNode ⇒
-          if (bindNode.staticBind.constraintsByLevel.nonEmpty)
-            validateConstraint(bindNode, invalidInstances, collector)
-        )
+      (previousIndexOpt, dependencies.revalidateChangedNodes(model)) match {
+        case (Some(index), Some(changedNodes)) ⇒
+
+          val bindNodes = index.bindNodesToRevalidate(changedNodes)
+
+          withDebug("incremental bind revalidate", List("model id" → model.getEffectiveId, "bind nodes" → bindNodes.size.toString)) {
+
+            // 1. Validate based on type and requiredness
+            bindNodes foreach (validateBindNode(_, validateTypeAndRequiredIfNeeded))
+
+            // 2. Validate constraints
+            bindNodes foreach (validateBindNode(_, bindNode ⇒ validateConstraintIfNeeded(bindNode, collector)))
+
+            bindNodes foreach index.updateValidity
+          }
+
+          index.addInvalidInstances(invalidInstances)
+          validationIndexOpt = Some(index)
+
+        case _ ⇒
+
+          val index = new ValidationIndex(topLevelBinds)
+
+          // 1. Validate based on type and requiredness
+          if (staticModel.hasTypeBind || staticModel.hasRequiredBind)
+            iterateBinds(topLevelBinds, validateTypeAndRequiredIfNeeded)
+
+          // 2. Validate constraints
+          iterateBinds(topLevelBinds, bindNode ⇒ {
+            if (staticModel.hasConstraintBind)
+              validateConstraintIfNeeded(bindNode, collector)
+            index.add(bindNode)
+          })
+
+          index.addRequiredDependencies()
+          index.addInvalidInstances(invalidInstances)
+          validationIndexOpt = Some(index)
+      }
     }
   }
 
@@ -80,13 +109,143 @@ trait ValidationBindOps extends Logging {
 
   private object Private {
 
+    var validationIndexOpt: Option[ValidationIndex] = None
+
+    // Find the bind nodes to revalidate after some nodes changed, and remember invalid bind nodes between passes
+    //
+    // A bind node is found through the nodes which its validation MIPs can read: the node itself for the type and
+    // for the required validity, and the scope node of each constraint and required expression (see `BindNodeScope`).
+    // Bind nodes with a validation MIP which can read nodes anywhere are always revalidated.
+    //
+    // The required validity of a bind node uses the combined requiredness of the node, which can come from the
+    // `required` MIP of another bind on the same node. So bind nodes with a type or required MIP are also found
+    // through the scope nodes of the `required` MIPs of all the binds on their node (see `addRequiredDependencies()`).
+    class ValidationIndex(val topLevelBinds: List[RuntimeBind]) {
+
+      private val bindNodesByScopeNode = m.HashMap[NodeInfo, m.ListBuffer[BindNode]]()
+      private val alwaysBindNodes      = m.LinkedHashSet[BindNode]()
+      private val invalidBindNodes     = m.LinkedHashSet[BindNode]()
+
+      // Until `addRequiredDependencies()`: by node, bind nodes with a type or required MIP, and the scope nodes of the
+      // `required` MIPs on the node, or `None` if one of them can read nodes anywhere
+      private val typeAndRequiredBindNodesByNode = m.HashMap[NodeInfo, m.ListBuffer[BindNode]]()
+      private val requiredScopeNodesByNode       = m.HashMap[NodeInfo, Option[List[NodeInfo]]]()
+
+      def add(bindNode: BindNode): Unit =
+        if (hasValidationMIP(bindNode) && (bindNode.node ne null)) {
+
+          def scopeNodesOpt(depths: Set[Int]) = {
+            val scopeNodes = depths.toList map (BindNodeScope.scopeNode(bindNode.node, _))
+            scopeNodes forall (_.isDefined) option scopeNodes.flatten
+          }
+
+          (validationScopeDepths(bindNode.staticBind) flatMap scopeNodesOpt) match {
+            case Some(scopeNodes) ⇒
+              for (scopeNode ← scopeNodes)
+                bindNodesByScopeNode.getOrElseUpdate(scopeNode, m.ListBuffer()) += bindNode
+            case None ⇒
+              alwaysBindNodes += bindNode
+          }
+
+          if (bindNode.staticBind.dataType.isDefined || bindNode.staticBind.hasXPathMIP(Required))
+            typeAndRequiredBindNodesByNode.getOrElseUpdate(bindNode.node, m.ListBuffer()) += bindNode
+
+          bindNode.staticBind.firstXPathMIP(Required) foreach { requiredMIP ⇒
+            val requiredScopeNodesOpt = requiredMIP.scopeDepth flatMap (depth ⇒ scopeNodesOpt(Set(depth)))
+            val previousOpt           = requiredScopeNodesByNode.getOrElse(bindNode.node, Some(Nil))
+            requiredScopeNodesByNode(bindNode.node) =
+              for (previous ← previousOpt; requiredScopeNodes ← requiredScopeNodesOpt)
+                yield requiredScopeNodes ::: previous
+          }
+
+          updateValidity(bindNode)
+        }
+
+      // Called once all the bind nodes have been added
+      def addRequiredDependencies(): Unit = {
+        for {
+          (node, bindNodes)     ← typeAndRequiredBindNodesByNode
+          requiredScopeNodesOpt ← requiredScopeNodesByNode.get(node)
+        } locally {
+          requiredScopeNodesOpt match {
+            case Some(scopeNodes) ⇒
+              for (scopeNode ← scopeNodes)
+                bindNodesByScopeNode.getOrElseUpdate(scopeNode, m.ListBuffer()) ++= bindNodes
+            case None ⇒
+              alwaysBindNodes ++= bindNodes
+          }
+        }
+
+        typeAndRequiredBindNodesByNode.clear()
+        requiredScopeNodesByNode.clear()
+      }
+
+      def bindNodesToRevalidate(changedNodes: collection.Set[NodeInfo]): collection.Set[BindNode] = {
+        val result = m.LinkedHashSet[BindNode]() ++= alwaysBindNodes
+        for (changedNode ← changedNodes; bindNodes ← bindNodesByScopeNode.get(changedNode))
+          result ++= bindNodes
+        result
+      }
+
+      def updateValidity(bindNode: BindNode): Unit =
+        if (bindNode.valid)
+          invalidBindNodes -= bindNode
+        else
+          invalidBindNodes += bindNode
+
+      def addInvalidInstances(invalidInstances: m.Set[String]): Unit =
+        for {
+          bindNode ← invalidBindNodes
+          instance ← Option(containingDocument.getInstanceForNode(bindNode.node))
+        } locally {
+          invalidInstances += instance.getEffectiveId
+        }
+    }
+
+    def hasValidationMIP(bindNode: BindNode) = {
+      val staticBind = bindNode.staticBind
+      staticBind.dataType.isDefined || staticBind.hasXPathMIP(Required) || staticBind.constraintsByLevel.nonEmpty
+    }
+
+    // Depths of the scope nodes of the validation MIPs of the bind, or `None` if a MIP can read nodes anywhere
+    def validationScopeDepths(staticBind: StaticBind): Option[Set[Int]] = {
+
+      val xpathMIPs = staticBind.firstXPathMIP(Required).toList ::: staticBind.constraintsByLevel.values.flatten.toList
+      val depths    = xpathMIPs map (_.scopeDepth)
+
+      depths forall (_.isDefined) option (depths.flatten.toSet + 0)
+    }
+
+    def validateTypeAndRequiredIfNeeded(bindNode: BindNode): Unit =
+      if (bindNode.staticBind.dataType.isDefined || bindNode.staticBind.hasXPathMIP(Required))
+        validateTypeAndRequired(bindNode)
+
+    def validateConstraintIfNeeded(bindNode: BindNode, collector: XFormsEvent ⇒ Unit): Unit =
+      if (bindNode.staticBind.constraintsByLevel.nonEmpty)
+        validateConstraint(bindNode, collector)
+
+    // Same error handling as `iterateBinds()` for bind nodes validated outside of it
+    def validateBindNode(bindNode: BindNode, fn: BindNode ⇒ Unit): Unit =
+      try fn(bindNode)
+      catch {
+        case NonFatal(t) ⇒
+          throw OrbeonLocationException.wrapException(
+            t,
+            new ExtendedLocationData(
+              bindNode.staticBind.locationData,
+              "evaluating XForms binds",
+              bindNode.staticBind.element
+            )
+          )
+      }
+
     lazy val xformsValidator = {
       val validator = new XFormsModelSchemaValidator("oxf:/org/orbeon/oxf/xforms/xforms-types.xsd")
       validator.loadSchemas(containingDocument)
       validator
     }
 
-    def validateTypeAndRequired(bindNode: BindNode, invalidInstances: m.Set[String]): Unit = {
+    def validateTypeAndRequired(bindNode: BindNode): Unit = {
 
       val staticBind = bindNode.staticBind
 
@@ -124,8 +283,11 @@ trait ValidationBindOps extends Logging {
       val typeValidity =
         staticBind.dataType match {
           case Some(_) ⇒
-            if (dependencies.requireModelMIPUpdate(model, staticBind, Type, null) ||
-              requiredMIPOpt.isDefined && dependencies.requireModelMIPUpdate(model, staticBind, Required, null)) {
+            def requireUpdate(mip: Model.MIP) =
+              dependencies.requireModelMIPUpdate(model, staticBind, mip, null) &&
+              dependencies.requireBindNodeMIPUpdate(model, staticBind, mip, null, currentNodeInfo)
+
+            if (requireUpdate(Type) || requiredMIPOpt.isDefined && requireUpdate(Required)) {
               // Compute new type validity if the value of the node might have changed OR the value of requiredness
               // might have changed
               val typeValidity = validateType(bindNode.parentBind, currentNodeInfo, isRequired)
@@ -146,13 +308,6 @@ trait ValidationBindOps extends Logging {
         ! isRequired || ! isEmptyValue(DataModel.getValue(currentNodeInfo))
 
       bindNode.setRequiredValid(requiredValidity, requiredMIPOpt)
-
-      // Remember invalid instances
-      if (! typeValidity || ! requiredValidity) {
-        val instanceForNodeInfo = containingDocument.getInstanceForNode(currentNodeInfo)
-        if (instanceForNodeInfo ne null)
-          invalidInstances += instanceForNodeInfo.getEffectiveId
-      }
     }
 
     def validateType(bind: RuntimeBind, currentNodeInfo: NodeInfo, required: Boolean): Boolean = {
@@ -292,9 +447,8 @@ trait ValidationBindOps extends Logging {
     }
 
     def validateConstraint(
-      bindNode         : BindNode,
-      invalidInstances : m.Set[String],
-      collector        : XFormsEvent ⇒ Unit
+      bindNode  : BindNode,
+      collector : XFormsEvent ⇒ Unit
     ): Unit = {
 
       assert(bindNode.staticBind.constraintsByLevel.nonEmpty)
@@ -316,7 +470,8 @@ trait ValidationBindOps extends Logging {
       for {
         (level, mips) ← bindNode.staticBind.constraintsByLevel
       } locally {
-        if (dependencies.requireModelMIPUpdate(model, bindNode.staticBind, Constraint, level)) {
+        if (dependencies.requireModelMIPUpdate(model, bindNode.staticBind, Constraint, level) &&
+            dependencies.requireBindNodeMIPUpdate(model, bindNode.staticBind, Constraint, level, currentNode)) {
           // Re-evaluate and set
           val failedConstraints = failedConstraintMIPs(mips, bindNode, collector)
           if (failedConstraints.nonEmpty)
@@ -327,12 +482,6 @@ trait ValidationBindOps extends Logging {
           // Don't change list of failed constraints for this level
         }
       }
-
-      // Remember invalid instances
-      if (! bindNode.constraintsSatisfiedForLevel(ErrorLevel)) {
-        val instanceForNodeInfo = containingDocument.getInstanceForNode(currentNode)
-        invalidInstances += instanceForNodeInfo.getEffectiveId
-      }
     }
 
     def evaluateBooleanExpressionStoreProperties(
@@ -341,27 +490,33 @@ trait ValidationBindOps extends Logging {
       collector : XFormsEvent ⇒ Unit
     ): Boolean =
       try {
-        // LATER: If we implement support for allowing binds to receive events, source must be bind id.
-        val functionContext =
-          model.getContextStack.getFunctionContext(model.getEffectiveId, Some(bindNode))
-
-        val result =
-          XPath.evaluateSingle(
-            contextItems        = bindNode.parentBind.items,
-            contextPosition     = bindNode.position,
-            compiledExpression  = xpathMIP.compiledExpression,
-            functionContext     = functionContext,
-            variableResolver    = model.variableResolver
-          ).asInstanceOf[Boolean]
-
-        functionContext.properties foreach { propertiesMap ⇒
-          propertiesMap foreach {
-            case (name, Some(s)) ⇒ bindNode.setCustom(name, s)
-            case (name, None)    ⇒ bindNode.clearCustom(name)
-          }
-        }
+        // Simple expressions don't call functions which set properties
+        evaluateSimpleExpression(model, bindNode, xpathMIP) match {
+          case Some(result) ⇒
+            result
+          case None ⇒
+            // LATER: If we implement support for allowing binds to receive events, source must be bind id.
+            val functionContext =
+              model.getContextStack.getFunctionContext(model.getEffectiveId, Some(bindNode))
+
+            val result =
+              XPath.evaluateSingle(
+                contextItems        = bindNode.parentBind.items,
+                contextPosition     = bindNode.position,
+                compiledExpression  = xpathMIP.compiledExpression,
+                functionContext     = functionContext,
+                variableResolver    = model.variableResolver
+              ).asInstanceOf[Boolean]
+
+            functionContext.properties foreach { propertiesMap ⇒
+              propertiesMap foreach {
+                case (name, Some(s)) ⇒ bindNode.setCustom(name, s)
+                case (name, None)    ⇒ bindNode.clearCustom(name)
+              }
+            }
 
-        result
+            result
+        }
       } catch {
         case NonFatal(t) ⇒
           handleMIPXPathException(t, bindNode, xpathMIP, "evaluating XForms constraint bind", collector)
@@ -121,7 +121,15 @@ class XFormsInstance(
   // Mark the instance as modified
   // This is used so we can optimize serialization: if an instance is inline and not modified, we don't need to
   // serialize its content
-  def markModified() = _modified = true
+  def markModified() = {
+    _modified = true
+    _changeCount = XFormsInstance.nextChangeCount()
+  }
+
+  // Changes upon each mutation of the instance, so that unchanged instances can be detected cheaply. Values come from a
+  // global counter so that a new instance object never has the same value as the instance it replaces.
+  private var _changeCount = XFormsInstance.nextChangeCount()
+  def changeCount = _changeCount
 
   // Update the instance upon submission with instance replacement
   def update(instanceCaching: Option[InstanceCaching], documentInfo: DocumentInfo, readonly: Boolean): Unit = {
@@ -276,6 +284,12 @@ class XFormsInstance(
       (TransformerUtils.dom4jToString(_, false)) getOrElse
         TransformerUtils.tinyTreeToString(_documentInfo)
 
+  // Return the instance document as a dom4j Document, converting it if the instance is readonly
+  // NOTE: If the instance is not readonly, the returned document is the live instance document.
+  def contentAsDocument =
+    underlyingDocumentOpt getOrElse
+      TransformerUtils.tinyTreeToDom4j(_documentInfo)
+
   // Don't allow any external events
   def allowExternalEvent(eventName: String) = false
 
@@ -497,6 +511,9 @@ object XFormsInstance extends Logging {
 
   import Instance._
 
+  private val changeCounter = new java.util.concurrent.atomic.AtomicLong
+  private def nextChangeCount() = changeCounter.incrementAndGet()
+
   // Create an initial instance without caching information
   def apply(model: XFormsModel, instance: Instance, documentInfo: DocumentInfo): XFormsInstance =
     new XFormsInstance(
@@ -526,6 +543,12 @@ object XFormsInstance extends Logging {
     else
       wrapDocument(Dom4jUtils.readDom4j(xmlString), exposeXPathTypes)
 
+  def createDocumentInfo(document: Document, readonly: Boolean, exposeXPathTypes: Boolean): DocumentInfo =
+    if (readonly)
+      TransformerUtils.dom4jToTinyTree(XPath.GlobalConfiguration, document, false)
+    else
+      wrapDocument(document, exposeXPathTypes)
+
   // Take a non-wrapped DocumentInfo and wrap it if needed
   def wrapDocumentInfo(documentInfo: DocumentInfo, readonly: Boolean, exposeXPathTypes: Boolean): DocumentInfo = {
     assert(
@@ -13,6 +13,8 @@
  */
 package org.orbeon.oxf.xforms.model
 
+import java.util.concurrent.atomic.AtomicLong
+
 import org.apache.commons.validator.routines.{EmailValidator, RegexValidator}
 import org.orbeon.dom.QName
 import org.orbeon.dom.saxon.TypedNodeWrapper
@@ -148,13 +150,46 @@ object XFormsModelBinds {
     xpathMIP : StaticXPathMIP)(implicit
     reporter : Reporter
   ): Boolean =
-    XPath.evaluateSingle(
-      contextItems        = bindNode.parentBind.items,
-      contextPosition     = bindNode.position,
-      compiledExpression  = xpathMIP.compiledExpression,
-      functionContext     = model.getContextStack.getFunctionContext(model.getEffectiveId, Some(bindNode)),
-      variableResolver    = model.variableResolver
-    ).asInstanceOf[Boolean]
+    evaluateSimpleExpression(model, bindNode, xpathMIP) match {
+      case Some(result) ⇒
+        result
+      case None ⇒
+        XPath.evaluateSingle(
+          contextItems        = bindNode.parentBind.items,
+          contextPosition     = bindNode.position,
+          compiledExpression  = xpathMIP.compiledExpression,
+          functionContext     = model.getContextStack.getFunctionContext(model.getEffectiveId, Some(bindNode)),
+          variableResolver    = model.variableResolver
+        ).asInstanceOf[Boolean]
+    }
+
+  case class SimpleExpressionStatistics(
+    evaluated : Long, // simple expressions evaluated without XPath
+    fallbacks : Long  // simple expressions which had to be evaluated with XPath, for example on a typed node
+  )
+
+  def simpleExpressionStatistics: SimpleExpressionStatistics =
+    SimpleExpressionStatistics(
+      evaluated = SimpleExpressionsEvaluated.get,
+      fallbacks = SimpleExpressionsFallbacks.get
+    )
+
+  private val SimpleExpressionsEvaluated = new AtomicLong
+  private val SimpleExpressionsFallbacks = new AtomicLong
+
+  // Evaluate the boolean expression without XPath if possible
+  def evaluateSimpleExpression(model: XFormsModel, bindNode: BindNode, xpathMIP: StaticXPathMIP): Option[Boolean] =
+    xpathMIP.simpleExpressionOpt match {
+      case Some(simpleExpression) ⇒
+        val result = simpleExpression.evaluate(bindNode.item, model.getTopLevelVariables)
+        if (result.isDefined)
+          SimpleExpressionsEvaluated.incrementAndGet()
+        else
+          SimpleExpressionsFallbacks.incrementAndGet()
+        result
+      case None ⇒
+        None
+    }
 
   def evaluateStringExpression(
     model    : XFormsModel,
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import java.io.InputStream
+
+import org.orbeon.dom.{Element, QName}
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.externalcontext.ExternalContext
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.xforms.XFormsConstants._
+import org.orbeon.oxf.xforms.event.ClientEvents.LocalEvent
+import org.orbeon.oxf.xforms.event.XFormsEvents._
+import org.orbeon.oxf.xforms.state.RequestParameters
+import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler
+import org.orbeon.oxf.xml.{XMLParsing, XMLReceiverAdapter}
+import org.xml.sax.Attributes
+
+import scala.collection.mutable.ListBuffer
+
+// Ajax request, as sent by the client in an `xxf:event-request` document
+case class AjaxRequest(
+  uuid                          : String,
+  sequenceOpt                   : Option[Long],
+  encodedStaticStateOpt         : Option[String],
+  encodedDynamicStateOpt        : Option[String],
+  encodedInitialDynamicStateOpt : Option[String],
+  clientEvents                  : List[LocalEvent],
+  serverEventsElements          : List[Element],
+  filesElementOpt               : Option[Element]
+) {
+
+  def parameters(isInitialState: Boolean): RequestParameters =
+    RequestParameters(
+      uuid,
+      sequenceOpt,
+      encodedStaticStateOpt,
+      if (isInitialState) encodedInitialDynamicStateOpt else encodedDynamicStateOpt
+    )
+
+  // Whether the request only contains heartbeat and upload progress events, which don't require the document
+  def isQuickReturn: Boolean =
+    clientEvents.nonEmpty        &&
+    serverEventsElements.isEmpty &&
+    filesElementOpt.isEmpty      &&
+    (clientEvents forall (e ⇒ AjaxRequest.QuickReturnEventNames(e.name)))
+}
+
+object AjaxRequest {
+
+  val QuickReturnEventNames = Set(XXFORMS_SESSION_HEARTBEAT, XXFORMS_UPLOAD_PROGRESS)
+
+  // Request attribute under which `XFormsServerFilter` passes the request it has already decoded
+  val RequestAttribute = "oxf.xforms.ajax-request"
+
+  def takeFromRequest(request: ExternalContext.Request): Option[AjaxRequest] =
+    Option(request.getAttributesMap) flatMap (attributes ⇒ Option(attributes.remove(RequestAttribute))) collect {
+      case ajaxRequest: AjaxRequest ⇒ ajaxRequest
+    }
+
+  def decode(inputStream: InputStream, systemId: String): AjaxRequest = {
+    val decoder = new AjaxRequestDecoder
+    XMLParsing.inputStreamToSAX(inputStream, systemId, decoder, XMLParsing.ParserConfiguration.PLAIN, false)
+    decoder.result
+  }
+}
+
+// Decode an Ajax request from SAX events without building a document for the whole request
+//
+// - The UUID, sequence number and encoded states are collected as strings. Encoded states are the bulk of requests.
+// - Each `xxf:event` element, as well as `xxf:server-events` and `xxf:files`, is built as a separate small element.
+class AjaxRequestDecoder extends XMLReceiverAdapter {
+
+  private val TextElementNames = Set(
+    XXFORMS_UUID_QNAME,
+    XXFORMS_SEQUENCE_QNAME,
+    XXFORMS_STATIC_STATE_QNAME,
+    XXFORMS_DYNAMIC_STATE_QNAME,
+    XXFORMS_INITIAL_DYNAMIC_STATE_QNAME
+  ) map (_.getName)
+
+  private var depth = 0
+  private var inAction = false
+
+  // Namespace mappings in scope outside of built elements, passed to built elements
+  private var mappings = List.empty[(String, String)]
+
+  // Text being collected
+  private var textName: String = null
+  private val text = new java.lang.StringBuilder
+
+  // Element being built
+  private var builder: LocationSAXContentHandler = null
+  private var builderDepth = 0
+
+  private var texts                = Map.empty[String, String]
+  private val clientEvents         = ListBuffer[LocalEvent]()
+  private val serverEventsElements = ListBuffer[Element]()
+  private var filesElementOpt      = Option.empty[Element]
+
+  def result: AjaxRequest = {
+
+    def textOpt(qName: QName) = texts.get(qName.getName) flatMap (_.trimAllToOpt)
+
+    AjaxRequest(
+      uuid                          = textOpt(XXFORMS_UUID_QNAME) getOrElse (throw new OXFException("missing UUID in Ajax request")),
+      sequenceOpt                   = textOpt(XXFORMS_SEQUENCE_QNAME) map (_.toLong),
+      encodedStaticStateOpt         = textOpt(XXFORMS_STATIC_STATE_QNAME),
+      encodedDynamicStateOpt        = textOpt(XXFORMS_DYNAMIC_STATE_QNAME),
+      encodedInitialDynamicStateOpt = textOpt(XXFORMS_INITIAL_DYNAMIC_STATE_QNAME),
+      clientEvents                  = clientEvents.result(),
+      serverEventsElements          = serverEventsElements.result(),
+      filesElementOpt               = filesElementOpt
+    )
+  }
+
+  override def startPrefixMapping(prefix: String, uri: String): Unit =
+    if (builder ne null)
+      builder.startPrefixMapping(prefix, uri)
+    else
+      mappings ::= prefix → uri
+
+  override def endPrefixMapping(prefix: String): Unit =
+    if (builder ne null)
+      builder.endPrefixMapping(prefix)
+    else
+      mappings = mappings.indexWhere(_._1 == prefix) match {
+        case -1    ⇒ mappings
+        case index ⇒ mappings.patch(index, Nil, 1)
+      }
+
+  override def startElement(uri: String, localName: String, qName: String, atts: Attributes): Unit = {
+    depth += 1
+
+    def isXXF(name: QName) = uri == XXFORMS_NAMESPACE_URI && localName == name.getName
+
+    if (builder ne null)
+      builder.startElement(uri, localName, qName, atts)
+    else if (depth == 1) {
+      if (! (uri == XXFORMS_NAMESPACE_URI && localName == "event-request"))
+        throw new OXFException(s"unexpected root element in Ajax request: `$qName`")
+    } else if (depth == 2 && uri == XXFORMS_NAMESPACE_URI && TextElementNames(localName)) {
+      textName = localName
+      text.setLength(0)
+    } else if (depth == 2 && isXXF(XXFORMS_ACTION_QNAME)) {
+      inAction = true
+    } else if (depth == 2 || (depth == 3 && inAction && isXXF(XXFORMS_EVENT_QNAME))) {
+      builder      = new LocationSAXContentHandler
+      builderDepth = depth
+      builder.startDocument()
+      for ((prefix, mappingURI) ← mappings.reverse)
+        builder.startPrefixMapping(prefix, mappingURI)
+      builder.startElement(uri, localName, qName, atts)
+    }
+  }
+
+  override def endElement(uri: String, localName: String, qName: String): Unit = {
+    if (builder ne null) {
+      builder.endElement(uri, localName, qName)
+      if (depth == builderDepth) {
+        for ((prefix, _) ← mappings)
+          builder.endPrefixMapping(prefix)
+        builder.endDocument()
+
+        val element = builder.getDocument.getRootElement
+        builder = null
+
+        element.getQName match {
+          case XXFORMS_EVENT_QNAME         ⇒ clientEvents += LocalEvent(element, trusted = false)
+          case XXFORMS_SERVER_EVENTS_QNAME ⇒ serverEventsElements += element
+          case XXFORMS_FILES_QNAME         ⇒ filesElementOpt = Some(element)
+          case _                           ⇒ // ignore unknown elements
+        }
+      }
+    } else if (textName ne null) {
+      texts += textName → text.toString
+      textName = null
+    } else if (depth == 2 && inAction) {
+      inAction = false
+    }
+
+    depth -= 1
+  }
+
+  override def characters(ch: Array[Char], start: Int, length: Int): Unit =
+    if (builder ne null)
+      builder.characters(ch, start, length)
+    else if (textName ne null)
+      text.append(ch, start, length)
+}
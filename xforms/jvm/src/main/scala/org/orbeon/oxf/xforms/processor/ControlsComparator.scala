@@ -217,14 +217,14 @@ class ControlsComparator(
 
       // AVTs on HTML elements
       if (XFormsProperties.isHostLanguageAVTs) {
-        register(classOf[XXFormsAttributeHandler], XXFORMS_NAMESPACE_URI, "attribute", any = true)
-        register(classOf[XHTMLElementHandler], XMLConstants.XHTML_NAMESPACE_URI)
+        register(new XXFormsAttributeHandler(_, _, _, _, _, _), XXFORMS_NAMESPACE_URI, "attribute", any = true)
+        register(new XHTMLElementHandler(_, _, _, _, _, _), XMLConstants.XHTML_NAMESPACE_URI)
       }
 
       // Swallow XForms elements that are unknown
-      register(classOf[NullHandler], XFORMS_NAMESPACE_URI)
-      register(classOf[NullHandler], XXFORMS_NAMESPACE_URI)
-      register(classOf[NullHandler], XBL_NAMESPACE_URI)
+      register(new NullHandler(_, _, _, _, _, _), XFORMS_NAMESPACE_URI)
+      register(new NullHandler(_, _, _, _, _, _), XXFORMS_NAMESPACE_URI)
+      register(new NullHandler(_, _, _, _, _, _), XBL_NAMESPACE_URI)
 
       controller
     }
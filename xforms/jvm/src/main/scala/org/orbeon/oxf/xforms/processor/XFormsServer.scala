@@ -16,7 +16,7 @@ package org.orbeon.oxf.xforms.processor
 import java.util.concurrent.Callable
 import java.{util ⇒ ju}
 
-import org.orbeon.dom.{Document, DocumentFactory}
+import org.orbeon.dom.DocumentFactory
 import org.orbeon.exception.OrbeonFormatter
 import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.controller.PageFlowControllerProcessor
@@ -38,7 +38,7 @@ import org.orbeon.oxf.xforms.action.XFormsAPI
 import org.orbeon.oxf.xforms.control.XFormsControl
 import org.orbeon.oxf.xforms.control.controls.{XFormsRepeatControl, XFormsUploadControl}
 import org.orbeon.oxf.xforms.event.{ClientEvents, XFormsEvents}
-import org.orbeon.oxf.xforms.state.{RequestParameters, XFormsStateManager}
+import org.orbeon.oxf.xforms.state.XFormsStateManager
 import org.orbeon.oxf.xforms.submission.{SubmissionResult, XFormsModelSubmission}
 import org.orbeon.oxf.xml.XMLReceiverSupport._
 import org.orbeon.oxf.xml._
@@ -64,7 +64,7 @@ object XFormsServer {
     * Output an Ajax response for the regular Ajax mode.
     *
     * @param beforeFocusedControlIdOpt control which had the focus before the updates, if any
-    * @param requestDocument           incoming request document (for all events mode)
+    * @param ajaxRequest               incoming request (for all events mode)
     * @param xmlReceiver               handler for the Ajax result
     */
   def outputAjaxResponse(
@@ -72,7 +72,7 @@ object XFormsServer {
     eventFindings             : ClientEvents.EventsFindings,
     beforeFocusedControlIdOpt : Option[String],
     repeatHierarchyOpt        : Option[String],
-    requestDocument           : Document,
+    ajaxRequest               : AjaxRequest,
     testOutputAllActions      : Boolean)(implicit
     xmlReceiver               : XMLReceiver,
     indentedLogger            : IndentedLogger
@@ -140,7 +140,7 @@ object XFormsServer {
               // Set disableUpdates = true so that we don't needlessly try to copy the controls tree. Also addresses:
               // #54: "Browser back causes server exception" https://github.com/orbeon/orbeon-forms/issues/54
               XFormsStateManager.findOrRestoreDocument(
-                extractParameters(requestDocument, isInitialState = true),
+                ajaxRequest.parameters(isInitialState = true),
                 isInitialState       = true,
                 disableUpdates       = true,
                 disableDocumentCache = false
@@ -336,33 +336,6 @@ object XFormsServer {
       }
     }
 
-  def extractParameters(request: Document, isInitialState: Boolean): RequestParameters = {
-
-    val uuid = XFormsStateManager.getRequestUUID(request) ensuring (_ ne null)
-
-    val sequenceElement =
-      request.getRootElement.element(XFormsConstants.XXFORMS_SEQUENCE_QNAME) ensuring (_ ne null)
-
-    val sequenceOpt =
-      sequenceElement.getTextTrim.trimAllToOpt map (_.toLong)
-
-    val encodedStaticStateOpt =
-      Option(request.getRootElement.element(XFormsConstants.XXFORMS_STATIC_STATE_QNAME)) flatMap
-        (_.getTextTrim.trimAllToOpt)
-
-    val qName =
-      if (isInitialState)
-        XFormsConstants.XXFORMS_INITIAL_DYNAMIC_STATE_QNAME
-    else
-        XFormsConstants.XXFORMS_DYNAMIC_STATE_QNAME
-
-    val encodedDynamicStateOpt =
-      Option(request.getRootElement.element(qName)) flatMap
-        (_.getTextTrim.trimAllToOpt)
-
-    RequestParameters(uuid, sequenceOpt, encodedStaticStateOpt, encodedDynamicStateOpt)
-  }
-
   private object Private {
 
     def isPortletLoadMatch(containingDocument: XFormsContainingDocument, load: Load): Boolean =
@@ -598,29 +571,45 @@ class XFormsServer extends ProcessorImpl {
 
   private def doIt(pipelineContext: PipelineContext, xmlReceiverOpt: Option[XMLReceiver]): Unit = {
 
-    // Use request input provided by client
-    val requestDocument = readInputAsOrbeonDom(pipelineContext, XFormsServer.InputRequest)
+    // Logger used for heartbeat and request/response
+    implicit val indentedLogger = Loggers.getIndentedLogger("server")
+
+    val logRequestResponse = XFormsProperties.getDebugLogging.contains("server-body")
+
+    val logRequestErrors   = XFormsProperties.getErrorLogging.contains("server-body")
+
+    // Use request input provided by client, unless `XFormsServerFilter` has already decoded it
+    //
+    // The request is decoded as it is read, and a document for the whole request is only built for logging.
+    val (ajaxRequest, requestDocumentOpt) =
+      xmlReceiverOpt flatMap (_ ⇒ AjaxRequest.takeFromRequest(NetUtils.getExternalContext.getRequest)) match {
+        case Some(decodedRequest) ⇒
+          (decodedRequest, None)
+        case None ⇒
+          val decoder = new AjaxRequestDecoder
+          if (logRequestResponse || logRequestErrors) {
+            val debugContentHandler = new LocationSAXContentHandler
+            readInputAsSAX(pipelineContext, XFormsServer.InputRequest, new TeeXMLReceiver(decoder, debugContentHandler))
+            (decoder.result, Some(debugContentHandler.getDocument))
+          } else {
+            readInputAsSAX(pipelineContext, XFormsServer.InputRequest, decoder)
+            (decoder.result, None)
+          }
+      }
+
+    if (logRequestResponse)
+      requestDocumentOpt foreach (document ⇒ debug("ajax request", List("body" → Dom4jUtils.domToPrettyString(document))))
+
     val externalContext = NetUtils.getExternalContext
     val request = externalContext.getRequest
 
     // It's not possible to handle a form update without an existing session. We depend on this to check the UUID,
     // to get the lock, and (except for client state) to retrieve form state.
     //
-    // NOTE: We should test this at the beginning of this method, but calling readInputAsOrbeonDom() in unit tests
+    // NOTE: We should test this at the beginning of this method, but reading the request input in unit tests
     // can cause the side effect to create the session, so doing so without changing some tests doesn't work.
     ClientEvents.assertSessionExists()
 
-    // Logger used for heartbeat and request/response
-    implicit val indentedLogger = Loggers.getIndentedLogger("server")
-
-    val logRequestResponse = XFormsProperties.getDebugLogging.contains("server-body")
-
-    if (logRequestResponse)
-      debug("ajax request", List("body" → Dom4jUtils.domToPrettyString(requestDocument)))
-
-    // Get action
-    val actionElement = requestDocument.getRootElement.element(XFormsConstants.XXFORMS_ACTION_QNAME)
-
     // Quick return for heartbeat and upload progress if those events are alone -> we don't need to access the XForms document
     // NOTE: If we don't have a receiver, this means that we are in the second pass of a submission with
     // replace="all". In this case, only server events are provided.
@@ -632,9 +621,9 @@ class XFormsServer extends ProcessorImpl {
             ClientEvents.handleQuickReturnEvents(
               xmlReceiver,
               request,
-              requestDocument,
+              ajaxRequest.uuid,
               logRequestResponse,
-              ClientEvents.extractLocalEvents(actionElement)
+              ajaxRequest.clientEvents
             )
 
           if (remainingClientEvents.isEmpty)
@@ -642,7 +631,7 @@ class XFormsServer extends ProcessorImpl {
 
           remainingClientEvents
         case None ⇒
-          ClientEvents.extractLocalEvents(actionElement)
+          ajaxRequest.clientEvents
       }
 
     val isAjaxRequest =
@@ -652,16 +641,16 @@ class XFormsServer extends ProcessorImpl {
     val ignoreSequence = ! isAjaxRequest
 
     // Get files if any (those come from xforms-server-submit.xpl upon submission)
-    val filesElement = requestDocument.getRootElement.element(XFormsConstants.XXFORMS_FILES_QNAME)
+    val filesElement = ajaxRequest.filesElementOpt.orNull
 
     // Gather server events containers if any
-    val serverEventsElements = ClientEvents.extractServerEventsElements(requestDocument.getRootElement)
+    val serverEventsElements = ajaxRequest.serverEventsElements
 
     // Find an output stream for xf:submission[@replace = 'all']
     val response = PipelineResponse.getResponse(xmlReceiverOpt.orNull, externalContext)
 
     // The following throws if the session has expired
-    val parameters = extractParameters(requestDocument, isInitialState = false)
+    val parameters = ajaxRequest.parameters(isInitialState = false)
 
     // We don't wait on the lock for an Ajax request. But for a simulated request on GET, we do wait. See:
     // - https://github.com/orbeon/orbeon-forms/issues/2071
@@ -773,7 +762,7 @@ class XFormsServer extends ProcessorImpl {
                                 eventFindings             = eventsFindingsOpt getOrElse ClientEvents.EmptyEventsFindings,
                                 beforeFocusedControlIdOpt = beforeFocusedControlIdOpt,
                                 repeatHierarchyOpt        = beforeRepeatHierarchyOpt,
-                                requestDocument           = requestDocument,
+                                ajaxRequest               = ajaxRequest,
                                 testOutputAllActions      = false)(
                                 xmlReceiver               = responseReceiver,
                                 indentedLogger            = indentedLogger
@@ -814,8 +803,13 @@ class XFormsServer extends ProcessorImpl {
             } catch {
               case NonFatal(t) ⇒
                 // Log body of Ajax request if needed
-                if (XFormsProperties.getErrorLogging.contains("server-body"))
-                  indentedLogger.logError("", "error processing Ajax update", "request", Dom4jUtils.domToPrettyString(requestDocument))
+                if (logRequestErrors)
+                  indentedLogger.logError(
+                    "",
+                    "error processing Ajax update",
+                    "request",
+                    requestDocumentOpt map Dom4jUtils.domToPrettyString getOrElse ajaxRequest.toString
+                  )
 
                 // Don't keep the document around
                 throw new OXFException(t)
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import java.io.{BufferedReader, ByteArrayInputStream, InputStreamReader}
+import javax.servlet._
+import javax.servlet.http.{HttpServletRequest, HttpServletRequestWrapper, HttpServletResponse}
+import javax.xml.transform.stream.StreamResult
+
+import org.orbeon.oxf.externalcontext.{ExternalContext, WebAppContext}
+import org.orbeon.oxf.http.HttpMethod
+import org.orbeon.oxf.pipeline.InitUtils
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.servlet.ServletExternalContext
+import org.orbeon.oxf.util.{ContentTypes, NetUtils}
+import org.orbeon.oxf.xforms.event.ClientEvents
+import org.orbeon.oxf.xforms.{Loggers, XFormsProperties}
+import org.orbeon.oxf.xml.TransformerUtils
+
+import scala.util.control.NonFatal
+
+// Servlet filter which answers Ajax requests containing only heartbeat and upload progress events
+//
+// Those requests are frequent and don't need the XForms document. The request body is decoded without building a
+// document, and the response is produced directly, without running the XForms Server pipeline. Other requests are
+// passed along with their buffered body, and the decoded request is passed as a request attribute so that the XForms
+// Server doesn't decode the body again. Requests which can't be decoded are passed along with their buffered body
+// only.
+//
+// The filter must be mapped to the `/xforms-server` path, after the limiter and authentication filters.
+class XFormsServerFilter extends Filter {
+
+  import XFormsServerFilter._
+
+  private var webAppContext: WebAppContext = null
+
+  def init(filterConfig: FilterConfig): Unit =
+    webAppContext = WebAppContext(filterConfig.getServletContext)
+
+  def destroy(): Unit = ()
+
+  def doFilter(req: ServletRequest, res: ServletResponse, chain: FilterChain): Unit = {
+
+    val httpRequest  = req.asInstanceOf[HttpServletRequest]
+    val httpResponse = res.asInstanceOf[HttpServletResponse]
+
+    if (isCandidate(httpRequest))
+      filterBody(httpRequest, httpResponse, NetUtils.inputStreamToByteArray(httpRequest.getInputStream), chain)
+    else
+      chain.doFilter(req, res)
+  }
+
+  private[processor] def filterBody(
+    httpRequest  : HttpServletRequest,
+    httpResponse : HttpServletResponse,
+    body         : Array[Byte],
+    chain        : FilterChain
+  ): Unit = {
+
+    val ajaxRequestOpt =
+      try Some(AjaxRequest.decode(new ByteArrayInputStream(body), null))
+      catch { case NonFatal(_) ⇒ None }
+
+    ajaxRequestOpt match {
+      case Some(ajaxRequest) if ajaxRequest.isQuickReturn ⇒
+        respond(httpRequest, httpResponse, ajaxRequest)
+      case Some(ajaxRequest) ⇒
+        httpRequest.setAttribute(AjaxRequest.RequestAttribute, ajaxRequest)
+        chain.doFilter(new BufferedBodyRequestWrapper(httpRequest, body), httpResponse)
+      case None ⇒
+        chain.doFilter(new BufferedBodyRequestWrapper(httpRequest, body), httpResponse)
+    }
+  }
+
+  private def respond(httpRequest: HttpServletRequest, httpResponse: HttpServletResponse, ajaxRequest: AjaxRequest): Unit =
+    InitUtils.withPipelineContext { pipelineContext ⇒
+
+      val externalContext = new ServletExternalContext(pipelineContext, webAppContext, httpRequest, httpResponse)
+      pipelineContext.setAttribute(PipelineContext.EXTERNAL_CONTEXT, externalContext)
+
+      val response = externalContext.getResponse
+      response.setPageCaching(0)
+      response.setContentType(ContentTypes.XmlContentType + "; charset=utf-8")
+
+      val receiver = TransformerUtils.getIdentityTransformerHandler
+      TransformerUtils.applyOutputProperties(receiver.getTransformer, "xml", "1.0", null, null, "utf-8", true, null, false, 0)
+      receiver.setResult(new StreamResult(response.getOutputStream))
+
+      ClientEvents.handleQuickReturnEvents(
+        receiver,
+        externalContext.getRequest,
+        ajaxRequest.uuid,
+        logRequestResponse = false,
+        ajaxRequest.clientEvents
+      )(Loggers.getIndentedLogger("server"))
+    }
+}
+
+private object XFormsServerFilter {
+
+  // Requests without a session, or which must be logged, go through the pipeline, which handles those cases
+  def isCandidate(request: HttpServletRequest): Boolean =
+    request.getMethod.equalsIgnoreCase(HttpMethod.POST.entryName) &&
+    ContentTypes.isXMLContentType(request.getContentType)         &&
+    (request.getSession(false) ne null)                           &&
+    ! XFormsProperties.getDebugLogging.contains("server-body")    &&
+    ! XFormsProperties.getErrorLogging.contains("server-body")
+
+  class BufferedBodyRequestWrapper(request: HttpServletRequest, body: Array[Byte])
+    extends HttpServletRequestWrapper(request) {
+
+    private lazy val inputStream = {
+      val is = new ByteArrayInputStream(body)
+      new ServletInputStream {
+        def read() = is.read()
+      }
+    }
+
+    private lazy val reader =
+      new BufferedReader(
+        new InputStreamReader(
+          inputStream,
+          Option(getCharacterEncoding) getOrElse ExternalContext.StandardCharacterEncoding
+        )
+      )
+
+    override def getInputStream = inputStream
+    override def getReader      = reader
+  }
+}
@@ -111,7 +111,7 @@ object XFormsToXHTML {
         eventFindings             = ClientEvents.EmptyEventsFindings,
         beforeFocusedControlIdOpt = None,
         repeatHierarchyOpt        = None,
-        requestDocument           = null,
+        ajaxRequest               = null,
         testOutputAllActions      = true)(
         xmlReceiver               = xmlReceiver,
         indentedLogger            = indentedLogger
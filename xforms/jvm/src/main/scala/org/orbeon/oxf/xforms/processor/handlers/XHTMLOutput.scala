@@ -18,6 +18,7 @@ import org.orbeon.oxf.xforms.processor.handlers.xhtml.{XHTMLBodyHandler, XHTMLEl
 import org.orbeon.oxf.xforms.state.AnnotatedTemplate
 import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsProperties}
 import org.orbeon.oxf.xml._
+import org.xml.sax.Attributes
 
 
 object XHTMLOutput {
@@ -38,25 +39,25 @@ object XHTMLOutput {
       import org.orbeon.oxf.xml.XMLConstants.{XHTML_NAMESPACE_URI ⇒ XH}
 
       if (isHTMLDocument) {
-        register(classOf[XHTMLHeadHandler], XH, "head")
-        register(classOf[XHTMLBodyHandler], XH, "body")
+        register(new XHTMLHeadHandler(_, _, _, _, _, _), XH, "head")
+        register(new XHTMLBodyHandler(_, _, _, _, _, _), XH, "body")
       } else {
         throw new NotImplementedError("XML handlers are not implemented yet")
       }
 
       // Register a handler for AVTs on HTML elements
       if (XFormsProperties.isHostLanguageAVTs) {
-        register(classOf[XXFormsAttributeHandler], XXF, "attribute")
+        register(new XXFormsAttributeHandler(_, _, _, _, _, _), XXF, "attribute")
 
         if (isHTMLDocument)
-          register(classOf[XHTMLElementHandler], XH)
+          register(new XHTMLElementHandler(_, _, _, _, _, _), XH)
       }
 
       // Swallow XForms elements that are unknown
       if (isHTMLDocument) {
-        register(classOf[NullHandler], XF)
-        register(classOf[NullHandler], XXF)
-        register(classOf[NullHandler], XBL_NAMESPACE_URI)
+        register(new NullHandler(_, _, _, _, _, _), XF)
+        register(new NullHandler(_, _, _, _, _, _), XXF)
+        register(new NullHandler(_, _, _, _, _, _), XBL_NAMESPACE_URI)
       }
     }
 
@@ -68,17 +69,25 @@ object XHTMLOutput {
     template.saxStore.replay(new ExceptionWrapperXMLReceiver(controller, "converting XHTML+XForms document to XHTML"))
   }
 
-  def register[T](
-    clazz               : Class[T],
+  type HandlerFactory = (String, String, String, Attributes, AnyRef, AnyRef) ⇒ ElementHandler
+
+  def register(
+    factory             : HandlerFactory,
     ns                  : String,
     elementName         : String = null,
     any                 : Boolean = false)(
     implicit controller : ElementHandlerController
   ): Unit =
     controller.registerHandler(
-      clazz.getName,
+      elementHandlerFactory(factory),
       ns,
       elementName,
       if (any) XHTMLBodyHandler.ANY_MATCHER else null
     )
+
+  def elementHandlerFactory(factory: HandlerFactory): ElementHandlerController.ElementHandlerFactory =
+    new ElementHandlerController.ElementHandlerFactory {
+      def create(uri: String, localname: String, qName: String, attributes: Attributes, matched: AnyRef, handlerContext: AnyRef) =
+        factory(uri, localname, qName, attributes, matched, handlerContext)
+    }
 }
@@ -28,6 +28,7 @@ import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.xforms.control.controls.{PlaceHolderInfo, XFormsInputControl}
 import org.orbeon.oxf.xforms.control.{Controls, XFormsComponentControl, XFormsControl, XFormsValueComponentControl}
 import org.orbeon.oxf.xforms.event.XFormsEvents
+import org.orbeon.oxf.xforms.processor.handlers.XHTMLOutput
 import org.orbeon.oxf.xforms.state.XFormsStateManager
 import org.orbeon.oxf.xforms.xbl.XBLAssets
 import org.orbeon.oxf.xforms.xbl.XBLAssets.HeadElement
@@ -58,12 +59,12 @@ class XHTMLHeadHandler(
     val xmlReceiver = xformsHandlerContext.getController.getOutput
 
     // Register control handlers on controller
-    xformsHandlerContext.getController.registerHandler(
-      classOf[XXFormsTextHandler].getName,
+    XHTMLOutput.register(
+      new XXFormsTextHandler(_, _, _, _, _, _),
       XFormsConstants.XXFORMS_NAMESPACE_URI,
       "text",
-      XHTMLBodyHandler.ANY_MATCHER
-    )
+      any = true
+    )(xformsHandlerContext.getController)
 
     // Declare xmlns:f
     formattingPrefix = xformsHandlerContext.findFormattingPrefixDeclare
@@ -13,15 +13,16 @@
  */
 package org.orbeon.oxf.xforms.state
 
-import org.orbeon.oxf.xml.SAXStore
-import sbinary.Operations._
-import XFormsOperations._
-import XFormsProtocols._
+import java.nio.ByteBuffer
+
 import org.orbeon.oxf.util.Base64
+import org.orbeon.oxf.xforms.state.XFormsProtocols._
+import org.orbeon.oxf.xml.{CompactSAXStore, SAXStore}
 
 // XML template with its serialization
+// The template is serialized in compact form, with location data which is used when reporting errors.
 case class AnnotatedTemplate(saxStore: SAXStore) {
-  private lazy val asByteArray = toByteArray(saxStore)
+  private lazy val asByteArray = AnnotatedTemplate.encode(saxStore)
   // Used to serialized into dynamic state
   def asByteSeq = asByteArray.toSeq // this produces a WrappedArray and must not copy
   // Used to serialize into static state document
@@ -30,13 +31,30 @@ case class AnnotatedTemplate(saxStore: SAXStore) {
 
 object AnnotatedTemplate {
 
+  // First byte of the compact form. Older versions used Java serialization, which starts with 0xACED instead.
+  private val CompactFormatTag = 'C'.toByte
+
   def applyJava(saxStore: SAXStore) = AnnotatedTemplate(saxStore)
   
   // Restore based on bytes
   def apply(bytes: Seq[Byte]): AnnotatedTemplate =
-    AnnotatedTemplate(fromByteSeq[SAXStore](bytes))
+    AnnotatedTemplate(decode(bytes.toArray))
 
   // Restore based on a Base64-encoded string
   def apply(base64: String): AnnotatedTemplate =
-    AnnotatedTemplate(fromByteArray[SAXStore](Base64.decode(base64)))
-}
\ No newline at end of file
+    AnnotatedTemplate(decode(Base64.decode(base64)))
+
+  private def encode(saxStore: SAXStore): Array[Byte] = {
+    val compactBytes = CompactSAXStore.fromSAXStore(saxStore, true).toByteArray
+    val bytes        = new Array[Byte](compactBytes.length + 1)
+    bytes(0) = CompactFormatTag
+    System.arraycopy(compactBytes, 0, bytes, 1, compactBytes.length)
+    bytes
+  }
+
+  private def decode(bytes: Array[Byte]): SAXStore =
+    if (bytes.nonEmpty && bytes(0) == CompactFormatTag)
+      CompactSAXStore.fromByteBuffer(ByteBuffer.wrap(bytes, 1, bytes.length - 1)).toSAXStore
+    else
+      sbinary.Operations.fromByteArray[SAXStore](bytes) // template stored with Java serialization by older versions
+}
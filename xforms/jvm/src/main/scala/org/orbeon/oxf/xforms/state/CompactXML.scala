@@ -0,0 +1,207 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.{util ⇒ ju}
+
+import org.orbeon.dom._
+import org.orbeon.oxf.common.OXFException
+import sbinary.{Input, Output}
+
+import scala.collection.JavaConverters._
+
+// Binary encoding of `org.orbeon.dom` documents
+//
+// Compared with serialized XML, this avoids repeating element and attribute names, and reading doesn't require an
+// XML parser: the document is rebuilt directly from the encoded nodes.
+//
+// - A document is encoded as the list of its children, and an element as its name, its attributes and the list of
+//   its children. Lists of children are terminated by `EndTag`.
+// - Namespaces and qualified names are stored in tables built as the document is written: the first occurrence is
+//   written as index 0 followed by the definition, and subsequent occurrences as their index + 1.
+// - Integers are written as unsigned variable-length integers, and strings as UTF-8 bytes prefixed with their length.
+object CompactXML {
+
+  private val EndTag       = 0
+  private val ElementTag   = 1
+  private val TextTag      = 2
+  private val CommentTag   = 3
+  private val PITag        = 4
+  private val NamespaceTag = 5
+
+  private val Utf8 = "UTF-8"
+
+  def write(output: Output, document: Document): Unit =
+    new Writer(output).writeChildren(document)
+
+  def read(input: Input): Document = {
+    val document = DocumentFactory.createDocument
+    new Reader(input).readChildren(document)
+    document
+  }
+
+  private class Writer(out: Output) {
+
+    private val namespaces = new ju.HashMap[Namespace, Integer]
+    private val qNames     = new ju.IdentityHashMap[QName, Integer] // `QName.equals` ignores the prefix
+
+    def writeChildren(branch: Branch): Unit = {
+      val it = branch.nodeIterator
+      while (it.hasNext)
+        writeNode(it.next())
+      writeInt(EndTag)
+    }
+
+    private def writeNode(node: Node): Unit =
+      node match {
+        case element: Element ⇒
+          writeInt(ElementTag)
+          writeQName(element.getQName)
+          writeInt(element.attributeCount)
+          for (attribute ← element.attributes.asScala) {
+            writeQName(attribute.getQName)
+            writeString(attribute.getValue)
+          }
+          writeChildren(element)
+        case text: Text ⇒
+          writeInt(TextTag)
+          writeString(text.getText)
+        case comment: Comment ⇒
+          writeInt(CommentTag)
+          writeString(comment.getText)
+        case pi: ProcessingInstruction ⇒
+          writeInt(PITag)
+          writeString(pi.getTarget)
+          writeString(pi.getText)
+        case namespace: Namespace ⇒
+          writeInt(NamespaceTag)
+          writeNamespace(namespace)
+        case other ⇒
+          throw new OXFException(s"unexpected node type: ${Node.nodeTypeName(other)}")
+      }
+
+    private def writeNamespace(namespace: Namespace): Unit =
+      Option(namespaces.get(namespace)) match {
+        case Some(index) ⇒
+          writeInt(index + 1)
+        case None ⇒
+          namespaces.put(namespace, namespaces.size)
+          writeInt(0)
+          writeString(namespace.prefix)
+          writeString(namespace.uri)
+      }
+
+    private def writeQName(qName: QName): Unit =
+      Option(qNames.get(qName)) match {
+        case Some(index) ⇒
+          writeInt(index + 1)
+        case None ⇒
+          qNames.put(qName, qNames.size)
+          writeInt(0)
+          writeString(qName.getName)
+          writeNamespace(qName.getNamespace)
+      }
+
+    private def writeInt(value: Int): Unit = {
+      var v = value
+      while ((v & ~0x7F) != 0) {
+        out.writeByte(((v & 0x7F) | 0x80).toByte)
+        v >>>= 7
+      }
+      out.writeByte(v.toByte)
+    }
+
+    private def writeString(value: String): Unit = {
+      val bytes = value.getBytes(Utf8)
+      writeInt(bytes.length)
+      out.writeAll(bytes)
+    }
+  }
+
+  private class Reader(in: Input) {
+
+    private val namespaces = new ju.ArrayList[Namespace]
+    private val qNames     = new ju.ArrayList[QName]
+
+    def readChildren(branch: Branch): Unit = {
+      var tag = readInt()
+      while (tag != EndTag) {
+        readNode(tag, branch)
+        tag = readInt()
+      }
+    }
+
+    private def readNode(tag: Int, parent: Branch): Unit =
+      tag match {
+        case ElementTag ⇒
+          val element = DocumentFactory.createElement(readQName())
+          var remaining = readInt()
+          while (remaining > 0) {
+            element.add(DocumentFactory.createAttribute(element, readQName(), readString()))
+            remaining -= 1
+          }
+          parent.add(element)
+          readChildren(element)
+        case TextTag ⇒
+          parent.asInstanceOf[Element].add(DocumentFactory.createText(readString()))
+        case CommentTag ⇒
+          parent.add(DocumentFactory.createComment(readString()))
+        case PITag ⇒
+          parent.add(DocumentFactory.createProcessingInstruction(readString(), readString()))
+        case NamespaceTag ⇒
+          parent.asInstanceOf[Element].add(readNamespace())
+        case other ⇒
+          throw new OXFException(s"invalid tag in encoded document: $other")
+      }
+
+    private def readNamespace(): Namespace =
+      readInt() match {
+        case 0 ⇒
+          val namespace = Namespace(readString(), readString())
+          namespaces.add(namespace)
+          namespace
+        case index ⇒
+          namespaces.get(index - 1)
+      }
+
+    private def readQName(): QName =
+      readInt() match {
+        case 0 ⇒
+          val localName = readString()
+          val qName     = QName.get(localName, readNamespace())
+          qNames.add(qName)
+          qName
+        case index ⇒
+          qNames.get(index - 1)
+      }
+
+    private def readInt(): Int = {
+      var result = 0
+      var shift  = 0
+      var b      = in.readByte()
+      while ((b & 0x80) != 0) {
+        result |= (b & 0x7F) << shift
+        shift  += 7
+        b       = in.readByte()
+      }
+      result | (b << shift)
+    }
+
+    private def readString(): String = {
+      val bytes = new Array[Byte](readInt())
+      in.readFully(bytes)
+      new String(bytes, Utf8)
+    }
+  }
+}
@@ -18,9 +18,10 @@ import sbinary.Operations._
 import XFormsOperations._
 import XFormsProtocols._
 import org.orbeon.oxf.util.URLRewriterUtils.PathMatcher
+import org.orbeon.oxf.util.{CompressionCodec, Compressor}
 import org.orbeon.oxf.xforms._
 import control.Controls.ControlsIterator
-import org.orbeon.oxf.xml.{EncodeDecode, SAXStore, TransformerUtils}
+import org.orbeon.oxf.xml.{CompactSAXStore, EncodeDecode, TransformerUtils}
 import org.orbeon.dom.{Document, DocumentFactory, Element}
 import org.orbeon.oxf.xforms.control.{XFormsComponentControl, XFormsControl}
 import org.orbeon.oxf.xforms.model.{InstanceCaching, XFormsInstance}
@@ -49,7 +50,7 @@ case class DynamicState(
   def decodePathMatchers           = fromByteSeq[List[PathMatcher]](pathMatchers)
   def decodePendingUploads         = fromByteSeq[Set[String]](pendingUploads)
   def decodeAnnotatedTemplate      = annotatedTemplate map (AnnotatedTemplate(_))
-  def decodeLastAjaxResponse       = fromByteSeq[Option[SAXStore]](lastAjaxResponse)
+  def decodeLastAjaxResponse       = fromByteSeq[Option[CompactSAXStore]](DynamicState.uncompressIfNeeded(lastAjaxResponse))
   def decodeInstances              = fromByteSeq[List[InstanceState]](instances)
   def decodeControls               = fromByteSeq[List[ControlState]](controls)
 
@@ -73,7 +74,7 @@ case class DynamicState(
   def encodeToString(compress: Boolean, isForceEncryption: Boolean): String =
     EncodeDecode.encodeBytes(
       toByteArray(this),
-      compress,
+      if (compress) XFormsProperties.getCompressionCodec(XFormsProperties.COMPRESSION_CLIENT_STATE) else null,
       isForceEncryption
     )
 
@@ -127,7 +128,7 @@ case class DynamicState(
 
           instanceState.cachingOrContent match {
             case Left(caching)  ⇒ caching.writeAttributes(att)
-            case Right(content) ⇒ instanceElement.addText(content)
+            case Right(content) ⇒ instanceElement.addText(TransformerUtils.dom4jToString(content, false))
 
           }
 
@@ -156,7 +157,7 @@ case class DynamicState(
     }
 
     // Template and Ajax response
-    Seq(("template", decodeAnnotatedTemplate map (_.saxStore)), ("response", decodeLastAjaxResponse)) collect {
+    Seq(("template", decodeAnnotatedTemplate map (_.saxStore)), ("response", decodeLastAjaxResponse map (_.toSAXStore))) collect {
       case (elementName, Some(saxStore)) ⇒
         val templateElement = rootElement.addElement(elementName)
         val document = TransformerUtils.saxStoreToDom4jDocument(saxStore)
@@ -200,10 +201,12 @@ case class ControlState(
 
 // Minimal immutable representation of a serialized instance
 // If there is caching information, don't include the actual content
+// NOTE: When created from a mutable instance, the content is the live instance document, so the state must be
+// serialized right away.
 case class InstanceState(
   effectiveId      : String,
   modelEffectiveId : String,
-  cachingOrContent : InstanceCaching Either String,
+  cachingOrContent : InstanceCaching Either Document,
   readonly         : Boolean,
   modified         : Boolean,
   valid            : Boolean
@@ -213,7 +216,7 @@ case class InstanceState(
     this(
       instance.getEffectiveId,
       instance.parent.getEffectiveId,
-      instance.instanceCaching.toLeft(instance.contentAsString),
+      instance.instanceCaching.toLeft(instance.contentAsDocument),
       instance.readonly,
       instance.modified,
       instance.valid)
@@ -230,7 +233,14 @@ object DynamicState {
     apply(document, document.getControls.getCurrentControlTree.rootOpt)
 
   // Create a DynamicState from a control
-  def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState = {
+  //
+  // If `serializedInstancesOpt` is provided, it is used instead of serializing instances again. This is only correct if
+  // the caller knows that the instances haven't changed since they were serialized.
+  def apply(
+    document               : XFormsContainingDocument,
+    startOpt               : Option[XFormsControl],
+    serializedInstancesOpt : Option[Seq[Byte]] = None
+  ): DynamicState = {
 
     val startContainer = startOpt match {
       case Some(componentControl: XFormsComponentControl) ⇒ componentControl.nestedContainer
@@ -279,12 +289,23 @@ object DynamicState {
       Option(document.getControls.getFocusedControl) map (_.getEffectiveId),
       toByteSeq(document.getPendingUploads.asScala.toSet),
       document.getTemplate map (_.asByteSeq), // template returns its own serialization
-      toByteSeq(Option(document.getLastAjaxResponse)),
-      toByteSeq(startContainer.allModels flatMap (_.getInstances.asScala) filter (_.mustSerialize) map (new InstanceState(_)) toList),
+      compressIfNeeded(toByteArray(Option(document.getLastAjaxResponse)), XFormsProperties.COMPRESSION_LAST_AJAX_RESPONSE),
+      serializedInstancesOpt getOrElse
+        toByteSeq(startContainer.allModels flatMap (_.getInstances.asScala) filter (_.mustSerialize) map (new InstanceState(_)) toList),
       toByteSeq(controlsToSerialize)
     )
   }
 
+  // Compress with the codec configured for the given use, if any
+  private def compressIfNeeded(bytes: Array[Byte], use: String): Seq[Byte] =
+    (Option(XFormsProperties.getCompressionCodec(use)) map (_.compress(bytes)) getOrElse bytes).toSeq
+
+  // Serialized values start with bytes which can't be mistaken for a compression header
+  private def uncompressIfNeeded(bytes: Seq[Byte]): Seq[Byte] = {
+    val array = bytes.toArray
+    if (CompressionCodec.isCompressed(array)) Compressor.uncompressBytes(array).toSeq else bytes
+  }
+
   // Create a DynamicState from an encoded string representation
   def apply(encoded: String): DynamicState = {
     val bytes = EncodeDecode.decodeBytes(encoded, false)
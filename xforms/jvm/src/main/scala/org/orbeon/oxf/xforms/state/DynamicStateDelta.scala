@@ -0,0 +1,337 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.ByteArrayOutputStream
+
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.xforms.model.XFormsInstance
+import org.orbeon.oxf.xforms.state.XFormsOperations._
+import org.orbeon.oxf.xforms.state.XFormsProtocols._
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsProperties}
+import sbinary.Operations._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+// Dynamic state stored as the difference with a full checkpoint of the same document
+//
+// `state` contains all the small parts of the dynamic state, and the large parts which have changed since the
+// checkpoint. The large parts which haven't changed are left empty and listed in `unchangedParts`. In addition:
+//
+// - If `instanceParts` is defined, instances are rebuilt from slices of the checkpoint's instances for the instances
+//   which haven't changed, and from the serialized instances which have.
+// - If `controlChanges` is defined, controls are rebuilt from the checkpoint's controls and the changes.
+case class DynamicStateDelta(
+  checkpointSequence : Long,
+  state              : DynamicState,
+  unchangedParts     : Set[String],
+  instanceParts      : Option[List[DynamicStateDelta.InstancePart]] = None,
+  controlChanges     : Option[DynamicStateDelta.ControlChanges]     = None
+) {
+
+  import DynamicStateDelta._
+
+  def applyTo(checkpoint: DynamicState): DynamicState = {
+
+    require(checkpoint.uuid == state.uuid && checkpoint.sequence == checkpointSequence)
+
+    def part[T](name: String, fromCheckpoint: DynamicState ⇒ T, fromDelta: DynamicState ⇒ T) =
+      if (unchangedParts(name)) fromCheckpoint(checkpoint) else fromDelta(state)
+
+    state.copy(
+      pathMatchers      = part(PathMatchersPart,      _.pathMatchers,      _.pathMatchers),
+      pendingUploads    = part(PendingUploadsPart,    _.pendingUploads,    _.pendingUploads),
+      annotatedTemplate = part(AnnotatedTemplatePart, _.annotatedTemplate, _.annotatedTemplate),
+      lastAjaxResponse  = part(LastAjaxResponsePart,  _.lastAjaxResponse,  _.lastAjaxResponse),
+      instances         = part(InstancesPart,         _.instances,         _ ⇒ instancesFromParts(checkpoint)),
+      controls          = part(ControlsPart,          _.controls,          _ ⇒ controlsFromChanges(checkpoint))
+    )
+  }
+
+  // Slices of the checkpoint's instances which the resulting state shares with the checkpoint
+  def checkpointSlices: List[CheckpointSlice] =
+    instanceParts.toList.flatten collect { case slice: CheckpointSlice ⇒ slice }
+
+  private def instancesFromParts(checkpoint: DynamicState): Seq[Byte] =
+    instanceParts match {
+      case Some(parts) ⇒
+        val checkpointInstances = byteArray(checkpoint.instances)
+        assembleInstances(
+          parts map {
+            case CheckpointSlice(_, offset, length) ⇒ (checkpointInstances, offset, length)
+            case ChangedInstance(bytes)             ⇒ val array = byteArray(bytes); (array, 0, array.length)
+          }
+        ).toSeq
+      case None ⇒
+        state.instances
+    }
+
+  private def controlsFromChanges(checkpoint: DynamicState): Seq[Byte] =
+    controlChanges match {
+      case Some(ControlChanges(changed, removedIds)) ⇒
+        val checkpointControls = checkpoint.decodeControls
+        val checkpointIds      = checkpointControls map (_.effectiveId) toSet
+        val changedById        = changed map (c ⇒ c.effectiveId → c) toMap
+
+        val kept  = checkpointControls filterNot (c ⇒ removedIds(c.effectiveId)) map (c ⇒ changedById.getOrElse(c.effectiveId, c))
+        val added = changed filterNot (c ⇒ checkpointIds(c.effectiveId))
+
+        toByteSeq(kept ::: added)
+      case None ⇒
+        state.controls
+    }
+}
+
+// Full dynamic state of a document last stored, along with what is needed to compute deltas against it
+//
+// `instanceSlices` tells, by instance effective id, where the serialized instance is in the checkpoint's instances,
+// along with the instance's change count and validity at the time it was serialized. Instances which are not known
+// to match the checkpoint, e.g. after restoring from a checkpoint, are not listed and are serialized again.
+class StateCheckpoint(
+  val state          : DynamicState,
+  val instanceSlices : Map[String, (Long, Boolean, DynamicStateDelta.CheckpointSlice)]
+) {
+  var deltaCount = 0
+}
+
+object DynamicStateDelta {
+
+  val PathMatchersPart      = "path-matchers"
+  val PendingUploadsPart    = "pending-uploads"
+  val AnnotatedTemplatePart = "annotated-template"
+  val LastAjaxResponsePart  = "last-ajax-response"
+  val InstancesPart         = "instances"
+  val ControlsPart          = "controls"
+
+  // Serialized instance within the instances part of a delta
+  sealed trait InstancePart
+  case class CheckpointSlice(effectiveId: String, offset: Int, length: Int) extends InstancePart
+  case class ChangedInstance(bytes: Seq[Byte])                              extends InstancePart
+
+  // Controls which are new or changed since the checkpoint, and ids of the checkpoint's controls which are gone
+  case class ControlChanges(changed: List[ControlState], removedIds: Set[String])
+
+  // Checkpoint a dynamic state was restored against, along with the slices of its instances which the restored state
+  // shares with it
+  case class RestoredCheckpoint(state: DynamicState, slices: List[CheckpointSlice])
+
+  sealed trait ToStore
+  case class Full(state: DynamicState, isCheckpoint: Boolean) extends ToStore
+  case class Delta(delta: DynamicStateDelta)                  extends ToStore
+
+  // Return what to store for the given document
+  //
+  // - The initial state and client state are always stored in full.
+  // - A full checkpoint is stored every `oxf.xforms.state-store.delta.checkpoint-interval` updates, and also when no
+  //   checkpoint is known for the document.
+  // - In between, only the parts which changed since the checkpoint are stored. Instances which haven't changed since
+  //   the checkpoint are not serialized again.
+  //
+  // A delta is useless without its checkpoint, so `isCheckpointStored` is asked, right before producing a delta, whether
+  // the store still has the checkpoint. Stores also keep the checkpoint alive for as long as its deltas by touching it
+  // there. If the checkpoint is gone, a new full checkpoint is stored instead.
+  def dynamicStateToStore(
+    document           : XFormsContainingDocument,
+    isInitialState     : Boolean,
+    isCheckpointStored : ⇒ Boolean
+  ): ToStore = {
+
+    val checkpointInterval = XFormsProperties.getStateDeltaCheckpointInterval
+
+    if (isInitialState || checkpointInterval <= 0) {
+      Full(DynamicState(document), isCheckpoint = false)
+    } else {
+      val instances = instancesToSerialize(document)
+
+      document.stateCheckpointOpt match {
+        case Some(checkpoint)
+          if checkpoint.deltaCount < checkpointInterval && checkpoint.state.uuid == document.getUUID && isCheckpointStored ⇒
+
+          val parts =
+            instances map { instance ⇒
+              checkpoint.instanceSlices.get(instance.getEffectiveId) collect {
+                case (changeCount, valid, slice) if changeCount == instance.changeCount && valid == instance.valid ⇒ slice
+              } getOrElse
+                ChangedInstance(toByteSeq(new InstanceState(instance)))
+            }
+
+          // Instances are carried by `parts`
+          val state =
+            DynamicState(document, document.getControls.getCurrentControlTree.rootOpt, Some(EmptyBytes))
+
+          checkpoint.deltaCount += 1
+
+          Delta(diff(checkpoint.state, state, Some(parts)))
+
+        case _ ⇒
+          val serializedInstances = instances map (instance ⇒ instance → toByteArray(new InstanceState(instance)))
+
+          val state =
+            DynamicState(
+              document,
+              document.getControls.getCurrentControlTree.rootOpt,
+              Some(assembleInstances(serializedInstances map { case (_, bytes) ⇒ (bytes, 0, bytes.length) }).toSeq)
+            )
+
+          // Remember where each instance is within the checkpoint's instances
+          var offset = InstancesCountLength
+          val instanceSlices =
+            serializedInstances map { case (instance, bytes) ⇒
+              val slice = CheckpointSlice(instance.getEffectiveId, offset, bytes.length)
+              offset += bytes.length
+              instance.getEffectiveId → (instance.changeCount, instance.valid, slice)
+            } toMap
+
+          document.stateCheckpointOpt = Some(new StateCheckpoint(state, instanceSlices))
+          Full(state, isCheckpoint = true)
+      }
+    }
+  }
+
+  // Called after a document is restored from the store, so that subsequent deltas can be computed against the same
+  // checkpoint without storing a new checkpoint first.
+  def restoreCheckpoint(document: XFormsContainingDocument, checkpoint: RestoredCheckpoint): Unit = {
+
+    // The restored instances which come from slices of the checkpoint can keep using them until they change
+    val instancesById = instancesToSerialize(document) map (i ⇒ i.getEffectiveId → i) toMap
+
+    val instanceSlices =
+      for {
+        slice    ← checkpoint.slices
+        instance ← instancesById.get(slice.effectiveId)
+      } yield
+        slice.effectiveId → (instance.changeCount, instance.valid, slice)
+
+    document.stateCheckpointOpt = Some(new StateCheckpoint(checkpoint.state, instanceSlices.toMap))
+  }
+
+  def diff(
+    checkpoint    : DynamicState,
+    state         : DynamicState,
+    instanceParts : Option[List[InstancePart]] = None
+  ): DynamicStateDelta = {
+
+    var unchangedParts = Set.empty[String]
+
+    def check[T <: AnyRef](name: String, fromCheckpoint: T, fromState: T, empty: T, same: (T, T) ⇒ Boolean): T =
+      if ((fromCheckpoint eq fromState) || same(fromCheckpoint, fromState)) {
+        unchangedParts += name
+        empty
+      } else
+        fromState
+
+    def checkBytes(name: String, fromCheckpoint: Seq[Byte], fromState: Seq[Byte]) =
+      check(name, fromCheckpoint, fromState, EmptyBytes, sameBytes)
+
+    // Unchanged instances are slices of the checkpoint's instances, so there is nothing to compare
+    val instances =
+      if (instanceParts.isDefined) EmptyBytes else checkBytes(InstancesPart, checkpoint.instances, state.instances)
+
+    val controlsUnchanged = sameBytes(checkpoint.controls, state.controls)
+    if (controlsUnchanged)
+      unchangedParts += ControlsPart
+
+    // Typically only a few controls change between updates, so only keep those
+    val controlChanges =
+      ! controlsUnchanged option {
+        val checkpointControls = checkpoint.decodeControls
+        val stateControls      = state.decodeControls
+        val checkpointSet      = checkpointControls.toSet
+
+        ControlChanges(
+          stateControls filterNot checkpointSet,
+          (checkpointControls map (_.effectiveId) toSet) -- (stateControls map (_.effectiveId))
+        )
+      }
+
+    val stateWithoutUnchangedParts =
+      state.copy(
+        pathMatchers      = checkBytes(PathMatchersPart,   checkpoint.pathMatchers,   state.pathMatchers),
+        pendingUploads    = checkBytes(PendingUploadsPart, checkpoint.pendingUploads, state.pendingUploads),
+        annotatedTemplate = check(AnnotatedTemplatePart, checkpoint.annotatedTemplate, state.annotatedTemplate, None, sameTemplates),
+        lastAjaxResponse  = checkBytes(LastAjaxResponsePart, checkpoint.lastAjaxResponse, state.lastAjaxResponse),
+        instances         = instances,
+        controls          = EmptyBytes
+      )
+
+    DynamicStateDelta(checkpoint.sequence, stateWithoutUnchangedParts, unchangedParts, instanceParts, controlChanges)
+  }
+
+  // Resolve a stored dynamic state value to the dynamic state and the checkpoint it corresponds to, if any. Return
+  // `None` if the value is a delta and the checkpoint is missing or doesn't match it.
+  def resolve(value: AnyRef, findCheckpoint: ⇒ Option[AnyRef]): Option[(DynamicState, Option[RestoredCheckpoint])] =
+    value match {
+      case state: DynamicState ⇒
+        // The state might be the checkpoint itself, but which of its instances match the document isn't known
+        val checkpointOpt =
+          if (XFormsProperties.getStateDeltaCheckpointInterval > 0)
+            findCheckpoint collect { case checkpoint: DynamicState if checkpoint.sequence == state.sequence ⇒ RestoredCheckpoint(state, Nil) }
+          else
+            None
+        Some(state → checkpointOpt)
+      case delta: DynamicStateDelta ⇒
+        findCheckpoint collect {
+          case checkpoint: DynamicState if checkpoint.sequence == delta.checkpointSequence ⇒
+            (delta applyTo checkpoint) → Some(RestoredCheckpoint(checkpoint, delta.checkpointSlices))
+        }
+      case _ ⇒
+        None
+    }
+
+  def createCheckpointKey(documentUUID: String) =
+    documentUUID + "-K"
+
+  def isCheckpointKey(key: String) =
+    key.endsWith("-K")
+
+  def documentUUIDFromCheckpointKey(key: String) =
+    key.substring(0, key.length - 2)
+
+  // Instances as serialized by `DynamicState`, with the same bytes as `toByteSeq(instanceStates)`, but assembled from
+  // the serialized instances
+  def assembleInstances(serializedInstances: List[(Array[Byte], Int, Int)]): Array[Byte] = {
+    val os = new ByteArrayOutputStream
+    os.write(toByteArray(serializedInstances.size))
+    for ((bytes, offset, length) ← serializedInstances)
+      os.write(bytes, offset, length)
+    os.toByteArray
+  }
+
+  // Compare bytes without boxing each of them
+  def sameBytes(bytes1: Seq[Byte], bytes2: Seq[Byte]) =
+    (bytes1 eq bytes2) || java.util.Arrays.equals(byteArray(bytes1), byteArray(bytes2))
+
+  private def sameTemplates(template1: Option[Seq[Byte]], template2: Option[Seq[Byte]]) =
+    (template1, template2) match {
+      case (Some(bytes1), Some(bytes2)) ⇒ sameBytes(bytes1, bytes2)
+      case (None, None)                 ⇒ true
+      case _                            ⇒ false
+    }
+
+  // Bytes from `toByteSeq` are a `WrappedArray`, so usually no copy is needed
+  private def byteArray(bytes: Seq[Byte]): Array[Byte] =
+    bytes match {
+      case wrapped: mutable.WrappedArray.ofByte ⇒ wrapped.array
+      case other                                ⇒ other.toArray
+    }
+
+  private val EmptyBytes = Seq.empty[Byte]
+
+  // Length of the instances count which `toByteSeq` writes before the instances
+  private val InstancesCountLength = toByteArray(0).length
+
+  private def instancesToSerialize(document: XFormsContainingDocument): List[XFormsInstance] =
+    document.allModels.toList flatMap (_.getInstances.asScala) filter (_.mustSerialize)
+}
@@ -13,16 +13,22 @@
  */
 package org.orbeon.oxf.xforms.state
 
-import net.sf.ehcache.{Element ⇒ EhElement}
+import net.sf.ehcache.event.CacheEventListenerAdapter
+import net.sf.ehcache.{Ehcache, Element ⇒ EhElement}
 import org.orbeon.oxf.externalcontext.ExternalContext
 import org.orbeon.oxf.logging.LifecycleLogger
 import org.orbeon.oxf.util.{IndentedLogger, SecureUtils}
 import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.util.Logging._
 
-object EhcacheStateStore {
+object EhcacheStateStore extends XFormsStateStore {
 
+  import DynamicStateDelta._
   import Private._
+  import XFormsStateStore.createDynamicStateKey
+
+  // A delta is useless without its checkpoint, so when a checkpoint goes, the document's current state goes with it
+  Caches.stateCache.getCacheEventNotificationService.registerListener(CheckpointListener)
 
   def storeDocumentState(
     document       : XFormsContainingDocument,
@@ -54,7 +60,19 @@ object EhcacheStateStore {
 
       // Static and dynamic states
       addOrReplaceOne(staticStateDigest, document.getStaticState.encodedState) // XXX Q: is there a cost to replacing static state? value will be the same!
-      addOrReplaceOne(dynamicStateKey, DynamicState(document))
+
+      // Getting the checkpoint also keeps it from expiring before the delta
+      def isCheckpointStored =
+        Caches.stateCache.get(createCheckpointKey(documentUUID)) ne null
+
+      dynamicStateToStore(document, isInitialState, isCheckpointStored) match {
+        case Full(state, isCheckpoint) ⇒
+          if (isCheckpoint)
+            addOrReplaceOne(createCheckpointKey(documentUUID), state)
+          addOrReplaceOne(dynamicStateKey, state)
+        case Delta(delta) ⇒
+          addOrReplaceOne(dynamicStateKey, delta)
+      }
     }
   }
 
@@ -93,8 +111,11 @@ object EhcacheStateStore {
 
           // Gather values from cache for both keys and return state only if both are non-null
           Stream(parts(0), dynamicStateKey) flatMap findOne filter (_ ne null) match {
-            case Stream(staticState: String, dynamicState: DynamicState) ⇒
-              Some(XFormsState(Some(parts(0)), Some(staticState), Some(dynamicState)))
+            case Stream(staticState: String, dynamicStateValue) ⇒
+              resolve(dynamicStateValue, findOne(createCheckpointKey(documentUUID))) map {
+                case (dynamicState, checkpoint) ⇒
+                  XFormsState(Some(parts(0)), Some(staticState), Some(dynamicState), checkpoint)
+              }
             case _ ⇒
               None
           }
@@ -109,6 +130,7 @@ object EhcacheStateStore {
     Caches.stateCache.remove(documentUUID)
     Caches.stateCache.remove(createDynamicStateKey(documentUUID, isInitialState = true))
     Caches.stateCache.remove(createDynamicStateKey(documentUUID, isInitialState = false))
+    Caches.stateCache.remove(createCheckpointKey(documentUUID))
   }
 
   def getMaxSize     : Long = Caches.stateCache.getCacheConfiguration.getMaxEntriesLocalHeap
@@ -118,7 +140,17 @@ object EhcacheStateStore {
 
     implicit val logger: IndentedLogger = XFormsStateManager.Logger
 
-    def createDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
-      documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
+    object CheckpointListener extends CacheEventListenerAdapter {
+
+      override def notifyElementEvicted(cache: Ehcache, element: EhElement) = removeCurrentState(cache, element)
+      override def notifyElementExpired(cache: Ehcache, element: EhElement) = removeCurrentState(cache, element)
+
+      private def removeCurrentState(cache: Ehcache, element: EhElement) =
+        element.getObjectKey match {
+          case key: String if isCheckpointKey(key) ⇒
+            cache.remove(createDynamicStateKey(documentUUIDFromCheckpointKey(key), isInitialState = false))
+          case _ ⇒
+        }
+    }
   }
 }
\ No newline at end of file
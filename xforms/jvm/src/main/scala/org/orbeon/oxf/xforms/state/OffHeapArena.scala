@@ -0,0 +1,105 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.nio.ByteBuffer
+
+import scala.collection.mutable.ArrayBuffer
+
+// Fixed-size segments of direct memory, at most `maxSize` bytes in total.
+//
+// - Memory is allocated in slabs the first time it is needed and never released, so that the store doesn't depend on
+//   the GC to free direct buffers.
+// - Freed segments go to a free list and are reused before any new slab is allocated.
+// - A value is stored in as many segments as needed, which don't need to be contiguous.
+// - Not thread-safe: the caller must synchronize.
+private[state] class OffHeapArena(maxSize: Long, segmentSize: Int, segmentsPerSlab: Int) {
+
+  require(segmentSize > 0 && segmentsPerSlab > 0)
+
+  val maxSegments: Int = (maxSize / segmentSize min Int.MaxValue).toInt
+
+  private val slabs        = ArrayBuffer[ByteBuffer]()
+  private var slabSegments = 0 // segments in allocated slabs
+
+  private var freeSegments = new Array[Int](segmentsPerSlab)
+  private var freeCount    = 0
+
+  def segmentCount(length: Int): Int = (length + segmentSize - 1) / segmentSize max 1
+
+  def freeSegmentCount: Int = freeCount + (maxSegments - slabSegments)
+  def usedBytes       : Long = (slabSegments - freeCount).toLong * segmentSize
+  def allocatedBytes  : Long = slabSegments.toLong * segmentSize
+
+  // Return the segments holding the bytes, or `None` if there aren't enough free segments
+  def write(bytes: Array[Byte]): Option[Array[Int]] = {
+
+    val count = segmentCount(bytes.length)
+
+    if (count > freeSegmentCount)
+      None
+    else {
+      val segments = new Array[Int](count)
+      for (i ← 0 until count) {
+        val segment = takeSegment()
+        val from    = i * segmentSize
+        buffer(segment).put(bytes, from, bytes.length - from min segmentSize)
+        segments(i) = segment
+      }
+      Some(segments)
+    }
+  }
+
+  def read(segments: Array[Int], length: Int): Array[Byte] = {
+    val bytes = new Array[Byte](length)
+    for (i ← segments.indices) {
+      val from = i * segmentSize
+      buffer(segments(i)).get(bytes, from, length - from min segmentSize)
+    }
+    bytes
+  }
+
+  def free(segments: Array[Int]): Unit =
+    segments foreach pushFree
+
+  private def pushFree(segment: Int): Unit = {
+    if (freeCount == freeSegments.length)
+      freeSegments = java.util.Arrays.copyOf(freeSegments, freeCount * 2)
+    freeSegments(freeCount) = segment
+    freeCount += 1
+  }
+
+  private def takeSegment(): Int = {
+    if (freeCount == 0)
+      allocateSlab()
+    freeCount -= 1
+    freeSegments(freeCount)
+  }
+
+  private def allocateSlab(): Unit = {
+    val count = segmentsPerSlab min (maxSegments - slabSegments)
+    slabs += ByteBuffer.allocateDirect(count * segmentSize)
+    // Push in reverse order so that segments are taken in address order
+    for (i ← count - 1 to 0 by -1)
+      pushFree(slabSegments + i)
+    slabSegments += count
+  }
+
+  // View positioned at the start of the segment
+  private def buffer(segment: Int): ByteBuffer = {
+    val view = slabs(segment / segmentsPerSlab).duplicate
+    view.position(segment % segmentsPerSlab * segmentSize)
+    view
+  }
+}
@@ -0,0 +1,247 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.{util ⇒ ju}
+
+import org.orbeon.oxf.externalcontext.ExternalContext
+import org.orbeon.oxf.logging.LifecycleLogger
+import org.orbeon.oxf.util.Logging._
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.util.{Compressor, IndentedLogger, SecureUtils}
+import org.orbeon.oxf.xforms._
+import org.orbeon.oxf.xforms.state.XFormsProtocols._
+import sbinary.Operations._
+
+// State store which keeps compressed state bytes outside of the Java heap, in direct buffers.
+//
+// - Bytes are stored in segments of an `OffHeapArena`, so the direct memory used never goes over `maxSize`.
+// - Entries are evicted in least recently used order when there are not enough free segments for a new entry.
+// - Sizes reported by `getMaxSize` and `getCurrentSize` are in bytes, `getCurrentSize` counting whole segments.
+// - Static state is stored as is, as its encoded form is already compressed.
+class OffHeapStateStore(maxSize: Long) extends XFormsStateStore {
+
+  import DynamicStateDelta._
+  import OffHeapStateStore._
+  import XFormsStateStore.createDynamicStateKey
+
+  private implicit val logger: IndentedLogger = XFormsStateManager.Logger
+
+  private val entries = new ju.LinkedHashMap[String, Entry](16, 0.75f, true) // access order
+  private val arena   = new OffHeapArena(maxSize, SegmentSize, SegmentsPerSlab)
+
+  def storeDocumentState(
+    document       : XFormsContainingDocument,
+    session        : ExternalContext.Session,
+    isInitialState : Boolean
+  ): Unit = {
+
+    assert(document.getStaticState.isServerStateHandling)
+
+    if (! isInitialState)
+      LifecycleLogger.eventAssumingRequest("xforms", "save state", List("uuid" → document.getUUID))
+
+    val documentUUID = document.getUUID
+
+    withDebug("storing document state", List(
+      "document UUID"             → documentUUID,
+      "store size before storing" → getCurrentSize.toString
+    )) {
+      val staticStateDigest = document.getStaticState.digest
+      val dynamicStateKey   = createDynamicStateKey(documentUUID, isInitialState)
+      val sequence          = document.getSequence
+
+      // Serialize and compress outside of the lock
+      val (dynamicStateBytes, checkpointBytesOpt) =
+        dynamicStateToStore(document, isInitialState, isCheckpointStored(documentUUID)) match {
+          case Full(state, isCheckpoint) ⇒
+            val bytes = serializeDynamicState(state)
+            (bytes, isCheckpoint option bytes)
+          case Delta(delta) ⇒
+            (serializeDynamicStateDelta(delta), None)
+        }
+
+      // Don't replace the static state as its value doesn't change for a given digest
+      val staticStateBytes =
+        if (synchronized(entries.containsKey(staticStateDigest)))
+          None
+        else
+          Some(document.getStaticState.encodedState.getBytes(Utf8))
+
+      synchronized {
+        // Mapping (UUID → static state key : dynamic state key
+        put(documentUUID, sequence, (staticStateDigest + ":" + dynamicStateKey).getBytes(Utf8))
+
+        // Static and dynamic states
+        staticStateBytes   foreach (put(staticStateDigest, sequence, _))
+        checkpointBytesOpt foreach (put(createCheckpointKey(documentUUID), sequence, _))
+        put(dynamicStateKey, sequence, dynamicStateBytes)
+      }
+    }
+  }
+
+  def findSequence(documentUUID: String): Option[Long] =
+    synchronized(Option(entries.get(documentUUID))) map (_.sequence)
+
+  def findState(
+    session        : ExternalContext.Session,
+    documentUUID   : String,
+    isInitialState : Boolean
+  ): Option[XFormsState] =
+    LifecycleLogger.withEventAssumingRequest(
+      "xforms",
+      "restore state",
+      List(
+        "uuid" → documentUUID,
+        "backOrReload" → isInitialState.toString
+      )
+    ) {
+
+      debug(s"store size before finding: $getCurrentSize bytes.")
+
+      findBytes(documentUUID) map (new String(_, Utf8)) flatMap { keyString ⇒
+
+        // Found the keys, split into parts
+        val parts = keyString split ':'
+
+        assert(parts.size == 2)
+        assert(parts(0).length == SecureUtils.HexIdLength)   // static state key is an hex hash
+
+        // If isInitialState == true, force finding the initial state. Otherwise, use current state stored in mapping.
+        val dynamicStateKey = if (isInitialState) createDynamicStateKey(documentUUID, isInitialState = true) else parts(1)
+
+        def findDynamicState(key: String) =
+          findBytes(key) map deserialize
+
+        // Return state only if both are found
+        for {
+          staticStateBytes           ← findBytes(parts(0))
+          dynamicStateValue          ← findDynamicState(dynamicStateKey)
+          (dynamicState, checkpoint) ← resolve(dynamicStateValue, findDynamicState(createCheckpointKey(documentUUID)))
+        } yield
+          XFormsState(
+            Some(parts(0)),
+            Some(new String(staticStateBytes, Utf8)),
+            Some(dynamicState),
+            checkpoint
+          )
+      }
+    }
+
+  def removeDynamicState(documentUUID: String): Unit =
+    synchronized {
+      remove(documentUUID)
+      remove(createDynamicStateKey(documentUUID, isInitialState = true))
+      remove(createDynamicStateKey(documentUUID, isInitialState = false))
+      remove(createCheckpointKey(documentUUID))
+    }
+
+  def getMaxSize     : Long = maxSize
+  def getCurrentSize : Long = synchronized(arena.usedBytes)
+
+  // Getting the checkpoint also makes it the most recently used entry, so it is evicted after the delta
+  private def isCheckpointStored(documentUUID: String): Boolean =
+    synchronized(entries.get(createCheckpointKey(documentUUID)) ne null)
+
+  // Copy bytes back into the heap, while holding the lock as the segments can be reused once the entry is removed
+  private def findBytes(key: String): Option[Array[Byte]] =
+    synchronized {
+      Option(entries.get(key)) map (entry ⇒ arena.read(entry.segments, entry.length))
+    }
+
+  // Must be called while holding the lock
+  //
+  // A value which doesn't fit in the whole arena is not stored.
+  private def put(key: String, sequence: Long, bytes: Array[Byte]): Unit = {
+
+    remove(key)
+
+    if (arena.segmentCount(bytes.length) > arena.maxSegments)
+      debug("state too large for state store", List("key" → key, "size" → bytes.length.toString))
+    else {
+      evictUntilFree(arena.segmentCount(bytes.length))
+      arena.write(bytes) foreach { segments ⇒
+        entries.put(key, Entry(sequence, segments, bytes.length))
+      }
+    }
+  }
+
+  // Must be called while holding the lock
+  private def remove(key: String): Unit =
+    Option(entries.remove(key)) foreach { entry ⇒
+      arena.free(entry.segments)
+    }
+
+  // Must be called while holding the lock
+  private def evictUntilFree(segmentCount: Int): Unit =
+    if (arena.freeSegmentCount < segmentCount) {
+      var evicted = 0
+      while (arena.freeSegmentCount < segmentCount && ! entries.isEmpty) {
+        evict(entries.keySet.iterator.next()) // least recently used
+        evicted += 1
+      }
+      debug("evicted entries from state store", List("count" → evicted.toString, "size" → arena.usedBytes.toString))
+    }
+
+  // Must be called while holding the lock
+  //
+  // A delta is useless without its checkpoint, so when a checkpoint is evicted, the document's current state is evicted
+  // with it.
+  private def evict(key: String): Unit = {
+    remove(key)
+    if (isCheckpointKey(key))
+      remove(createDynamicStateKey(documentUUIDFromCheckpointKey(key), isInitialState = false))
+  }
+
+  def evictForTests(key: String): Unit =
+    synchronized(evict(key))
+}
+
+object OffHeapStateStore {
+
+  private val Utf8 = "UTF-8"
+  private case class Entry(sequence: Long, segments: Array[Int], length: Int)
+
+  // Small entries, like the mapping from a document UUID to its keys, take a whole segment
+  private val SegmentSize     = 1024
+  private val SegmentsPerSlab = 1024
+
+  // The first byte of stored dynamic state bytes tells whether the rest is a full state or a delta, and the second
+  // byte whether the rest is compressed. Compressed bytes identify their codec.
+  private val FullTag : Byte = 0
+  private val DeltaTag: Byte = 1
+
+  private def serializeDynamicState(state: DynamicState) =
+    FullTag +: compressIfNeeded(toByteArray(state))
+
+  private def serializeDynamicStateDelta(delta: DynamicStateDelta) =
+    DeltaTag +: compressIfNeeded(toByteArray(delta))
+
+  private def compressIfNeeded(bytes: Array[Byte]): Array[Byte] =
+    Option(XFormsProperties.getCompressionCodec(XFormsProperties.COMPRESSION_DYNAMIC_STATE)) match {
+      case Some(codec) ⇒ 1.toByte +: Compressor.compressBytes(bytes, codec)
+      case None        ⇒ 0.toByte +: bytes
+    }
+
+  private def deserialize(bytes: Array[Byte]): AnyRef = {
+
+    val payload = bytes.drop(2)
+    val uncompressed = if (bytes(1) == 1) Compressor.uncompressBytes(payload) else payload
+
+    bytes.head match {
+      case FullTag  ⇒ fromByteArray[DynamicState](uncompressed)
+      case DeltaTag ⇒ fromByteArray[DynamicStateDelta](uncompressed)
+    }
+  }
+}
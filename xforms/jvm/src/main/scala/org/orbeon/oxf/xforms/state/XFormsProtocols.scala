@@ -14,15 +14,13 @@
 package org.orbeon.oxf.xforms.state
 
 import java.io._
-import javax.xml.transform.OutputKeys
-import javax.xml.transform.stream.StreamResult
 
 import org.orbeon.dom.{Document, Namespace, QName}
 import org.orbeon.oxf.util.URLRewriterUtils.PathMatcher
 import org.orbeon.oxf.util.WhitelistObjectInputStream
 import org.orbeon.oxf.xforms.model.InstanceCaching
-import org.orbeon.oxf.xml.dom4j.LocationDocumentSource
-import org.orbeon.oxf.xml.{SAXStore, TransformerUtils}
+import org.orbeon.oxf.xml.{CompactSAXStore, SAXStore}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import sbinary.Operations._
 import sbinary._
 
@@ -64,15 +62,80 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
   implicit object DynamicStateFormat extends SerializableFormat[DynamicState] { def allowedClass = classOf[DynamicState] }
   implicit object SAXStoreFormat     extends SerializableFormat[SAXStore]     { def allowedClass = classOf[SAXStore]     }
 
-  implicit object Dom4jFormat extends Format[Document] {
-    def writes(output: Output, document: Document) = {
-      val identity = TransformerUtils.getXMLIdentityTransformer
-      identity.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")
-      identity.transform(new LocationDocumentSource(document), new StreamResult(new JavaOutputStream(output)))
+  implicit object CompactSAXStoreFormat extends Format[CompactSAXStore] {
+
+    def writes(output: Output, saxStore: CompactSAXStore) = {
+      val bytes = saxStore.toByteArray
+      write(output, bytes.length)
+      output.writeAll(bytes)
     }
 
-    def reads(input: Input) =
-      TransformerUtils.readDom4j(new JavaInputStream(input), null, false, false)
+    def reads(input: Input) = {
+      val bytes = new Array[Byte](read[Int](input))
+      input.readFully(bytes)
+      CompactSAXStore.fromByteArray(bytes)
+    }
+  }
+
+  implicit object InstancePartFormat extends Format[DynamicStateDelta.InstancePart] {
+
+    import DynamicStateDelta._
+
+    def writes(output: Output, part: InstancePart) = part match {
+      case CheckpointSlice(effectiveId, offset, length) ⇒
+        write[Byte](output, 0)
+        write(output, effectiveId)
+        write(output, offset)
+        write(output, length)
+      case ChangedInstance(bytes) ⇒
+        write[Byte](output, 1)
+        write(output, bytes.length)
+        output.writeAll(bytes.toArray)
+    }
+
+    def reads(in: Input) = read[Byte](in) match {
+      case 0 ⇒
+        CheckpointSlice(read[String](in), read[Int](in), read[Int](in))
+      case 1 ⇒
+        val bytes = new Array[Byte](read[Int](in))
+        in.readFully(bytes)
+        ChangedInstance(bytes.toSeq)
+    }
+  }
+
+  implicit object ControlChangesFormat extends Format[DynamicStateDelta.ControlChanges] {
+
+    def writes(output: Output, changes: DynamicStateDelta.ControlChanges) = {
+      write(output, changes.changed)
+      write(output, changes.removedIds)
+    }
+
+    def reads(in: Input) =
+      DynamicStateDelta.ControlChanges(read[List[ControlState]](in), read[Set[String]](in))
+  }
+
+  implicit object DynamicStateDeltaFormat extends Format[DynamicStateDelta] {
+
+    def writes(output: Output, delta: DynamicStateDelta) = {
+      write(output, delta.checkpointSequence)
+      write(output, delta.unchangedParts)
+      write(output, delta.instanceParts)
+      write(output, delta.controlChanges)
+      write(output, delta.state)
+    }
+
+    def reads(in: Input) = {
+      val checkpointSequence = read[Long](in)
+      val unchangedParts     = read[Set[String]](in)
+      val instanceParts      = read[Option[List[DynamicStateDelta.InstancePart]]](in)
+      val controlChanges     = read[Option[DynamicStateDelta.ControlChanges]](in)
+      DynamicStateDelta(checkpointSequence, read[DynamicState](in), unchangedParts, instanceParts, controlChanges)
+    }
+  }
+
+  implicit object Dom4jFormat extends Format[Document] {
+    def writes(output: Output, document: Document) = CompactXML.write(output, document)
+    def reads(input: Input)                        = CompactXML.read(input)
   }
 
   implicit object ControlFormat extends Format[ControlState] {
@@ -112,7 +175,7 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
       write(output, instance.modelEffectiveId)
       instance.cachingOrContent match {
         case Left(caching)  ⇒ write[Byte](output, 0); write(output, caching)
-        case Right(content) ⇒ write[Byte](output, 1); write(output, content)
+        case Right(content) ⇒ write[Byte](output, 2); write(output, content)
       }
       write(output, instance.readonly)
       write(output, instance.modified)
@@ -123,7 +186,8 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
 
       def readCachingOrContent = read[Byte](in) match {
         case 0 ⇒ Left(read[InstanceCaching](in))
-        case 1 ⇒ Right(read[String](in))
+        case 1 ⇒ Right(Dom4jUtils.readDom4j(read[String](in))) // content stored as XML by older versions
+        case 2 ⇒ Right(read[Document](in))
       }
 
       InstanceState(
@@ -36,6 +36,7 @@ object XFormsStateManager extends XFormsStateLifecycle {
   import Private._
 
   private val ReplicationEnabled = XFormsProperties.isReplication
+  private def StateStore         = XFormsStateStore.instance
 
   if (ReplicationEnabled)
      Version.instance.requirePEFeature("State replication")
@@ -50,7 +51,7 @@ object XFormsStateManager extends XFormsStateLifecycle {
   def sessionDestroyed(session: ExternalContext.Session): Unit = {
     XFormsStateManager.getOrCreateUuidListInSession(session).iterator.asScala foreach { uuid ⇒
       XFormsDocumentCache.remove(uuid)
-      EhcacheStateStore.removeDynamicState(uuid)
+      StateStore.removeDynamicState(uuid)
     }
   }
 
@@ -217,7 +218,7 @@ object XFormsStateManager extends XFormsStateLifecycle {
         // we can't know that the property is set to false before trying.
 
         def newerSequenceNumberInStore(cachedDocument: XFormsContainingDocument) =
-          ReplicationEnabled && (EhcacheStateStore.findSequence(parameters.uuid) exists (_ > cachedDocument.getSequence))
+          ReplicationEnabled && (StateStore.findSequence(parameters.uuid) exists (_ > cachedDocument.getSequence))
 
         XFormsDocumentCache.take(parameters.uuid) match {
           case Some(cachedDocument) if newerSequenceNumberInStore(cachedDocument)  ⇒
@@ -359,12 +360,12 @@ object XFormsStateManager extends XFormsStateLifecycle {
                 LogType,
                 "Getting document state from store.",
                 "current cache size", XFormsDocumentCache.getCurrentSize.toString,
-                "current store size", EhcacheStateStore.getCurrentSize.toString,
-                "max store size", EhcacheStateStore.getMaxSize.toString
+                "current store size", StateStore.getCurrentSize.toString,
+                "max store size", StateStore.getMaxSize.toString
               )
 
             val session = externalContext.getRequest.getSession(ForceSessionCreation)
-            EhcacheStateStore.findState(session, parameters.uuid, isInitialState) getOrElse {
+            StateStore.findState(session, parameters.uuid, isInitialState) getOrElse {
               // 2014-11-12: This means that 1. We had a valid incoming session and 2. we obtained a lock on the
               // document, yet we didn't find it. This means that somehow state was not placed into or expired from
               // the state store.
@@ -385,6 +386,9 @@ object XFormsStateManager extends XFormsStateLifecycle {
             document.getStaticState.isClientStateHandling
         }
 
+      // Compute subsequent deltas against the checkpoint the state was restored against
+      xformsState.checkpoint foreach (DynamicStateDelta.restoreCheckpoint(documentFromStore, _))
+
       // Dispatch event to root control. We should be able to dispatch an event to the document no? But this is not
       // possible right now.
       documentFromStore.getControls.getCurrentControlTree.rootOpt foreach { rootContainerControl ⇒
@@ -403,7 +407,7 @@ object XFormsStateManager extends XFormsStateLifecycle {
 
     def storeDocumentState(containingDocument: XFormsContainingDocument, isInitialState: Boolean): Unit = {
       require(containingDocument.getStaticState.isServerStateHandling)
-      EhcacheStateStore.storeDocumentState(
+      StateStore.storeDocumentState(
         containingDocument,
         NetUtils.getExternalContext.getRequest.getSession(ForceSessionCreation),
         isInitialState
@@ -0,0 +1,57 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.externalcontext.ExternalContext
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsProperties}
+
+// Store for the state of documents using server-side state handling
+trait XFormsStateStore {
+
+  def storeDocumentState(
+    document       : XFormsContainingDocument,
+    session        : ExternalContext.Session,
+    isInitialState : Boolean
+  ): Unit
+
+  def findSequence(documentUUID: String): Option[Long]
+
+  def findState(
+    session        : ExternalContext.Session,
+    documentUUID   : String,
+    isInitialState : Boolean
+  ): Option[XFormsState]
+
+  // NOTE: Implementations must not remove the static state as it might be in use by other form sessions.
+  def removeDynamicState(documentUUID: String): Unit
+
+  // Size information for logging, in a unit which depends on the implementation
+  def getMaxSize     : Long
+  def getCurrentSize : Long
+}
+
+object XFormsStateStore {
+
+  // Store selected with the `oxf.xforms.state-store` property
+  lazy val instance: XFormsStateStore =
+    XFormsProperties.getStateStore match {
+      case "ehcache"  ⇒ EhcacheStateStore
+      case "off-heap" ⇒ new OffHeapStateStore(XFormsProperties.getStateStoreOffHeapMaxSize)
+      case other      ⇒ throw new OXFException(s"invalid value for `${XFormsProperties.STATE_STORE_PROPERTY}`: `$other`")
+    }
+
+  def createDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
+    documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
+}
@@ -13,9 +13,31 @@
  */
 package org.orbeon.oxf.xforms.state
 
+import java.io._
+import java.util.concurrent._
+
 import org.orbeon.oxf.cache._
-import org.orbeon.oxf.xforms.XFormsStaticState
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.Logging._
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.xforms.{Loggers, XFormsStaticState, XFormsStaticStateImpl}
+
+import scala.util.control.NonFatal
 
+/**
+ * Cache of analyzed static states by digest.
+ *
+ * With `oxf.xforms.cache.static-state.persistent.directory`, static states are also written to that directory, so
+ * that they survive restarts. Files are written on a background thread. `findDocumentOrRestore()` restores a static
+ * state from the directory on a miss in memory, for example after a restart. When the digest is known up front, this
+ * avoids the XForms extraction and XBL processing. Otherwise, the digest is computed by the extraction, and restoring
+ * only avoids creating and encoding the static state again. In both cases, the static state is analyzed again.
+ *
+ * With `oxf.xforms.cache.static-state.persistent.warm-up`, `warmUp()` restores that many static states which were
+ * most recently used, so that first requests after a restart don't have to wait for them.
+ */
 object XFormsStaticStateCache {
 
   import Private._
@@ -25,16 +47,73 @@ object XFormsStaticStateCache {
     def staticStateStatus(found: Boolean, digest: String)
   }
 
-  def storeDocument(staticState: XFormsStaticState): Unit =
+  def storeDocument(staticState: XFormsStaticState): Unit = {
     cache.add(createCacheKey(staticState.digest), ConstantValidity, staticState)
+    persistentDirectory foreach { directory ⇒
+      storeExecutor.execute(new Runnable {
+        def run() = storePersistent(directory, staticState)
+      })
+    }
+  }
 
   def getDocumentJava(digest: String) =
     findDocument(digest).orNull
 
-  def findDocument(digest: String) =
-    Option(cache.findValid(createCacheKey(digest), ConstantValidity).asInstanceOf[XFormsStaticState])
+  def getDocumentOrRestoreJava(digest: String) =
+    findDocumentOrRestore(digest).orNull
+
+  // Find a static state in memory only
+  def findDocument(digest: String) = {
+    val found = Option(cache.findValid(createCacheKey(digest), ConstantValidity).asInstanceOf[XFormsStaticState])
+    if (found.isDefined)
+      persistentDirectory foreach (touchPersistent(_, digest))
+    found
+  }
+
+  // Find a static state in memory, or else restore it from the persistent directory
+  def findDocumentOrRestore(digest: String) =
+    findDocument(digest) orElse {
+      persistentDirectory flatMap (findPersistent(_, digest)) map { staticState ⇒
+        cache.add(createCacheKey(digest), ConstantValidity, staticState)
+        staticState
+      }
+    }
+
+  // Restore the most recently used static states from the persistent directory into memory
+  def warmUp(): Unit =
+    persistentDirectory foreach { directory ⇒
+
+      val count = Properties.instance.getPropertySet.getInteger(WarmUpProperty, 0).intValue
+
+      if (count > 0) {
+        val files =
+          Option(directory.listFiles) getOrElse Array.empty[File] filter
+            (_.getName.endsWith(FileExtension)) sortBy (- _.lastModified) take count
+
+        withDebug("warming up static state cache", List("count" → files.length.toString)) {
+          for (file ← files) {
+            val digest = file.getName.substring(0, file.getName.length - FileExtension.length)
+            if (cache.findValid(createCacheKey(digest), ConstantValidity) eq null)
+              findPersistent(directory, digest) foreach { staticState ⇒
+                cache.add(createCacheKey(digest), ConstantValidity, staticState)
+              }
+          }
+        }
+      }
+    }
 
-  private object Private {
+  // Stop writing static states to the persistent directory, pending writes are dropped
+  def shutdown(): Unit =
+    storeExecutor.shutdownNow()
+
+  // For tests, which can't change the property
+  @volatile private[oxf] var persistentDirectoryForTests: Option[File] = None
+
+  // For tests, to simulate a restart
+  private[oxf] def removeAllFromMemoryForTests(): Unit =
+    cache.removeAll()
+
+  private[state] object Private {
 
     def createCacheKey(digest: String) =
       new InternalCacheKey(ContainingDocumentKeyType, digest ensuring (_ ne null))
@@ -44,6 +123,124 @@ object XFormsStaticStateCache {
     val ConstantValidity               = 0L
     val ContainingDocumentKeyType      = XFormsDocumentCache
 
+    val DirectoryProperty              = "oxf.xforms.cache.static-state.persistent.directory"
+    val WarmUpProperty                 = "oxf.xforms.cache.static-state.persistent.warm-up"
+
+    // Increment when the file format changes, files with another format are ignored
+    val FormatVersion                  = 1
+    val FileExtension                  = ".static-state"
+
+    // Minimum time between updates of the last modification time of a file, used to order files for warm-up
+    val TouchInterval                  = 60 * 1000L
+
+    // Writes beyond that are dropped: the static state is written again the next time it is created
+    val MaxPendingStores               = 100
+
     val cache = ObjectCache.instance(XFormsDocumentCache, XFormsDocumentCacheDefaultSize)
+
+    implicit def logger = Loggers.getIndentedLogger("state")
+
+    private val lastTouched = new ConcurrentHashMap[String, java.lang.Long]
+
+    val storeExecutor =
+      new ThreadPoolExecutor(
+        1,
+        1,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue[Runnable](MaxPendingStores),
+        new ThreadFactory {
+          def newThread(runnable: Runnable) = {
+            val thread = new Thread(runnable, "orbeon-static-state-store")
+            thread.setDaemon(true)
+            thread
+          }
+        },
+        new ThreadPoolExecutor.DiscardPolicy
+      )
+
+    def persistentDirectory: Option[File] =
+      persistentDirectoryForTests orElse
+        (Option(Properties.instance.getPropertySet.getString(DirectoryProperty)) flatMap (_.trimAllToOpt) map (new File(_)))
+
+    def persistentFile(directory: File, digest: String) =
+      new File(directory, digest + FileExtension)
+
+    // Write to a temporary file first so that readers never see a partial file
+    def storePersistent(directory: File, staticState: XFormsStaticState): Unit =
+      try {
+        directory.mkdirs()
+
+        val file    = persistentFile(directory, staticState.digest)
+        val tmpFile = File.createTempFile(staticState.digest, ".tmp", directory)
+
+        try {
+          useAndClose(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) { os ⇒
+            os.writeInt(FormatVersion)
+            os.writeUTF(Version.VersionNumber)
+            os.writeUTF(staticState.digest)
+
+            val encodedStateBytes = staticState.encodedState.getBytes("UTF-8")
+            os.writeInt(encodedStateBytes.length)
+            os.write(encodedStateBytes)
+          }
+
+          file.delete()
+          if (! tmpFile.renameTo(file))
+            warn("unable to store static state", List("file" → file.getAbsolutePath))
+        } finally
+          tmpFile.delete()
+      } catch {
+        case NonFatal(t) ⇒
+          warn("unable to store static state", List("digest" → staticState.digest, "throwable" → t.toString))
+      }
+
+    // Return `None` if the file is missing or can't be used, in which case the caller creates the static state
+    def findPersistent(directory: File, digest: String): Option[XFormsStaticState] = {
+
+      val file = persistentFile(directory, digest)
+
+      def readEncodedState: Option[String] =
+        useAndClose(new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) { is ⇒
+          if (is.readInt() == FormatVersion && is.readUTF() == Version.VersionNumber && is.readUTF() == digest) {
+            val encodedStateBytes = new Array[Byte](is.readInt())
+            is.readFully(encodedStateBytes)
+            Some(new String(encodedStateBytes, "UTF-8"))
+          } else
+            None
+        }
+
+      if (file.isFile)
+        try {
+          readEncodedState match {
+            case Some(encodedState) ⇒
+              withDebug("restoring static state from persistent cache", List("digest" → digest)) {
+                val staticState = XFormsStaticStateImpl.restore(Some(digest), encodedState, forceEncryption = false)
+                touchPersistent(directory, digest)
+                Some(staticState)
+              }
+            case None ⇒
+              // Written by another version
+              file.delete()
+              None
+          }
+        } catch {
+          case NonFatal(t) ⇒
+            warn("unable to restore static state", List("digest" → digest, "throwable" → t.toString))
+            file.delete()
+            None
+        }
+      else
+        None
+    }
+
+    def touchPersistent(directory: File, digest: String): Unit = {
+      val now      = System.currentTimeMillis
+      val previous = lastTouched.get(digest)
+      if ((previous eq null) || now - previous > TouchInterval) {
+        lastTouched.put(digest, now)
+        persistentFile(directory, digest).setLastModified(now)
+      }
+    }
   }
 }
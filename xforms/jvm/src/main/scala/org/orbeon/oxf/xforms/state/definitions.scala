@@ -21,7 +21,8 @@ import org.orbeon.oxf.xforms.XFormsContainingDocument
 case class XFormsState(
   staticStateDigest : Option[String],
   staticState       : Option[String],
-  dynamicState      : Option[DynamicState]
+  dynamicState      : Option[DynamicState],
+  checkpoint        : Option[DynamicStateDelta.RestoredCheckpoint] = None // checkpoint the dynamic state was restored against, if any
 ) {
   override def toString = s"XFormsState($staticState, $dynamicState)"
 }
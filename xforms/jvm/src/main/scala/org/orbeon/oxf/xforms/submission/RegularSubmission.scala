@@ -20,7 +20,9 @@ import java.util.concurrent.Callable
 
 import org.orbeon.oxf.http.Headers.{ContentType, firstHeaderIgnoreCase}
 import org.orbeon.oxf.http.StreamedContent
+import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.{Connection, ConnectionResult}
+import org.orbeon.oxf.xml.XMLContentInputStream
 
 /**
   * Regular remote submission going through a protocol handler.
@@ -56,11 +58,19 @@ class RegularSubmission(submission: XFormsModelSubmission) extends BaseSubmissio
 
     val submissionEffectiveId = submission.getEffectiveId
 
-    val messageBody: Option[Array[Byte]] =
-      if (Connection.requiresRequestBody(p.httpMethod)) Option(sp.messageBody) orElse Some(Array()) else None
+    val content =
+      Connection.requiresRequestBody(p.httpMethod) option {
 
-    val content = messageBody map
-      (StreamedContent.fromBytes(_, firstHeaderIgnoreCase(headers, ContentType)))
+        val contentType = firstHeaderIgnoreCase(headers, ContentType)
+
+        sp.xmlMessageBodyOpt filter (_ ⇒ Connection.findInternalURL(absoluteResolvedURL.toString).isDefined) match {
+          case Some(document) ⇒
+            // In-process service: hand over the XML without serializing it
+            StreamedContent(XMLContentInputStream(document), contentType, None, None)
+          case None ⇒
+            StreamedContent.fromBytes(Option(sp.messageBody) getOrElse Array.emptyByteArray, contentType)
+        }
+      }
 
     // Prepare Connection in this thread as async submission can't access the request object
     val connection =
@@ -27,14 +27,37 @@ import org.orbeon.oxf.xforms.XFormsUtils
 import org.orbeon.oxf.xforms.model.InstanceData
 import org.orbeon.oxf.xml.{TransformerUtils, XMLConstants}
 
-case class SerializationParameters(
-  messageBody            : Array[Byte],
-  queryString            : String,
-  actualRequestMediatype : String
-)
+// Serialized request body and query string of a submission
+//
+// With a plain XML serialization, `xmlMessageBodyOpt` holds the document to submit, which an in-process service can
+// read without parsing it, see `XMLContentInputStream`. `messageBody` is then only serialized if the bytes are needed.
+class SerializationParameters private (
+  serializeMessageBody       : () ⇒ Array[Byte],
+  val queryString            : String,
+  val actualRequestMediatype : String,
+  val xmlMessageBodyOpt      : Option[Document]
+) {
+  lazy val messageBody: Array[Byte] = serializeMessageBody()
+}
 
 object SerializationParameters {
 
+  def apply(
+    messageBody            : Array[Byte],
+    queryString            : String,
+    actualRequestMediatype : String
+  ): SerializationParameters =
+    new SerializationParameters(() ⇒ messageBody, queryString, actualRequestMediatype, None)
+
+  // Output properties of the XML serialization which don't change the XML content, so that it doesn't matter whether
+  // the content is serialized by the submission or by `XMLContentInputStream`
+  private def isPlainXMLSerialization(p2: SecondPassParameters) =
+    p2.versionOpt.isEmpty                     &&
+    p2.encoding.equalsIgnoreCase("utf-8")     &&
+    ! p2.omitXmlDeclaration                   &&
+    p2.standaloneOpt.isEmpty                  &&
+    ! p2.indent
+
   def apply(
     submission               : XFormsModelSubmission,
     p                        : SubmissionParameters,
@@ -80,40 +103,52 @@ object SerializationParameters {
             )
           }
         case serialization @ "application/xml" ⇒
-          try {
-            val identity = TransformerUtils.getIdentityTransformer
-            TransformerUtils.applyOutputProperties(
-              identity,
-              "xml",
-              p2.versionOpt.orNull,
-              null,
-              null,
-              p2.encoding,
-              p2.omitXmlDeclaration,
-              p2.standaloneOpt map java.lang.Boolean.valueOf orNull,
-              p2.indent,
-              4
-            )
 
-            // TODO: use cdata-section-elements
+          def serialize() =
+            try {
+              val identity = TransformerUtils.getIdentityTransformer
+              TransformerUtils.applyOutputProperties(
+                identity,
+                "xml",
+                p2.versionOpt.orNull,
+                null,
+                null,
+                p2.encoding,
+                p2.omitXmlDeclaration,
+                p2.standaloneOpt map java.lang.Boolean.valueOf orNull,
+                p2.indent,
+                4
+              )
 
-            val os = new ByteArrayOutputStream
-            identity.transform(new DocumentSource(documentToSubmit), new StreamResult(os))
+              // TODO: use cdata-section-elements
 
+              val os = new ByteArrayOutputStream
+              identity.transform(new DocumentSource(documentToSubmit), new StreamResult(os))
+              os.toByteArray
+            } catch {
+              case e: Exception ⇒
+                throw new XFormsSubmissionException(
+                  submission,
+                  e,
+                  "xf:submission: exception while serializing instance to XML.",
+                  "serializing instance"
+                )
+            }
+
+          // The document to submit is a copy, so it doesn't change while the submission reads it
+          if (isPlainXMLSerialization(p2))
+            new SerializationParameters(
+              serializeMessageBody   = serialize _,
+              queryString            = null,
+              actualRequestMediatype = actualRequestMediatype(serialization),
+              xmlMessageBodyOpt      = Some(documentToSubmit)
+            )
+          else
             SerializationParameters(
-                messageBody            = os.toByteArray,
-                queryString            = null,
-                actualRequestMediatype = actualRequestMediatype(serialization)
-              )
-          } catch {
-            case e: Exception ⇒
-              throw new XFormsSubmissionException(
-                submission,
-                e,
-                "xf:submission: exception while serializing instance to XML.",
-                "serializing instance"
-              )
-          }
+              messageBody            = serialize(),
+              queryString            = null,
+              actualRequestMediatype = actualRequestMediatype(serialization)
+            )
         case serialization @ "application/json" ⇒
 
           val result = Converter.xmlToJsonString(
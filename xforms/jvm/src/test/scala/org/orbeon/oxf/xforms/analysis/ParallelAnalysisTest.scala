@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import java.io.ByteArrayOutputStream
+
+import org.junit.{Assume, Test}
+import org.orbeon.dom.Document
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.processor.ProcessorUtils
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.util.XPath.CompiledExpression
+import org.orbeon.oxf.xforms.XFormsStaticStateImpl
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.trace.ExpressionPresenter
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable
+
+class ParallelAnalysisTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  case class Analysis(encodedState: String, analysis: String, expressions: List[String], precompiledCount: Int)
+
+  // Create the static state of the document, compiling expressions ahead of time with the given number of threads
+  def analyze(createDocument: () ⇒ Document, threads: Int): Analysis = {
+
+    val compiledExpressions = mutable.Buffer[CompiledExpression]()
+
+    XPathPrecompiler.threadsForTests = Some(threads)
+    try {
+      val staticState =
+        PartAnalysisImpl.compiledExpressionsForTests.withValue(Some(compiledExpressions)) {
+          XFormsStaticStateImpl.createFromDocument(createDocument())._2.asInstanceOf[XFormsStaticStateImpl]
+        }
+
+      Analysis(
+        staticState.encodedState,
+        Dom4jUtils.domToString(Dom4jUtils.createDocument(staticState.topLevelPart)),
+        compiledExpressions.toList map explain,
+        staticState.topLevelPart.precompiledCount
+      )
+    } finally
+      XPathPrecompiler.threadsForTests = None
+  }
+
+  // Expression string and Saxon's description of the compiled expression
+  def explain(expression: CompiledExpression) = {
+    val out = new ByteArrayOutputStream
+    val presenter = new ExpressionPresenter(XPath.GlobalConfiguration, out)
+    expression.expression.getInternalExpression.explain(presenter)
+    presenter.close()
+    expression.string + " → " + out.toString("utf-8")
+  }
+
+  def assertSameAnalysis(createDocument: () ⇒ Document): Unit = {
+
+    val serial   = analyze(createDocument, threads = 0)
+    val parallel = analyze(createDocument, threads = 4)
+
+    assert(serial.precompiledCount === 0)
+    assert(parallel.precompiledCount > 0)
+
+    assert(parallel.encodedState === serial.encodedState)
+    assert(parallel.analysis     === serial.analysis)
+    assert(parallel.expressions  === serial.expressions)
+  }
+
+  // Form with binds, variables, a repeat, an XBL component and AVTs, including in the component's shadow tree
+  def componentAndAVTs: Document =
+    <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+             xmlns:xh="http://www.w3.org/1999/xhtml"
+             xmlns:xxf="http://orbeon.org/oxf/xml/xforms"
+             xmlns:xbl="http://www.w3.org/ns/xbl"
+             xmlns:xxbl="http://orbeon.org/oxf/xml/xbl"
+             xmlns:xs="http://www.w3.org/2001/XMLSchema"
+             xmlns:fr="http://orbeon.org/oxf/xml/form-runner">
+      <xh:head>
+        <xf:model id="model" xxf:xpath-analysis="true">
+          <xf:instance id="instance">
+            <form>
+              <name>Arthur</name>
+              <age>42</age>
+              <items>
+                <item price="10" units="2"/>
+                <item price="5" units="3"/>
+              </items>
+              <total/>
+            </form>
+          </xf:instance>
+          <xf:bind ref="age" type="xs:integer" constraint=". ge 0" required="true()"/>
+          <xf:bind ref="items/item" relevant="@units gt 0">
+            <xf:bind ref="@price" readonly="../@units = 0"/>
+          </xf:bind>
+          <xf:bind ref="total" calculate="sum(../items/item/(@price * @units))" readonly="true()"/>
+          <xf:var name="count" value="count(items/item)"/>
+        </xf:model>
+        <xbl:xbl>
+          <xbl:binding id="fr-greeting" element="fr|greeting" xxbl:mode="binding">
+            <xbl:template>
+              <xf:var name="binding" value="xxf:binding('fr-greeting')"/>
+              <xf:output value="concat('Hello, ', $binding)"/>
+              <xh:span class="{if (string-length($binding) gt 3) then 'long' else 'short'}"/>
+            </xbl:template>
+          </xbl:binding>
+        </xbl:xbl>
+      </xh:head>
+      <xh:body>
+        <fr:greeting id="greeting" ref="name"/>
+        <xf:input id="age" ref="age">
+          <xf:label value="concat('Age of ', ../name)"/>
+        </xf:input>
+        <xf:repeat id="items" ref="items/item">
+          <xf:output value="@price * @units"/>
+          <xh:div class="item-{position()} {if (@units gt 2) then 'many' else 'few'}"/>
+        </xf:repeat>
+        <xf:output id="total" ref="total"/>
+        <xh:a href="/items/{count(items/item)}?total={total}">Items</xh:a>
+      </xh:body>
+    </xh:html>
+
+  @Test def sameAnalysisWithComponentAndAVTs(): Unit = {
+    Assume.assumeTrue(Version.isPE) // XPath analysis is only available in PE
+    assertSameAnalysis(() ⇒ componentAndAVTs)
+  }
+
+  @Test def sameAnalysisWithBindsAndRepeats(): Unit = {
+    Assume.assumeTrue(Version.isPE)
+    for (url ← List("oxf:/org/orbeon/oxf/xforms/analysis/mips.xhtml", "oxf:/org/orbeon/oxf/xforms/analysis/form.xhtml"))
+      assertSameAnalysis(() ⇒ ProcessorUtils.createDocumentFromURL(url, null))
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.junit._
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.xml.Elem
+
+// Incremental revalidation must find the bind nodes whose validity depends on changed nodes
+class ValidationDependenciesTest extends DocumentTestBase with AssertionsForJUnit {
+
+  def form(binds: Elem*) =
+    <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+         xmlns:xf="http://www.w3.org/2002/xforms"
+         xmlns:xs="http://www.w3.org/2001/XMLSchema"
+         xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model id="model" xxf:encrypt-item-values="false" xxf:xpath-analysis="true">
+          <xf:instance id="instance">
+            <form>
+              <flag>true</flag>
+              <value/>
+              <other/>
+            </form>
+          </xf:instance>
+          {binds}
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:input id="flag-input"  ref="flag"/>
+        <xf:input id="value-input" ref="value"/>
+        <xf:input id="other-input" ref="other"/>
+        <xf:output id="instance-valid" value="xxf:valid(instance('instance'), true())"/>
+      </xh:body>
+    </xh:html>
+
+  @Test def requiredAndConstraintOnSameBind(): Unit = {
+    Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+    this setupDocument form(
+      <xf:bind ref="value" required="../flag = 'true'" constraint="string-length(.) lt 5"/>
+    )
+
+    assert(! isValid("value-input"))
+    assert(getControlValue("instance-valid") === "false")
+
+    // Requiredness changes through another node
+    setControlValue("flag-input", "false")
+    assert(isValid("value-input"))
+    assert(getControlValue("instance-valid") === "true")
+
+    // Constraint changes through the node itself
+    setControlValue("value-input", "too long")
+    assert(! isValid("value-input"))
+    assert(getControlValue("instance-valid") === "false")
+
+    setControlValue("value-input", "ok")
+    assert(isValid("value-input"))
+
+    // Changes elsewhere don't make a difference
+    setControlValue("other-input", "anything")
+    assert(isValid("value-input"))
+    assert(getControlValue("instance-valid") === "true")
+
+    setControlValue("flag-input", "true")
+    setControlValue("value-input", "")
+    assert(! isValid("value-input"))
+    assert(getControlValue("instance-valid") === "false")
+  }
+
+  @Test def requiredFromAnotherBind(): Unit = {
+    Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+    // The bind with the type also computes the required validity of the node, which the other bind makes required
+    this setupDocument form(
+      <xf:bind ref="value" type="xs:string"/>,
+      <xf:bind ref="value" required="../flag = 'true'"/>
+    )
+
+    assert(! isValid("value-input"))
+    assert(getControlValue("instance-valid") === "false")
+
+    setControlValue("flag-input", "false")
+    assert(isValid("value-input"))
+    assert(getControlValue("instance-valid") === "true")
+
+    setControlValue("flag-input", "true")
+    assert(! isValid("value-input"))
+    assert(getControlValue("instance-valid") === "false")
+
+    setControlValue("value-input", "filled")
+    assert(isValid("value-input"))
+    assert(getControlValue("instance-valid") === "true")
+  }
+}
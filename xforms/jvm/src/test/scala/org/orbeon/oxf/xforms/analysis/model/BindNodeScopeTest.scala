@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import org.orbeon.oxf.test.ResourceManagerSupport
+import org.orbeon.oxf.util.{IndentedLogger, LoggerFactory, XPath}
+import org.orbeon.oxf.xforms.XFormsStaticStateImpl
+import org.orbeon.oxf.xforms.library.XFormsFunctionLibrary
+import org.scalatest.FunSpecLike
+
+class BindNodeScopeTest extends ResourceManagerSupport with FunSpecLike {
+
+  implicit val Logger = new IndentedLogger(LoggerFactory.createLogger(classOf[BindNodeScopeTest]), true)
+
+  def depth(expression: String) =
+    BindNodeScope.depth(
+      XPath.compileExpression(
+        xpathString      = XPath.makeStringExpression(expression),
+        namespaceMapping = XFormsStaticStateImpl.BASIC_NAMESPACE_MAPPING,
+        locationData     = null,
+        functionLibrary  = XFormsFunctionLibrary,
+        avt              = false
+      ).expression.getInternalExpression
+    )
+
+  describe("The `depth()` function") {
+
+    val Expected = List(
+      "."                                       → Some(0),
+      "@price * units"                          → Some(0),
+      "../price * ../units"                     → Some(1),
+      "sum(../../line/total)"                   → Some(2),
+      "for $l in ../../line return $l/total"    → Some(2),
+      "if (. = '') then 'a' else concat(., 'b')" → Some(0),
+      "instance('other')/rate * ../price"       → None,
+      "/form/rate * ../price"                   → None,
+      "//rate"                                  → None,
+      "ancestor::form/rate"                     → None,
+      "xxf:instance('other')/rate"              → None,
+      "$total * 2"                              → None
+    )
+
+    for ((expression, expected) ← Expected)
+      it(s"must return `$expected` for `$expression`") {
+        assert(expected === depth(expression))
+      }
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import java.{util ⇒ ju}
+
+import org.orbeon.saxon.om.{Item, ValueRepresentation}
+import org.orbeon.saxon.value.{EmptySequence, SequenceExtent, StringValue}
+import org.scalatest.FunSpec
+
+class SimpleMIPExpressionTest extends FunSpec {
+
+  describe("Recognized expressions") {
+
+    val Recognized = List(
+      "true()",
+      " false() ",
+      ". != ''",
+      ". = \"a\"",
+      ". eq 'it''s'",
+      "string-length(.) le 10",
+      "string-length() <= 10",
+      "$fr-mode = 'view'",
+      "$fr-mode != 'view'"
+    )
+
+    for (expression ← Recognized)
+      it(s"must recognize `$expression`") {
+        assert(SimpleMIPExpression(expression).isDefined)
+      }
+  }
+
+  describe("Other expressions") {
+
+    val NotRecognized = List(
+      "",
+      "true",
+      "not(true())",
+      ". < 'a'",
+      "'' != .",
+      "../a != ''",
+      "string-length(.) le 10.5",
+      "string-length(../a) le 10",
+      "$fr-mode eq 'view'",
+      "$fr-mode = 'view' and . != ''",
+      "xxf:non-blank()"
+    )
+
+    for (expression ← NotRecognized)
+      it(s"must not recognize `$expression`") {
+        assert(SimpleMIPExpression(expression).isEmpty)
+      }
+  }
+
+  describe("Evaluation") {
+
+    val Variables = {
+      val variables = new ju.HashMap[String, ValueRepresentation]
+      variables.put("mode",  StringValue.makeStringValue("view"))
+      variables.put("modes", new SequenceExtent(Array[Item](StringValue.makeStringValue("edit"), StringValue.makeStringValue("view"))))
+      variables.put("empty", EmptySequence.getInstance)
+      variables
+    }
+
+    def evaluate(expression: String) =
+      SimpleMIPExpression(expression).get.evaluate(StringValue.makeStringValue("value"), Variables)
+
+    val Expected = List(
+      "true()"             → Some(true),
+      "false()"            → Some(false),
+      "$mode = 'view'"     → Some(true),
+      "$mode != 'view'"    → Some(false),
+      "$modes = 'view'"    → Some(true),
+      "$modes != 'view'"   → Some(true),
+      "$empty = 'view'"    → Some(false),
+      "$empty != 'view'"   → Some(false),
+      "$missing = 'view'"  → None,
+      ". != ''"            → None // atomic context item is left to XPath
+    )
+
+    for ((expression, expected) ← Expected)
+      it(s"must return `$expected` for `$expression`") {
+        assert(expected === evaluate(expression))
+      }
+  }
+}
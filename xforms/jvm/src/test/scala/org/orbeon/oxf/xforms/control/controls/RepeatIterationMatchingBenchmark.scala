@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.control.controls
+
+import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl.ItemIndex
+import org.orbeon.oxf.xml.SaxonUtils
+import org.orbeon.saxon.om.{Item, NodeInfo}
+import org.orbeon.scaxon.NodeConversions._
+import org.orbeon.scaxon.SimplePath._
+
+// Compare the matching of old and new repeat iterations with a linear search and with `ItemIndex`
+//
+// The new nodeset is the old nodeset with a row inserted in the middle, as after an `xf:insert`, and nodes are mutable
+// instance nodes.
+object RepeatIterationMatchingBenchmark {
+
+  val Sizes = List(1000, 10000, 50000)
+
+  val Warmup     = 5
+  val Iterations = 10
+
+  def main(args: Array[String]): Unit = {
+
+    for (size ← Sizes) {
+
+      val rows = {
+        val doc = elemToDocumentInfo(<rows>{1 to size map (i ⇒ <row>{i}</row>)}</rows>, readonly = false)
+        doc.rootElement / "row"
+      }
+
+      val newNodeset: Seq[Item] = rows
+      val oldNodeset: Seq[Item] = rows.patch(size / 2, Nil, 1)
+
+      def linear(): (Array[Int], Array[Int]) = {
+        def findNodeIndexes(nodeset1: Seq[Item], nodeset2: Seq[Item]) =
+          (nodeset1 map (item ⇒ nodeset2 indexWhere (SaxonUtils.compareItems(_, item)))).toArray
+
+        (findNodeIndexes(newNodeset, oldNodeset), findNodeIndexes(oldNodeset, newNodeset))
+      }
+
+      def indexed(): (Array[Int], Array[Int]) =
+        (new ItemIndex(oldNodeset).indexesOf(newNodeset), new ItemIndex(newNodeset).indexesOf(oldNodeset))
+
+      val (linearOld, linearNew)   = linear()
+      val (indexedOld, indexedNew) = indexed()
+      assert(linearOld.sameElements(indexedOld) && linearNew.sameElements(indexedNew))
+
+      // The linear search is quadratic, so time fewer iterations for large sizes
+      val linearIterations = if (size > 10000) 1 else Iterations
+
+      println(
+        f"$size%6d iterations, " +
+        f"linear: ${time(Warmup min linearIterations, linearIterations)(linear()) / 1e6}%10.2f ms, " +
+        f"indexed: ${time(Warmup, Iterations)(indexed()) / 1e6}%8.2f ms"
+      )
+    }
+  }
+
+  // Average time of an iteration in nanoseconds
+  private def time(warmup: Int, iterations: Int)(thunk: ⇒ Any): Double = {
+    for (_ ← 1 to warmup)
+      thunk
+    val start = System.nanoTime
+    for (_ ← 1 to iterations)
+      thunk
+    (System.nanoTime - start).toDouble / iterations
+  }
+}
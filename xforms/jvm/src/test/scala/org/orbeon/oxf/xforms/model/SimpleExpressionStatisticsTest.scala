@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.model
+
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+// Simple MIP expressions are counted as they are evaluated, whether directly or with XPath
+class SimpleExpressionStatisticsTest extends DocumentTestBase with AssertionsForJUnit {
+
+  @Test def evaluatedAndFallbacks(): Unit = {
+
+    val before = XFormsModelBinds.simpleExpressionStatistics
+
+    this setupDocument
+      <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+           xmlns:xf="http://www.w3.org/2002/xforms"
+           xmlns:xs="http://www.w3.org/2001/XMLSchema"
+           xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+        <xh:head>
+          <xf:model id="model" xxf:encrypt-item-values="false">
+            <xf:instance id="instance">
+              <form>
+                <untyped>bad</untyped>
+                <typed>bad</typed>
+              </form>
+            </xf:instance>
+            <!-- Evaluated directly -->
+            <xf:bind ref="untyped" constraint=". != 'bad'"/>
+            <!-- Evaluated with XPath, as the node has a type annotation -->
+            <xf:bind ref="typed" type="xs:string" constraint=". != 'bad'"/>
+          </xf:model>
+        </xh:head>
+        <xh:body>
+          <xf:input id="untyped-input" ref="untyped"/>
+          <xf:input id="typed-input"   ref="typed"/>
+        </xh:body>
+      </xh:html>
+
+    // Both constraints fail either way
+    assert(! isValid("untyped-input"))
+    assert(! isValid("typed-input"))
+
+    val after = XFormsModelBinds.simpleExpressionStatistics
+
+    assert(after.evaluated > before.evaluated)
+    assert(after.fallbacks > before.fallbacks)
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import java.io.ByteArrayInputStream
+import java.{util ⇒ ju}
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+import javax.servlet.{FilterChain, ServletRequest, ServletResponse}
+
+import org.junit.Test
+import org.mockito.{ArgumentCaptor, Matchers, Mockito}
+import org.orbeon.oxf.externalcontext.ExternalContext
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.scalatest.junit.AssertionsForJUnit
+import org.scalatest.mockito.MockitoSugar
+
+class XFormsServerFilterTest extends ResourceManagerTestBase with AssertionsForJUnit with MockitoSugar {
+
+  def requestBody(events: String) =
+    s"""<xxf:event-request xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+       |  <xxf:uuid>1234</xxf:uuid>
+       |  <xxf:sequence>5</xxf:sequence>
+       |  <xxf:action>$events</xxf:action>
+       |</xxf:event-request>""".stripMargin.getBytes("UTF-8")
+
+  val Heartbeat = """<xxf:event name="xxforms-session-heartbeat"/>"""
+  val Value     = """<xxf:event name="xxforms-value" source-control-id="my-input">gaga</xxf:event>"""
+
+  def decode(body: Array[Byte]) =
+    AjaxRequest.decode(new ByteArrayInputStream(body), null)
+
+  @Test def quickReturnRequests(): Unit = {
+
+    val heartbeat = decode(requestBody(Heartbeat))
+
+    assert(heartbeat.uuid === "1234")
+    assert(heartbeat.sequenceOpt === Some(5L))
+    assert(heartbeat.isQuickReturn)
+
+    val mixed = decode(requestBody(Heartbeat + Value))
+
+    assert(mixed.clientEvents.map(_.name) === List("xxforms-session-heartbeat", "xxforms-value"))
+    assert(! mixed.isQuickReturn)
+  }
+
+  // Filter a request which is not a quick return, and return the request the filter passed along
+  def filterBody(body: Array[Byte], httpRequest: HttpServletRequest): ServletRequest = {
+
+    val chain = mock[FilterChain]
+
+    new XFormsServerFilter().filterBody(httpRequest, mock[HttpServletResponse], body, chain)
+
+    val requestCaptor = ArgumentCaptor.forClass(classOf[ServletRequest])
+    Mockito.verify(chain).doFilter(requestCaptor.capture(), Matchers.any(classOf[ServletResponse]))
+    requestCaptor.getValue
+  }
+
+  @Test def decodedRequestIsPassedAlong(): Unit = {
+
+    val body        = requestBody(Value)
+    val httpRequest = mock[HttpServletRequest]
+    val passedAlong = filterBody(body, httpRequest)
+
+    // The XForms Server doesn't need to decode the body again
+    val attributeCaptor = ArgumentCaptor.forClass(classOf[AnyRef])
+    Mockito.verify(httpRequest).setAttribute(Matchers.anyString, attributeCaptor.capture())
+    assert(attributeCaptor.getValue.asInstanceOf[AjaxRequest].clientEvents.map(_.name) === List("xxforms-value"))
+
+    // But the body is still available
+    assert(NetUtils.inputStreamToByteArray(passedAlong.getInputStream).toList === body.toList)
+  }
+
+  @Test def undecodableRequestIsPassedAlong(): Unit = {
+
+    val body        = "<foo/>".getBytes("UTF-8")
+    val httpRequest = mock[HttpServletRequest]
+    val passedAlong = filterBody(body, httpRequest)
+
+    Mockito.verify(httpRequest, Mockito.never).setAttribute(Matchers.anyString, Matchers.any)
+    assert(NetUtils.inputStreamToByteArray(passedAlong.getInputStream).toList === body.toList)
+  }
+
+  @Test def decodedRequestIsTakenOnce(): Unit = {
+
+    val attributes = new ju.HashMap[String, AnyRef]
+    val request    = mock[ExternalContext.Request]
+    Mockito when request.getAttributesMap thenReturn attributes
+
+    val ajaxRequest = decode(requestBody(Value))
+    attributes.put(AjaxRequest.RequestAttribute, ajaxRequest)
+
+    assert(AjaxRequest.takeFromRequest(request) === Some(ajaxRequest))
+    assert(AjaxRequest.takeFromRequest(request) === None)
+  }
+}
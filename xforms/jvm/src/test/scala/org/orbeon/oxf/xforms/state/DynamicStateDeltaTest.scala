@@ -0,0 +1,137 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.junit.Test
+import org.orbeon.oxf.xforms.model.InstanceCaching
+import org.orbeon.oxf.xforms.state.XFormsOperations._
+import org.orbeon.oxf.xforms.state.XFormsProtocols._
+import org.scalatest.junit.AssertionsForJUnit
+import sbinary.Operations._
+
+class DynamicStateDeltaTest extends AssertionsForJUnit {
+
+  import DynamicStateDelta._
+
+  def bytes(s: String): Seq[Byte] = s.getBytes("UTF-8").toSeq
+
+  def instance(id: String, path: String) =
+    InstanceState(id, "fr-form-model", Left(InstanceCaching(0L, handleXInclude = false, path, None)), readonly = true, modified = false, valid = true)
+
+  val repeat1  = ControlState("repeat-1", visited = false, Map("index" → "1"))
+  val repeat4  = repeat1.copy(keyValues = Map("index" → "4"))
+  val input    = ControlState("input",    visited = true,  Map.empty)
+  val dialog   = ControlState("dialog",   visited = false, Map("visible" → "true"))
+
+  val checkpoint =
+    DynamicState(
+      uuid               = "uuid",
+      sequence           = 1,
+      deploymentType     = None,
+      requestContextPath = Some("/orbeon"),
+      requestPath        = Some("/fr/acme/order/new"),
+      requestHeaders     = Nil,
+      requestParameters  = Nil,
+      containerType      = Some("servlet"),
+      containerNamespace = Some(""),
+      pathMatchers       = bytes("path-matchers"),
+      focusedControl     = None,
+      pendingUploads     = bytes("pending-uploads"),
+      annotatedTemplate  = None,
+      lastAjaxResponse   = bytes("response-1"),
+      instances          = bytes("instances-1"),
+      controls           = toByteSeq(List(repeat1, dialog))
+    )
+
+  val updated =
+    checkpoint.copy(
+      sequence         = 4,
+      focusedControl   = Some("input"),
+      lastAjaxResponse = bytes("response-4"),
+      controls         = toByteSeq(List(repeat4, input))
+    )
+
+  @Test def unchangedPartsAreLeftOut(): Unit = {
+
+    val delta = diff(checkpoint, updated)
+
+    assert(delta.checkpointSequence === 1)
+    assert(delta.unchangedParts === Set(PathMatchersPart, PendingUploadsPart, AnnotatedTemplatePart, InstancesPart))
+    assert(delta.state.instances.isEmpty)
+    assert(delta.state.pathMatchers.isEmpty)
+    assert(delta.state.controls.isEmpty)
+    assert(delta.controlChanges === Some(ControlChanges(List(repeat4, input), Set("dialog"))))
+  }
+
+  @Test def applyRestoresState(): Unit = {
+    assert(diff(checkpoint, updated).applyTo(checkpoint) === updated)
+    assert(diff(checkpoint, checkpoint).applyTo(checkpoint) === checkpoint)
+  }
+
+  @Test def applyRequiresMatchingCheckpoint(): Unit = {
+    val delta = diff(checkpoint, updated)
+    intercept[IllegalArgumentException] {
+      delta.applyTo(checkpoint.copy(sequence = 2))
+    }
+  }
+
+  @Test def resolveDelta(): Unit = {
+    val delta = diff(checkpoint, updated)
+
+    assert(resolve(delta, Some(checkpoint))                   === Some(updated → Some(RestoredCheckpoint(checkpoint, Nil))))
+    assert(resolve(delta, None)                               === None)
+    assert(resolve(delta, Some(checkpoint.copy(sequence = 2))) === None)
+  }
+
+  @Test def serializeDelta(): Unit = {
+    val delta = diff(checkpoint, updated)
+    assert(fromByteSeq[DynamicStateDelta](toByteSeq(delta)) === delta)
+  }
+
+  @Test def assembledInstancesMatchSerializedInstances(): Unit = {
+
+    val instances = List(instance("i1", "/a.xml"), instance("i2", "/b.xml"))
+
+    assert(assembleInstances(Nil).toSeq === toByteSeq(List.empty[InstanceState]))
+    assert(assembleInstances(instances map (i ⇒ toByteArray(i)) map (b ⇒ (b, 0, b.length))).toSeq === toByteSeq(instances))
+  }
+
+  @Test def unchangedInstancesAreSlicesOfCheckpoint(): Unit = {
+
+    val i1 = toByteArray(instance("i1", "/a.xml"))
+    val i2 = toByteArray(instance("i2", "/b.xml"))
+    val i3 = instance("i2", "/c.xml")
+
+    val checkpointWithInstances = checkpoint.copy(instances = assembleInstances(List((i1, 0, i1.length), (i2, 0, i2.length))).toSeq)
+    val updatedWithInstances    = updated.copy(instances = toByteSeq(List(instance("i1", "/a.xml"), i3)))
+
+    val parts = List(CheckpointSlice("i1", 4, i1.length), ChangedInstance(toByteSeq(i3)))
+    val delta = diff(checkpointWithInstances, updated.copy(instances = Seq.empty), Some(parts))
+
+    assert(! delta.unchangedParts(InstancesPart))
+    assert(delta.checkpointSlices === List(CheckpointSlice("i1", 4, i1.length)))
+    assert(delta.applyTo(checkpointWithInstances) === updatedWithInstances)
+    assert(fromByteSeq[DynamicStateDelta](toByteSeq(delta)) === delta)
+
+    assert(
+      resolve(delta, Some(checkpointWithInstances)) ===
+        Some(updatedWithInstances → Some(RestoredCheckpoint(checkpointWithInstances, delta.checkpointSlices)))
+    )
+  }
+
+  @Test def sameBytesDoesNotDependOnSeqType(): Unit = {
+    assert(sameBytes(bytes("abc"), bytes("abc").toList))
+    assert(! sameBytes(bytes("abc"), bytes("abd")))
+  }
+}
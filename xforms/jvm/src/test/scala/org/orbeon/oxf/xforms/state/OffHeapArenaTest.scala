@@ -0,0 +1,82 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable
+import scala.util.Random
+
+class OffHeapArenaTest extends AssertionsForJUnit {
+
+  val MaxSize = 64 * 1024
+
+  def newArena = new OffHeapArena(MaxSize, segmentSize = 256, segmentsPerSlab = 64)
+
+  @Test def readWhatWasWritten(): Unit = {
+
+    val arena = newArena
+
+    for (length ← List(0, 1, 255, 256, 257, 1000)) {
+      val bytes    = Array.tabulate[Byte](length)(_.toByte)
+      val segments = arena.write(bytes).get
+      assert(segments.length === arena.segmentCount(length))
+      assert(arena.read(segments, length).toList === bytes.toList)
+    }
+  }
+
+  @Test def refuseWhenFull(): Unit = {
+
+    val arena = newArena
+
+    assert(arena.write(new Array[Byte](MaxSize)).isDefined)
+    assert(arena.freeSegmentCount === 0)
+    assert(arena.write(new Array[Byte](1)).isEmpty)
+  }
+
+  @Test def churnReusesSegments(): Unit = {
+
+    val arena  = newArena
+    val random = new Random(42)
+    val stored = mutable.Queue[(Array[Int], Array[Byte])]()
+
+    var totalWritten = 0L
+
+    // Store about 100 times the maximum size, freeing the oldest values as needed
+    while (totalWritten < 100L * MaxSize) {
+
+      val bytes = new Array[Byte](random.nextInt(3000))
+      random.nextBytes(bytes)
+
+      while (arena.freeSegmentCount < arena.segmentCount(bytes.length))
+        arena.free(stored.dequeue()._1)
+
+      stored.enqueue(arena.write(bytes).get → bytes)
+      totalWritten += bytes.length
+
+      assert(arena.allocatedBytes <= MaxSize)
+    }
+
+    // Values still stored are intact
+    for ((segments, bytes) ← stored)
+      assert(arena.read(segments, bytes.length).toList === bytes.toList)
+
+    // Free everything: all the segments are available again, and no slab is allocated beyond the maximum size
+    stored foreach (entry ⇒ arena.free(entry._1))
+    assert(arena.usedBytes === 0)
+    assert(arena.freeSegmentCount === arena.maxSegments)
+    assert(arena.allocatedBytes === MaxSize)
+  }
+}
@@ -16,12 +16,14 @@ package org.orbeon.oxf.xforms.state
 import org.junit.{Assume, Test}
 import org.orbeon.dom.Document
 import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.util.Base64
 import org.orbeon.oxf.test.DocumentTestBase
 import org.orbeon.oxf.xforms.XFormsStaticStateImpl
 import org.orbeon.oxf.xforms.state.XFormsOperations._
 import org.orbeon.oxf.xforms.state.XFormsProtocols._
 import org.orbeon.oxf.xml.Dom4j.elemToDocument
 import org.orbeon.oxf.xml._
+import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler
 import org.scalatest.junit.AssertionsForJUnit
 import org.xml.sax.Attributes
 
@@ -68,7 +70,54 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
 
   @Test def saxStoreWithMarks(): Unit = {
 
-    // Transform to SAXStore while collecting marks
+    val serializedBytes = toByteSeq(saxStoreWithIdMarks)
+    val deserializedSAXStore = fromByteSeq[SAXStore](serializedBytes)
+
+    assertMarks(deserializedSAXStore)
+  }
+
+  @Test def compactSAXStore(): Unit = {
+
+    val saxStore = TransformerUtils.dom4jToSAXStore(simpleDoc, false)
+
+    for (keepLocations ← List(true, false)) {
+      val compactSAXStore = CompactSAXStore.fromSAXStore(saxStore, keepLocations)
+
+      // Replay directly from the compact store
+      val replayedDoc = {
+        val receiver = new LocationSAXContentHandler
+        compactSAXStore.replay(receiver)
+        receiver.getDocument
+      }
+
+      assertXMLDocumentsIgnoreNamespacesInScope(simpleDoc, replayedDoc)
+      assert(compactSAXStore.getApproximateSize < saxStore.getApproximateSize)
+    }
+  }
+
+  @Test def compactSAXStoreWithMarks(): Unit = {
+
+    val serializedBytes = toByteSeq(CompactSAXStore.fromSAXStore(saxStoreWithIdMarks, true))
+    val deserializedSAXStore = fromByteSeq[CompactSAXStore](serializedBytes).toSAXStore
+
+    assertMarks(deserializedSAXStore)
+  }
+
+  @Test def annotatedTemplateFormats(): Unit = {
+
+    // Current compact form
+    val template = AnnotatedTemplate(saxStoreWithIdMarks)
+    assertMarks(AnnotatedTemplate(template.asByteSeq).saxStore)
+    assertMarks(AnnotatedTemplate(template.asBase64).saxStore)
+
+    // Java serialization, as stored by older versions
+    val javaSerializedBytes = toByteSeq(saxStoreWithIdMarks)
+    assertMarks(AnnotatedTemplate(javaSerializedBytes).saxStore)
+    assertMarks(AnnotatedTemplate(Base64.encode(javaSerializedBytes.toArray, false)).saxStore)
+  }
+
+  // Transform to SAXStore while collecting marks
+  private def saxStoreWithIdMarks: SAXStore = {
     val saxStore = new SAXStore
     TransformerUtils.writeDom4j(simpleDoc, new ForwardingXMLReceiver(saxStore) {
       override def startElement(uri: String, localname: String, qName: String, attributes: Attributes): Unit = {
@@ -79,9 +128,10 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
         super.startElement(uri, localname, qName, attributes)
       }
     })
+    saxStore
+  }
 
-    val serializedBytes = toByteSeq(saxStore)
-    val deserializedSAXStore = fromByteSeq[SAXStore](serializedBytes)
+  private def assertMarks(deserializedSAXStore: SAXStore): Unit = {
 
     // All expected documents
     val expectedDocs = Seq[Document](
@@ -106,6 +156,26 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
       assertXMLDocumentsIgnoreNamespacesInScope(expected, actual)
   }
 
+  @Test def compactDocument(): Unit = {
+
+    val doc: Document =
+      <fr:form xmlns:fr="http://orbeon.org/oxf/xml/form-runner" xmlns:xf="http://www.w3.org/2002/xforms" fr:version="1">
+        <!-- comment -->
+        <section-1 xf:relevant="true">
+          <control-1>été</control-1>
+          <control-2 a="1" b="2" fr:c="3"/>
+          <control-3 xmlns="http://example.org/"><nested/></control-3>
+        </section-1>
+        <section-1><control-1/></section-1>
+      </fr:form>
+
+    val serializedBytes = toByteSeq(doc)
+    val deserializedDoc = fromByteSeq[Document](serializedBytes)
+
+    assertXMLDocumentsIgnoreNamespacesInScope(doc, deserializedDoc)
+    assert(serializedBytes.size < TransformerUtils.dom4jToString(doc, false).getBytes("UTF-8").length)
+  }
+
   @Test def dynamicState(): Unit = {
     val originalDoc = this setupDocument simpleDoc
 
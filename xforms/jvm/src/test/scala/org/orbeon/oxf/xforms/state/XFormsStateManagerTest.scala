@@ -42,6 +42,59 @@ class XFormsStateManagerTest
       }
   }
 
+  describe("Delta state") {
+    it("must store a full state when the checkpoint of the deltas is evicted") {
+      withTestExternalContext { ec ⇒
+
+        val session = ec.getSession(true)
+
+        val doc =
+          new XFormsContainingDocument(
+            XFormsStaticStateTest.getStaticState("oxf:/org/orbeon/oxf/xforms/state/server-nocache.xhtml"),
+            null,
+            null,
+            true
+          )
+
+        doc.afterInitialResponse()
+
+        val store = new OffHeapStateStore(Long.MaxValue)
+
+        def setValue(value: String) = {
+          doc.beforeExternalEvents(null)
+          ClientEvents.processEvent(
+            doc,
+            new XXFormsValueEvent(doc.getObjectByEffectiveId("my-input").asInstanceOf[XFormsEventTarget], value)
+          )
+          doc.afterExternalEvents()
+        }
+
+        def assertStoredStateIsCurrent() = {
+          val stored  = store.findState(session, doc.getUUID, isInitialState = false) flatMap (_.dynamicState)
+          val current = DynamicState(doc)
+          assert(stored.isDefined)
+          assert(stored.get.instances            === current.instances)
+          assert(stored.get.decodeControls.toSet === current.decodeControls.toSet)
+        }
+
+        // Full checkpoint, then a delta against it
+        store.storeDocumentState(doc, session, isInitialState = false)
+        setValue("gaga")
+        store.storeDocumentState(doc, session, isInitialState = false)
+        assertStoredStateIsCurrent()
+
+        // The delta goes with its checkpoint
+        store.evictForTests(DynamicStateDelta.createCheckpointKey(doc.getUUID))
+        assert(store.findState(session, doc.getUUID, isInitialState = false).isEmpty)
+
+        // A new full checkpoint is stored instead of a delta against the missing checkpoint
+        setValue("toto")
+        store.storeDocumentState(doc, session, isInitialState = false)
+        assertStoredStateIsCurrent()
+      }
+    }
+  }
+
   describe("Session listener") {
     it("must remove the UUID when the session expires") {
       withTestExternalContext { ec ⇒
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.{DataOutputStream, File, FileOutputStream}
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.xforms.analysis.XFormsStaticStateTest
+import org.scalatest.junit.AssertionsForJUnit
+
+class XFormsStaticStateCacheTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  import XFormsStaticStateCache.Private._
+
+  def withDirectory[T](thunk: File ⇒ T): T = {
+    val directory = File.createTempFile("static-state", "")
+    directory.delete()
+    directory.mkdir()
+    try thunk(directory)
+    finally {
+      Option(directory.listFiles) foreach (_ foreach (_.delete()))
+      directory.delete()
+    }
+  }
+
+  def staticState = XFormsStaticStateTest.getStaticState("oxf:/org/orbeon/oxf/xforms/state/server-cache.xhtml")
+
+  @Test def storeAndRestore(): Unit =
+    withDirectory { directory ⇒
+
+      val stored = staticState
+      storePersistent(directory, stored)
+
+      assert(persistentFile(directory, stored.digest).isFile)
+      assert(directory.listFiles.length === 1) // no temporary file left behind
+
+      val restored = findPersistent(directory, stored.digest)
+
+      assert(restored map (_.digest)       === Some(stored.digest))
+      assert(restored map (_.encodedState) === Some(stored.encodedState))
+    }
+
+  @Test def missingOrUnusableFile(): Unit =
+    withDirectory { directory ⇒
+
+      assert(findPersistent(directory, "1234").isEmpty)
+
+      // Written by another format version
+      val file = persistentFile(directory, "1234")
+      useAndClose(new DataOutputStream(new FileOutputStream(file))) { os ⇒
+        os.writeInt(FormatVersion + 1)
+        os.writeUTF("gaga")
+      }
+
+      assert(findPersistent(directory, "1234").isEmpty)
+      assert(! file.exists)
+    }
+
+  @Test def findInMemoryOnly(): Unit = {
+
+    val stored = staticState
+    XFormsStaticStateCache.storeDocument(stored)
+
+    assert(XFormsStaticStateCache.findDocument(stored.digest) map (_.digest) === Some(stored.digest))
+    assert(XFormsStaticStateCache.findDocument("1234").isEmpty)
+
+    // Without persistent directory, there is nothing to restore
+    assert(XFormsStaticStateCache.findDocumentOrRestore("1234").isEmpty)
+  }
+}
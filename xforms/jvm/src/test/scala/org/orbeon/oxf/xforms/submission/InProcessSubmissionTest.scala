@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission
+
+import java.io.{ByteArrayInputStream, InputStream}
+
+import org.junit.Test
+import org.orbeon.dom
+import org.orbeon.dom.QName
+import org.orbeon.oxf.externalcontext.ExternalContext
+import org.orbeon.oxf.pipeline.api.{PipelineContext, ProcessorDefinition}
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.webapp.ProcessorService
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.oxf.xml.{TransformerUtils, XMLConstants, XMLContentInputStream}
+import org.orbeon.saxon.om.DocumentInfo
+
+class InProcessSubmissionTest extends DocumentTestBase {
+
+  // Save the pruned instance to an in-process service, like Form Runner does with the persistence API
+  val doc: dom.Document =
+    <xh:html
+      xmlns:xf="http://www.w3.org/2002/xforms"
+      xmlns:xh="http://www.w3.org/1999/xhtml"
+      xmlns:ev="http://www.w3.org/2001/xml-events">
+      <xh:head>
+        <xf:model>
+          <xf:instance id="order">
+            <order><item quantity="2">book</item><note>internal</note></order>
+          </xf:instance>
+          <xf:bind ref="note" relevant="false()"/>
+          <xf:submission id="save" method="put" resource="/fr/service/test" nonrelevant="remove" replace="none"/>
+          <xf:send ev:event="xforms-ready" submission="save"/>
+        </xf:model>
+      </xh:head>
+      <xh:body/>
+    </xh:html>
+
+  @Test def saveWithoutParsing(): Unit = {
+
+    var receivedStream  : Option[InputStream]  = None
+    var receivedDocument: Option[DocumentInfo] = None
+
+    // Service which reads the request body the way persistence providers do
+    val processorService =
+      new ProcessorService(new ProcessorDefinition(QName.get("null-serializer", XMLConstants.OXF_PROCESSORS_NAMESPACE)), None) {
+        override def service(pipelineContext: PipelineContext, externalContext: ExternalContext): Unit = {
+          val is = externalContext.getRequest.getInputStream
+          receivedDocument = Some(TransformerUtils.readTinyTree(XPath.GlobalConfiguration, is, null, false, true))
+          receivedStream   = Some(is)
+        }
+      }
+
+    ProcessorService.withProcessorService(processorService) {
+      withXFormsDocument(doc) { _ ⇒ () }
+    }
+
+    // The instance was neither serialized by the submission nor parsed by the service
+    receivedStream match {
+      case Some(content: XMLContentInputStream) ⇒ assert(! content.isRead)
+      case other                                ⇒ fail(s"unexpected request body: $other")
+    }
+
+    val expected =
+      TransformerUtils.readTinyTree(
+        XPath.GlobalConfiguration,
+        new ByteArrayInputStream("""<order><item quantity="2">book</item></order>""".getBytes("UTF-8")),
+        null,
+        false,
+        true
+      )
+
+    assertXMLDocumentsIgnoreNamespacesInScope(expected, receivedDocument.get)
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ *  Copyright (C) 2016 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission
+
+import java.util.concurrent.Executor
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable
+
+class SubmissionExecutorTest extends AssertionsForJUnit {
+
+  // Threads which only start when asked to
+  class ManualThreads extends Executor {
+    val pending = mutable.Queue[Runnable]()
+    def execute(runnable: Runnable) = pending += runnable
+    def runAll() = while (pending.nonEmpty) pending.dequeue().run()
+  }
+
+  def task(name: String, log: mutable.Buffer[String]) =
+    new Runnable {
+      def run() = log += name
+    }
+
+  @Test def documentsAreServedInTurn(): Unit = {
+
+    val threads  = new ManualThreads
+    val executor = new SubmissionExecutor(threads, 1, 100, 100)
+    val log      = mutable.Buffer[String]()
+
+    for (name ← List("a1", "a2", "a3", "b1", "b2"))
+      executor.execute(name.substring(0, 1), task(name, log))
+
+    assert(1 === threads.pending.size)
+    assert(4 === executor.getQueuedCount)
+
+    threads.runAll()
+
+    assert(List("a1", "a2", "b1", "a3", "b2") === log.toList)
+    assert(0 === executor.getQueuedCount)
+    assert(0 === executor.getRunningCount)
+    assert(5 === executor.getCompletedCount)
+  }
+
+  @Test def tasksRunInCallerWhenQueuesAreFull(): Unit = {
+
+    val threads  = new ManualThreads
+    val executor = new SubmissionExecutor(threads, 1, 2, 1)
+    val log      = mutable.Buffer[String]()
+
+    executor.execute("a", task("a1", log)) // runs in a worker
+    executor.execute("a", task("a2", log)) // queued
+    executor.execute("a", task("a3", log)) // over the limit for the document
+    executor.execute("b", task("b1", log)) // queued
+    executor.execute("c", task("c1", log)) // over the total limit
+
+    assert(List("a3", "c1") === log.toList)
+    assert(2 === executor.getCallerRunsCount)
+
+    threads.runAll()
+
+    assert(List("a3", "c1", "a1", "a2", "b1") === log.toList)
+  }
+
+  @Test def threadsAreBounded(): Unit = {
+
+    val threads  = new ManualThreads
+    val executor = new SubmissionExecutor(threads, 2, 100, 100)
+    val log      = mutable.Buffer[String]()
+
+    for (i ← 1 to 5)
+      executor.execute("doc" + i, task("t" + i, log))
+
+    assert(2 === threads.pending.size)
+    assert(2 === executor.getRunningCount)
+    assert(3 === executor.getQueuedCount)
+
+    threads.runAll()
+
+    assert(5 === log.size)
+    assert(0 === executor.getRunningCount)
+  }
+}